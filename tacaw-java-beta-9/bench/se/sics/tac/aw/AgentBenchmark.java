@@ -0,0 +1,459 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AgentBenchmark measures the hot paths of the agent on a synthetic
+ * mid-game state (see BenchState): the allocation in DummyAgent, the
+ * parsing of server replies in TACMessage and MessageCodec and the
+ * encoding and parsing of bid strings in Bid and BidBuilder.
+ *
+ * Each benchmark is run for a warmup period and then timed operation
+ * by operation. The report gives the throughput, latency percentiles
+ * (from a reservoir sample of the operations), the bytes allocated per
+ * operation by all threads and the garbage collections during the run.
+ * Results can be saved and later used as the baseline of another run,
+ * which then also reports the change against the baseline.
+ *
+ * The package se.sics.tac.aw is sealed in tacagent.jar so the benchmark
+ * must be compiled together with the agent sources and added to a copy
+ * of the jar:
+ *
+ *  javac -cp tacagent.jar -d classes `find se bench -name '*.java'`
+ *  cp tacagent.jar bench.jar; jar uf bench.jar -C classes .
+ *  java -cp bench.jar se.sics.tac.aw.AgentBenchmark -save base.properties
+ */
+
+package se.sics.tac.aw;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import se.sics.tac.util.ArgEnumerator;
+
+public class AgentBenchmark {
+
+  private static final String USAGE =
+    "Usage: AgentBenchmark [-options]\n"
+    + "where options include:\n"
+    + "    -warmup <seconds>     warmup time per benchmark (default 2)\n"
+    + "    -time <seconds>       measured time per benchmark (default 5)\n"
+    + "    -seed <seed>          seed of the game state (default 1)\n"
+    + "    -filter <prefix>      only run benchmarks starting with prefix\n"
+    + "    -save <file>          save the results to a file\n"
+    + "    -baseline <file>      compare with previously saved results\n"
+    + "    -h                    show this help message";
+
+  /** Maximal number of latency samples kept per benchmark */
+  private static final int MAX_SAMPLES = 1 << 18;
+
+  private final BenchState state;
+  private final Benchmark[] benchmarks;
+
+  AgentBenchmark(BenchState state) {
+    this.state = state;
+    this.benchmarks = createBenchmarks();
+  }
+
+  private Benchmark[] createBenchmarks() {
+    final DummyAgent dummy = state.dummy;
+    final TACAgent agent = state.agent;
+    final Quote hotel = agent.getQuote(9);
+    final String bidString;
+    final MessageCodec codec = new MessageCodec();
+    final MessageCodec.QuoteReply quoteReply = new MessageCodec.QuoteReply();
+    final MessageCodec.BidInfoReply bidInfoReply =
+      new MessageCodec.BidInfoReply();
+    final byte[] quoteBytes = MessageCodec.bytes(state.quoteReply);
+    final byte[] bidInfoBytes = MessageCodec.bytes(state.bidInfoReply);
+    final byte[] submitBid = MessageCodec.bytes("submitBid");
+    final byte[] bidID = MessageCodec.bytes("bidID");
+    final byte[] bidStringTag = MessageCodec.bytes("bidString");
+    final BidBuilder builder = new BidBuilder();
+    {
+      Bid bid = newBid();
+      bidString = bid.getBidString();
+    }
+    return new Benchmark[] {
+      new Benchmark("allocation.calculate") {
+	void run() {
+	  // A new hotel quote makes the sampled hotel prices stale
+	  dummy.quoteUpdated(hotel);
+	  dummy.calculateAllocation();
+	}
+      },
+      new Benchmark("allocation.getUtil") {
+	void run() {
+	  dummy.get_util(state.preferredAllocation);
+	}
+      },
+      new Benchmark("allocation.entertainment") {
+	void run() {
+	  // The allocation is added to so start from a clean one
+	  agent.clearAllocation();
+	  dummy.entertainmentAllocation();
+	}
+      },
+      new Benchmark("message.quote") {
+	void run() {
+	  parse(new TACMessage("getQuote"), state.quoteReply);
+	}
+      },
+      new Benchmark("message.gameParams") {
+	void run() {
+	  parse(new TACMessage("getGameParams"), state.gameParamsReply);
+	}
+      },
+      new Benchmark("message.bidInfo") {
+	void run() {
+	  parse(new TACMessage("bidInfo"), state.bidInfoReply);
+	}
+      },
+      new Benchmark("codec.quote") {
+	void run() {
+	  codec.setReply(quoteBytes, 0, quoteBytes.length);
+	  codec.decodeQuote(quoteReply);
+	  quoteReply.applyTo(hotel);
+	}
+      },
+      new Benchmark("codec.bidInfo") {
+	void run() {
+	  codec.setReply(bidInfoBytes, 0, bidInfoBytes.length);
+	  codec.decodeBidInfo(bidInfoReply);
+	}
+      },
+      new Benchmark("codec.encode") {
+	void run() {
+	  codec.begin(submitBid).add(bidID, 17)
+	    .add(bidStringTag, bidString).end();
+	}
+      },
+      new Benchmark("bid.encode") {
+	void run() {
+	  newBid().getBidString();
+	}
+      },
+      new Benchmark("bid.build") {
+	void run() {
+	  buildBid(builder);
+	  codec.begin(submitBid).add(bidID, 17)
+	    .add(bidStringTag, builder).end();
+	}
+      },
+      new Benchmark("bid.parse") {
+	void run() {
+	  new Bid(12).setBidString(bidString);
+	}
+      }
+    };
+  }
+
+  private static Bid newBid() {
+    Bid bid = new Bid(12);
+    bid.addBidPoint(16, 1);
+    bid.addBidPoint(8, 3);
+    bid.addBidPoint(4, 5);
+    bid.addBidPoint(3, 8);
+    bid.addBidPoint(2, 14);
+    bid.addBidPoint(1, 20);
+    bid.addBidPoint(2, 151.5f);
+    bid.addBidPoint(3, 325);
+    return bid;
+  }
+
+  // The same points as newBid()
+  private static void buildBid(BidBuilder bid) {
+    bid.begin(12);
+    bid.addBidPoint(16, 1);
+    bid.addBidPoint(8, 3);
+    bid.addBidPoint(4, 5);
+    bid.addBidPoint(3, 8);
+    bid.addBidPoint(2, 14);
+    bid.addBidPoint(1, 20);
+    bid.addBidPoint(2, 151.5f);
+    bid.addBidPoint(3, 325);
+  }
+
+  // Walks a reply the way TACAgent handles it
+  private int sink;
+  private void parse(TACMessage msg, String reply) {
+    msg.setReceivedMessage(reply);
+    while (msg.nextTag()) {
+      if (msg.isTag("lastAskPrice") || msg.isTag("lastBidPrice")) {
+	sink += (int) msg.getValueAsFloat(0f);
+      } else if (msg.isTag("hypotheticalQuantityWon")
+		 || msg.isTag("auctionStatus")
+		 || msg.isTag("arrival") || msg.isTag("departure")
+		 || msg.isTag("hotel") || msg.isTag("type1")
+		 || msg.isTag("type2") || msg.isTag("type3")
+		 || msg.isTag("id") || msg.isTag("day")
+		 || msg.isTag("processingState") || msg.isTag("rejectReason")) {
+	sink += msg.getValueAsInt(0);
+      } else if (msg.isTag("nextQuoteTime") || msg.isTag("lastQuoteTime")
+		 || msg.isTag("timeProcessed") || msg.isTag("timeClosed")) {
+	sink += (int) msg.getValueAsLong(0L);
+      } else if (msg.isTag("gameType") || msg.isTag("bidHash")
+		 || msg.isTag("bidString")) {
+	String value = msg.getValue();
+	if (value != null) {
+	  sink += value.length();
+	}
+      }
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Measurement
+  // -------------------------------------------------------------------
+
+  Result measure(Benchmark benchmark, long warmupMillis, long timeMillis)
+    throws Exception
+  {
+    long end = System.nanoTime() + warmupMillis * 1000000L;
+    do {
+      benchmark.run();
+    } while (System.nanoTime() < end);
+    System.gc();
+
+    Random random = new Random(0);
+    long[] samples = new long[MAX_SAMPLES];
+    int sampleCount = 0;
+    long ops = 0;
+    long gcCount = -getGCCount();
+    long gcTime = -getGCTime();
+    long allocated = getAllocatedBytes();
+    long start = System.nanoTime();
+    long now = start;
+    end = start + timeMillis * 1000000L;
+    do {
+      long opStart = now;
+      benchmark.run();
+      now = System.nanoTime();
+      ops++;
+      if (sampleCount < MAX_SAMPLES) {
+	samples[sampleCount++] = now - opStart;
+      } else {
+	long index = (long) (random.nextDouble() * ops);
+	if (index < MAX_SAMPLES) {
+	  samples[(int) index] = now - opStart;
+	}
+      }
+    } while (now < end);
+    if (allocated >= 0) {
+      allocated = getAllocatedBytes() - allocated;
+    }
+    gcCount += getGCCount();
+    gcTime += getGCTime();
+
+    Arrays.sort(samples, 0, sampleCount);
+    Result result = new Result(benchmark.name);
+    result.ops = ops;
+    result.opsPerSecond = ops * 1e9 / (now - start);
+    result.p50 = percentile(samples, sampleCount, 0.50);
+    result.p90 = percentile(samples, sampleCount, 0.90);
+    result.p99 = percentile(samples, sampleCount, 0.99);
+    result.p999 = percentile(samples, sampleCount, 0.999);
+    result.max = samples[sampleCount - 1];
+    result.bytesPerOp = allocated < 0 ? -1 : allocated / ops;
+    result.gcCount = gcCount;
+    result.gcTime = gcTime;
+    return result;
+  }
+
+  private static long percentile(long[] samples, int count, double p) {
+    int index = (int) Math.ceil(p * count) - 1;
+    return samples[Math.max(0, Math.min(count - 1, index))];
+  }
+
+  // Bytes allocated by all live threads so that work done by the
+  // solver and simulator worker threads is included
+  private static long getAllocatedBytes() {
+    java.lang.management.ThreadMXBean bean =
+      ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) bean;
+    if (!threads.isThreadAllocatedMemorySupported()) {
+      return -1;
+    }
+    long total = 0;
+    for (long bytes : threads.getThreadAllocatedBytes
+	   (threads.getAllThreadIds())) {
+      if (bytes > 0) {
+	total += bytes;
+      }
+    }
+    return total;
+  }
+
+  private static long getGCCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc
+	   : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long getGCTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean gc
+	   : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    return time;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Reporting
+  // -------------------------------------------------------------------
+
+  private static void printHeader(boolean hasBaseline) {
+    System.out.printf("%-26s %12s %9s %9s %9s %9s %9s %10s %8s%s%n",
+		      "benchmark", "ops/s", "p50 us", "p90 us", "p99 us",
+		      "p99.9 us", "max us", "B/op", "gc",
+		      hasBaseline ? "   ops/s vs base   B/op vs base" : "");
+  }
+
+  private static void print(Result result, Properties baseline) {
+    System.out.printf("%-26s %12.1f %9.2f %9.2f %9.2f %9.2f %9.1f %10d %4d/%-3d",
+		      result.name, result.opsPerSecond,
+		      result.p50 / 1e3, result.p90 / 1e3, result.p99 / 1e3,
+		      result.p999 / 1e3, result.max / 1e3, result.bytesPerOp,
+		      result.gcCount, result.gcTime);
+    if (baseline != null) {
+      String ops = baseline.getProperty(result.name + ".opsPerSecond");
+      String bytes = baseline.getProperty(result.name + ".bytesPerOp");
+      if (ops != null && bytes != null) {
+	System.out.printf(" %+15.1f%% %+13.1f%%",
+			  change(Double.parseDouble(ops), result.opsPerSecond),
+			  change(Double.parseDouble(bytes), result.bytesPerOp));
+      } else {
+	System.out.print("   (not in baseline)");
+      }
+    }
+    System.out.println();
+  }
+
+  private static double change(double base, double value) {
+    return base == 0 ? 0 : (value - base) * 100 / base;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Main
+  // -------------------------------------------------------------------
+
+  public static void main(String[] args) throws Exception {
+    ArgEnumerator a = new ArgEnumerator(args, USAGE, true);
+    int warmup = a.getArgument("-warmup", 2);
+    int time = a.getArgument("-time", 5);
+    int seed = a.getArgument("-seed", 1);
+    String saveFile = a.getArgument("-save");
+    String baselineFile = a.getArgument("-baseline");
+    String prefix = a.getArgument("-filter");
+    a.checkArguments();
+
+    Properties baseline = null;
+    if (baselineFile != null) {
+      baseline = load(baselineFile);
+    }
+
+    AgentBenchmark bench = new AgentBenchmark(new BenchState(seed));
+    Properties results = new Properties();
+    System.out.println("Java " + System.getProperty("java.version")
+		       + ", " + Runtime.getRuntime().availableProcessors()
+		       + " processors, warmup " + warmup + " s, time "
+		       + time + " s, gc as count/ms");
+    printHeader(baseline != null);
+    for (Benchmark benchmark : bench.benchmarks) {
+      if (prefix == null || benchmark.name.startsWith(prefix)) {
+	Result result = bench.measure(benchmark, warmup * 1000L,
+				      time * 1000L);
+	print(result, baseline);
+	result.store(results);
+      }
+    }
+    if (saveFile != null) {
+      FileOutputStream out = new FileOutputStream(saveFile);
+      try {
+	results.store(out, "AgentBenchmark results");
+      } finally {
+	out.close();
+      }
+    }
+    // The agent and solver threads are not daemons
+    System.exit(0);
+  }
+
+  private static Properties load(String fileName) throws IOException {
+    Properties properties = new Properties();
+    FileInputStream in = new FileInputStream(fileName);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    return properties;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Benchmarks and results
+  // -------------------------------------------------------------------
+
+  static abstract class Benchmark {
+
+    final String name;
+
+    Benchmark(String name) {
+      this.name = name;
+    }
+
+    abstract void run() throws Exception;
+  }
+
+  static class Result {
+
+    final String name;
+    long ops;
+    double opsPerSecond;
+    long p50;
+    long p90;
+    long p99;
+    long p999;
+    long max;
+    long bytesPerOp;
+    long gcCount;
+    long gcTime;
+
+    Result(String name) {
+      this.name = name;
+    }
+
+    void store(Properties properties) {
+      properties.setProperty(name + ".ops", Long.toString(ops));
+      properties.setProperty(name + ".opsPerSecond",
+			     Double.toString(opsPerSecond));
+      properties.setProperty(name + ".p50", Long.toString(p50));
+      properties.setProperty(name + ".p90", Long.toString(p90));
+      properties.setProperty(name + ".p99", Long.toString(p99));
+      properties.setProperty(name + ".p999", Long.toString(p999));
+      properties.setProperty(name + ".max", Long.toString(max));
+      properties.setProperty(name + ".bytesPerOp", Long.toString(bytesPerOp));
+    }
+  }
+
+} // AgentBenchmark
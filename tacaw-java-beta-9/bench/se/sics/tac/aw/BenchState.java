@@ -0,0 +1,165 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * BenchState sets up a DummyAgent in the middle of a synthetic game
+ * for AgentBenchmark: random client preferences, a few flights and
+ * entertainment tickets owned, flight and hotel quotes with HQW, and
+ * one hotel auction closed. The agent has no connection so the bids
+ * the DummyAgent submits only produce log warnings, which are turned
+ * off while benchmarking.
+ *
+ * The same seed always gives the same state so that runs can be
+ * compared against each other.
+ */
+
+package se.sics.tac.aw;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import se.sics.tac.util.ArgEnumerator;
+
+class BenchState {
+
+  /** Game time of the state, one minute after the first hotel closed */
+  static final long GAME_TIME = 120000;
+
+  final TACAgent agent;
+  final DummyAgent dummy;
+
+  /** Every client on its preferred package in good hotels */
+  final int[][] preferredAllocation = new int[8][3];
+
+  /** Reply to a quote request for a hotel auction */
+  final String quoteReply;
+
+  /** Reply to a bid info request for the same auction */
+  final String bidInfoReply;
+
+  /** Reply to a game parameters request */
+  final String gameParamsReply;
+
+  BenchState(long seed) throws Exception {
+    Random random = new Random(seed);
+    Logger.getLogger("se").setLevel(Level.SEVERE);
+
+    dummy = new DummyAgent();
+    Constructor<TACAgent> constructor =
+      TACAgent.class.getDeclaredConstructor(AgentImpl.class);
+    constructor.setAccessible(true);
+    agent = constructor.newInstance(dummy);
+    dummy.init(agent, new ArgEnumerator(new String[0], "", false));
+
+    int[][] prefs = (int[][]) get("clientPrefs");
+    int[] owns = (int[]) get("owns");
+    StringBuilder params = new StringBuilder();
+    params.append("<getGameParams><gameType>tacClassic</gameType>")
+      .append("<gameLength>540</gameLength><clientPreferences>");
+    for (int client = 0; client < 8; client++) {
+      int in = 1 + random.nextInt(4);
+      int out = in + 1 + random.nextInt(5 - in);
+      prefs[client][TACAgent.ARRIVAL] = in;
+      prefs[client][TACAgent.DEPARTURE] = out;
+      prefs[client][TACAgent.HOTEL_VALUE] = 50 + random.nextInt(101);
+      prefs[client][TACAgent.E1] = random.nextInt(201);
+      prefs[client][TACAgent.E2] = random.nextInt(201);
+      prefs[client][TACAgent.E3] = random.nextInt(201);
+      preferredAllocation[client][0] = in;
+      preferredAllocation[client][1] = out;
+      preferredAllocation[client][2] = TACAgent.TYPE_GOOD_HOTEL;
+      params.append("<clientPreference><client>").append(client + 1)
+	.append("</client><arrival>").append(in)
+	.append("</arrival><departure>").append(out)
+	.append("</departure><hotel>").append(prefs[client][2])
+	.append("</hotel><type1>").append(prefs[client][3])
+	.append("</type1><type2>").append(prefs[client][4])
+	.append("</type2><type3>").append(prefs[client][5])
+	.append("</type3></clientPreference>");
+    }
+    params.append("</clientPreferences><auctionIDs>");
+    for (int i = 0; i < 28; i++) {
+      params.append("<auctionID><id>").append(100 + i)
+	.append("</id><category>").append(TACAgent.getAuctionCategory(i))
+	.append("</category><type>").append(TACAgent.getAuctionType(i))
+	.append("</type><day>").append(TACAgent.getAuctionDay(i))
+	.append("</day></auctionID>");
+    }
+    params.append("</auctionIDs></getGameParams>");
+    gameParamsReply = params.toString();
+
+    for (int i = 0; i < 8; i++) {
+      owns[i] = random.nextInt(3);
+    }
+    for (int i = 16; i < 28; i++) {
+      owns[i] = random.nextInt(3);
+    }
+
+    long now = System.currentTimeMillis();
+    set("playingGame", Integer.valueOf(1));
+    set("gameLength", Integer.valueOf(TACMarket.GAME_LENGTH));
+    set("startTime", Long.valueOf(now - GAME_TIME));
+    for (int i = 0; i < 28; i++) {
+      Quote quote = agent.getQuote(i);
+      quote.setAuctionStatus(Quote.AUCTION_INTERMEDIATE_CLEAR);
+      switch (TACAgent.getAuctionCategory(i)) {
+      case TACAgent.CAT_FLIGHT:
+	quote.setAskPrice(250 + random.nextInt(150));
+	break;
+      case TACAgent.CAT_HOTEL:
+	quote.setAskPrice(20 + random.nextInt(150));
+	quote.setBidPrice(quote.getAskPrice());
+	quote.setHQW(random.nextInt(4));
+	break;
+      default:
+	quote.setAskPrice(60 + random.nextInt(60));
+	quote.setBidPrice(quote.getAskPrice() - 20);
+	break;
+      }
+    }
+
+    dummy.gameStarted();
+    int closed = 8 + random.nextInt(8);
+    agent.getQuote(closed).setAuctionStatus(Quote.AUCTION_CLOSED);
+    dummy.auctionClosed(closed);
+    // The agent plans when the refreshed hotel quotes have arrived
+    dummy.quoteUpdated(TACAgent.CAT_HOTEL);
+
+    Quote hotel = agent.getQuote(closed == 9 ? 10 : 9);
+    quoteReply = "<getQuote><auctionID>" + (100 + hotel.getAuction())
+      + "</auctionID><auctionStatus>1</auctionStatus>"
+      + "<lastAskPrice>" + hotel.getAskPrice() + "</lastAskPrice>"
+      + "<lastBidPrice>" + hotel.getBidPrice() + "</lastBidPrice>"
+      + "<hypotheticalQuantityWon>" + hotel.getHQW()
+      + "</hypotheticalQuantityWon><lastQuoteTime>" + (now / 1000)
+      + "</lastQuoteTime><nextQuoteTime>" + (now / 1000 + 60)
+      + "</nextQuoteTime><bidID>17</bidID>"
+      + "<bidHash>17.3</bidHash></getQuote>";
+    bidInfoReply = "<bidInfo><bidID>17</bidID><auctionID>"
+      + (100 + hotel.getAuction()) + "</auctionID>"
+      + "<bidString>((16 1.0) (8 3.0) (4 5.0) (3 8.0) (2 14.0) (1 20.0)"
+      + " (2 151.5))</bidString><bidHash>17.3</bidHash>"
+      + "<processingState>1</processingState><rejectReason>0</rejectReason>"
+      + "<timeProcessed>" + (now / 1000) + "</timeProcessed>"
+      + "<timeClosed>0</timeClosed></bidInfo>";
+  }
+
+  private Object get(String name) throws Exception {
+    Field field = TACAgent.class.getDeclaredField(name);
+    field.setAccessible(true);
+    return field.get(agent);
+  }
+
+  private void set(String name, Object value) throws Exception {
+    Field field = TACAgent.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(agent, value);
+  }
+
+} // BenchState
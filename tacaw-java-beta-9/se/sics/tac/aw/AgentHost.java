@@ -0,0 +1,186 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AgentHost runs several agents in one JVM, for example a fleet of test
+ * agents in a tournament:
+ *
+ *   java -cp tacagent.jar:. se.sics.tac.aw.AgentHost
+ *	  [-exitAfterGames <games>] <configfile>...
+ *
+ * Each config file is an agent configuration as for TACAgent (agent,
+ * password, host, port, connection, agentimpl, ...). Every agent has a
+ * TACAgent, connection and strategy of its own, so the game state and
+ * allocations are kept apart; the agent implementation is run by an
+ * EventLoopAgent so each strategy has a thread of its own too. With
+ * -Dtac.threads=virtual these threads are virtual threads (see
+ * AgentThreads), so that many agents can be hosted; use a connection
+ * of this package (NioConnection, KeepAliveHttpConnection) then, as
+ * the TACReader of the jar creates platform threads.
+ *
+ * The agents share the JVM, the time dispatcher (and so must use the
+ * same server, as the dispatcher follows one server clock) and the log
+ * thread of AsyncLogHandler. TACAgent's own log files are turned off;
+ * instead each agent gets "<logPrefix>%g.log" (logPrefix defaults to
+ * the agent name) with the records logged by its threads, at its
+ * fileLogLevel. The console gets the records of all agents.
+ *
+ * With -exitAfterGames the host exits when every agent has played that
+ * many games.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import se.sics.tac.util.ArgEnumerator;
+import se.sics.tac.util.LogFormatter;
+
+public class AgentHost {
+
+  private static final Logger log =
+    Logger.getLogger(AgentHost.class.getName());
+
+  /** Turns off the log files of TACAgent */
+  private static final int NO_FILE_LOG = 6;
+
+  private final ArrayList<EventLoopAgent> agents =
+    new ArrayList<EventLoopAgent>();
+  private Level logLevel = Level.OFF;
+
+  /**
+   * Starts an agent with the given configuration. The agent connects
+   * on a thread of its own, which is returned.
+   */
+  public Thread startAgent(final Properties config) throws IOException {
+    final String name = config.getProperty("agent");
+    if (name == null) {
+      throw new IllegalArgumentException("no agent name in "
+					 + config.getProperty("CONFIG_FILE"));
+    }
+    // The configured agent implementation runs on an event loop
+    String className = config.getProperty("agentimpl",
+					  "se.sics.tac.aw.DummyAgent");
+    if (!EventLoopAgent.class.getName().equals(className)) {
+      config.setProperty("strategy", config.getProperty("strategy", className));
+    }
+    config.remove("exitAfterGames");
+    String logPrefix = config.getProperty("logPrefix", name);
+    int fileLogLevel = Integer.parseInt(config.getProperty("fileLogLevel", "0"));
+    int consoleLogLevel =
+      Integer.parseInt(config.getProperty("consoleLogLevel", "3"));
+    config.setProperty("fileLogLevel", Integer.toString(NO_FILE_LOG));
+
+    final FileHandler fileHandler;
+    if (fileLogLevel < NO_FILE_LOG) {
+      fileHandler = new FileHandler(logPrefix + "%g.log", 1000000, 10);
+      LogFormatter formatter = new LogFormatter();
+      formatter.setAliasLevel(2);
+      fileHandler.setFormatter(formatter);
+      fileHandler.setLevel(LogFormatter.getLogLevel(fileLogLevel));
+    } else {
+      fileHandler = null;
+    }
+    synchronized (this) {
+      Level level = LogFormatter.getLogLevel(Math.min(fileLogLevel,
+						       consoleLogLevel));
+      if (level.intValue() < logLevel.intValue()) {
+	logLevel = level;
+      }
+    }
+
+    final EventLoopAgent agentImpl = new EventLoopAgent();
+    Thread thread = AgentThreads.newThread(new Runnable() {
+	public void run() {
+	  // The agent's threads are created from here and log to its file
+	  AsyncLogHandler.setThreadHandler(fileHandler);
+	  new TACAgent(agentImpl, new ArgEnumerator(new String[0], "", false),
+		       config);
+	  // TACAgent sets the level of the "se" logger for itself
+	  Logger.getLogger("se").setLevel(getLogLevel());
+	}
+      }, "agent-" + name, false);
+    synchronized (this) {
+      agents.add(agentImpl);
+    }
+    thread.start();
+    log.fine("Starting agent " + name + " with strategy "
+	     + config.getProperty("strategy"));
+    return thread;
+  }
+
+  public synchronized Level getLogLevel() {
+    return logLevel;
+  }
+
+  /** Returns the fewest games played by any of the agents */
+  public synchronized int getGamesPlayed() {
+    int games = Integer.MAX_VALUE;
+    for (int i = 0, n = agents.size(); i < n; i++) {
+      games = Math.min(games, agents.get(i).getGamesPlayed());
+    }
+    return agents.isEmpty() ? 0 : games;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int exitAfterGames = -1;
+    ArrayList<String> configFiles = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      if ("-exitAfterGames".equals(args[i]) && i + 1 < args.length) {
+	exitAfterGames = Integer.parseInt(args[++i]);
+      } else if (args[i].startsWith("-")) {
+	usage();
+      } else {
+	configFiles.add(args[i]);
+      }
+    }
+    if (configFiles.isEmpty()) {
+      usage();
+    }
+
+    // Shared by all agents, and not tied to the log file of any of them
+    TimeDispatcher.getDefault();
+    AsyncLogHandler.install();
+
+    AgentHost host = new AgentHost();
+    Thread[] threads = new Thread[configFiles.size()];
+    for (int i = 0; i < threads.length; i++) {
+      String configFile = configFiles.get(i);
+      Properties config = TACAgent.getConfig(configFile);
+      if (config == null) {
+	System.err.println("could not read config file '" + configFile + '\'');
+	System.exit(1);
+      }
+      threads[i] = host.startAgent(config);
+    }
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+    }
+
+    if (exitAfterGames > 0) {
+      while (host.getGamesPlayed() < exitAfterGames) {
+	Thread.sleep(100);
+      }
+      // Let the agents finish the transactions of the last game
+      Thread.sleep(1000);
+      log.info("Exit as requested after " + exitAfterGames
+	       + " played games");
+      System.exit(0);
+    }
+  }
+
+  private static void usage() {
+    System.err.println("Usage: AgentHost [-exitAfterGames <games>]"
+		       + " <configfile>...");
+    System.exit(1);
+  }
+
+} // AgentHost
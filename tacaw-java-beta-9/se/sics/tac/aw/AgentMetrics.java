@@ -0,0 +1,223 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AgentMetrics collects what TACMessage.getAverageResponseTime() hides:
+ *
+ *  - a latency histogram per message type (submitBid, getQuote,
+ *    bidInfo, transIDs, ...) from request to reply, recorded by
+ *    MetricsConnection
+ *  - the number of messages in flight (sent but not yet answered) and
+ *    its maximum, which is the queue depth of the wrapped connection
+ *  - the number of rejected bids per reject reason
+ *  - a histogram of the strategy's decision time
+ *
+ * There is one AgentMetrics per TACAgent. It is registered as the JMX
+ * MBean "se.sics.tac.aw:type=AgentMetrics,agent=<agent name>" and the
+ * strategy logs and resets it at the end of each game with
+ * logStatistics().
+ */
+
+package se.sics.tac.aw;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+public class AgentMetrics implements AgentMetricsMBean {
+
+  private static final Logger log =
+    Logger.getLogger(AgentMetrics.class.getName());
+
+  /** Message types with histograms of their own; others share one */
+  private static final String[] MESSAGE_TYPES = {
+    "submitBid", "replaceBid", "getQuote", "bidInfo", "transIDs",
+    "transInfo", "getGameParams", "getGameConsts", "getGameAuctionIDs",
+    "serverTime", "nextGame", "auth", "other"
+  };
+
+  private static final int NO_REJECT_REASONS = 32;
+
+  private static final Map<TACAgent,AgentMetrics> metrics =
+    new WeakHashMap<TACAgent,AgentMetrics>();
+
+  private final HashMap<String,LatencyHistogram> latency =
+    new HashMap<String,LatencyHistogram>();
+  private final LatencyHistogram otherLatency;
+  private final LatencyHistogram decisionTime = new LatencyHistogram();
+  private final AtomicLongArray rejects =
+    new AtomicLongArray(NO_REJECT_REASONS);
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+
+  private AgentMetrics(String name) {
+    for (int i = 0; i < MESSAGE_TYPES.length; i++) {
+      latency.put(MESSAGE_TYPES[i], new LatencyHistogram());
+    }
+    otherLatency = latency.get("other");
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+	.registerMBean(this, new ObjectName("se.sics.tac.aw:type=AgentMetrics,"
+					    + "agent=" + ObjectName.quote(name)));
+    } catch (Exception e) {
+      log.log(Level.WARNING, "could not register metrics for " + name, e);
+    }
+  }
+
+  public static AgentMetrics getMetrics(TACAgent agent) {
+    synchronized (metrics) {
+      AgentMetrics agentMetrics = metrics.get(agent);
+      if (agentMetrics == null) {
+	String name = agent.getUser();
+	agentMetrics = new AgentMetrics(name == null ? "agent" : name);
+	metrics.put(agent, agentMetrics);
+      }
+      return agentMetrics;
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Recording
+  // -------------------------------------------------------------------
+
+  private LatencyHistogram getHistogram(String type) {
+    // The map is never changed after construction
+    LatencyHistogram histogram = type == null ? null : latency.get(type);
+    return histogram == null ? otherLatency : histogram;
+  }
+
+  public void messageSent() {
+    int current = inFlight.incrementAndGet();
+    int max;
+    while (current > (max = maxInFlight.get())
+	   && !maxInFlight.compareAndSet(max, current)) {
+      // Another thread set a new max
+    }
+  }
+
+  public void messageReceived(String type, long nanos) {
+    inFlight.decrementAndGet();
+    getHistogram(type).record(nanos);
+  }
+
+  /** Called for a message that could not be sent */
+  public void messageFailed() {
+    inFlight.decrementAndGet();
+  }
+
+  public void bidRejected(int reason) {
+    rejects.incrementAndGet(reason >= 0 && reason < NO_REJECT_REASONS
+			    ? reason : 0);
+  }
+
+  public void decisionMade(long nanos) {
+    decisionTime.record(nanos);
+  }
+
+
+  // -------------------------------------------------------------------
+  // AgentMetricsMBean
+  // -------------------------------------------------------------------
+
+  public String[] getMessageTypes() {
+    return MESSAGE_TYPES.clone();
+  }
+
+  public long getMessageCount(String type) {
+    return getHistogram(type).getCount();
+  }
+
+  public double getMeanLatency(String type) {
+    return getHistogram(type).getMean() / 1e6;
+  }
+
+  public double getLatencyPercentile(String type, double fraction) {
+    return getHistogram(type).getPercentile(fraction) / 1e6;
+  }
+
+  public double getMaxLatency(String type) {
+    return getHistogram(type).getMax() / 1e6;
+  }
+
+  public int getMessagesInFlight() {
+    return inFlight.get();
+  }
+
+  public int getMaxMessagesInFlight() {
+    return maxInFlight.get();
+  }
+
+  public long[] getRejectCounts() {
+    long[] counts = new long[NO_REJECT_REASONS];
+    for (int i = 0; i < NO_REJECT_REASONS; i++) {
+      counts[i] = rejects.get(i);
+    }
+    return counts;
+  }
+
+  public long getDecisionCount() {
+    return decisionTime.getCount();
+  }
+
+  public double getDecisionTimePercentile(double fraction) {
+    return decisionTime.getPercentile(fraction) / 1e6;
+  }
+
+  public double getMaxDecisionTime() {
+    return decisionTime.getMax() / 1e6;
+  }
+
+  public String getSummary() {
+    StringBuffer sb = new StringBuffer();
+    for (int i = 0; i < MESSAGE_TYPES.length; i++) {
+      LatencyHistogram histogram = latency.get(MESSAGE_TYPES[i]);
+      if (histogram.getCount() > 0) {
+	sb.append("\n  ").append(MESSAGE_TYPES[i]).append(": ")
+	  .append(histogram);
+      }
+    }
+    sb.append("\n  in flight: ").append(inFlight.get())
+      .append(" (max ").append(maxInFlight.get()).append(')');
+    ArrayList<String> reasons = new ArrayList<String>();
+    for (int i = 0; i < NO_REJECT_REASONS; i++) {
+      long count = rejects.get(i);
+      if (count > 0) {
+	reasons.add(i + "=" + count);
+      }
+    }
+    sb.append("\n  rejected bids by reason: ").append(reasons);
+    sb.append("\n  decisions: ").append(decisionTime);
+    return sb.toString();
+  }
+
+  /** Resets everything but the messages in flight */
+  public void reset() {
+    for (int i = 0; i < MESSAGE_TYPES.length; i++) {
+      latency.get(MESSAGE_TYPES[i]).reset();
+    }
+    decisionTime.reset();
+    for (int i = 0; i < NO_REJECT_REASONS; i++) {
+      rejects.set(i, 0);
+    }
+    maxInFlight.set(inFlight.get());
+  }
+
+  /** Logs the metrics of the game and resets them */
+  public void logStatistics() {
+    log.fine("Metrics:" + getSummary());
+    reset();
+  }
+
+} // AgentMetrics
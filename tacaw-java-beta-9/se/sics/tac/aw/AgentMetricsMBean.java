@@ -0,0 +1,42 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AgentMetricsMBean is the JMX interface of AgentMetrics. Durations
+ * are in milliseconds and cover the current game.
+ */
+
+package se.sics.tac.aw;
+
+public interface AgentMetricsMBean {
+
+  public String[] getMessageTypes();
+
+  public long getMessageCount(String type);
+
+  public double getMeanLatency(String type);
+
+  public double getLatencyPercentile(String type, double fraction);
+
+  public double getMaxLatency(String type);
+
+  public int getMessagesInFlight();
+
+  public int getMaxMessagesInFlight();
+
+  public long[] getRejectCounts();
+
+  public long getDecisionCount();
+
+  public double getDecisionTimePercentile(double fraction);
+
+  public double getMaxDecisionTime();
+
+  public String getSummary();
+
+  public void reset();
+
+} // AgentMetricsMBean
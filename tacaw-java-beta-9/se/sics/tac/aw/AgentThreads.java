@@ -0,0 +1,99 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AgentThreads creates the threads of the agent: connection readers and
+ * writers, strategy event loops, simulators and hosted agents. By
+ * default these are platform threads. With the system property
+ *
+ *  tac.threads=virtual
+ *
+ * they are virtual threads instead, when the Java runtime has them
+ * (Java 21 and later), so that hosting hundreds of agents or simulators
+ * is not limited by the number of threads; the blocking I/O code stays
+ * as it is. On older runtimes a warning is logged and platform threads
+ * are used. Virtual threads are always daemon threads.
+ *
+ * Virtual threads are found by reflection so that the agent still
+ * compiles and runs on Java 8. Note that until Java 24 a virtual thread
+ * waiting in Object.wait() or inside a synchronized block keeps its
+ * carrier thread.
+ */
+
+package se.sics.tac.aw;
+
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public final class AgentThreads {
+
+  private static final Logger log =
+    Logger.getLogger(AgentThreads.class.getName());
+
+  private static final Method ofVirtual;
+  private static final Method name;
+  private static final Method unstarted;
+
+  static {
+    Method ofVirtualMethod = null;
+    Method nameMethod = null;
+    Method unstartedMethod = null;
+    if ("virtual".equals(System.getProperty("tac.threads"))) {
+      try {
+	ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+	Class<?> builder = Class.forName("java.lang.Thread$Builder");
+	nameMethod = builder.getMethod("name", String.class);
+	unstartedMethod = builder.getMethod("unstarted", Runnable.class);
+      } catch (Exception e) {
+	log.warning("virtual threads are not available in Java "
+		    + System.getProperty("java.version")
+		    + ": using platform threads");
+	ofVirtualMethod = null;
+      }
+    }
+    ofVirtual = ofVirtualMethod;
+    name = nameMethod;
+    unstarted = unstartedMethod;
+  }
+
+  private AgentThreads() {
+  }
+
+  /** Returns true if new threads are virtual threads */
+  public static boolean isVirtual() {
+    return ofVirtual != null;
+  }
+
+  /**
+   * Creates (but does not start) a thread. The daemon flag only applies
+   * to platform threads.
+   */
+  public static Thread newThread(Runnable task, String threadName,
+				 boolean isDaemon) {
+    if (ofVirtual != null) {
+      try {
+	Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+	return (Thread) unstarted.invoke(builder, task);
+      } catch (Exception e) {
+	log.log(Level.SEVERE, "could not create virtual thread " + threadName,
+		e);
+      }
+    }
+    Thread thread = new Thread(task, threadName);
+    thread.setDaemon(isDaemon);
+    return thread;
+  }
+
+  /** Creates and starts a thread */
+  public static Thread start(Runnable task, String threadName,
+			     boolean isDaemon) {
+    Thread thread = newThread(task, threadName, isDaemon);
+    thread.start();
+    return thread;
+  }
+
+} // AgentThreads
@@ -0,0 +1,366 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AllocationSolver finds the travel package for every client that
+ * maximises the total predicted utility when all clients share the
+ * goods we own and the hotel rooms we are currently winning (HQW).
+ *
+ * The value of an allocation is
+ *
+ *   sum of client base utilities
+ *   - unit cost of every unit needed beyond what is owned
+ *   - abandon cost of every HQW room that no client uses
+ *
+ * Since the value only depends on how many units of each auction are
+ * used, the best value for the remaining clients is memoised on
+ * (client, units used so far), in a LongIntMemo per client that is
+ * reused from solve to solve. Each search node tries packages in
+ * order of an optimistic bound and stops as soon as the bound can not
+ * beat the best package found, so the memoised values are exact and
+ * the returned allocation is optimal. The bounds are the package
+ * utilities of the PackageTable, which only rescores the packages whose
+ * unit costs have changed since the last solve. The first two clients
+ * are split into ForkJoin tasks so the search runs on all cores.
+ *
+ * The search may be given a deadline. A greedy allocation (each client
+ * in turn takes its best package given the units used before it) is
+ * found first, so there is always an answer; if the exact search has
+ * not finished by the deadline it is abandoned and the greedy
+ * allocation is returned instead.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+class AllocationSolver {
+
+  private static final int NO_CLIENTS = PackageTable.NO_CLIENTS;
+  private static final int NO_PACKAGES = PackageTable.NO_PACKAGES;
+
+  /** Clients above this depth are searched as parallel tasks */
+  private static final int SPLIT_DEPTH = 2;
+
+  /** Suffixes this short are cheaper to search than to look up */
+  private static final int MEMO_DEPTH = NO_CLIENTS - 2;
+
+  /**
+   * First capacity of the deepest memo; each client less deep has about
+   * a quarter of the states. The memos grow to what the solves need,
+   * but a solve that fills one searches far more nodes.
+   */
+  private static final int MEMO_CAPACITY = 1 << 18;
+
+  private final PackageTable packages;
+
+  // Problem data for the current solve
+  private final int[] own = new int[PackageTable.NO_TRAVEL_AUCTIONS];
+  private final int[] hqw = new int[PackageTable.NO_TRAVEL_AUCTIONS];
+  private final int[] unitCost = new int[PackageTable.NO_TRAVEL_AUCTIONS];
+  private final int[] abandonCost = new int[PackageTable.NO_TRAVEL_AUCTIONS];
+  private final int[][] gain = new int[NO_CLIENTS][NO_PACKAGES];
+  private final int[][] order = new int[NO_CLIENTS][NO_PACKAGES];
+  private final int[] suffixBound = new int[NO_CLIENTS + 1];
+  private final LongIntMemo[] memo = new LongIntMemo[MEMO_DEPTH + 1];
+
+  private final LongAdder nodes = new LongAdder();
+  private int value;
+  private boolean isOptimal;
+
+  // Deadline of the current solve as System.nanoTime()
+  private boolean hasDeadline;
+  private long deadline;
+  private volatile boolean isTimedOut;
+
+  public AllocationSolver(PackageTable packages) {
+    this.packages = packages;
+    for (int c = 0; c <= MEMO_DEPTH; c++) {
+      memo[c] = new LongIntMemo(MEMO_CAPACITY >> (2 * (MEMO_DEPTH - c)));
+    }
+  }
+
+  /**
+   * Returns the number of search nodes expanded by the last solve.
+   */
+  public long getNodes() {
+    return nodes.sum();
+  }
+
+  /**
+   * Returns the value of the allocation found by the last solve.
+   */
+  public int getValue() {
+    return value;
+  }
+
+  /**
+   * Returns true if the allocation found by the last solve is optimal,
+   * and false if the deadline was reached first.
+   */
+  public boolean isOptimal() {
+    return isOptimal;
+  }
+
+  /**
+   * Finds the best allocation given the owned units and HQW per
+   * auction. Must be called after packages.refresh().
+   *
+   * @param owned the number of units owned per auction
+   * @param hqwOwned the hypothetical quantity won per hotel auction
+   * @param abandonPrice the cost per HQW room that is not used
+   * @return the allocation as {in day, out day, hotel type} per client
+   */
+  public int[][] solve(int[] owned, int[] hqwOwned, float[] abandonPrice) {
+    hasDeadline = false;
+    return find(owned, hqwOwned, abandonPrice);
+  }
+
+  /**
+   * Finds the best allocation that can be found before the deadline,
+   * as solve(owned, hqwOwned, abandonPrice).
+   *
+   * @param deadline the time as System.nanoTime() by which to return
+   */
+  public int[][] solve(int[] owned, int[] hqwOwned, float[] abandonPrice,
+		       long deadline) {
+    hasDeadline = true;
+    this.deadline = deadline;
+    return find(owned, hqwOwned, abandonPrice);
+  }
+
+  private int[][] find(int[] owned, int[] hqwOwned, float[] abandonPrice) {
+    for (int a = 0; a < PackageTable.NO_TRAVEL_AUCTIONS; a++) {
+      own[a] = owned[a] > 0 ? owned[a] : 0;
+      hqw[a] = hqwOwned[a] > 0 ? hqwOwned[a] : 0;
+      unitCost[a] = Math.round(packages.getUnitCost(a));
+      abandonCost[a] = Math.round(abandonPrice[a]);
+    }
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      int[] g = gain[c];
+      for (int p = 0; p < NO_PACKAGES; p++) {
+	g[p] = packages.getUtility(c, p, own) + optimisticAbandon(p);
+      }
+      sortByGain(g, order[c]);
+    }
+    for (int c = 0; c <= MEMO_DEPTH; c++) {
+      memo[c].clear();
+    }
+    suffixBound[NO_CLIENTS] = 0;
+    for (int c = NO_CLIENTS - 1; c >= 0; c--) {
+      suffixBound[c] = suffixBound[c + 1] + gain[c][order[c][0]];
+    }
+    nodes.reset();
+    int waste = 0;
+    for (int a = 0; a < PackageTable.NO_TRAVEL_AUCTIONS; a++) {
+      waste += hqw[a] * abandonCost[a];
+    }
+
+    int[][] allocation = greedy();
+    value -= waste;
+    isOptimal = false;
+    isTimedOut = isPastDeadline();
+    if (!isTimedOut) {
+      int best = ForkJoinPool.commonPool().invoke(new Search(0, 0L)).intValue();
+      if (!isTimedOut) {
+	value = best - waste;
+	isOptimal = true;
+	// The walk must not be cut short
+	hasDeadline = false;
+	allocation = walk();
+      }
+    }
+    return allocation;
+  }
+
+  private boolean isPastDeadline() {
+    return hasDeadline && System.nanoTime() - deadline >= 0;
+  }
+
+  // Each client in turn takes the package with the best value given the
+  // units used by the clients before it
+  private int[][] greedy() {
+    int[][] allocation = new int[NO_CLIENTS][3];
+    long used = 0L;
+    value = 0;
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      int best = Integer.MIN_VALUE;
+      int bestPackage = 0;
+      for (int p = 0; p < NO_PACKAGES; p++) {
+	int v = packages.getBaseUtility(c, p) + delta(p, used);
+	if (v > best) {
+	  best = v;
+	  bestPackage = p;
+	}
+      }
+      allocation[c][0] = PackageTable.getIn(bestPackage);
+      allocation[c][1] = PackageTable.getOut(bestPackage);
+      allocation[c][2] = PackageTable.getHotelType(bestPackage);
+      used = add(bestPackage, used);
+      value += best;
+    }
+    return allocation;
+  }
+
+  // Walks the memoised values to find the packages giving the best value
+  private int[][] walk() {
+    int[][] allocation = new int[NO_CLIENTS][3];
+    long used = 0L;
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      int best = search(c, used);
+      int[] o = order[c];
+      for (int i = 0; i < NO_PACKAGES; i++) {
+	int p = o[i];
+	int v = packages.getBaseUtility(c, p) + delta(p, used)
+	  + search(c + 1, add(p, used));
+	if (v == best) {
+	  allocation[c][0] = PackageTable.getIn(p);
+	  allocation[c][1] = PackageTable.getOut(p);
+	  allocation[c][2] = PackageTable.getHotelType(p);
+	  used = add(p, used);
+	  break;
+	}
+      }
+    }
+    return allocation;
+  }
+
+  // Best value for clients [client, NO_CLIENTS) given the units used
+  // so far (4 bits per auction)
+  private int search(int client, long used) {
+    if (client == NO_CLIENTS || isTimedOut) {
+      return 0;
+    }
+    LongIntMemo m = client <= MEMO_DEPTH ? memo[client] : null;
+    if (m != null) {
+      int value = m.get(used);
+      if (value != LongIntMemo.MISSING) {
+	return value;
+      }
+    }
+    nodes.increment();
+    if (hasDeadline && isPastDeadline()) {
+      // The values found from now on are not exact
+      isTimedOut = true;
+      return 0;
+    }
+    int best = Integer.MIN_VALUE;
+    int[] o = order[client];
+    int[] g = gain[client];
+    int rest = suffixBound[client + 1];
+    for (int i = 0; i < NO_PACKAGES; i++) {
+      int p = o[i];
+      if (best != Integer.MIN_VALUE && g[p] + rest <= best) {
+	// Packages are sorted by bound so no later package can do better
+	break;
+      }
+      int value = packages.getBaseUtility(client, p) + delta(p, used)
+	+ search(client + 1, add(p, used));
+      if (value > best) {
+	best = value;
+      }
+    }
+    if (m != null) {
+      m.put(used, best);
+    }
+    return best;
+  }
+
+  // Change in value from adding one more client with the package
+  private int delta(int pkg, long used) {
+    int[] auctions = PackageTable.getAuctions(pkg);
+    int d = 0;
+    for (int i = 0, n = auctions.length; i < n; i++) {
+      int a = auctions[i];
+      int u = (int) (used >>> (a << 2)) & 0xf;
+      if (u >= own[a]) {
+	d -= unitCost[a];
+      }
+      if (u < hqw[a]) {
+	d += abandonCost[a];
+      }
+    }
+    return d;
+  }
+
+  // Upper bound for the abandon costs saved by delta() whatever the
+  // units already used; the unit costs are at least those of the units
+  // not owned at all, which the package table keeps up to date
+  private int optimisticAbandon(int pkg) {
+    int[] auctions = PackageTable.getAuctions(pkg);
+    int d = 0;
+    for (int i = 0, n = auctions.length; i < n; i++) {
+      int a = auctions[i];
+      if (hqw[a] > 0) {
+	d += abandonCost[a];
+      }
+    }
+    return d;
+  }
+
+  private static long add(int pkg, long used) {
+    int[] auctions = PackageTable.getAuctions(pkg);
+    for (int i = 0, n = auctions.length; i < n; i++) {
+      used += 1L << (auctions[i] << 2);
+    }
+    return used;
+  }
+
+  private static void sortByGain(int[] gain, int[] order) {
+    for (int i = 0; i < order.length; i++) {
+      int p = i;
+      int j = i;
+      for (; j > 0 && gain[order[j - 1]] < gain[p]; j--) {
+	order[j] = order[j - 1];
+      }
+      order[j] = p;
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Parallel search of the first clients
+  // -------------------------------------------------------------------
+
+  private class Search extends RecursiveTask<Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int client;
+    private final long used;
+
+    Search(int client, long used) {
+      this.client = client;
+      this.used = used;
+    }
+
+    protected Integer compute() {
+      if (client >= SPLIT_DEPTH || isTimedOut) {
+	return Integer.valueOf(search(client, used));
+      }
+      int[] o = order[client];
+      Search[] tasks = new Search[NO_PACKAGES];
+      for (int i = 0; i < NO_PACKAGES; i++) {
+	tasks[i] = new Search(client + 1, add(o[i], used));
+	tasks[i].fork();
+      }
+      int best = Integer.MIN_VALUE;
+      for (int i = 0; i < NO_PACKAGES; i++) {
+	int p = o[i];
+	int value = packages.getBaseUtility(client, p) + delta(p, used)
+	  + tasks[i].join().intValue();
+	if (value > best) {
+	  best = value;
+	}
+      }
+      memo[client].put(used, best);
+      return Integer.valueOf(best);
+    }
+  }
+
+} // AllocationSolver
@@ -0,0 +1,254 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AsyncLogHandler moves formatting and writing of log records off the
+ * threads that log. It is installed on the "se" logger, where TACAgent
+ * sets up logging, and takes over the handlers there: a record logged by
+ * the agent is only put in a ring buffer, and a log thread formats it
+ * and passes it on, in batches, to those handlers and to the handlers of
+ * the root logger (the console and the per game log files that TACAgent
+ * opens and closes).
+ *
+ * Records may have parameters: the message is then formatted with
+ * MessageFormat on the log thread, and array parameters are written
+ * with Arrays.deepToString. LogFormatter itself ignores parameters.
+ *
+ * A thread (and the threads it creates) may have a handler of its own,
+ * which then also gets the records logged on it; AgentHost uses this to
+ * give each hosted agent a log file of its own.
+ *
+ * When the buffer is full, records below WARNING are dropped (and
+ * counted) so that logging never holds up the agent; warnings and
+ * errors wait for room. Queued records are written when the JVM exits.
+ *
+ * Configured with the system properties
+ *
+ *  tac.log.async	false to format and write on the calling thread
+ *			(default true)
+ *  tac.log.queue	number of records buffered (default 8192)
+ */
+
+package se.sics.tac.aw;
+
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public class AsyncLogHandler extends Handler implements Runnable {
+
+  private static final int BATCH_SIZE = 256;
+
+  private static AsyncLogHandler handler;
+
+  private static final InheritableThreadLocal<Handler> threadHandler =
+    new InheritableThreadLocal<Handler>();
+
+  private final Logger logger;
+  private final Handler[] handlers;
+  private final boolean isAsync;
+
+  // Ring buffer, guarded by this object
+  private final LogRecord[] records;
+  private final Handler[] owners;
+  private int head;
+  private int size;
+  private long dropped;
+
+  private AsyncLogHandler(Logger logger, boolean isAsync, int queueSize) {
+    this.logger = logger;
+    this.isAsync = isAsync;
+    this.records = new LogRecord[queueSize];
+    this.owners = new Handler[queueSize];
+    this.handlers = logger.getHandlers();
+  }
+
+  /**
+   * Installs the handler on the "se" logger, once TACAgent has set up
+   * its logging. Later calls do nothing.
+   */
+  public static synchronized void install() {
+    if (handler != null) {
+      return;
+    }
+    Logger logger = Logger.getLogger("se");
+    boolean isAsync = !"false".equals(System.getProperty("tac.log.async"));
+    int queueSize =
+      Math.max(16, Integer.getInteger("tac.log.queue", 8192).intValue());
+    handler = new AsyncLogHandler(logger, isAsync, queueSize);
+    for (int i = 0; i < handler.handlers.length; i++) {
+      logger.removeHandler(handler.handlers[i]);
+    }
+    logger.setUseParentHandlers(false);
+    logger.addHandler(handler);
+
+    if (isAsync) {
+      AgentThreads.start(handler, "log", true);
+      Runtime.getRuntime().addShutdownHook(new Thread("log-flush") {
+	  public void run() {
+	    handler.flush();
+	  }
+	});
+    }
+  }
+
+  /**
+   * Sets the handler that also gets the records logged on the current
+   * thread and on the threads it creates from now on.
+   */
+  public static void setThreadHandler(Handler owner) {
+    threadHandler.set(owner);
+  }
+
+  public void publish(LogRecord record) {
+    Handler owner = threadHandler.get();
+    if (!isAsync) {
+      write(record, owner);
+      return;
+    }
+    synchronized (this) {
+      while (size == records.length) {
+	if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+	  dropped++;
+	  return;
+	}
+	try {
+	  wait();
+	} catch (InterruptedException e) {
+	  Thread.currentThread().interrupt();
+	  return;
+	}
+      }
+      int index = (head + size) % records.length;
+      records[index] = record;
+      owners[index] = owner;
+      size++;
+      if (size == 1) {
+	notifyAll();
+      }
+    }
+  }
+
+  /** Writes all queued records */
+  public void flush() {
+    LogRecord[] batch = new LogRecord[BATCH_SIZE];
+    Handler[] batchOwners = new Handler[BATCH_SIZE];
+    int n;
+    while ((n = take(batch, batchOwners, false)) > 0) {
+      writeAll(batch, batchOwners, n);
+    }
+  }
+
+  public void close() {
+    flush();
+  }
+
+  public synchronized long getDroppedCount() {
+    return dropped;
+  }
+
+  public void run() {
+    LogRecord[] batch = new LogRecord[BATCH_SIZE];
+    Handler[] batchOwners = new Handler[BATCH_SIZE];
+    while (true) {
+      int n = take(batch, batchOwners, true);
+      writeAll(batch, batchOwners, n);
+    }
+  }
+
+  private synchronized int take(LogRecord[] batch, Handler[] batchOwners,
+				boolean isWaiting) {
+    while (isWaiting && size == 0) {
+      try {
+	wait();
+      } catch (InterruptedException e) {
+	// Keep writing until the JVM exits
+      }
+    }
+    int n = Math.min(size, batch.length);
+    for (int i = 0; i < n; i++) {
+      batch[i] = records[head];
+      batchOwners[i] = owners[head];
+      records[head] = null;
+      owners[head] = null;
+      head = (head + 1) % records.length;
+    }
+    size -= n;
+    if (n > 0) {
+      notifyAll();
+    }
+    return n;
+  }
+
+  private void writeAll(LogRecord[] batch, Handler[] batchOwners, int n) {
+    long lost;
+    synchronized (this) {
+      lost = dropped;
+      dropped = 0;
+    }
+    if (lost > 0) {
+      LogRecord record = new LogRecord(Level.WARNING, "dropped " + lost
+				       + " log records: log queue full");
+      record.setLoggerName(AsyncLogHandler.class.getName());
+      write(record, null);
+    }
+    for (int i = 0; i < n; i++) {
+      write(batch[i], batchOwners[i]);
+      batch[i] = null;
+      batchOwners[i] = null;
+    }
+  }
+
+  // Passes the record on as the "se" logger would have done
+  private void write(LogRecord record, Handler owner) {
+    Object[] parameters = record.getParameters();
+    if (parameters != null && parameters.length > 0) {
+      record.setMessage(formatMessage(record.getMessage(), parameters));
+      record.setParameters(null);
+    }
+    if (owner != null) {
+      owner.publish(record);
+    }
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i].publish(record);
+    }
+    // The handlers of the root logger change between games
+    for (Logger parent = logger.getParent(); parent != null;
+	 parent = parent.getParent()) {
+      Handler[] parentHandlers = parent.getHandlers();
+      for (int i = 0; i < parentHandlers.length; i++) {
+	parentHandlers[i].publish(record);
+      }
+      if (!parent.getUseParentHandlers()) {
+	break;
+      }
+    }
+  }
+
+  static String formatMessage(String message, Object[] parameters) {
+    // As strings, so that numbers are written as with concatenation
+    Object[] values = new Object[parameters.length];
+    for (int i = 0; i < parameters.length; i++) {
+      Object value = parameters[i];
+      if (value != null && value.getClass().isArray()) {
+	String text = Arrays.deepToString(new Object[] { value });
+	// Without the brackets of the wrapping array
+	values[i] = text.substring(1, text.length() - 1);
+      } else {
+	values[i] = String.valueOf(value);
+      }
+    }
+    try {
+      return MessageFormat.format(message, values);
+    } catch (IllegalArgumentException e) {
+      return message;
+    }
+  }
+
+} // AsyncLogHandler
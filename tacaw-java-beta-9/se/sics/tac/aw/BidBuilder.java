@@ -0,0 +1,117 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * BidBuilder collects the bid points of a bid in arrays that are reused
+ * from bid to bid, so that a strategy can work out its bids without
+ * creating a Bid for each:
+ *
+ *   BidBuilder bid = builder.begin(auction);
+ *   bid.addBidPoint(16, 1);
+ *   ...
+ *   bidFilter.submitBid(bid);
+ *
+ * BidFilter compares the points with the active bid of the auction and
+ * only creates a Bid (toBid) if the bid changes it; TACAgent keeps the
+ * bids it is given, so a submitted Bid can never be reused. The points
+ * can also be written straight into a request with
+ * MessageCodec.add(name, BidBuilder), in the same format as
+ * Bid.getBidString().
+ *
+ * The arrays are sized for the largest bids of the agent and only grow
+ * if a bid has more points. The same rules as in Bid.addBidPoint apply
+ * to the points. A builder is not thread safe.
+ */
+
+package se.sics.tac.aw;
+
+public class BidBuilder {
+
+  public static final int DEFAULT_POINTS = 32;
+
+  private int auction = -1;
+  private int[] quantity;
+  private float[] price;
+  private int len;
+
+  public BidBuilder() {
+    this(DEFAULT_POINTS);
+  }
+
+  public BidBuilder(int points) {
+    quantity = new int[points];
+    price = new float[points];
+  }
+
+  /** Starts a new bid in the auction, dropping any earlier points */
+  public BidBuilder begin(int auction) {
+    this.auction = auction;
+    this.len = 0;
+    return this;
+  }
+
+  public BidBuilder addBidPoint(int quantity, float price) {
+    if (auction < 0) {
+      throw new IllegalStateException("No bid begun");
+    }
+    if (price < 0f) {
+      throw new IllegalArgumentException("Negative price not allowed");
+    }
+    if (auction < TACAgent.MIN_ENTERTAINMENT && quantity < 0) {
+      throw new IllegalArgumentException("Not allowed to sell in auction "
+					 + auction);
+    }
+    if (len == this.quantity.length) {
+      int[] q = new int[len * 2];
+      float[] p = new float[len * 2];
+      System.arraycopy(this.quantity, 0, q, 0, len);
+      System.arraycopy(this.price, 0, p, 0, len);
+      this.quantity = q;
+      this.price = p;
+    }
+    this.quantity[len] = quantity;
+    this.price[len++] = price;
+    return this;
+  }
+
+  public int getAuction() {
+    return auction;
+  }
+
+  public int getNoBidPoints() {
+    return len;
+  }
+
+  public int getQuantity(int index) {
+    if (index >= len) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					  + len);
+    }
+    return quantity[index];
+  }
+
+  public float getPrice(int index) {
+    if (index >= len) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					  + len);
+    }
+    return price[index];
+  }
+
+  /** Returns a new Bid with the points, ready to be submitted */
+  public Bid toBid() {
+    Bid bid = new Bid(auction);
+    for (int i = 0; i < len; i++) {
+      bid.addBidPoint(quantity[i], price[i]);
+    }
+    return bid;
+  }
+
+  public String toString() {
+    return toBid().getBidString();
+  }
+
+} // BidBuilder
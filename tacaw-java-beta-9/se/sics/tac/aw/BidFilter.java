@@ -0,0 +1,147 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * BidFilter submits a bid only if it changes the active bid in its
+ * auction. Bids are given as a BidBuilder, and the Bid to submit is only
+ * created if the bid is not skipped. TACAgent already keeps the last bid
+ * of each auction (getBid), so a new bid is compared with that one:
+ *
+ *  - if the active bid is still waiting to be processed or valid and has
+ *    the same bid points (in any order), the new bid is not submitted;
+ *    the server would only reject it as not improved
+ *  - an empty bid is not submitted if there is no active bid to
+ *    withdraw, or the active bid is empty too
+ *
+ * Everything else is submitted as before. A bid that was rejected,
+ * withdrawn, transacted or has expired is never taken as active, so the
+ * same bid points can always be tried again later.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class BidFilter {
+
+  private static final Logger log =
+    Logger.getLogger(BidFilter.class.getName());
+
+  private final TACAgent agent;
+
+  private int submitted;
+  private int skipped;
+
+  public BidFilter(TACAgent agent) {
+    this.agent = agent;
+  }
+
+  /**
+   * Submits the bid points unless they do not change the active bid.
+   * Returns true if a bid was submitted.
+   */
+  public boolean submitBid(BidBuilder bid) {
+    if (isUnchanged(bid)) {
+      return false;
+    }
+    submitted++;
+    agent.submitBid(bid.toBid());
+    return true;
+  }
+
+  /**
+   * Replaces the old bid with the bid points (see TACAgent.replaceBid)
+   * unless they do not change the active bid. Returns true if a bid was
+   * submitted.
+   */
+  public boolean replaceBid(Bid oldBid, BidBuilder bid) {
+    if (isUnchanged(bid)) {
+      return false;
+    }
+    submitted++;
+    agent.replaceBid(oldBid, bid.toBid());
+    return true;
+  }
+
+  private boolean isUnchanged(BidBuilder bid) {
+    if (isUnchanged(agent.getBid(bid.getAuction()), bid)) {
+      skipped++;
+      if (log.isLoggable(Level.FINEST)) {
+	log.finest("skipping unchanged bid " + bid
+		   + " in auction " + bid.getAuction());
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the bid points would not change the last bid of the
+   * auction (as returned by TACAgent.getBid, or null if none).
+   */
+  static boolean isUnchanged(Bid last, BidBuilder bid) {
+    if (!isActive(last)) {
+      return bid.getNoBidPoints() == 0;
+    }
+    return samePoints(last, bid);
+  }
+
+  /** Returns true if the bid is (or may become) active */
+  private static boolean isActive(Bid bid) {
+    if (bid == null) {
+      return false;
+    }
+    switch (bid.getProcessingState()) {
+    case Bid.UNPROCESSED:
+    case Bid.VALID:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  // The server may return the bid points in another order
+  static boolean samePoints(Bid a, BidBuilder b) {
+    int n = a.getNoBidPoints();
+    if (n != b.getNoBidPoints() || n > 64) {
+      return false;
+    }
+    long used = 0L;
+    for (int i = 0; i < n; i++) {
+      int quantity = a.getQuantity(i);
+      float price = a.getPrice(i);
+      int j = 0;
+      while (j < n && ((used & (1L << j)) != 0
+		       || b.getQuantity(j) != quantity
+		       || b.getPrice(j) != price)) {
+	j++;
+      }
+      if (j == n) {
+	return false;
+      }
+      used |= 1L << j;
+    }
+    return true;
+  }
+
+  public int getSubmittedCount() {
+    return submitted;
+  }
+
+  public int getSkippedCount() {
+    return skipped;
+  }
+
+  /** Logs and resets the counts, for example at the end of a game */
+  public void logStatistics() {
+    log.fine("Submitted " + submitted + " bids, skipped " + skipped
+	     + " unchanged bids");
+    submitted = 0;
+    skipped = 0;
+  }
+
+} // BidFilter
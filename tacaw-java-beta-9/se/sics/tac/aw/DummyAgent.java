@@ -147,21 +147,52 @@ public class DummyAgent extends AgentImpl {
 
   private float[] prices;
   private int n_hotels_closed;
-  private int[] items_available;
-  private int[] hqw_available;
+  private InventoryLedger inventory;
   private int[][] client_days;
+  private PackageTable packages;
+  private AllocationSolver solver;
+  private MarginalValueEngine values;
+  private boolean isValued;
+  private EntertainmentSolver tickets;
+  private HotelPriceSimulator simulator;
+  private HotelPriceHistory history;
+  private GameJournal journal;
+  private QuoteRefresher refresher;
+  private BidFilter bids;
+  private final BidBuilder builder = new BidBuilder();
+  private MarketState market;
+  private boolean isMarketPublisher;
+  private AgentMetrics metrics;
+  private boolean isReplanPending;
 
   protected void init(ArgEnumerator args) {
-    prices = new float[agent.getAuctionNo()];
-    items_available = new int[agent.getAuctionNo()];
+    prices = new float[TACAgent.getAuctionNo()];
+    inventory = new InventoryLedger(TACAgent.getAuctionNo());
     client_days = new int[8][2];
+    packages = new PackageTable();
+    solver = new AllocationSolver(packages);
+    tickets = new EntertainmentSolver();
+    values = new MarginalValueEngine(packages);
+    simulator = new HotelPriceSimulator(predicted_increase_time_period,
+	predicted_increase_multiplier,
+	predicted_increase_multiplier_other_closed);
+    history = HotelPriceHistory.getDefault();
+    journal = GameJournal.getJournal(agent);
+    refresher = new QuoteRefresher(agent);
+    bids = new BidFilter(agent);
+    market = MarketState.getMarketState(agent);
+    // An EventLoopAgent running this agent publishes the snapshots
+    isMarketPublisher = EventLoopAgent.getAgentImpl(agent) == this;
+    metrics = AgentMetrics.getMetrics(agent);
+    AsyncLogHandler.install();
     n_hotels_closed = 0;
   }
 
 private void allocationBids() {
-	log.fine("Allocate bids:n_hotels_closed == "+Integer.toString(n_hotels_closed)+", last_close == "+Integer.toString(last_close));
+	log.log(Level.FINE, "Allocate bids:n_hotels_closed == {0}, last_close == {1}", new Object[] { n_hotels_closed, last_close });
 	if ((n_hotels_closed >= 0) && (n_hotels_closed > last_close))
 	{
+		long start = System.nanoTime();
 		last_close = n_hotels_closed;
 		if (n_hotels_closed >= 1) {
        			log.fine("CALCULATING ALLOCATIONS AND SENDING BIDS"); 
@@ -170,6 +201,7 @@ private void allocationBids() {
 		}
 		flightBids(); 
 		hotelBids();
+		metrics.decisionMade(System.nanoTime() - start);
 	}
 }
 
@@ -180,46 +212,54 @@ private float getBasicHotelAmount()
 
 private void hotelBids() {
 	log.fine("hotelBids();");
+	MarketSnapshot snapshot = market.get();
 	for (int i = 8; i < 16; i++) {
-		if (agent.getQuote(i).isAuctionClosed()) { continue; }
-		Bid bid = new Bid(i);
-		Quote quote = agent.getQuote(i);
-		int hqw = quote.getHQW();
-		float ask = quote.getBidPrice(); //TODO: getBidPrice() maybe?
-		float bid_amount = 0;
-		int alloc = agent.getAllocation(i);
+		if (snapshot.isAuctionClosed(i)) { continue; }
+		BidBuilder bid = builder.begin(i);
+		int hqw = snapshot.getHQW(i);
+		int needed = isValued ? values.getNoValues(i) : 0;
+		// The rooms won so far must be bid above the current price
+		float hqw_price = Math.max(snapshot.getAskPrice(i),snapshot.getBidPrice(i)) + 1;
+		// The values only count what one client loses now, so a needed
+		// room is never bid below the old commit price
+		float basic = getBasicHotelAmount();
+		if (snapshot.getBidPrice(i) > basic) { basic = snapshot.getBidPrice(i) + 20*n_hotels_closed; }
 		bid.addBidPoint(16,1); bid.addBidPoint(8,3); bid.addBidPoint(4,5); bid.addBidPoint(3,8); bid.addBidPoint(2,14); bid.addBidPoint(1,20);
-		if ((hqw - alloc > 0) && (alloc > 0)) { bid.addBidPoint(hqw-alloc,ask+1); }
-		if (alloc > 0) {
-			bid_amount = getBasicHotelAmount();
-			if (ask > bid_amount) { bid_amount = ask + (20*n_hotels_closed); }
-			bid.addBidPoint(alloc,bid_amount);
+		if (needed > 0) {
+			for (int k = 0; k < needed || k < hqw; k++) {
+				float price = k < needed ? Math.max((float) Math.floor(values.getValue(i,k)),basic) : 0;
+				if (k < hqw && price < hqw_price) { price = hqw_price; }
+				bid.addBidPoint(1,price);
+			}
 		}
-		agent.submitBid(bid);
+		bids.submitBid(bid);
 	}
 }
 
 private void flightBids() {
 	log.fine("flightBids();");
+	MarketSnapshot snapshot = market.get();
 	for (int i = 0; i < 8; i++) {
-		int alloc = agent.getAllocation(i);
-		int owned = agent.getOwn(i);
-		if (alloc > owned) {
-			Bid bid = new Bid(i);
-			bid.addBidPoint(alloc-owned,1000);
-			agent.submitBid(bid);
+		int needed = agent.getAllocation(i) - snapshot.getOwn(i);
+		if (needed > 0 && isValued) {
+			BidBuilder bid = builder.begin(i);
+			for (int k = 0; k < needed && k < values.getNoValues(i); k++) {
+				float price = (float) Math.floor(values.getValue(i,k));
+				if (price > 0) { bid.addBidPoint(1,price); }
+			}
+			if (bid.getNoBidPoints() > 0) { bids.submitBid(bid); }
 		}
 	}
 }
 
 private void entertainmentBids() {
 	for (int auc = 16; auc < 28; auc++) {
-		int owned = agent.getOwn(auc);
-		int alloc = agent.getAllocation(auc);
-		Bid bid = new Bid(auc);
-		if (owned > alloc) { bid.addBidPoint(alloc-owned,sell_price); }
-		if (alloc > owned) { bid.addBidPoint(alloc-owned,buy_price); } 
-		agent.submitBid(bid);
+		int sell = tickets.getSellQuantity(auc);
+		int buy = tickets.getBuyQuantity(auc);
+		BidBuilder bid = builder.begin(auc);
+		if (sell > 0) { bid.addBidPoint(-sell,(float) Math.ceil(tickets.getSellPrice(auc))); }
+		if (buy > 0) { bid.addBidPoint(buy,(float) Math.floor(tickets.getBuyPrice(auc))); }
+		bids.submitBid(bid);
 	}
 }
 
@@ -237,23 +277,54 @@ private int getLength(int client)
 }
 
   public void quoteUpdated(Quote quote) {
-    return;
+    publishMarket();
+    if (journal != null) { journal.quoteUpdated(quote); }
+    int auction = quote.getAuction();
+    switch (TACAgent.getAuctionCategory(auction))
+    {
+    case TACAgent.CAT_FLIGHT:
+	updateUnitCost(auction);
+	break;
+    case TACAgent.CAT_HOTEL:
+	simulator.quoteUpdated(auction);
+	if (history != null && !quote.isAuctionClosed()) {
+		history.quoteUpdated(agent.getGameID(), auction, agent.getGameTime(),
+				     quote.getAskPrice(), quote.getHQW());
+	}
+	break;
+    }
+    // May complete a hotel batch waiting for TACAgent's own quote request
+    refresher.quoteUpdated(quote);
   }
 
   public void quoteUpdated(int auctionCategory) {
     log.fine("All quotes for "
-	     + agent.auctionCategoryToString(auctionCategory)
+	     + TACAgent.auctionCategoryToString(auctionCategory)
 	     + " has been updated"); 
+    if (auctionCategory == TACAgent.CAT_HOTEL && isReplanPending) {
+	isReplanPending = false;
+	allocationBids();
+    } else if (auctionCategory == TACAgent.CAT_ENTERTAINMENT
+	       && game_going && last_close >= 1) {
+	// Trade tickets on the new prices once the packages are planned
+	entertainmentAllocation();
+	entertainmentBids();
+    }
 	  }
 
   public void bidUpdated(Bid bid) {
-    log.fine("Bid Updated: id=" + bid.getID() + " auction="
-	     + bid.getAuction() + " state="
-	     + bid.getProcessingStateAsString());
-    log.fine("       Hash: " + bid.getBidHash());
+    if (journal != null) { journal.bidUpdated(bid); }
+    if (log.isLoggable(Level.FINE)) {
+      log.log(Level.FINE, "Bid Updated: id={0} auction={1} state={2}",
+	      new Object[] { bid.getID(), bid.getAuction(),
+			     bid.getProcessingStateAsString() });
+      log.log(Level.FINE, "       Hash: {0}", bid.getBidHash());
+    }
   }
 
   public void bidRejected(Bid bid) {
+    metrics.bidRejected(bid.getRejectReason());
+    if (journal != null) { journal.bidUpdated(bid); }
     log.warning("Bid Rejected: " + bid.getID());
     log.warning("      Reason: " + bid.getRejectReason()
 		+ " (" + bid.getRejectReasonAsString() + ')');
@@ -265,11 +336,20 @@ private int getLength(int client)
   }
   private boolean game_going;
   public void gameStarted() {
+    publishMarket();
+    if (journal != null) { journal.gameStarted(); }
     log.fine("Game " + agent.getGameID() + " started!");
     game_going = true;
     n_hotels_closed = 0;
     last_close = -1;	
-    items_available = new int[agent.getAuctionNo()];
+    isReplanPending = false;
+    isValued = false;
+    inventory.clear();
+    packages.gameStarted(agent);
+    for (int i = 0; i < 8; i++) {
+	updateUnitCost(i);
+    }
+    simulator.quoteUpdated(8);
 
     allocationBids();
     current_allocations = new int[8][3];
@@ -278,17 +358,41 @@ private int getLength(int client)
   public void gameStopped() {
 	game_going = false;
     log.fine("Game Stopped!");
+    bids.logStatistics();
+    metrics.logStatistics();
+    if (journal != null) { journal.gameStopped(); }
+    if (history != null) { history.gameStopped(agent.getGameID()); }
   }
 
   private int last_close;
+  public void transaction(Transaction transaction) {
+    publishMarket();
+    if (journal != null) { journal.transaction(transaction); }
+  }
+
   public void auctionClosed(int auction) {
+    publishMarket();
+    if (journal != null) { journal.auctionClosed(auction); }
     log.fine("*** Auction " + auction + " closed!");
-    int auction_type = agent.getAuctionCategory(auction);
+    int auction_type = TACAgent.getAuctionCategory(auction);
     switch (auction_type)
     {
     case TACAgent.CAT_HOTEL:
 	{
 		n_hotels_closed += 1;
+		if (history != null) {
+			history.auctionClosed(agent.getGameID(), auction,
+					      market.get().getAskPrice(auction));
+		}
+		// All hotel predictions depend on n_hotels_closed
+		simulator.quoteUpdated(auction);
+		// Plan once on fresh quotes for all the open hotels; the
+		// refresher completes the batch within BATCH_TIMEOUT even if
+		// a reply is lost
+		if (refresher.refreshCategory(TACAgent.CAT_HOTEL) > 0) {
+			isReplanPending = true;
+			return;
+		}
 	}
 
     allocationBids();
@@ -296,84 +400,53 @@ private int getLength(int client)
   }
 
   private void initialBids() {
-	for (int i = 0, n = agent.getAuctionNo(); i < n; i++) {
-		if (agent.getAuctionCategory(i) == TACAgent.CAT_HOTEL) {
-			Bid bid = new Bid(i);
+	for (int i = 0, n = TACAgent.getAuctionNo(); i < n; i++) {
+		if (TACAgent.getAuctionCategory(i) == TACAgent.CAT_HOTEL) {
+			BidBuilder bid = builder.begin(i);
 			bid.addBidPoint(16,1);
-			agent.submitBid(bid);
+			bids.submitBid(bid);
 		}
 	}
   }
     
   
-  private int predictUtility(int client, int day_in, int day_out, int hotel_type)
+  // Cost of buying one more flight, kept in the package table so that
+  // allocations never go back to the quotes
+  private void updateUnitCost(int auction)
   {
-	  int in_flight_pref = agent.getClientPreference(client,TACAgent.ARRIVAL);
-	  int out_flight_pref = agent.getClientPreference(client,TACAgent.DEPARTURE);
-	  int hotel_value = agent.getClientPreference(client,TACAgent.HOTEL_VALUE);
-	  
-	  int P_Utility = 1000;
-	  
-	  P_Utility -= (Math.abs(day_in-in_flight_pref)+Math.abs(day_out-out_flight_pref)) * 100; //TravelPenalty
-	  
-	  if (hotel_type == TACAgent.TYPE_GOOD_HOTEL)
-	  {
-		  P_Utility += hotel_value; //HotelBonus
-	  }
-	  
-	  //Ignoring Entertainment in this calculation
-	  return P_Utility-predictCost(day_in,day_out,hotel_type);
+	  packages.setUnitCost(auction,market.get().getAskPrice(auction));
   }
-  
-  private int predictCost(int day_in, int day_out, int hotel_type)
+
+  private void publishMarket()
   {
-	  int auction; float predicted_increase;
-	  float P_Cost = 0; float COST_Inflight = 0; float COST_Outflight = 0;
-	  int inflight_auction = agent.getAuctionFor(TACAgent.CAT_FLIGHT,TACAgent.TYPE_INFLIGHT, day_in);
-	  if (items_available[inflight_auction] > 0)
-	  {
-		COST_Inflight = 0;
-	  } else {
-		  COST_Inflight = agent.getQuote(inflight_auction).getAskPrice();
-	  }
-	  
-	  int outflight_auction = agent.getAuctionFor(TACAgent.CAT_FLIGHT,TACAgent.TYPE_OUTFLIGHT, day_out);
-	  if (items_available[outflight_auction] > 0)
-	  {
-		COST_Outflight = 0;
-	  } else {
-		  COST_Outflight = P_Cost += agent.getQuote(outflight_auction).getAskPrice();
-	  }
-	  
-	  float COST_Hotel = 0;
-	  for (int i = day_in; i < day_out; i++)
-	  {
-		  auction = agent.getAuctionFor(TACAgent.CAT_HOTEL, hotel_type, i);
-		  int otherHotel = agent.getAuctionFor(TACAgent.CAT_HOTEL,otherHotelType(hotel_type),i);
-		  Quote q = agent.getQuote(auction);
-	      	  Quote q2 = agent.getQuote(otherHotel);
-		  if (items_available[auction] > 0)
-		  {
-			continue;
-		  } else if (q.isAuctionClosed()) { COST_Hotel += 99999; }
-		  COST_Hotel +=  predictHotelCost(q.getAskPrice(),q.getBidPrice(),q2.isAuctionClosed());
+	  if (isMarketPublisher) { market.publish(); }
+  }
+
+  // Hotel costs are the expected closing prices over sampled scenarios,
+  // with more scenarios the longer it is until the next hotel closes
+  private void sampleHotelPrices(MarketSnapshot snapshot)
+  {
+	  int scenarios = HotelPriceSimulator.getScenarioCount(agent.getGameTimeLeft());
+	  long start = System.currentTimeMillis();
+	  simulator.sample(snapshot,n_hotels_closed,scenarios);
+	  long gameTime = agent.getGameTime();
+	  for (int i = 8; i < 16; i++) {
+		  float cost = simulator.getExpectedPrice(i);
+		  // Averaged with what similar hotels closed at in past games
+		  float past = history == null || snapshot.isAuctionClosed(i)
+			  ? Float.NaN
+			  : history.getExpectedClosingPrice(i,gameTime,snapshot.getAskPrice(i));
+		  if (!Float.isNaN(past)) { cost = (cost + past) / 2; }
+		  packages.setUnitCost(i,cost);
 	  }
-	  P_Cost = COST_Inflight + COST_Outflight + COST_Hotel;
-	  return (int)P_Cost;
+	  log.log(Level.FINE, "Sampled {0} hotel price scenarios in {1} ms", new Object[] { scenarios, System.currentTimeMillis()-start });
   }
 
   //TODO: Scale predicted cost as time goes by
   private float predicted_increase_time_period = 7.5f;
   private float predicted_increase_multiplier = 1.2f;
   private float predicted_increase_multiplier_other_closed = 1.4f;
-  private float predictHotelCost(float currentAskPrice, float currentBidPrice, boolean other_closed)
-  {
-	float multiplier;
-	if (other_closed) { multiplier = predicted_increase_multiplier_other_closed; } else { multiplier = predicted_increase_multiplier; }
-	multiplier += 0.025*(8-n_hotels_closed);
-	return ((8-n_hotels_closed) * predicted_increase_time_period) + (currentAskPrice * multiplier);
-  }
-  
+
   private int otherHotelType(int hotelType)
   {
 	  if (hotelType == TACAgent.TYPE_CHEAP_HOTEL)
@@ -384,137 +457,80 @@ private int getLength(int client)
 	  }
   }
   
-  private void temporary_package(int client,int day_in, int day_out, int hotel_type)
-  {
-	  	temporary_allocations[client][0] = day_in;
-		temporary_allocations[client][1] = day_out;
-		temporary_allocations[client][2] = hotel_type;
-
-		int auction;
-
-		for (int day = day_in; day < day_out; day++)
-	{
-		auction = agent.getAuctionFor(TACAgent.CAT_HOTEL, hotel_type, day);
-		if (items_available[auction] > 0)
-		{
-			items_available[auction] -= 1;
-		}
-		if (hqw_available[auction] > 0) 
-		{
-			hqw_available[auction] -= 1;
-		}
-	}
-	auction = agent.getAuctionFor(TACAgent.CAT_FLIGHT,TACAgent.TYPE_INFLIGHT,day_in);
-	if (items_available[auction] > 0) { items_available[auction] -= 1; }
-
-	auction = agent.getAuctionFor(TACAgent.CAT_FLIGHT,TACAgent.TYPE_OUTFLIGHT,day_out);
-	if (items_available[auction] > 0) { items_available[auction] -= 1; }
-	  	
-  }
-
-  private void reset_items_available()
-{
-	items_available = new int[28];
-	hqw_available = new int[28];
-	 for (int i = 0; i < agent.getAuctionNo(); i++)
-    {
-	items_available[i] = agent.getOwn(i);
-    }
-	for (int i = 8; i < 16; i++)
-	{
-		hqw_available[i] = agent.getQuote(i).getHQW();
-	}
-}
-
   private int[][] temporary_allocations;
   private int[][] current_allocations;
   private int change_cost = 500;
-  private void calculateAllocation() {
-    temporary_allocations = new int[8][3];
-    reset_items_available();
-    
-    for (int i = 0; i < 8; i++) {
-	      int inFlight = agent.getClientPreference(i, TACAgent.ARRIVAL);
-	      int outFlight = agent.getClientPreference(i, TACAgent.DEPARTURE);
-	      int hotel = agent.getClientPreference(i, TACAgent.HOTEL_VALUE);
-	      int type;
-
-	      // Get the flight preferences auction and remember that we are
-	      // going to buy tickets for these days. (inflight=1, outflight=0)
-	      int current_best = -999999;
-	      int this_round_c = 0;
-	      int this_round_e = 0;
-	      int best_type; int best_this_round;
-	      int current_best_in = 0;
-	      int current_best_out = 0; int current_best_type = 0;
-	      for (int in = 1; in <= 4; in++)
-	      {
-	    	  for (int out = in + 1; out <= 5; out++)
-	    	  {
-	    		  this_round_c = predictUtility(i,in,out,TACAgent.TYPE_CHEAP_HOTEL);
-	    		  this_round_e = predictUtility(i,in,out,TACAgent.TYPE_GOOD_HOTEL);
-	    		  if (this_round_c > this_round_e)
-	    		  {
-	    			  best_type = TACAgent.TYPE_CHEAP_HOTEL; best_this_round = this_round_c;
-	    		  } else { best_type = TACAgent.TYPE_GOOD_HOTEL; best_this_round = this_round_e; }
-	    		  
-	    		  if (best_this_round > current_best)
-	    		  {
-	    			  current_best = best_this_round;
-	    			  current_best_in = in;
-	    			  current_best_out = out;
-	    			  current_best_type = best_type;
-	    		  }
-	    	  }
-		}
-	      temporary_package(i,current_best_in,current_best_out,current_best_type);
-	}
-      log.info(Arrays.deepToString(current_allocations));
-      log.info(Arrays.deepToString(temporary_allocations));
-    reset_items_available();
+  void calculateAllocation() {
+    // The whole allocation works on one view of the market
+    MarketSnapshot snapshot = market.get();
+    if (simulator.isStale()) { sampleHotelPrices(snapshot); }
+    int rescored = packages.refresh();
+    log.log(Level.FINE, "Rescored {0} of {1} packages", new Object[] { rescored, PackageTable.NO_PACKAGES });
+    inventory.load(snapshot);
+
+    // Best joint allocation of owned goods and HQW over all clients
+    for (int i = 8; i < 16; i++) {
+	abandon_price[i] = snapshot.getBidPrice(i) * HQW_abandon_cost;
+    }
+    long start = System.currentTimeMillis();
+    temporary_allocations = solver.solve(inventory.getOwned(),inventory.getHQW(),abandon_price,getPlanningDeadline());
+    log.log(Level.FINE, "Solver value {0} ({1} nodes, {2} ms)", new Object[] { solver.getValue(), solver.getNodes(), System.currentTimeMillis()-start });
+    if (!solver.isOptimal()) { log.warning("Planning deadline reached: using the greedy allocation"); }
+      // Formatted by the log thread; the solver returns new arrays
+      log.log(Level.INFO, "{0}", (Object) current_allocations);
+      log.log(Level.INFO, "{0}", (Object) temporary_allocations);
+      // Scoring only reads the inventory
       int temp_util = get_util(temporary_allocations);
-    reset_items_available();
       int current_util = get_util(current_allocations);
-      log.info("Current Util: "+current_util+" ----- New util: "+temp_util+" ---- Change cost: "+change_cost);
-      if (current_util + change_cost > temp_util) { log.info("No change in strategy."); return; } else {
+      log.log(Level.INFO, "Current Util: {0} ----- New util: {1} ---- Change cost: {2}", new Object[] { current_util, temp_util, change_cost });
+      if (journal != null) { journal.utility(current_util,temp_util); }
+      if (current_util + change_cost > temp_util) { log.info("No change in strategy."); } else {
 	log.info("Altering strategy.");
 	agent.clearAllocation();
+		int mark = inventory.checkpoint();
 		for (int client = 0; client < 8; client++) {
 			allocate_package(client,temporary_allocations[client][0],temporary_allocations[client][1],temporary_allocations[client][2]);
 		}
+		inventory.rollback(mark);
 		current_allocations = temporary_allocations;
+		if (journal != null) { journal.allocation(current_allocations); }
+		entertainmentAllocation();
+	}
+	// Bid prices are the values of the units to the allocation in force
+	if (current_allocations[0][0] != 0) {
+		long start_values = System.nanoTime();
+		values.compute(current_allocations,inventory.getOwned(),inventory.getHQW(),abandon_price);
+		isValued = true;
+		log.log(Level.FINE, "Unit values in {0} us", (System.nanoTime()-start_values)/1000);
 	}
-	entertainmentAllocation();
 
   }
 private int buy_price = 70;
-private int min_buy = 85;
 private int sell_price = 80;
-private void entertainmentAllocation() {
+private int[] ticket_preference = new int[4];
+private int[] ticket_own = new int[28];
+private float[] ticket_ask = new float[28];
+private float[] ticket_bid = new float[28];
+// Tickets for all clients at once, given their stays and the quotes
+void entertainmentAllocation() {
+	MarketSnapshot snapshot = market.get();
 	for (int client = 0; client < 8; client++) {
-		int client_vals[] = new int[7];
-		client_vals[TACAgent.TYPE_ALLIGATOR_WRESTLING] = agent.getClientPreference(client,TACAgent.TYPE_ALLIGATOR_WRESTLING);
-		client_vals[TACAgent.TYPE_AMUSEMENT] = agent.getClientPreference(client,TACAgent.TYPE_AMUSEMENT);
-		client_vals[TACAgent.TYPE_MUSEUM] = agent.getClientPreference(client,TACAgent.TYPE_MUSEUM);
-		for (int d=current_allocations[client][0]; d < current_allocations[client][1]; d++)
-		{
-
-			int best = getBestEnt(client_vals);
-			if (client_vals[best] <= min_buy) { break; }
-			int auction = agent.getAuctionFor(TACAgent.CAT_ENTERTAINMENT,best,d);
-			agent.setAllocation(auction,agent.getAllocation(auction)+1);
-			client_vals[best] = 0;
-		}
+		ticket_preference[TACAgent.TYPE_ALLIGATOR_WRESTLING] = agent.getClientPreference(client,TACAgent.TYPE_ALLIGATOR_WRESTLING);
+		ticket_preference[TACAgent.TYPE_AMUSEMENT] = agent.getClientPreference(client,TACAgent.TYPE_AMUSEMENT);
+		ticket_preference[TACAgent.TYPE_MUSEUM] = agent.getClientPreference(client,TACAgent.TYPE_MUSEUM);
+		tickets.setClient(client,current_allocations[client][0],current_allocations[client][1],ticket_preference);
 	}
-}
-
-private int getBestEnt(int[] client_vals)
-{
-	if ((client_vals[TACAgent.TYPE_ALLIGATOR_WRESTLING] > client_vals[TACAgent.TYPE_AMUSEMENT]) && (client_vals[TACAgent.TYPE_ALLIGATOR_WRESTLING] > client_vals[TACAgent.TYPE_MUSEUM])) {
-		return TACAgent.TYPE_ALLIGATOR_WRESTLING;
-	} else if ((client_vals[TACAgent.TYPE_AMUSEMENT] > client_vals[TACAgent.TYPE_MUSEUM])) {
-		return TACAgent.TYPE_AMUSEMENT;
-	} else { return TACAgent.TYPE_MUSEUM; }
+	for (int auc = 16; auc < 28; auc++) {
+		ticket_own[auc] = snapshot.getOwn(auc);
+		ticket_ask[auc] = snapshot.getAskPrice(auc);
+		ticket_bid[auc] = snapshot.getBidPrice(auc);
+	}
+	long start = System.nanoTime();
+	tickets.solve(ticket_own,ticket_ask,ticket_bid,buy_price,sell_price);
+	for (int auc = 16; auc < 28; auc++) {
+		agent.setAllocation(auc,tickets.getTickets(auc));
+	}
+	log.log(Level.FINE, "Entertainment value {0} ({1} sweeps, {2} us)", new Object[] { tickets.getValue(), tickets.getSweeps(), (System.nanoTime()-start)/1000 });
 }
 
 private void allocate_package(int client,int day_in, int day_out, int hotel_type)
@@ -522,53 +538,46 @@ private void allocate_package(int client,int day_in, int day_out, int hotel_type
 	int auction;
 	for (int day = day_in; day < day_out; day++)
 	{
-		auction = agent.getAuctionFor(TACAgent.CAT_HOTEL, hotel_type, day);
+		auction = TACAgent.getAuctionFor(TACAgent.CAT_HOTEL, hotel_type, day);
 		agent.setAllocation(auction, agent.getAllocation(auction) + 1);
-		if (items_available[auction] > 0)
-		{
-			items_available[auction] -= 1;
-		}
-		if (hqw_available[auction] > 0) 
-		{
-			hqw_available[auction] -= 1;
-		}
+		inventory.takeOwned(auction);
+		inventory.takeHQW(auction);
 	}
 	client_days[client][0] = day_in;
 	client_days[client][1] = day_out;
-	auction = agent.getAuctionFor(TACAgent.CAT_FLIGHT,TACAgent.TYPE_INFLIGHT,day_in);
-	if (items_available[auction] > 0) { items_available[auction] -= 1; }
+	auction = TACAgent.getAuctionFor(TACAgent.CAT_FLIGHT,TACAgent.TYPE_INFLIGHT,day_in);
+	inventory.takeOwned(auction);
 	agent.setAllocation(auction, agent.getAllocation(auction) + 1);
 
-	auction = agent.getAuctionFor(TACAgent.CAT_FLIGHT,TACAgent.TYPE_OUTFLIGHT,day_out);
-	if (items_available[auction] > 0) { items_available[auction] -= 1; }
+	auction = TACAgent.getAuctionFor(TACAgent.CAT_FLIGHT,TACAgent.TYPE_OUTFLIGHT,day_out);
+	inventory.takeOwned(auction);
 	agent.setAllocation(auction, agent.getAllocation(auction) + 1);
 }
+  // The bids must be in before the next hotel closes
+  private static final long PLAN_MARGIN = 5000;
+  private static final long MIN_PLAN_TIME = 100;
+
+  // Deadline for the allocation search as System.nanoTime(). Hotels
+  // close every minute so the next close is the game time left modulo
+  // one minute away.
+  private long getPlanningDeadline()
+  {
+	  long untilClose = agent.getGameTimeLeft() % 60000;
+	  if (untilClose == 0) { untilClose = 60000; }
+	  long budget = Math.max(MIN_PLAN_TIME, untilClose - PLAN_MARGIN);
+	  return System.nanoTime() + budget * 1000000L;
+  }
+
   private float HQW_abandon_cost = 0.65f;
-  private int get_util(int[][] allocations)
+  private float[] abandon_price = new float[28];
+  int get_util(int[][] allocations)
   {
 	if (allocations[0][0] == 0) { return 0; }
-	int retVal = 0; int HQWWaste = 0;
-	for (int i = 0; i < 8; i++)
-	{
-		retVal += predictUtility(i,allocations[i][0],allocations[i][1],allocations[i][2]);
-		applyAvailable(allocations[i]);
-	}
-	for (int i = 8; i < 16; i++) {
-		if (hqw_available[i] > 0) { HQWWaste += hqw_available[i] * agent.getQuote(i).getBidPrice() * HQW_abandon_cost; }
-	}
-	log.fine("Raw Util: "+retVal+", HQW Wasted: "+HQWWaste+", Total Util: "+(retVal-HQWWaste));
-	return retVal-HQWWaste;
+	double util = simulator.getExpectedUtility(packages,allocations,inventory.getOwned(),inventory.getHQW(),abandon_price);
+	log.log(Level.FINE, "Expected Util: {0} over {1} scenarios", new Object[] { util, simulator.getScenarioCount() });
+	return (int) util;
   }
 
-  private void applyAvailable(int[] allocations) {
-	int auction;
-	for (int day = allocations[0]; day < allocations[1]; day++) {
-		auction = agent.getAuctionFor(TACAgent.CAT_HOTEL, allocations[2], day);
-		if (hqw_available[auction] > 0) { hqw_available[auction] -= 1; }
-		if (items_available[auction] > 0) { items_available[auction] -= 1; }
-	}
-	}
-
   private int nextEntType(int client, int lastType) {
     int e1 = agent.getClientPreference(client, TACAgent.TYPE_ALLIGATOR_WRESTLING);
     int e2 = agent.getClientPreference(client, TACAgent.TYPE_AMUSEMENT);
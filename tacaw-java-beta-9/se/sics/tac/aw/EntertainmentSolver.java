@@ -0,0 +1,319 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * EntertainmentSolver assigns entertainment tickets to all clients at
+ * once and works out which tickets to buy and sell and at what limit
+ * prices.
+ *
+ * A client can use one ticket per night of its stay and each type of
+ * entertainment once, so its choices are the matchings of the three
+ * types to its nights; there are at most 73 of them and they are listed
+ * when the client is set. Clients are coupled only through the tickets
+ * they share: the n-th unit of an auction costs its bid price (the
+ * price it could be sold for) while n is at most the number owned, and
+ * its ask price after that. Since that cost only grows with n, letting
+ * each client in turn pick its best matching given the tickets used by
+ * the others never lowers the total value, and the sweeps stop when no
+ * client changes (a few sweeps, some microseconds).
+ *
+ * The buy limit of an auction is the lowest value of its ticket to a
+ * client that needs a bought unit: what the client would lose without
+ * it, plus its cost. The sell limit of an unused ticket is the most it
+ * is worth to any client, but at least the given minimum sell price.
+ * Without an ask price the default buy price is used both as the cost
+ * and as the highest limit, so standing bids do not overpay.
+ */
+
+package se.sics.tac.aw;
+
+class EntertainmentSolver {
+
+  public static final int NO_CLIENTS = 8;
+
+  private static final int MIN_TICKET = TACAgent.MIN_ENTERTAINMENT;
+  private static final int NO_TICKETS = 12;
+  private static final int NO_TYPES = 3;
+  private static final int MAX_OPTIONS = 73;
+  private static final int MAX_SWEEPS = 16;
+
+  // Matchings per client: the tickets (auction - MIN_TICKET) and their
+  // total preference. Option 0 is no tickets.
+  private final int[][][] options = new int[NO_CLIENTS][MAX_OPTIONS][];
+  private final int[][] optionValue = new int[NO_CLIENTS][MAX_OPTIONS];
+  private final int[] noOptions = new int[NO_CLIENTS];
+  // In day, out day and preferences the options were listed for
+  private final int[][] clients = new int[NO_CLIENTS][2 + NO_TYPES];
+
+  // Market
+  private final int[] owned = new int[NO_TICKETS];
+  private final float[] buyCost = new float[NO_TICKETS];
+  private final float[] sellValue = new float[NO_TICKETS];
+  private final boolean[] hasAsk = new boolean[NO_TICKETS];
+  private float defaultBuyPrice;
+  private float minSellPrice;
+
+  // Solution
+  private final int[] choice = new int[NO_CLIENTS];
+  private final int[] used = new int[NO_TICKETS];
+  private final int[] buy = new int[NO_TICKETS];
+  private final float[] buyPrice = new float[NO_TICKETS];
+  private final int[] sell = new int[NO_TICKETS];
+  private final float[] sellPrice = new float[NO_TICKETS];
+  private float value;
+  private int sweeps;
+
+  public EntertainmentSolver() {
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      setClient(c, 0, 0, new int[NO_TYPES + 1]);
+    }
+  }
+
+  /**
+   * Sets the stay and entertainment preferences of a client.
+   *
+   * @param inDay the arrival day
+   * @param outDay the departure day (the client has entertainment the
+   *	nights from inDay to outDay - 1)
+   * @param preference preference per entertainment type
+   *	(TACAgent.TYPE_ALLIGATOR_WRESTLING, TYPE_AMUSEMENT, TYPE_MUSEUM)
+   */
+  public void setClient(int client, int inDay, int outDay, int[] preference) {
+    int[] c = clients[client];
+    if (c[0] == inDay && c[1] == outDay && c[2] == preference[1]
+	&& c[3] == preference[2] && c[4] == preference[3]
+	&& noOptions[client] > 0) {
+      // Same matchings as before
+      return;
+    }
+    c[0] = inDay;
+    c[1] = outDay;
+    c[2] = preference[1];
+    c[3] = preference[2];
+    c[4] = preference[3];
+    int[][] o = options[client];
+    int[] v = optionValue[client];
+    o[0] = new int[0];
+    v[0] = 0;
+    int n = 1;
+    // Day assigned to each type, 0 for none
+    int nights = outDay > inDay ? outDay - inDay : 0;
+    for (int d1 = 0; d1 <= nights; d1++) {
+      for (int d2 = 0; d2 <= nights; d2++) {
+	if (d2 > 0 && d2 == d1) {
+	  continue;
+	}
+	for (int d3 = 0; d3 <= nights; d3++) {
+	  if (d3 > 0 && (d3 == d1 || d3 == d2)
+	      || (d1 == 0 && d2 == 0 && d3 == 0)) {
+	    continue;
+	  }
+	  int[] day = { d1, d2, d3 };
+	  int count = (d1 > 0 ? 1 : 0) + (d2 > 0 ? 1 : 0) + (d3 > 0 ? 1 : 0);
+	  int[] tickets = new int[count];
+	  int value = 0;
+	  for (int t = 0, i = 0; t < NO_TYPES; t++) {
+	    if (day[t] > 0) {
+	      int type = TACAgent.TYPE_ALLIGATOR_WRESTLING + t;
+	      tickets[i++] = TACAgent.getAuctionFor(TACAgent.CAT_ENTERTAINMENT,
+						    type, inDay + day[t] - 1)
+		- MIN_TICKET;
+	      value += preference[type];
+	    }
+	  }
+	  o[n] = tickets;
+	  v[n++] = value;
+	}
+      }
+    }
+    noOptions[client] = n;
+    choice[client] = 0;
+  }
+
+  /**
+   * Assigns the tickets given the market.
+   *
+   * @param own the number of units owned per auction (all 28 auctions)
+   * @param ask the ask price per auction, 0 if there is none
+   * @param bid the bid price per auction, 0 if there is none
+   * @param defaultBuyPrice the cost and highest buy limit of a ticket
+   *	without an ask price
+   * @param minSellPrice the lowest sell limit
+   */
+  public void solve(int[] own, float[] ask, float[] bid,
+		    float defaultBuyPrice, float minSellPrice) {
+    this.defaultBuyPrice = defaultBuyPrice;
+    this.minSellPrice = minSellPrice;
+    for (int t = 0; t < NO_TICKETS; t++) {
+      int a = MIN_TICKET + t;
+      owned[t] = own[a] > 0 ? own[a] : 0;
+      hasAsk[t] = ask[a] > 0;
+      buyCost[t] = hasAsk[t] ? ask[a] : defaultBuyPrice;
+      sellValue[t] = bid[a] > 0 ? bid[a] : 0;
+      used[t] = 0;
+    }
+    // Start from the last assignment; it is usually still good
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      if (choice[c] >= noOptions[c]) {
+	choice[c] = 0;
+      }
+      use(options[c][choice[c]], 1);
+    }
+    sweeps = 0;
+    boolean isChanged = true;
+    while (isChanged && sweeps < MAX_SWEEPS) {
+      isChanged = false;
+      sweeps++;
+      for (int c = 0; c < NO_CLIENTS; c++) {
+	use(options[c][choice[c]], -1);
+	int best = bestOption(c, -1, -1);
+	if (best != choice[c]
+	    && getValue(c, best, -1) > getValue(c, choice[c], -1)) {
+	  choice[c] = best;
+	  isChanged = true;
+	}
+	use(options[c][choice[c]], 1);
+      }
+    }
+
+    value = 0;
+    for (int t = 0; t < NO_TICKETS; t++) {
+      buy[t] = used[t] > owned[t] ? used[t] - owned[t] : 0;
+      sell[t] = owned[t] > used[t] ? owned[t] - used[t] : 0;
+      buyPrice[t] = Float.MAX_VALUE;
+      sellPrice[t] = minSellPrice;
+    }
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      use(options[c][choice[c]], -1);
+      float current = getValue(c, choice[c], -1);
+      value += current;
+      int[] tickets = options[c][choice[c]];
+      for (int i = 0; i < tickets.length; i++) {
+	int t = tickets[i];
+	if (buy[t] > 0) {
+	  // What the client would pay at most for the ticket
+	  float reservation = current
+	    - getValue(c, bestOption(c, t, -1), -1) + cost(t);
+	  if (reservation < buyPrice[t]) {
+	    buyPrice[t] = reservation;
+	  }
+	}
+      }
+      for (int t = 0; t < NO_TICKETS; t++) {
+	if (sell[t] > 0) {
+	  // What a free ticket would add for the client
+	  float worth = getValue(c, bestOption(c, -1, t), t) - current;
+	  if (worth > sellPrice[t]) {
+	    sellPrice[t] = worth;
+	  }
+	}
+      }
+      use(options[c][choice[c]], 1);
+    }
+    for (int t = 0; t < NO_TICKETS; t++) {
+      if (buy[t] > 0 && !hasAsk[t] && buyPrice[t] > defaultBuyPrice) {
+	buyPrice[t] = defaultBuyPrice;
+      }
+    }
+  }
+
+  // Cost of one more unit of the ticket
+  private float cost(int ticket) {
+    return used[ticket] < owned[ticket] ? sellValue[ticket] : buyCost[ticket];
+  }
+
+  private void use(int[] tickets, int n) {
+    for (int i = 0; i < tickets.length; i++) {
+      used[tickets[i]] += n;
+    }
+  }
+
+  // Value of an option given the tickets used by the other clients; the
+  // free ticket costs nothing
+  private float getValue(int client, int option, int free) {
+    int[] tickets = options[client][option];
+    float v = optionValue[client][option];
+    for (int i = 0; i < tickets.length; i++) {
+      int t = tickets[i];
+      if (t != free) {
+	v -= cost(t);
+      }
+    }
+    return v;
+  }
+
+  // Best option of the client without the excluded ticket and with the
+  // free ticket costing nothing
+  private int bestOption(int client, int excluded, int free) {
+    int best = 0;
+    float bestValue = 0;
+    int[][] o = options[client];
+    for (int i = 1, n = noOptions[client]; i < n; i++) {
+      int[] tickets = o[i];
+      boolean isExcluded = false;
+      for (int j = 0; j < tickets.length; j++) {
+	if (tickets[j] == excluded) {
+	  isExcluded = true;
+	}
+      }
+      if (!isExcluded) {
+	float v = getValue(client, i, free);
+	if (v > bestValue) {
+	  bestValue = v;
+	  best = i;
+	}
+      }
+    }
+    return best;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Solution
+  // -------------------------------------------------------------------
+
+  /** Returns the value of the assignment net of ticket costs */
+  public float getValue() {
+    return value;
+  }
+
+  public int getSweeps() {
+    return sweeps;
+  }
+
+  /** Returns the number of tickets of the auction assigned to clients */
+  public int getTickets(int auction) {
+    return used[auction - MIN_TICKET];
+  }
+
+  /** Returns the auction of the client's ticket for the day, or -1 */
+  public int getTicket(int client, int day) {
+    int[] tickets = options[client][choice[client]];
+    for (int i = 0; i < tickets.length; i++) {
+      if (TACAgent.getAuctionDay(MIN_TICKET + tickets[i]) == day) {
+	return MIN_TICKET + tickets[i];
+      }
+    }
+    return -1;
+  }
+
+  public int getBuyQuantity(int auction) {
+    return buy[auction - MIN_TICKET];
+  }
+
+  public float getBuyPrice(int auction) {
+    return buyPrice[auction - MIN_TICKET];
+  }
+
+  public int getSellQuantity(int auction) {
+    return sell[auction - MIN_TICKET];
+  }
+
+  public float getSellPrice(int auction) {
+    return sellPrice[auction - MIN_TICKET];
+  }
+
+} // EntertainmentSolver
@@ -0,0 +1,434 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * EventLoopAgent runs another agent implementation (the strategy) on a
+ * single strategy thread of its own. The callbacks from TACAgent only
+ * queue an event and return, so slow strategy code such as a new
+ * allocation when a hotel closes never holds up the connection thread
+ * that delivered the message or the timer thread.
+ *
+ * Quote updates are coalesced: while an update for an auction (or a
+ * category) is waiting in the queue, further updates for it are not
+ * queued again, and the strategy sees the latest quote when the event
+ * is handled. All other events are delivered in order. When the game
+ * ends, quote updates and closed auctions that the strategy has not yet
+ * seen are dropped since it can no longer bid on them.
+ *
+ * The queue holds queueSize events. Since the network threads must
+ * never block and bid and transaction events must not be lost, a full
+ * queue grows (with a warning) rather than blocking or dropping. The
+ * queue depth and the latency from callback to handled event are
+ * logged at the end of each game.
+ *
+ * The MarketState of the agent is published from the callbacks, on the
+ * thread that updated the quotes, so the strategy can read a consistent
+ * snapshot of the market while the next replies are received.
+ *
+ * Use it with "-agentimpl se.sics.tac.aw.EventLoopAgent" and the
+ * agent options
+ *
+ *  -strategy <className>	strategy to run (default DummyAgent)
+ *  -eventQueue <size>		initial event queue size (default 256)
+ */
+
+package se.sics.tac.aw;
+
+import java.lang.reflect.Field;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import se.sics.tac.util.ArgEnumerator;
+
+public class EventLoopAgent extends AgentImpl implements Runnable {
+
+  private static final Logger log =
+    Logger.getLogger(EventLoopAgent.class.getName());
+
+  private static final int QUOTE = 0;
+  private static final int CATEGORY = 1;
+  private static final int BID_UPDATED = 2;
+  private static final int BID_REJECTED = 3;
+  private static final int BID_ERROR = 4;
+  private static final int GAME_STARTED = 5;
+  private static final int GAME_STOPPED = 6;
+  private static final int AUCTION_CLOSED = 7;
+  private static final int TRANSACTION = 8;
+  private static final int TAC_ERROR = 9;
+  private static final int DROPPED = 10;
+
+  private static final int NO_CATEGORIES = 3;
+
+  private AgentImpl strategy;
+  private MarketState market;
+
+  // Event ring, guarded by this object
+  private int[] types;
+  private int[] ints;
+  private Object[] objects;
+  private long[] times;
+  private int head;
+  private int size;
+  private boolean isBusy;
+
+  // Coalescing: set while a quote or category event is queued
+  private final boolean[] quoteQueued = new boolean[TACAgent.getAuctionNo()];
+  private final boolean[] categoryQueued = new boolean[NO_CATEGORIES];
+
+  // Statistics, guarded by this object
+  private long events;
+  private long coalesced;
+  private long dropped;
+  private int maxDepth;
+  private long totalLatency;
+  private long maxLatency;
+  private long handled;
+  private int gamesPlayed;
+
+  protected void init(ArgEnumerator args) {
+    String className = args.getArgument("-strategy",
+					agent.getConfig("strategy",
+							"se.sics.tac.aw.DummyAgent"));
+    int queueSize = Math.max(16, args.getArgument("-eventQueue",
+						   agent.getConfig("eventQueue", 256)));
+    types = new int[queueSize];
+    ints = new int[queueSize];
+    objects = new Object[queueSize];
+    times = new long[queueSize];
+    market = MarketState.getMarketState(agent);
+    try {
+      strategy = (AgentImpl) Class.forName(className)
+	.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      log.log(Level.SEVERE, "could not create strategy " + className, e);
+      agent.fatalError("no strategy available");
+      return;
+    }
+    log.fine("Running strategy " + className + " on the event loop");
+    strategy.init(agent, args);
+
+    AgentThreads.start(this, "strategy", true);
+  }
+
+  protected String getUsage() {
+    return "    -strategy <className>     set the strategy to run\n"
+      + "    -eventQueue <size>        set the initial event queue size";
+  }
+
+  public AgentImpl getStrategy() {
+    return strategy;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Callbacks from TACAgent: queue and return
+  // -------------------------------------------------------------------
+
+  public void quoteUpdated(Quote quote) {
+    int auction = quote.getAuction();
+    market.publish();
+    synchronized (this) {
+      if (quoteQueued[auction]) {
+	coalesced++;
+	return;
+      }
+      quoteQueued[auction] = true;
+      add(QUOTE, auction, quote);
+    }
+  }
+
+  public void quoteUpdated(int category) {
+    synchronized (this) {
+      if (categoryQueued[category]) {
+	coalesced++;
+	return;
+      }
+      categoryQueued[category] = true;
+      add(CATEGORY, category, null);
+    }
+  }
+
+  public synchronized void bidUpdated(Bid bid) {
+    add(BID_UPDATED, 0, bid);
+  }
+
+  public synchronized void bidRejected(Bid bid) {
+    add(BID_REJECTED, 0, bid);
+  }
+
+  public synchronized void bidError(Bid bid, int status) {
+    add(BID_ERROR, status, bid);
+  }
+
+  public void gameStarted() {
+    market.publish();
+    synchronized (this) {
+      add(GAME_STARTED, 0, null);
+    }
+  }
+
+  public synchronized void gameStopped() {
+    for (int i = 0; i < size; i++) {
+      int index = (head + i) % types.length;
+      int type = types[index];
+      if (type == QUOTE || type == CATEGORY || type == AUCTION_CLOSED) {
+	if (type == QUOTE) {
+	  quoteQueued[ints[index]] = false;
+	} else if (type == CATEGORY) {
+	  categoryQueued[ints[index]] = false;
+	}
+	types[index] = DROPPED;
+	objects[index] = null;
+	dropped++;
+      }
+    }
+    add(GAME_STOPPED, 0, null);
+  }
+
+  public void auctionClosed(int auction) {
+    market.publish();
+    synchronized (this) {
+      add(AUCTION_CLOSED, auction, null);
+    }
+  }
+
+  public void transaction(Transaction transaction) {
+    market.publish();
+    synchronized (this) {
+      add(TRANSACTION, 0, transaction);
+    }
+  }
+
+  protected synchronized void tacerrorReceived(TACMessage msg) {
+    add(TAC_ERROR, 0, msg);
+  }
+
+  // Must be called with the lock held
+  private void add(int type, int value, Object object) {
+    if (size == types.length) {
+      grow();
+    }
+    int index = (head + size) % types.length;
+    types[index] = type;
+    ints[index] = value;
+    objects[index] = object;
+    times[index] = System.nanoTime();
+    size++;
+    events++;
+    if (size > maxDepth) {
+      maxDepth = size;
+    }
+    if (size == 1) {
+      notifyAll();
+    }
+  }
+
+  private void grow() {
+    int length = types.length;
+    log.warning("event queue full with " + length
+		+ " events: strategy is falling behind");
+    int[] newTypes = new int[length * 2];
+    int[] newInts = new int[length * 2];
+    Object[] newObjects = new Object[length * 2];
+    long[] newTimes = new long[length * 2];
+    for (int i = 0; i < size; i++) {
+      int index = (head + i) % length;
+      newTypes[i] = types[index];
+      newInts[i] = ints[index];
+      newObjects[i] = objects[index];
+      newTimes[i] = times[index];
+    }
+    types = newTypes;
+    ints = newInts;
+    objects = newObjects;
+    times = newTimes;
+    head = 0;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Strategy thread
+  // -------------------------------------------------------------------
+
+  public void run() {
+    while (true) {
+      int type;
+      int value;
+      Object object;
+      long queued;
+      synchronized (this) {
+	while (size == 0) {
+	  try {
+	    wait();
+	  } catch (InterruptedException e) {
+	    log.log(Level.WARNING, "strategy thread interrupted", e);
+	  }
+	}
+	type = types[head];
+	value = ints[head];
+	object = objects[head];
+	queued = times[head];
+	objects[head] = null;
+	head = (head + 1) % types.length;
+	size--;
+	isBusy = true;
+	// Later updates are queued again once this one is handled
+	if (type == QUOTE) {
+	  quoteQueued[value] = false;
+	} else if (type == CATEGORY) {
+	  categoryQueued[value] = false;
+	}
+      }
+
+      try {
+	dispatch(type, value, object);
+      } catch (Throwable e) {
+	log.log(Level.SEVERE, "strategy could not handle event " + type, e);
+      }
+
+      long latency = System.nanoTime() - queued;
+      synchronized (this) {
+	isBusy = false;
+	if (size == 0) {
+	  notifyAll();
+	}
+	handled++;
+	totalLatency += latency;
+	if (latency > maxLatency) {
+	  maxLatency = latency;
+	}
+      }
+      if (type == GAME_STOPPED) {
+	logStatistics();
+	synchronized (this) {
+	  gamesPlayed++;
+	}
+      }
+    }
+  }
+
+  private void dispatch(int type, int value, Object object) {
+    switch (type) {
+    case QUOTE:
+      strategy.quoteUpdated((Quote) object);
+      break;
+    case CATEGORY:
+      strategy.quoteUpdated(value);
+      break;
+    case BID_UPDATED:
+      strategy.bidUpdated((Bid) object);
+      break;
+    case BID_REJECTED:
+      strategy.bidRejected((Bid) object);
+      break;
+    case BID_ERROR:
+      strategy.bidError((Bid) object, value);
+      break;
+    case GAME_STARTED:
+      strategy.gameStarted();
+      break;
+    case GAME_STOPPED:
+      strategy.gameStopped();
+      break;
+    case AUCTION_CLOSED:
+      strategy.auctionClosed(value);
+      break;
+    case TRANSACTION:
+      strategy.transaction((Transaction) object);
+      break;
+    case TAC_ERROR:
+      strategy.tacerrorReceived((TACMessage) object);
+      break;
+    case DROPPED:
+      break;
+    default:
+      log.warning("unknown event " + type);
+    }
+  }
+
+
+  public synchronized boolean isIdle() {
+    return size == 0 && !isBusy;
+  }
+
+  /**
+   * Waits until the strategy has handled all queued events. Used by the
+   * simulator so that its clock does not run ahead of the strategy.
+   */
+  public synchronized void awaitIdle() throws InterruptedException {
+    while (size > 0 || isBusy) {
+      wait();
+    }
+  }
+
+  /** Returns the agent implementation that TACAgent calls */
+  static AgentImpl getAgentImpl(TACAgent agent) {
+    try {
+      Field field = TACAgent.class.getDeclaredField("agent");
+      field.setAccessible(true);
+      return (AgentImpl) field.get(agent);
+    } catch (Exception e) {
+      throw new IllegalStateException("could not access agent implementation: "
+				      + e);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Statistics
+  // -------------------------------------------------------------------
+
+  /** Returns the number of games the strategy has seen end */
+  public synchronized int getGamesPlayed() {
+    return gamesPlayed;
+  }
+
+  public synchronized int getQueueDepth() {
+    return size;
+  }
+
+  public synchronized int getMaxQueueDepth() {
+    return maxDepth;
+  }
+
+  public synchronized long getEventCount() {
+    return events;
+  }
+
+  public synchronized long getCoalescedCount() {
+    return coalesced;
+  }
+
+  /** Returns the number of events dropped at the end of a game */
+  public synchronized long getDroppedCount() {
+    return dropped;
+  }
+
+  /** Returns the mean time from callback to handled event in ms */
+  public synchronized double getAverageLatency() {
+    return handled == 0 ? 0 : totalLatency / 1e6 / handled;
+  }
+
+  public synchronized double getMaxLatency() {
+    return maxLatency / 1e6;
+  }
+
+  private synchronized void logStatistics() {
+    log.fine("Event loop: " + events + " events, " + coalesced
+	     + " quote updates coalesced, " + dropped
+	     + " dropped at game end, queue depth " + size + " (max "
+	     + maxDepth + "), latency " + String.format("%.2f", getAverageLatency())
+	     + " ms (max " + String.format("%.2f", getMaxLatency()) + " ms)");
+    events = 0;
+    coalesced = 0;
+    dropped = 0;
+    maxDepth = size;
+    handled = 0;
+    totalLatency = 0;
+    maxLatency = 0;
+  }
+
+} // EventLoopAgent
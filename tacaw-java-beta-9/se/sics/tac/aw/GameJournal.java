@@ -0,0 +1,267 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * GameJournal appends the events of the games an agent plays to a
+ * binary journal, for analysis after the games (see GameJournalReader):
+ * quotes, bids with their processing state, transactions, closed
+ * auctions and the allocations and utility estimates of the strategy.
+ *
+ * Events are put in a direct buffer and written to the file when the
+ * buffer is full and when a game ends, so there is no system call per
+ * event. The offset of each game in the journal is also appended to an
+ * index file "<journal>.idx" as (int game ID, long offset); the journal
+ * is written up to the start of the game first, so that the index
+ * never points past the end of the journal.
+ *
+ * File format: the magic number followed by events of
+ *
+ *   byte type, int game time in milliseconds
+ *
+ * and then by type
+ *
+ *   GAME_STARTED	int game ID, long start time, int game length
+ *   QUOTE		byte auction, byte status, float ask price,
+ *			float bid price, short HQW
+ *   BID		int bid ID, byte auction, byte processing state,
+ *			byte reject reason, short points,
+ *			points * (short quantity, float price)
+ *   TRANSACTION	byte auction, short quantity, float price
+ *   AUCTION_CLOSED	byte auction
+ *   ALLOCATION		8 clients * (byte in day, byte out day,
+ *			byte hotel type)
+ *   UTILITY		int current utility, int utility of the new
+ *			allocation
+ *   GAME_STOPPED	-
+ *
+ * The journal is turned off unless configured with the system property
+ *
+ *  tac.journal.file	the file to append to; "%a" is replaced with
+ *			the agent name (needed when several agents run
+ *			in one JVM)
+ */
+
+package se.sics.tac.aw;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class GameJournal {
+
+  private static final Logger log =
+    Logger.getLogger(GameJournal.class.getName());
+
+  static final int MAGIC = 0x5441434A; // "TACJ"
+
+  public static final byte GAME_STARTED = 1;
+  public static final byte QUOTE = 2;
+  public static final byte BID = 3;
+  public static final byte TRANSACTION = 4;
+  public static final byte AUCTION_CLOSED = 5;
+  public static final byte ALLOCATION = 6;
+  public static final byte UTILITY = 7;
+  public static final byte GAME_STOPPED = 8;
+
+  public static final int NO_CLIENTS = 8;
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final int HEADER_SIZE = 5;
+
+  private static final Map<TACAgent,GameJournal> journals =
+    new WeakHashMap<TACAgent,GameJournal>();
+
+  private final TACAgent agent;
+  private final String file;
+  private final FileChannel channel;
+  private final FileChannel index;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final ByteBuffer indexEntry = ByteBuffer.allocate(12);
+  // Bytes in the file, not counting the buffer
+  private long written;
+
+  public GameJournal(TACAgent agent, String file) throws IOException {
+    this.agent = agent;
+    this.file = file;
+    channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+			       StandardOpenOption.WRITE,
+			       StandardOpenOption.APPEND);
+    try {
+      index = FileChannel.open(Paths.get(file + ".idx"),
+			       StandardOpenOption.CREATE,
+			       StandardOpenOption.WRITE,
+			       StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    written = channel.size();
+    if (written == 0) {
+      buffer.putInt(MAGIC);
+    }
+    log.fine("Journal of games in " + file);
+  }
+
+  /**
+   * Returns the journal of the agent, or null if there is none or it
+   * could not be opened.
+   */
+  public static GameJournal getJournal(TACAgent agent) {
+    String file = System.getProperty("tac.journal.file");
+    if (file == null) {
+      return null;
+    }
+    synchronized (journals) {
+      if (journals.containsKey(agent)) {
+	return journals.get(agent);
+      }
+      String name = agent.getUser();
+      file = file.replace("%a", name == null ? "agent" : name);
+      GameJournal journal = null;
+      try {
+	journal = new GameJournal(agent, file);
+      } catch (IOException e) {
+	log.log(Level.SEVERE, "could not open journal " + file, e);
+      }
+      journals.put(agent, journal);
+      return journal;
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Events
+  // -------------------------------------------------------------------
+
+  public synchronized void gameStarted() {
+    int gameID = agent.getGameID();
+    if (!startEvent(GAME_STARTED, 16)) {
+      return;
+    }
+    long offset = written + buffer.position() - HEADER_SIZE;
+    buffer.putInt(gameID);
+    buffer.putLong(agent.getServerTime() - agent.getGameTime());
+    buffer.putInt(agent.getGameLength());
+    if (!write()) {
+      return;
+    }
+    indexEntry.clear();
+    indexEntry.putInt(gameID).putLong(offset).flip();
+    try {
+      while (indexEntry.hasRemaining()) {
+	index.write(indexEntry);
+      }
+    } catch (IOException e) {
+      log.log(Level.SEVERE, "could not write journal index " + file, e);
+    }
+  }
+
+  public synchronized void quoteUpdated(Quote quote) {
+    if (startEvent(QUOTE, 12)) {
+      buffer.put((byte) quote.getAuction());
+      buffer.put((byte) quote.getAuctionStatus());
+      buffer.putFloat(quote.getAskPrice());
+      buffer.putFloat(quote.getBidPrice());
+      buffer.putShort((short) quote.getHQW());
+    }
+  }
+
+  public synchronized void bidUpdated(Bid bid) {
+    int points = bid.getNoBidPoints();
+    if (startEvent(BID, 9 + 6 * points)) {
+      buffer.putInt(bid.getID());
+      buffer.put((byte) bid.getAuction());
+      buffer.put((byte) bid.getProcessingState());
+      buffer.put((byte) bid.getRejectReason());
+      buffer.putShort((short) points);
+      for (int i = 0; i < points; i++) {
+	buffer.putShort((short) bid.getQuantity(i));
+	buffer.putFloat(bid.getPrice(i));
+      }
+    }
+  }
+
+  public synchronized void transaction(Transaction transaction) {
+    if (startEvent(TRANSACTION, 7)) {
+      buffer.put((byte) transaction.getAuction());
+      buffer.putShort((short) transaction.getQuantity());
+      buffer.putFloat(transaction.getPrice());
+    }
+  }
+
+  public synchronized void auctionClosed(int auction) {
+    if (startEvent(AUCTION_CLOSED, 1)) {
+      buffer.put((byte) auction);
+    }
+  }
+
+  /** Records an allocation of {in day, out day, hotel type} per client */
+  public synchronized void allocation(int[][] allocation) {
+    if (startEvent(ALLOCATION, NO_CLIENTS * 3)) {
+      for (int c = 0; c < NO_CLIENTS; c++) {
+	buffer.put((byte) allocation[c][0]);
+	buffer.put((byte) allocation[c][1]);
+	buffer.put((byte) allocation[c][2]);
+      }
+    }
+  }
+
+  public synchronized void utility(int currentUtility, int newUtility) {
+    if (startEvent(UTILITY, 8)) {
+      buffer.putInt(currentUtility);
+      buffer.putInt(newUtility);
+    }
+  }
+
+  /** Records the end of the game and writes the buffered events */
+  public synchronized void gameStopped() {
+    startEvent(GAME_STOPPED, 0);
+    flush();
+  }
+
+  /** Writes the buffered events to the file */
+  public synchronized void flush() {
+    write();
+  }
+
+  // Returns false if the events could not be written
+  private boolean write() {
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+	written += channel.write(buffer);
+      }
+      return true;
+    } catch (IOException e) {
+      log.log(Level.SEVERE, "could not write journal " + file, e);
+      // Drop the events rather than failing on every later event
+      return false;
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  // Makes room for an event of the given size and writes its header
+  private boolean startEvent(byte type, int size) {
+    if (buffer.remaining() < HEADER_SIZE + size) {
+      flush();
+      if (buffer.remaining() < HEADER_SIZE + size) {
+	log.warning("journal event of " + size + " bytes is too large");
+	return false;
+      }
+    }
+    buffer.put(type);
+    buffer.putInt((int) agent.getGameTime());
+    return true;
+  }
+
+} // GameJournal
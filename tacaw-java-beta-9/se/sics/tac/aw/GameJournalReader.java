@@ -0,0 +1,319 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * GameJournalReader reads a journal written by GameJournal, one event at
+ * a time:
+ *
+ *   GameJournalReader reader = new GameJournalReader("aw.journal");
+ *   if (reader.seekGame(gameID)) {
+ *     while (reader.next() && reader.getType() != GameJournal.GAME_STOPPED) {
+ *	 ...
+ *     }
+ *   }
+ *
+ * next() reads the next event and the getters return its fields; which
+ * fields an event has depends on its type (see GameJournal). The file is
+ * memory mapped and no objects are created per event, so a scan over
+ * thousands of games is fast. The game offsets are read from the index
+ * file when there is one and otherwise found by scanning the journal.
+ * A journal must be smaller than 2 GB.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+
+public class GameJournalReader {
+
+  private static final int MAX_BID_POINTS = 1024;
+
+  private final MappedByteBuffer buffer;
+  private final LinkedHashMap<Integer,Long> games =
+    new LinkedHashMap<Integer,Long>();
+
+  // The current event
+  private byte type;
+  private int time;
+  private int gameID = -1;
+  private long startTime;
+  private int gameLength;
+  private int auction;
+  private int state;
+  private int id;
+  private int rejectReason;
+  private int quantity;
+  private float price;
+  private float bidPrice;
+  private int hqw;
+  private int noBidPoints;
+  private final int[] bidQuantity = new int[MAX_BID_POINTS];
+  private final float[] bidPointPrice = new float[MAX_BID_POINTS];
+  private final int[][] allocation = new int[GameJournal.NO_CLIENTS][3];
+  private int utility;
+  private int newUtility;
+
+  public GameJournalReader(String file) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(file),
+					   StandardOpenOption.READ);
+    try {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      channel.close();
+    }
+    if (buffer.remaining() < 4 || buffer.getInt() != GameJournal.MAGIC) {
+      throw new IOException(file + " is not a game journal");
+    }
+    if (!readIndex(file + ".idx")) {
+      scanGames();
+    }
+    rewind();
+  }
+
+  private boolean readIndex(String file) throws IOException {
+    if (!new File(file).exists()) {
+      return false;
+    }
+    FileChannel channel = FileChannel.open(Paths.get(file),
+					   StandardOpenOption.READ);
+    try {
+      ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				     channel.size());
+      while (index.remaining() >= 12) {
+	int game = index.getInt();
+	long offset = index.getLong();
+	if (offset < 4 || offset >= buffer.capacity()) {
+	  // Not from this journal
+	  games.clear();
+	  return false;
+	}
+	games.put(game, offset);
+      }
+    } finally {
+      channel.close();
+    }
+    return true;
+  }
+
+  private void scanGames() {
+    buffer.position(4);
+    int offset = 4;
+    while (next()) {
+      if (type == GameJournal.GAME_STARTED) {
+	games.put(gameID, (long) offset);
+      }
+      offset = buffer.position();
+    }
+  }
+
+  /** Returns the IDs of the games in the journal, in journal order */
+  public int[] getGameIDs() {
+    int[] ids = new int[games.size()];
+    int i = 0;
+    for (Integer game : games.keySet()) {
+      ids[i++] = game;
+    }
+    return ids;
+  }
+
+  /**
+   * Moves to the start of the game (the last time it was played if it
+   * is in the journal more than once) so that next() reads its
+   * GAME_STARTED event. Returns false if the game is not in the journal.
+   */
+  public boolean seekGame(int gameID) {
+    Long offset = games.get(gameID);
+    if (offset == null) {
+      return false;
+    }
+    buffer.position(offset.intValue());
+    return true;
+  }
+
+  /** Moves to the first event of the journal */
+  public void rewind() {
+    buffer.position(4);
+    gameID = -1;
+  }
+
+  /**
+   * Reads the next event. Returns false at the end of the journal or if
+   * the last event was not completely written.
+   */
+  public boolean next() {
+    int start = buffer.position();
+    try {
+      type = buffer.get();
+      time = buffer.getInt();
+      switch (type) {
+      case GameJournal.GAME_STARTED:
+	gameID = buffer.getInt();
+	startTime = buffer.getLong();
+	gameLength = buffer.getInt();
+	break;
+      case GameJournal.QUOTE:
+	auction = buffer.get();
+	state = buffer.get();
+	price = buffer.getFloat();
+	bidPrice = buffer.getFloat();
+	hqw = buffer.getShort();
+	break;
+      case GameJournal.BID:
+	id = buffer.getInt();
+	auction = buffer.get();
+	state = buffer.get();
+	rejectReason = buffer.get();
+	noBidPoints = buffer.getShort();
+	for (int i = 0; i < noBidPoints; i++) {
+	  int q = buffer.getShort();
+	  float p = buffer.getFloat();
+	  if (i < MAX_BID_POINTS) {
+	    bidQuantity[i] = q;
+	    bidPointPrice[i] = p;
+	  }
+	}
+	noBidPoints = Math.min(noBidPoints, MAX_BID_POINTS);
+	break;
+      case GameJournal.TRANSACTION:
+	auction = buffer.get();
+	quantity = buffer.getShort();
+	price = buffer.getFloat();
+	break;
+      case GameJournal.AUCTION_CLOSED:
+	auction = buffer.get();
+	break;
+      case GameJournal.ALLOCATION:
+	for (int c = 0; c < GameJournal.NO_CLIENTS; c++) {
+	  allocation[c][0] = buffer.get();
+	  allocation[c][1] = buffer.get();
+	  allocation[c][2] = buffer.get();
+	}
+	break;
+      case GameJournal.UTILITY:
+	utility = buffer.getInt();
+	newUtility = buffer.getInt();
+	break;
+      case GameJournal.GAME_STOPPED:
+	break;
+      default:
+	// Not a journal event: nothing more can be read
+	buffer.position(buffer.limit());
+	return false;
+      }
+      return true;
+    } catch (BufferUnderflowException e) {
+      buffer.position(start);
+      return false;
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // The current event
+  // -------------------------------------------------------------------
+
+  public byte getType() {
+    return type;
+  }
+
+  /** Returns the game time of the event in milliseconds */
+  public int getTime() {
+    return time;
+  }
+
+  /** Returns the game of the event (from the last GAME_STARTED) */
+  public int getGameID() {
+    return gameID;
+  }
+
+  /** Returns the server time the game started at (GAME_STARTED) */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /** Returns the length of the game in milliseconds (GAME_STARTED) */
+  public int getGameLength() {
+    return gameLength;
+  }
+
+  /** QUOTE, BID, TRANSACTION and AUCTION_CLOSED */
+  public int getAuction() {
+    return auction;
+  }
+
+  /** Returns the auction status (QUOTE) or processing state (BID) */
+  public int getState() {
+    return state;
+  }
+
+  /** Returns the bid ID (BID) */
+  public int getID() {
+    return id;
+  }
+
+  public int getRejectReason() {
+    return rejectReason;
+  }
+
+  /** Returns the quantity bought, negative if sold (TRANSACTION) */
+  public int getQuantity() {
+    return quantity;
+  }
+
+  /** Returns the ask price (QUOTE) or the price (TRANSACTION) */
+  public float getPrice() {
+    return price;
+  }
+
+  /** Returns the bid price (QUOTE) */
+  public float getBidPrice() {
+    return bidPrice;
+  }
+
+  /** Returns the hypothetical quantity won (QUOTE) */
+  public int getHQW() {
+    return hqw;
+  }
+
+  public int getNoBidPoints() {
+    return noBidPoints;
+  }
+
+  public int getQuantity(int point) {
+    return bidQuantity[point];
+  }
+
+  public float getPrice(int point) {
+    return bidPointPrice[point];
+  }
+
+  /**
+   * Returns the in day (0), out day (1) or hotel type (2) of the client
+   * (ALLOCATION)
+   */
+  public int getAllocation(int client, int field) {
+    return allocation[client][field];
+  }
+
+  /** Returns the utility of the current allocation (UTILITY) */
+  public int getUtility() {
+    return utility;
+  }
+
+  /** Returns the utility of the new allocation (UTILITY) */
+  public int getNewUtility() {
+    return newUtility;
+  }
+
+} // GameJournalReader
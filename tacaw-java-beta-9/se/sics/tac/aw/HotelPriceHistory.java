@@ -0,0 +1,410 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * HotelPriceHistory keeps the hotel ask prices and closing prices of
+ * past games in a memory mapped file, so that closing prices can be
+ * predicted from what hotels with a similar ask price at the same
+ * minute closed at before.
+ *
+ * The file has one row per game, hotel auction and game minute (the
+ * last quote of the minute) in columns:
+ *
+ *  game	int	game ID
+ *  day		byte	day of the hotel auction
+ *  type	byte	hotel type (TACAgent.TYPE_CHEAP_HOTEL/TYPE_GOOD_HOTEL)
+ *  minute	byte	game minute of the quote
+ *  order	byte	closing order of the auction (0 = first), -1 if open
+ *  ask		float	ask price
+ *  hqw		short	hypothetical quantity won
+ *  close	float	closing price of the auction, NaN if open
+ *
+ * after a header with the magic number, the capacity in rows and the
+ * number of rows used. The rows are written when the quotes and
+ * closings arrive; the closing order and price of all rows of an
+ * auction are filled in when it closes. Rows of games that were never
+ * finished keep NaN closing prices and are not used.
+ *
+ * When opened, and whenever an auction closes, the closed rows are
+ * added to an index of the closing price to ask price ratios by hotel
+ * type, minute and (logarithmic) ask price, so that a query only looks
+ * at one or a few index buckets.
+ *
+ * The history is turned off unless configured with the system
+ * properties
+ *
+ *  tac.history.file	file to keep the history in
+ *  tac.history.rows	capacity of a new file in rows (default 262144)
+ *
+ * All agents of a JVM share the history of getDefault(). Agents in the
+ * same game report the same quotes and closings; a closing already
+ * recorded for the game is ignored. The agents must call gameStopped
+ * at the end of each game, after which the game is not recorded again.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class HotelPriceHistory {
+
+  private static final Logger log =
+    Logger.getLogger(HotelPriceHistory.class.getName());
+
+  /** Number of samples needed for a prediction */
+  public static final int MIN_SAMPLES = 16;
+
+  public static final int MAX_MINUTES = 16;
+
+  private static final int MAGIC = 0x54414348;
+  private static final int HEADER_SIZE = 16;
+  private static final int ROW_SIZE = 4 + 1 + 1 + 1 + 1 + 4 + 2 + 4;
+
+  private static final int NO_HOTELS = 8;
+  private static final int MIN_HOTEL = TACAgent.MIN_HOTEL;
+  private static final int NO_TYPES = 2;
+  private static final int NO_BUCKETS = 48;
+  /** Ask price buckets per doubling of the ask price */
+  private static final int BUCKETS_PER_OCTAVE = 4;
+  /** Furthest neighbour buckets used when a bucket has few samples */
+  private static final int MAX_WIDEN = 2;
+
+  // Game row entries after the row per hotel and minute
+  private static final int CLOSED_COUNT = NO_HOTELS * MAX_MINUTES;
+  private static final int CLOSED_HOTELS = CLOSED_COUNT + 1;
+
+  private static HotelPriceHistory history;
+  private static boolean isDefaultOpened;
+
+  private final String file;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private int size;
+  private boolean isFull;
+
+  // Column offsets in the file
+  private final int gameColumn;
+  private final int dayColumn;
+  private final int typeColumn;
+  private final int minuteColumn;
+  private final int orderColumn;
+  private final int askColumn;
+  private final int hqwColumn;
+  private final int closeColumn;
+
+  // Rows of the games being played, by game ID: the row per hotel and
+  // minute, the number of closed hotels and a bit per closed hotel
+  private final HashMap<Integer,int[]> openGames =
+    new HashMap<Integer,int[]>();
+  // The last games stopped, so that late reports do not open them again
+  private final int[] stoppedGames = new int[8];
+  private int nextStopped;
+
+  // Index of closing price / ask price ratios by type, minute and bucket
+  private final float[][] ratios =
+    new float[NO_TYPES * MAX_MINUTES * NO_BUCKETS][];
+  private final int[] counts = new int[ratios.length];
+  private final double[] sums = new double[ratios.length];
+
+  /**
+   * Opens the history in the given file, which is created with room for
+   * the given number of rows if it does not exist.
+   */
+  public HotelPriceHistory(String file, int rows) throws IOException {
+    this.file = file;
+    FileChannel channel =
+      FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+		       StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      if (channel.size() >= HEADER_SIZE) {
+	ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	channel.read(header, 0);
+	if (header.getInt(0) != MAGIC) {
+	  throw new IOException(file + " is not a hotel price history");
+	}
+	rows = header.getInt(4);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+			   HEADER_SIZE + (long) rows * ROW_SIZE);
+    } finally {
+      // The mapping stays valid after the channel is closed
+      channel.close();
+    }
+    capacity = rows;
+    Arrays.fill(stoppedGames, Integer.MIN_VALUE);
+    gameColumn = HEADER_SIZE;
+    dayColumn = gameColumn + 4 * rows;
+    typeColumn = dayColumn + rows;
+    minuteColumn = typeColumn + rows;
+    orderColumn = minuteColumn + rows;
+    askColumn = orderColumn + rows;
+    hqwColumn = askColumn + 4 * rows;
+    closeColumn = hqwColumn + 2 * rows;
+
+    if (buffer.getInt(0) != MAGIC) {
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, capacity);
+      buffer.putInt(8, 0);
+    }
+    size = Math.min(buffer.getInt(8), capacity);
+    for (int row = 0; row < size; row++) {
+      addToIndex(row);
+    }
+    log.fine("Hotel price history " + file + ": " + size + " of "
+	     + capacity + " rows");
+  }
+
+  /**
+   * Returns the history configured with tac.history.file, or null if
+   * there is none or it could not be opened.
+   */
+  public static synchronized HotelPriceHistory getDefault() {
+    if (!isDefaultOpened) {
+      isDefaultOpened = true;
+      String file = System.getProperty("tac.history.file");
+      if (file != null) {
+	try {
+	  history = new HotelPriceHistory(file,
+	      Integer.getInteger("tac.history.rows", 262144).intValue());
+	} catch (IOException e) {
+	  log.log(Level.SEVERE, "could not open hotel price history " + file, e);
+	}
+      }
+    }
+    return history;
+  }
+
+  public synchronized int getSize() {
+    return size;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Recording
+  // -------------------------------------------------------------------
+
+  /**
+   * Records the quote of a hotel auction. A later quote in the same
+   * minute replaces it.
+   */
+  public synchronized void quoteUpdated(int gameID, int auction, long gameTime,
+					float ask, int hqw) {
+    int minute = (int) (gameTime / 60000);
+    if (minute < 0 || minute >= MAX_MINUTES || isStopped(gameID)) {
+      return;
+    }
+    int[] rows = getGameRows(gameID);
+    int index = (auction - MIN_HOTEL) * MAX_MINUTES + minute;
+    int row = rows[index];
+    if (row < 0) {
+      if (size == capacity) {
+	if (!isFull) {
+	  isFull = true;
+	  log.warning("hotel price history " + file + " is full");
+	}
+	return;
+      }
+      row = rows[index] = size++;
+      buffer.putInt(gameColumn + 4 * row, gameID);
+      buffer.put(dayColumn + row, (byte) TACAgent.getAuctionDay(auction));
+      buffer.put(typeColumn + row, (byte) TACAgent.getAuctionType(auction));
+      buffer.put(minuteColumn + row, (byte) minute);
+      buffer.put(orderColumn + row, (byte) -1);
+      buffer.putFloat(closeColumn + 4 * row, Float.NaN);
+      buffer.putInt(8, size);
+    }
+    buffer.putFloat(askColumn + 4 * row, ask);
+    buffer.putShort(hqwColumn + 2 * row, (short) hqw);
+  }
+
+  /**
+   * Records the closing price of a hotel auction in all rows of the
+   * auction in the game, unless it has already been recorded.
+   */
+  public synchronized void auctionClosed(int gameID, int auction,
+					 float closingPrice) {
+    if (isStopped(gameID)) {
+      return;
+    }
+    int[] rows = getGameRows(gameID);
+    int hotel = 1 << (auction - MIN_HOTEL);
+    if ((rows[CLOSED_HOTELS] & hotel) != 0) {
+      return;
+    }
+    rows[CLOSED_HOTELS] |= hotel;
+    int order = rows[CLOSED_COUNT]++;
+    for (int minute = 0; minute < MAX_MINUTES; minute++) {
+      int row = rows[(auction - MIN_HOTEL) * MAX_MINUTES + minute];
+      if (row >= 0) {
+	buffer.put(orderColumn + row, (byte) order);
+	buffer.putFloat(closeColumn + 4 * row, closingPrice);
+	addToIndex(row);
+      }
+    }
+  }
+
+  /** Forgets the rows of a game that has ended */
+  public synchronized void gameStopped(int gameID) {
+    openGames.remove(gameID);
+    if (!isStopped(gameID)) {
+      stoppedGames[nextStopped] = gameID;
+      nextStopped = (nextStopped + 1) % stoppedGames.length;
+    }
+  }
+
+  private boolean isStopped(int gameID) {
+    for (int i = 0; i < stoppedGames.length; i++) {
+      if (stoppedGames[i] == gameID) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  private int[] getGameRows(int gameID) {
+    Integer key = gameID;
+    int[] rows = openGames.get(key);
+    if (rows == null) {
+      rows = new int[CLOSED_HOTELS + 1];
+      for (int i = 0; i < CLOSED_COUNT; i++) {
+	rows[i] = -1;
+      }
+      openGames.put(key, rows);
+    }
+    return rows;
+  }
+
+  private void addToIndex(int row) {
+    float close = buffer.getFloat(closeColumn + 4 * row);
+    float ask = buffer.getFloat(askColumn + 4 * row);
+    if (Float.isNaN(close) || ask <= 0) {
+      return;
+    }
+    int type = buffer.get(typeColumn + row);
+    int minute = buffer.get(minuteColumn + row);
+    if (type < 0 || type >= NO_TYPES || minute < 0 || minute >= MAX_MINUTES) {
+      return;
+    }
+    int index = getIndex(type, minute, getBucket(ask));
+    float[] bucket = ratios[index];
+    int n = counts[index];
+    if (bucket == null) {
+      bucket = ratios[index] = new float[16];
+    } else if (n == bucket.length) {
+      float[] tmp = new float[n * 2];
+      System.arraycopy(bucket, 0, tmp, 0, n);
+      bucket = ratios[index] = tmp;
+    }
+    float ratio = close / ask;
+    bucket[n] = ratio;
+    counts[index] = n + 1;
+    sums[index] += ratio;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Queries
+  // -------------------------------------------------------------------
+
+  /**
+   * Returns the mean closing price of the past hotel auctions of the same
+   * type that had about the same ask price in the given game minute, or
+   * NaN if there are fewer than MIN_SAMPLES of them.
+   */
+  public synchronized float getExpectedClosingPrice(int auction,
+						    long gameTime, float ask) {
+    int base = getBase(auction, gameTime, ask);
+    int bucket = getBucket(ask);
+    int widen = getWiden(base, bucket);
+    if (widen < 0) {
+      return Float.NaN;
+    }
+    int n = 0;
+    double sum = 0.0;
+    for (int b = Math.max(0, bucket - widen),
+	   to = Math.min(NO_BUCKETS - 1, bucket + widen); b <= to; b++) {
+      n += counts[base + b];
+      sum += sums[base + b];
+    }
+    return (float) (ask * sum / n);
+  }
+
+  /**
+   * Puts the closing prices of the past hotel auctions of the same type
+   * that had about the same ask price in the given game minute, scaled
+   * to the ask price, in prices and returns how many there were (at
+   * most prices.length). Returns 0 if there are fewer than MIN_SAMPLES.
+   */
+  public synchronized int getClosingPrices(int auction, long gameTime,
+					   float ask, float[] prices) {
+    int base = getBase(auction, gameTime, ask);
+    int bucket = getBucket(ask);
+    int widen = getWiden(base, bucket);
+    if (widen < 0) {
+      return 0;
+    }
+    int n = 0;
+    for (int b = Math.max(0, bucket - widen),
+	   to = Math.min(NO_BUCKETS - 1, bucket + widen);
+	 b <= to && n < prices.length; b++) {
+      float[] ratio = ratios[base + b];
+      for (int j = 0, m = counts[base + b]; j < m && n < prices.length; j++) {
+	prices[n++] = ask * ratio[j];
+      }
+    }
+    return n;
+  }
+
+  // Index of the first bucket for the hotel type and minute, or -1
+  private static int getBase(int auction, long gameTime, float ask) {
+    int minute = (int) (gameTime / 60000);
+    if (ask <= 0 || minute < 0 || minute >= MAX_MINUTES) {
+      return -1;
+    }
+    return getIndex(TACAgent.getAuctionType(auction), minute, 0);
+  }
+
+  // The fewest neighbour buckets on each side of the bucket that give
+  // enough samples, or -1 if MAX_WIDEN is not enough
+  private int getWiden(int base, int bucket) {
+    if (base < 0) {
+      return -1;
+    }
+    for (int widen = 0; widen <= MAX_WIDEN; widen++) {
+      int n = 0;
+      for (int b = Math.max(0, bucket - widen),
+	     to = Math.min(NO_BUCKETS - 1, bucket + widen); b <= to; b++) {
+	n += counts[base + b];
+      }
+      if (n >= MIN_SAMPLES) {
+	return widen;
+      }
+    }
+    return -1;
+  }
+
+  private static int getIndex(int type, int minute, int bucket) {
+    return (type * MAX_MINUTES + minute) * NO_BUCKETS + bucket;
+  }
+
+  private static int getBucket(float ask) {
+    if (ask < 1) {
+      return 0;
+    }
+    int bucket = 1 + (int) (BUCKETS_PER_OCTAVE * Math.log(ask) / Math.log(2));
+    return bucket < NO_BUCKETS ? bucket : NO_BUCKETS - 1;
+  }
+
+} // HotelPriceHistory
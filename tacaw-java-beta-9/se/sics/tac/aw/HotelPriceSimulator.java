@@ -0,0 +1,336 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * HotelPriceSimulator draws closing price scenarios for the hotel
+ * auctions from the current quotes and scores allocations by their
+ * expected utility over those scenarios.
+ *
+ * In each scenario the open hotels close in a random order, one per
+ * minute. Until it closes the price of a hotel grows every minute by
+ * a random share of its ask price and a random fixed amount. The mean
+ * growth is set so that the expected multiplier over the expected
+ * time to close matches the old predicted_increase_* heuristics. A
+ * client whose package gets too expensive in a scenario is abandoned,
+ * so the expected utility of an allocation is not simply its utility
+ * at the mean prices.
+ *
+ * Scenario buffers and the ForkJoin tasks that fill and score them
+ * are allocated once and reused. Each task draws from its own random
+ * generator, split from the generator of the simulator for every
+ * sample, so a simulator given a seed draws the same scenarios again
+ * (on the same number of processors). The default seed is taken from
+ * the system property
+ *
+ *  tac.hotels.seed	seed of the scenarios (default random)
+ */
+
+package se.sics.tac.aw;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+class HotelPriceSimulator {
+
+  public static final int MIN_SCENARIOS = 512;
+  public static final int MAX_SCENARIOS = 8192;
+
+  /** Scenarios to draw per second left until the next hotel closes */
+  private static final int SCENARIOS_PER_SECOND = 256;
+
+  private static final int NO_HOTELS = 8;
+  private static final int MIN_HOTEL = TACAgent.MIN_HOTEL;
+  private static final float CLOSED_PRICE = 99999;
+
+  private final float increaseTimePeriod;
+  private final float increaseMultiplier;
+  private final float increaseMultiplierOtherClosed;
+
+  // price[scenario * NO_HOTELS + hotel]
+  private final float[] price = new float[MAX_SCENARIOS * NO_HOTELS];
+  private int noScenarios;
+
+  private final float[] ask = new float[NO_HOTELS];
+  private final boolean[] closed = new boolean[NO_HOTELS];
+  private final float[] growth = new float[NO_HOTELS];
+  private final float[] step = new float[NO_HOTELS];
+  private final float[] expected = new float[NO_HOTELS];
+  private int noOpen;
+  private boolean isStale = true;
+
+  // Allocation being scored: fixed part of the utility and the hotel
+  // auctions each client still has to buy
+  private final int[] fixedUtility = new int[PackageTable.NO_CLIENTS];
+  private final int[][] needed = new int[PackageTable.NO_CLIENTS][4];
+  private final int[] noNeeded = new int[PackageTable.NO_CLIENTS];
+  private final int[] used = new int[PackageTable.NO_TRAVEL_AUCTIONS];
+
+  private final SplittableRandom random;
+  private final Chunk[] chunks;
+  private final RecursiveAction root = new RecursiveAction() {
+      private static final long serialVersionUID = 1L;
+
+      protected void compute() {
+	invokeAll(chunks);
+      }
+    };
+  private boolean isScoring;
+
+  public HotelPriceSimulator(float increaseTimePeriod,
+			     float increaseMultiplier,
+			     float increaseMultiplierOtherClosed) {
+    this(increaseTimePeriod, increaseMultiplier,
+	 increaseMultiplierOtherClosed, getDefaultSeed());
+  }
+
+  public HotelPriceSimulator(float increaseTimePeriod,
+			     float increaseMultiplier,
+			     float increaseMultiplierOtherClosed, long seed) {
+    this.random = new SplittableRandom(seed);
+    this.increaseTimePeriod = increaseTimePeriod;
+    this.increaseMultiplier = increaseMultiplier;
+    this.increaseMultiplierOtherClosed = increaseMultiplierOtherClosed;
+    int n = ForkJoinPool.commonPool().getParallelism();
+    chunks = new Chunk[n < 1 ? 1 : n];
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = new Chunk();
+    }
+  }
+
+  private static long getDefaultSeed() {
+    Long seed = Long.getLong("tac.hotels.seed");
+    return seed != null ? seed.longValue() : System.nanoTime();
+  }
+
+  /**
+   * Returns the number of scenarios to draw given the time left in
+   * the game. Hotels close every minute so the time until the next
+   * close is the game time left modulo one minute.
+   */
+  public static int getScenarioCount(long gameTimeLeft) {
+    long untilClose = gameTimeLeft % 60000;
+    if (untilClose == 0) {
+      untilClose = 60000;
+    }
+    long n = untilClose * SCENARIOS_PER_SECOND / 1000;
+    return n < MIN_SCENARIOS ? MIN_SCENARIOS
+      : (n > MAX_SCENARIOS ? MAX_SCENARIOS : (int) n);
+  }
+
+  /**
+   * Notes that the quote of a hotel auction has changed and that the
+   * scenarios must be drawn again.
+   */
+  public void quoteUpdated(int auction) {
+    isStale = true;
+  }
+
+  public boolean isStale() {
+    return isStale;
+  }
+
+  public int getScenarioCount() {
+    return noScenarios;
+  }
+
+  /**
+   * Returns the mean closing price of the hotel auction over the
+   * current scenarios.
+   */
+  public float getExpectedPrice(int auction) {
+    return expected[auction - MIN_HOTEL];
+  }
+
+  /**
+   * Draws new closing price scenarios for all hotel auctions.
+   *
+   * @param market the market snapshot to read the hotel quotes from
+   * @param hotelsClosed the number of hotel auctions closed so far
+   * @param scenarios the number of scenarios to draw, at least
+   *	MIN_SCENARIOS and at most MAX_SCENARIOS
+   */
+  public void sample(MarketSnapshot market, int hotelsClosed, int scenarios) {
+    if (scenarios > MAX_SCENARIOS) {
+      scenarios = MAX_SCENARIOS;
+    } else if (scenarios < MIN_SCENARIOS) {
+      scenarios = MIN_SCENARIOS;
+    }
+    noOpen = 0;
+    for (int h = 0; h < NO_HOTELS; h++) {
+      ask[h] = market.getAskPrice(MIN_HOTEL + h);
+      closed[h] = market.isAuctionClosed(MIN_HOTEL + h);
+      if (!closed[h]) {
+	noOpen++;
+      }
+    }
+    // Expected number of minutes until an open hotel closes
+    float horizon = (noOpen + 1) / 2f;
+    int minutesLeft = 8 - hotelsClosed;
+    for (int h = 0; h < NO_HOTELS; h++) {
+      int other = h < 4 ? h + 4 : h - 4;
+      float multiplier = closed[other]
+	? increaseMultiplierOtherClosed : increaseMultiplier;
+      multiplier += 0.025f * minutesLeft;
+      growth[h] = (float) Math.pow(multiplier, 1.0 / horizon) - 1f;
+      step[h] = minutesLeft * increaseTimePeriod / horizon;
+    }
+    noScenarios = scenarios;
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i].random = random.split();
+    }
+    isScoring = false;
+    run();
+
+    for (int h = 0; h < NO_HOTELS; h++) {
+      double sum = 0.0;
+      for (int s = 0, i = h; s < scenarios; s++, i += NO_HOTELS) {
+	sum += price[i];
+      }
+      expected[h] = (float) (sum / scenarios);
+    }
+    isStale = false;
+  }
+
+  /**
+   * Returns the expected utility of the allocation over the current
+   * scenarios. Owned units are given to the clients in order and
+   * clients whose package costs more than it is worth in a scenario
+   * are abandoned. HQW rooms not used by any client are charged with
+   * the abandon price.
+   *
+   * @param packages the package table (flight unit costs are taken
+   *	from it)
+   * @param allocation {in day, out day, hotel type} per client
+   * @param owned the number of units owned per auction
+   * @param hqw the hypothetical quantity won per hotel auction
+   * @param abandonPrice the cost per HQW room that is not used
+   */
+  public double getExpectedUtility(PackageTable packages,
+				   int[][] allocation, int[] owned,
+				   int[] hqw, float[] abandonPrice) {
+    for (int a = 0; a < used.length; a++) {
+      used[a] = 0;
+    }
+    for (int c = 0; c < PackageTable.NO_CLIENTS; c++) {
+      int pkg = PackageTable.getPackage(allocation[c][0], allocation[c][1],
+					allocation[c][2]);
+      int[] auctions = PackageTable.getAuctions(pkg);
+      int utility = packages.getBaseUtility(c, pkg);
+      int n = 0;
+      for (int i = 0; i < auctions.length; i++) {
+	int a = auctions[i];
+	if (used[a]++ < owned[a]) {
+	  // Already owned
+	} else if (a < MIN_HOTEL) {
+	  utility -= (int) packages.getUnitCost(a);
+	} else {
+	  needed[c][n++] = a - MIN_HOTEL;
+	}
+      }
+      fixedUtility[c] = utility;
+      noNeeded[c] = n;
+    }
+    double waste = 0.0;
+    for (int a = MIN_HOTEL; a < MIN_HOTEL + NO_HOTELS; a++) {
+      if (hqw[a] > used[a]) {
+	waste += (hqw[a] - used[a]) * abandonPrice[a];
+      }
+    }
+
+    isScoring = true;
+    run();
+    double sum = 0.0;
+    for (int i = 0; i < chunks.length; i++) {
+      sum += chunks[i].sum;
+    }
+    return sum / noScenarios - waste;
+  }
+
+  private void run() {
+    int n = chunks.length;
+    int size = (noScenarios + n - 1) / n;
+    for (int i = 0; i < n; i++) {
+      Chunk chunk = chunks[i];
+      chunk.reinitialize();
+      chunk.start = i * size;
+      chunk.end = Math.min(noScenarios, chunk.start + size);
+      chunk.sum = 0.0;
+    }
+    root.reinitialize();
+    ForkJoinPool.commonPool().invoke(root);
+  }
+
+  private void draw(int start, int end, int[] order,
+		    SplittableRandom random) {
+    for (int s = start; s < end; s++) {
+      int base = s * NO_HOTELS;
+      // Random closing order of the open hotels
+      int n = 0;
+      for (int h = 0; h < NO_HOTELS; h++) {
+	if (closed[h]) {
+	  price[base + h] = CLOSED_PRICE + ask[h];
+	} else {
+	  int j = random.nextInt(n + 1);
+	  order[n] = order[j];
+	  order[j] = h;
+	  n++;
+	}
+      }
+      for (int k = 0; k < n; k++) {
+	int h = order[k];
+	float p = ask[h];
+	for (int minute = 0; minute <= k; minute++) {
+	  p += p * growth[h] * exponential(random)
+	    + step[h] * exponential(random);
+	}
+	price[base + h] = p;
+      }
+    }
+  }
+
+  private double score(int start, int end) {
+    double sum = 0.0;
+    for (int s = start; s < end; s++) {
+      int base = s * NO_HOTELS;
+      for (int c = 0; c < PackageTable.NO_CLIENTS; c++) {
+	float utility = fixedUtility[c];
+	int[] n = needed[c];
+	for (int i = 0, m = noNeeded[c]; i < m; i++) {
+	  utility -= price[base + n[i]];
+	}
+	if (utility > 0) {
+	  sum += utility;
+	}
+      }
+    }
+    return sum;
+  }
+
+  private static float exponential(SplittableRandom random) {
+    return (float) -Math.log(1.0 - random.nextDouble());
+  }
+
+  private class Chunk extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] order = new int[NO_HOTELS];
+    SplittableRandom random;
+    int start;
+    int end;
+    double sum;
+
+    protected void compute() {
+      if (isScoring) {
+	sum = score(start, end);
+      } else {
+	draw(start, end, order, random);
+      }
+    }
+  }
+
+} // HotelPriceSimulator
@@ -0,0 +1,118 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * InventoryLedger holds the units owned and the hotel rooms won (HQW)
+ * per auction that are still free while an allocation is worked out.
+ *
+ * The ledger is loaded from a market snapshot once per decision.
+ * Allocating a package takes units from it and every change is written
+ * to an undo log, so that a candidate allocation can be applied, scored
+ * and reverted to a checkpoint:
+ *
+ *   int mark = ledger.checkpoint();
+ *   ... take units ...
+ *   ledger.rollback(mark);
+ *
+ * The arrays are reused, so none of this allocates once the undo log
+ * has grown to the size needed.
+ */
+
+package se.sics.tac.aw;
+
+class InventoryLedger {
+
+  private final int[] owned;
+  private final int[] hqw;
+
+  // Undo log: auction << 1, plus 1 for HQW
+  private int[] undo = new int[64];
+  private int noUndo;
+
+  public InventoryLedger(int noAuctions) {
+    owned = new int[noAuctions];
+    hqw = new int[noAuctions];
+  }
+
+  /** Sets the ledger to the units owned and HQW of the snapshot */
+  public void load(MarketSnapshot snapshot) {
+    for (int a = 0, n = owned.length; a < n; a++) {
+      owned[a] = snapshot.getOwn(a);
+      hqw[a] = 0;
+    }
+    for (int a = TACAgent.MIN_HOTEL; a < TACAgent.MIN_ENTERTAINMENT; a++) {
+      hqw[a] = snapshot.getHQW(a);
+    }
+    noUndo = 0;
+  }
+
+  public void clear() {
+    for (int a = 0, n = owned.length; a < n; a++) {
+      owned[a] = 0;
+      hqw[a] = 0;
+    }
+    noUndo = 0;
+  }
+
+  /**
+   * Returns the free units owned per auction. The array is the ledger's
+   * own and must not be changed.
+   */
+  public int[] getOwned() {
+    return owned;
+  }
+
+  /**
+   * Returns the free HQW per auction. The array is the ledger's own and
+   * must not be changed.
+   */
+  public int[] getHQW() {
+    return hqw;
+  }
+
+  /** Takes an owned unit of the auction, if there is one left */
+  public void takeOwned(int auction) {
+    if (owned[auction] > 0) {
+      owned[auction]--;
+      log(auction << 1);
+    }
+  }
+
+  /** Takes a won hotel room of the auction, if there is one left */
+  public void takeHQW(int auction) {
+    if (hqw[auction] > 0) {
+      hqw[auction]--;
+      log((auction << 1) + 1);
+    }
+  }
+
+  /** Returns a mark to roll back to */
+  public int checkpoint() {
+    return noUndo;
+  }
+
+  /** Gives back every unit taken since the checkpoint */
+  public void rollback(int mark) {
+    while (noUndo > mark) {
+      int entry = undo[--noUndo];
+      if ((entry & 1) == 0) {
+	owned[entry >> 1]++;
+      } else {
+	hqw[entry >> 1]++;
+      }
+    }
+  }
+
+  private void log(int entry) {
+    if (noUndo == undo.length) {
+      int[] tmp = new int[noUndo * 2];
+      System.arraycopy(undo, 0, tmp, 0, noUndo);
+      undo = tmp;
+    }
+    undo[noUndo++] = entry;
+  }
+
+} // InventoryLedger
@@ -0,0 +1,582 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * KeepAliveHttpConnection talks to the HTTP interface of the TAC server
+ * like TACHttpConnection, but keeps a small pool of persistent HTTP/1.1
+ * connections instead of opening a new connection for every message.
+ *
+ * Queued messages are dispatched in order. Requests that only read
+ * server state (quotes, bid and transaction info, game parameters and
+ * the server time) run in parallel on the pooled connections, and a
+ * request identical to one already queued since the last change is
+ * coalesced with it so that both are answered by a single exchange.
+ * Requests that change state (login, bids, next game) wait until the
+ * requests before them have been answered and run alone, so the server
+ * sees them in the order they were sent.
+ *
+ * Replies are delivered one at a time, in the order they arrive, by a
+ * separate delivery thread so the agent never handles two replies at
+ * once and a full queue never holds up the pooled connections.
+ *
+ * A read-only request that fails is sent again, up to MAX_RETRIES
+ * times. A request that changes state is never sent twice, as the
+ * server may have acted on it (a bid submitted twice). Before such a
+ * request is written on a pooled connection that has been idle for
+ * more than IDLE_CHECK milliseconds, the connection is checked for
+ * having been closed by the server; connections in use more often are
+ * written to at once, so bids do not wait for the check. If the
+ * exchange fails the request is answered with a tacerror
+ * (INTERNAL_ERROR) so that the agent gets it back in tacerrorReceived.
+ *
+ * The queue is bounded: sendMessage blocks while it is full. Select the
+ * connection with "connection=se.sics.tac.aw.KeepAliveHttpConnection"
+ * and configure it with system properties:
+ *
+ *  tac.http.connections	number of pooled connections (default 2)
+ *  tac.http.queue		maximal number of queued messages (default 128)
+ */
+
+package se.sics.tac.aw;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class KeepAliveHttpConnection extends TACConnection
+  implements Runnable {
+
+  private static final Logger log =
+    Logger.getLogger(KeepAliveHttpConnection.class.getName());
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private static final int MAX_RETRIES = 3;
+  private static final long RETRY_DELAY = 1000;
+
+  /** Idle time after which a connection is checked before a change */
+  private static final long IDLE_CHECK = 1000;
+
+  private static final String ERROR_REPLY =
+    "<tacerror><commandStatus>" + TACAgent.INTERNAL_ERROR
+    + "</commandStatus></tacerror>";
+
+  private static final String[] READ_ONLY = {
+    "getQuote", "bidInfo", "transIDs", "transInfo", "getGameParams",
+    "getGameConsts", "getGameAuctionIDs", "serverTime"
+  };
+
+  private ArrayBlockingQueue<TACMessage> queue;
+  private final LinkedBlockingQueue<Exchange> replies =
+    new LinkedBlockingQueue<Exchange>();
+  private Worker[] workers;
+  private Thread dispatcher;
+  private Thread deliverer;
+  private volatile boolean disconnected = true;
+
+  private String host;
+  private int port;
+  private byte[] requestHead;
+
+  // Pool state, guarded by this object
+  private final ArrayList<Worker> idle = new ArrayList<Worker>();
+  private long exchangeCount;
+  private long coalescedCount;
+
+  protected void init() {
+    int size = Integer.getInteger("tac.http.connections", 2).intValue();
+    int queueSize = Integer.getInteger("tac.http.queue", 128).intValue();
+    host = agent.getHost();
+    port = agent.getPort();
+    String path = '/' + agent.getUser() + '/' + agent.getPassword();
+    requestHead = ("POST " + path + " HTTP/1.1\r\nHost: " + host + ':' + port
+		   + "\r\nConnection: keep-alive\r\nContent-Length: ")
+      .getBytes(ASCII);
+    log.fine("Using HTTP TAC server at http://" + host + ':' + port + path
+	     + " with " + size + " connections");
+
+    queue = new ArrayBlockingQueue<TACMessage>(Math.max(1, queueSize));
+    workers = new Worker[Math.max(1, size)];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Worker(i);
+      idle.add(workers[i]);
+      AgentThreads.start(workers[i], "tac-http-" + i, true);
+    }
+    disconnected = false;
+    dispatcher = AgentThreads.start(this, "tac-http", true);
+    deliverer = AgentThreads.start(new Runnable() {
+	public void run() {
+	  deliverReplies();
+	}
+      }, "tac-http-deliver", true);
+
+    TACMessage msg = new TACMessage("auth");
+    msg.setParameter("userName", agent.getUser());
+    msg.setParameter("userPW", agent.getPassword());
+    msg.setMessageReceiver(agent);
+    try {
+      sendMessage(msg);
+    } catch (IOException e) {
+      log.log(Level.SEVERE, "could not login", e);
+    }
+  }
+
+  public boolean isConnected() {
+    return !disconnected;
+  }
+
+  public void disconnect() {
+    disconnected = true;
+    log.fine("Disconnected after " + exchangeCount + " exchanges, "
+	     + coalescedCount + " messages coalesced");
+    if (workers != null) {
+      for (Worker worker : workers) {
+	worker.stop();
+      }
+      dispatcher.interrupt();
+      deliverer.interrupt();
+    }
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
+  public void sendMessage(TACMessage msg) throws IOException {
+    if (disconnected) {
+      throw new IOException("Disconnected from server");
+    }
+    try {
+      queue.put(msg);
+    } catch (InterruptedException e) {
+      throw new IOException("interrupted while queueing "
+			    + msg.getType());
+    }
+  }
+
+  private static boolean isReadOnly(String type) {
+    for (String readOnly : READ_ONLY) {
+      if (readOnly.equals(type)) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Dispatching
+  // -------------------------------------------------------------------
+
+  public void run() {
+    ArrayList<TACMessage> batch = new ArrayList<TACMessage>();
+    ArrayList<Exchange> exchanges = new ArrayList<Exchange>();
+    try {
+      while (!disconnected) {
+	batch.add(queue.take());
+	queue.drainTo(batch);
+	coalesce(batch, exchanges);
+	batch.clear();
+	for (int i = 0, n = exchanges.size(); i < n; i++) {
+	  dispatch(exchanges.get(i));
+	}
+	exchanges.clear();
+      }
+    } catch (InterruptedException e) {
+      if (!disconnected) {
+	log.log(Level.WARNING, "dispatcher interrupted", e);
+      }
+    }
+  }
+
+  private void deliverReplies() {
+    try {
+      while (!disconnected) {
+	Exchange exchange = replies.take();
+	if (!disconnected) {
+	  exchange.deliver();
+	}
+      }
+    } catch (InterruptedException e) {
+      if (!disconnected) {
+	log.log(Level.WARNING, "delivery interrupted", e);
+      }
+    }
+  }
+
+  // Groups identical read-only messages between changes into exchanges
+  private void coalesce(ArrayList<TACMessage> batch,
+			ArrayList<Exchange> exchanges) {
+    int firstReadOnly = exchanges.size();
+    for (int i = 0, n = batch.size(); i < n; i++) {
+      TACMessage msg = batch.get(i);
+      String message = msg.getMessageString();
+      Exchange exchange = null;
+      if (isReadOnly(msg.getType())) {
+	for (int j = firstReadOnly, m = exchanges.size(); j < m; j++) {
+	  if (exchanges.get(j).message.equals(message)) {
+	    exchange = exchanges.get(j);
+	    break;
+	  }
+	}
+      }
+      if (exchange != null) {
+	exchange.add(msg);
+	coalescedCount++;
+      } else {
+	exchanges.add(new Exchange(msg, message));
+	if (!isReadOnly(msg.getType())) {
+	  firstReadOnly = exchanges.size();
+	}
+      }
+    }
+  }
+
+  private synchronized void dispatch(Exchange exchange)
+    throws InterruptedException
+  {
+    boolean isExclusive = !isReadOnly(exchange.msg.getType());
+    // A change waits for all earlier requests and runs alone
+    while (!disconnected
+	   && (isExclusive ? idle.size() < workers.length : idle.isEmpty())) {
+      wait();
+    }
+    if (disconnected) {
+      return;
+    }
+    Worker worker = idle.remove(idle.size() - 1);
+    worker.start(exchange);
+    exchangeCount++;
+    if (isExclusive) {
+      while (!disconnected && idle.size() < workers.length) {
+	wait();
+      }
+    }
+  }
+
+  private synchronized void done(Worker worker) {
+    idle.add(worker);
+    notifyAll();
+  }
+
+  private static class Exchange {
+
+    final TACMessage msg;
+    final String message;
+    ArrayList<TACMessage> coalesced;
+    String reply;
+
+    Exchange(TACMessage msg, String message) {
+      this.msg = msg;
+      this.message = message;
+    }
+
+    void add(TACMessage other) {
+      if (coalesced == null) {
+	coalesced = new ArrayList<TACMessage>();
+      }
+      coalesced.add(other);
+    }
+
+    void deliver() {
+      deliver(msg, reply);
+      if (coalesced != null) {
+	for (int i = 0, n = coalesced.size(); i < n; i++) {
+	  deliver(coalesced.get(i), reply);
+	}
+      }
+    }
+
+    private static void deliver(TACMessage msg, String reply) {
+      msg.setReceivedMessage(reply);
+      msg.deliverMessage();
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Pooled connections
+  // -------------------------------------------------------------------
+
+  private class Worker implements Runnable {
+
+    private final int id;
+    private Exchange exchange;
+    private boolean isStopped;
+
+    // Only set by the worker thread; stop() closes it from another
+    private volatile Socket socket;
+    private long lastExchange;
+    private InputStream in;
+    private OutputStream out;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final byte[] buffer = new byte[8192];
+    private final StringBuilder line = new StringBuilder();
+    private boolean isResponding;
+
+    Worker(int id) {
+      this.id = id;
+    }
+
+    synchronized void start(Exchange exchange) {
+      this.exchange = exchange;
+      notify();
+    }
+
+    synchronized void stop() {
+      isStopped = true;
+      // The worker may be in an exchange: closing the socket makes it
+      // fail with an IOException, and the worker itself clears it
+      Socket s = socket;
+      if (s != null) {
+	try {
+	  s.close();
+	} catch (IOException e) {
+	  log.log(Level.FINE, "could not close HTTP connection", e);
+	}
+      }
+      notify();
+    }
+
+    private synchronized Exchange next() {
+      while (exchange == null && !isStopped) {
+	try {
+	  wait();
+	} catch (InterruptedException e) {
+	  return null;
+	}
+      }
+      Exchange next = exchange;
+      exchange = null;
+      return next;
+    }
+
+    public void run() {
+      Exchange next;
+      while ((next = next()) != null && !isStopped) {
+	try {
+	  send(next);
+	} finally {
+	  done(this);
+	}
+      }
+    }
+
+    private void send(Exchange exchange) {
+      String type = exchange.msg.getType();
+      byte[] data = exchange.message.getBytes(UTF8);
+      if (!isReadOnly(type)) {
+	try {
+	  exchange.reply = postOnce(data);
+	} catch (IOException e) {
+	  close();
+	  log.log(Level.SEVERE, "could not send message " + type, e);
+	  exchange.reply = ERROR_REPLY;
+	}
+	replies.add(exchange);
+	return;
+      }
+      for (int retry = 0; !disconnected; retry++) {
+	String reply;
+	try {
+	  reply = post(data);
+	} catch (IOException e) {
+	  close();
+	  if (retry >= MAX_RETRIES) {
+	    log.log(Level.SEVERE, "could not send message", e);
+	    agent.fatalError("could not send message " + type + " to server");
+	    return;
+	  }
+	  log.warning("failed to send message " + type + " (retry "
+		      + (retry + 1) + "): " + e);
+	  try {
+	    Thread.sleep(RETRY_DELAY);
+	  } catch (InterruptedException ie) {
+	    return;
+	  }
+	  continue;
+	}
+	exchange.reply = reply;
+	replies.add(exchange);
+	return;
+      }
+    }
+
+    private String post(byte[] data) throws IOException {
+      boolean isReused = socket != null;
+      try {
+	return exchange(data);
+      } catch (EOFException e) {
+	// The server may close an idle connection at any time: an
+	// immediate end of stream on a reused connection means the
+	// request was never read and is safe to send again
+	if (!isReused || isResponding) {
+	  throw e;
+	}
+	close();
+	return exchange(data);
+      }
+    }
+
+    // Sends a request that must not be sent twice: a connection that
+    // has been closed by the server is replaced before the request is
+    // written, but a failed exchange is not repeated. Only connections
+    // idle for a while are checked, as the check waits a millisecond.
+    private String postOnce(byte[] data) throws IOException {
+      if (socket != null
+	  && (in.available() > 0
+	      || (System.nanoTime() - lastExchange) / 1000000 > IDLE_CHECK
+	      && isStale())) {
+	log.finest("reopening closed HTTP connection " + id);
+	close();
+      }
+      return exchange(data);
+    }
+
+    // Returns true if the idle connection has been closed by the server
+    // (or has unexpected data, which also makes it unusable)
+    private boolean isStale() throws IOException {
+      socket.setSoTimeout(1);
+      try {
+	in.read();
+	return true;
+      } catch (SocketTimeoutException e) {
+	return false;
+      } finally {
+	socket.setSoTimeout(0);
+      }
+    }
+
+    private String exchange(byte[] data) throws IOException {
+      if (socket == null) {
+	socket = new Socket(host, port);
+	socket.setTcpNoDelay(true);
+	in = new BufferedInputStream(socket.getInputStream());
+	out = socket.getOutputStream();
+	log.finest("opened HTTP connection " + id);
+      }
+      body.reset();
+      isResponding = false;
+      out.write(requestHead);
+      out.write(Integer.toString(data.length).getBytes(ASCII));
+      out.write('\r');
+      out.write('\n');
+      out.write('\r');
+      out.write('\n');
+      out.write(data);
+      out.flush();
+
+      String status = readLine();
+      if (!status.startsWith("HTTP/1.") || status.length() < 12) {
+	throw new IOException("malformed response: " + status);
+      }
+      int code = Integer.parseInt(status.substring(9, 12));
+      int length = -1;
+      boolean isChunked = false;
+      boolean isClosing = status.startsWith("HTTP/1.0");
+      String header;
+      while ((header = readLine()).length() > 0) {
+	int colon = header.indexOf(':');
+	if (colon <= 0) {
+	  continue;
+	}
+	String name = header.substring(0, colon).trim();
+	String value = header.substring(colon + 1).trim();
+	if (name.equalsIgnoreCase("Content-Length")) {
+	  length = Integer.parseInt(value);
+	} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+	  isChunked = value.equalsIgnoreCase("chunked");
+	} else if (name.equalsIgnoreCase("Connection")) {
+	  isClosing = value.equalsIgnoreCase("close");
+	}
+      }
+      if (isChunked) {
+	int chunk;
+	while ((chunk = Integer.parseInt(trimChunk(readLine()), 16)) > 0) {
+	  readBody(chunk);
+	  readLine();
+	}
+	while (readLine().length() > 0) {
+	  // Trailers
+	}
+      } else if (length >= 0) {
+	readBody(length);
+      } else {
+	// Body ends with the connection
+	isClosing = true;
+	readBody(Integer.MAX_VALUE);
+      }
+      lastExchange = System.nanoTime();
+      if (isClosing) {
+	close();
+      }
+      if (code != 200) {
+	throw new IOException("server answered " + status);
+      }
+      return body.toString(UTF8.name());
+    }
+
+    private String trimChunk(String size) {
+      int end = size.indexOf(';');
+      return (end >= 0 ? size.substring(0, end) : size).trim();
+    }
+
+    private void readBody(int length) throws IOException {
+      while (length > 0) {
+	int n = in.read(buffer, 0, Math.min(length, buffer.length));
+	if (n < 0) {
+	  if (length == Integer.MAX_VALUE) {
+	    return;
+	  }
+	  throw new EOFException("truncated response");
+	}
+	body.write(buffer, 0, n);
+	if (length != Integer.MAX_VALUE) {
+	  length -= n;
+	}
+      }
+    }
+
+    private String readLine() throws IOException {
+      line.setLength(0);
+      int c;
+      while ((c = in.read()) != '\n') {
+	if (c < 0) {
+	  throw new EOFException("connection closed by server");
+	}
+	isResponding = true;
+	if (c != '\r') {
+	  line.append((char) c);
+	}
+      }
+      isResponding = true;
+      return line.toString();
+    }
+
+    private void close() {
+      if (socket != null) {
+	try {
+	  socket.close();
+	} catch (IOException e) {
+	  log.log(Level.FINE, "could not close HTTP connection", e);
+	}
+	socket = null;
+      }
+    }
+  }
+
+} // KeepAliveHttpConnection
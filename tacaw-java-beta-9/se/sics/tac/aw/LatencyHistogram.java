@@ -0,0 +1,135 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * LatencyHistogram counts durations in log-scale buckets: eight buckets
+ * for each power of two of microseconds, so every bucket is within
+ * 12.5% of the values in it. Recording is a few atomic increments and
+ * never allocates or locks, so it can be done on the network threads
+ * for every message.
+ *
+ * Durations are recorded in nanoseconds and percentiles are reported in
+ * nanoseconds as the upper bound of their bucket.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKETS = 8;
+  private static final int SUB_BITS = 3;
+
+  /** Up to 2^40 us (about 12 days); longer durations are counted there */
+  private static final int NO_BUCKETS = (40 - SUB_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NO_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(getBucket(nanos / 1000));
+    count.incrementAndGet();
+    total.addAndGet(nanos);
+    long current;
+    while (nanos > (current = max.get())
+	   && !max.compareAndSet(current, nanos)) {
+      // Another thread recorded a new max
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /** Returns the mean duration in nanoseconds */
+  public long getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : total.get() / n;
+  }
+
+  /** Returns the longest duration in nanoseconds */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the duration (in nanoseconds) that the given fraction of the
+   * recorded durations do not exceed, e.g. getPercentile(0.99).
+   */
+  public long getPercentile(double fraction) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(fraction * n);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0; i < NO_BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+	return Math.min(getUpperBound(i) * 1000, max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < NO_BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    max.set(0);
+  }
+
+  /** Returns count, mean, p50, p99 and max with the durations in ms */
+  public String toString() {
+    return count.get() + " msgs, mean " + toMillis(getMean())
+      + " ms, p50 " + toMillis(getPercentile(0.5))
+      + " ms, p99 " + toMillis(getPercentile(0.99))
+      + " ms, max " + toMillis(getMax()) + " ms";
+  }
+
+  private static String toMillis(long nanos) {
+    return String.format("%.2f", nanos / 1e6);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Buckets
+  // -------------------------------------------------------------------
+
+  static int getBucket(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int bucket = (exponent - SUB_BITS + 1) * SUB_BUCKETS
+      + (int) ((micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    return bucket < NO_BUCKETS ? bucket : NO_BUCKETS - 1;
+  }
+
+  // Largest value in microseconds of a bucket
+  static long getUpperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BITS);
+    return ((SUB_BUCKETS + sub) << (exponent - SUB_BITS)) + width - 1;
+  }
+
+} // LatencyHistogram
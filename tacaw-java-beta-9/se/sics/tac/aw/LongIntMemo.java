@@ -0,0 +1,143 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * LongIntMemo is a hash table from long keys to int values for the
+ * memoised search of AllocationSolver, without boxing: keys and values
+ * are kept in two arrays with open addressing and linear probing.
+ *
+ * Several search threads may get and put at the same time. A key is
+ * claimed with a compare-and-set and its value written after it, so a
+ * get can briefly see the key without its value and then returns
+ * MISSING as if the key was not there; the caller computes the value
+ * again, which for a memo is only wasted work.
+ *
+ * The table does not grow while in use. Once it is three quarters full
+ * new keys are not stored (the search still gives the same result, only
+ * more slowly), and clear() doubles the capacity for the next use when
+ * more than half of it was used, up to MAX_CAPACITY. The arrays are
+ * otherwise reused from use to use.
+ *
+ * The key -1 can not be stored; AllocationSolver's keys count at most
+ * 8 units per auction and never have all bits set.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class LongIntMemo {
+
+  /** Returned by get() for a key without a value */
+  public static final int MISSING = Integer.MIN_VALUE;
+
+  public static final int MAX_CAPACITY = 1 << 20;
+
+  private static final long EMPTY = -1L;
+
+  private AtomicLongArray keys;
+  private AtomicIntegerArray values;
+  private int mask;
+  private int limit;
+  private final AtomicInteger size = new AtomicInteger();
+
+  /** Creates a memo; the capacity is rounded up to a power of two */
+  public LongIntMemo(int capacity) {
+    int n = 16;
+    while (n < capacity && n < MAX_CAPACITY) {
+      n <<= 1;
+    }
+    allocate(n);
+  }
+
+  private void allocate(int capacity) {
+    keys = new AtomicLongArray(capacity);
+    values = new AtomicIntegerArray(capacity);
+    mask = capacity - 1;
+    limit = capacity - (capacity >> 2);
+    for (int i = 0; i < capacity; i++) {
+      keys.set(i, EMPTY);
+      values.set(i, MISSING);
+    }
+    size.set(0);
+  }
+
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+  /** Returns the number of keys stored */
+  public int size() {
+    return size.get();
+  }
+
+  /** Returns the value of the key, or MISSING if it has none */
+  public int get(long key) {
+    int i = hash(key) & mask;
+    while (true) {
+      long k = keys.get(i);
+      if (k == key) {
+	return values.get(i);
+      }
+      if (k == EMPTY) {
+	return MISSING;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  /** Sets the value of the key, unless the memo is full */
+  public void put(long key, int value) {
+    int i = hash(key) & mask;
+    while (true) {
+      long k = keys.get(i);
+      if (k == EMPTY) {
+	if (size.get() >= limit) {
+	  return;
+	}
+	if (keys.compareAndSet(i, EMPTY, key)) {
+	  size.incrementAndGet();
+	  values.set(i, value);
+	  return;
+	}
+	k = keys.get(i);
+      }
+      if (k == key) {
+	values.set(i, value);
+	return;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  /**
+   * Removes all keys. Must not be called while the memo is in use by
+   * other threads.
+   */
+  public void clear() {
+    int used = size.get();
+    int capacity = mask + 1;
+    if (used > capacity >> 1 && capacity < MAX_CAPACITY) {
+      allocate(capacity << 1);
+    } else if (used > 0) {
+      for (int i = 0; i < capacity; i++) {
+	keys.set(i, EMPTY);
+	values.set(i, MISSING);
+      }
+      size.set(0);
+    }
+  }
+
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+} // LongIntMemo
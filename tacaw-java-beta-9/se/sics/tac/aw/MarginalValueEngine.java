@@ -0,0 +1,171 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * MarginalValueEngine works out what each unit of a flight or hotel
+ * auction is worth to our clients, given the allocation in force, so
+ * that bids can be priced by value.
+ *
+ * The value of a unit to the client using it is what the client loses
+ * if it has to do without: its package, with the unit free, less its
+ * best package without that auction, with the units used by the other
+ * clients and the unit costs of the package table as they are (the
+ * same value as the allocation solver uses), or less nothing if the
+ * client is better off not travelling at all. The units owned go to the
+ * clients with the highest values, so the k-th unit to buy is worth
+ * the value of the client in place owned + k, and the values of the
+ * units to buy never increase.
+ *
+ * Re-solving the whole allocation for every unit takes far too long
+ * between two hotel closes, so only the client using the unit is
+ * re-planned. The value is therefore what that one client loses now,
+ * not what losing the unit could cost once more auctions have closed.
+ * Pricing all 16 auctions takes some microseconds, which is less than
+ * handing the auctions to other threads would cost.
+ */
+
+package se.sics.tac.aw;
+
+class MarginalValueEngine {
+
+  private static final int NO_CLIENTS = PackageTable.NO_CLIENTS;
+  private static final int NO_PACKAGES = PackageTable.NO_PACKAGES;
+  private static final int NO_AUCTIONS = PackageTable.NO_TRAVEL_AUCTIONS;
+
+  private final PackageTable packages;
+
+  // Problem data
+  private final int[] pkg = new int[NO_CLIENTS];
+  private final int[] used = new int[NO_AUCTIONS];
+  private final int[] own = new int[NO_AUCTIONS];
+  private final int[] hqw = new int[NO_AUCTIONS];
+  private final float[] abandonCost = new float[NO_AUCTIONS];
+  private final float[] reservation = new float[NO_CLIENTS];
+
+  // Values per auction, highest first
+  private final float[][] values = new float[NO_AUCTIONS][NO_CLIENTS];
+  private final int[] noValues = new int[NO_AUCTIONS];
+
+  public MarginalValueEngine(PackageTable packages) {
+    this.packages = packages;
+  }
+
+  /**
+   * Computes the unit values for the allocation. Must be called after
+   * packages.refresh().
+   *
+   * @param allocation {in day, out day, hotel type} per client
+   * @param owned the number of units owned per auction
+   * @param hqwOwned the hypothetical quantity won per hotel auction
+   * @param abandonPrice the cost per HQW room that is not used
+   */
+  public void compute(int[][] allocation, int[] owned, int[] hqwOwned,
+		      float[] abandonPrice) {
+    for (int a = 0; a < NO_AUCTIONS; a++) {
+      own[a] = owned[a] > 0 ? owned[a] : 0;
+      hqw[a] = hqwOwned[a] > 0 ? hqwOwned[a] : 0;
+      abandonCost[a] = abandonPrice[a];
+      used[a] = 0;
+    }
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      pkg[c] = PackageTable.getPackage(allocation[c][0], allocation[c][1],
+				       allocation[c][2]);
+      use(pkg[c], 1);
+    }
+
+    for (int a = 0; a < NO_AUCTIONS; a++) {
+      int n = 0;
+      for (int c = 0; c < NO_CLIENTS; c++) {
+	if (contains(pkg[c], a)) {
+	  use(pkg[c], -1);
+	  reservation[n++] = getValue(c, pkg[c], a) - bestValue(c, a);
+	  use(pkg[c], 1);
+	}
+      }
+      sortDescending(reservation, n);
+      float[] v = values[a];
+      int m = 0;
+      for (int i = own[a]; i < n; i++) {
+	v[m++] = reservation[i];
+      }
+      noValues[a] = m;
+    }
+  }
+
+  /** Returns the number of units of the auction to buy */
+  public int getNoValues(int auction) {
+    return noValues[auction];
+  }
+
+  /** Returns the value of the unit (0 is the first unit to buy) */
+  public float getValue(int auction, int unit) {
+    return values[auction][unit];
+  }
+
+  // Value of the package to the client given the units used by the
+  // other clients, with one unit of the free auction costing nothing
+  private float getValue(int client, int p, int free) {
+    int[] auctions = PackageTable.getAuctions(p);
+    float v = packages.getBaseUtility(client, p);
+    for (int i = 0, n = auctions.length; i < n; i++) {
+      int a = auctions[i];
+      if (a == free) {
+	continue;
+      }
+      if (used[a] >= own[a]) {
+	v -= packages.getUnitCost(a);
+      }
+      if (used[a] < hqw[a]) {
+	v += abandonCost[a];
+      }
+    }
+    return v;
+  }
+
+  // Best value of the client over the packages without the auction,
+  // or 0 if not travelling is better
+  private float bestValue(int client, int auction) {
+    float best = 0f;
+    for (int p = 0; p < NO_PACKAGES; p++) {
+      if (!contains(p, auction)) {
+	float v = getValue(client, p, auction);
+	if (v > best) {
+	  best = v;
+	}
+      }
+    }
+    return best;
+  }
+
+  private void use(int p, int n) {
+    int[] auctions = PackageTable.getAuctions(p);
+    for (int i = 0; i < auctions.length; i++) {
+      used[auctions[i]] += n;
+    }
+  }
+
+  private static boolean contains(int p, int auction) {
+    int[] auctions = PackageTable.getAuctions(p);
+    for (int i = 0; i < auctions.length; i++) {
+      if (auctions[i] == auction) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  private static void sortDescending(float[] a, int n) {
+    for (int i = 1; i < n; i++) {
+      float x = a[i];
+      int j = i;
+      for (; j > 0 && a[j - 1] < x; j--) {
+	a[j] = a[j - 1];
+      }
+      a[j] = x;
+    }
+  }
+
+} // MarginalValueEngine
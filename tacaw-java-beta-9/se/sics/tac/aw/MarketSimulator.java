@@ -0,0 +1,457 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * MarketSimulator is an in-process stand-in for the TAC server. It
+ * answers the agent's messages from a TACMarket with seven (or any
+ * number of) simulated opponents so full games can be played headless
+ * and much faster than real time.
+ *
+ * Select it with "connection=se.sics.tac.aw.MarketSimulator" (and
+ * usually -nogui and -exitAfterGames). It is configured with system
+ * properties:
+ *
+ *  tac.sim.opponents		number of opponents (default 7)
+ *  tac.sim.seed		random seed (default random)
+ *  tac.sim.step		largest clock step in ms (default 1000)
+ *  tac.sim.maxHotelPrice	opponent hotel price limit (default 300)
+ *  tac.sim.goodHotelPremium	hotel value at which opponents choose the
+ *				good hotel; also added to their good hotel
+ *				price limit (default 100)
+ *  tac.sim.flightDelay		opponents buy their flights within this
+ *				many seconds of the start (default 60)
+ *
+ * The simulator runs on its own clock. Messages are answered at once
+ * on the simulator thread. Whenever no message is waiting the clock
+ * moves on to the next second (or the next market event) and the
+ * market catches up. The clock is installed as the Clock of the time
+ * dispatcher, so the agent's timers run on simulated time: they are
+ * fast-forwarded with the clock and never fire between two steps. The
+ * agent's own server time (TACAgent.getServerTime, which follows the
+ * system clock in tacagent.jar) is moved forward by answering a
+ * serverTime request with the new time. After every step the simulator
+ * waits for a task that runs after every task that has become due, so
+ * the requests sent by the agent's timers are queued before the clock
+ * moves again. With an EventLoopAgent the clock also waits until the
+ * strategy has handled its queued events.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class MarketSimulator extends TACConnection
+  implements Runnable, Task, TimeDispatcher.Clock {
+
+  private static final Logger log =
+    Logger.getLogger(MarketSimulator.class.getName());
+
+  private static final String WAKEUP = "simulatorWakeup";
+
+  /** Time from the nextGame request to the start of the game */
+  private static final long GAME_DELAY = 2000;
+
+  private static final int USER_ID = 1;
+
+  private TACMarket market;
+  private final LinkedList<TACMessage> queue = new LinkedList<TACMessage>();
+  private boolean disconnected = true;
+
+  private volatile long clock;
+  private long step;
+
+  private final Object wakeLock = new Object();
+  private boolean isAwake;
+
+  // Set when the strategy runs on an event loop of its own
+  private EventLoopAgent eventLoop;
+
+  private int reportedGame = 0;
+  private int gamesPlayed = 0;
+  private long totalScore = 0;
+
+  // Bid parsing buffers
+  private int[] quantity = new int[16];
+  private float[] price = new float[16];
+
+  protected void init() {
+    long seed = Long.getLong("tac.sim.seed", System.nanoTime()).longValue();
+    int opponents = Integer.getInteger("tac.sim.opponents", 7).intValue();
+    long stepSeconds = (Long.getLong("tac.sim.step", 1000).longValue() + 999)
+      / 1000;
+    step = stepSeconds < 1 ? 1000 : stepSeconds * 1000;
+    market = new TACMarket(new Random(seed), opponents,
+			   Float.parseFloat(System.getProperty
+					    ("tac.sim.maxHotelPrice", "300")),
+			   Integer.getInteger("tac.sim.flightDelay", 60)
+			   .intValue() * 1000L,
+			   Integer.getInteger("tac.sim.goodHotelPremium", 100)
+			   .intValue());
+    log.fine("Simulating market with " + opponents + " opponents (seed "
+	     + seed + ')');
+
+    AgentImpl agentImpl = EventLoopAgent.getAgentImpl(agent);
+    if (agentImpl instanceof EventLoopAgent) {
+      eventLoop = (EventLoopAgent) agentImpl;
+    }
+
+    // The server clock has second resolution
+    clock = System.currentTimeMillis() / 1000 * 1000;
+    TimeDispatcher.getDefault().setClock(this);
+    disconnected = false;
+    AgentThreads.start(this, "simulator", false);
+
+    TACMessage msg = new TACMessage("auth");
+    msg.setParameter("userName", agent.getUser());
+    msg.setParameter("userPW", agent.getPassword());
+    msg.setMessageReceiver(agent);
+    addMessage(msg);
+  }
+
+  public boolean isConnected() {
+    return !disconnected;
+  }
+
+  public synchronized void disconnect() {
+    disconnected = true;
+    TimeDispatcher.getDefault().setClock(null);
+    notify();
+  }
+
+  /**
+   * The clock of the time dispatcher: the simulated server time plus
+   * the time difference that the dispatcher subtracts again.
+   */
+  public long currentTimeMillis() {
+    return clock + TimeDispatcher.getDefault().getTimeDiff();
+  }
+
+  public void sendMessage(TACMessage msg) throws IOException {
+    if (disconnected) {
+      throw new IOException("Disconnected from simulator");
+    }
+    addMessage(msg);
+  }
+
+  private synchronized void addMessage(TACMessage msg) {
+    queue.add(msg);
+    notify();
+  }
+
+  private synchronized TACMessage getMessage() {
+    return queue.isEmpty() ? null : queue.removeFirst();
+  }
+
+  public void run() {
+    try {
+      while (!disconnected) {
+	TACMessage msg = getMessage();
+	if (msg != null) {
+	  msg.setReceivedMessage(handleMessage(msg));
+	  msg.deliverMessage();
+	} else if (eventLoop != null && !eventLoop.isIdle()) {
+	  // The strategy is still busy (and may send more messages)
+	  eventLoop.awaitIdle();
+	} else {
+	  tick();
+	}
+      }
+    } catch (Throwable e) {
+      log.log(Level.SEVERE, "simulator failed:", e);
+    } finally {
+      disconnected = true;
+      TimeDispatcher.getDefault().setClock(null);
+    }
+  }
+
+  // The agent is idle: move the clock to the next second or market
+  // event and let the agent catch up
+  private void tick() throws InterruptedException {
+    long time = clock + step;
+    long next = market.getNextEventTime();
+    if (next > clock && next < time) {
+      time = next;
+    }
+    // Time that has passed for the agent while it was busy
+    long agentTime = (agent.getServerTime() + 999) / 1000 * 1000;
+    if (agentTime > time) {
+      time = agentTime;
+    }
+    clock = time;
+    market.advanceTo(clock);
+    if (market.isFinished() && market.getGameID() != reportedGame) {
+      reportedGame = market.getGameID();
+      report();
+    }
+
+    TACMessage msg = new TACMessage("serverTime");
+    msg.setMessageReceiver(agent);
+    msg.setReceivedMessage(getServerTime());
+    msg.deliverMessage();
+
+    synchronized (wakeLock) {
+      isAwake = false;
+      // Due now, and so run after the tasks that became due before it
+      TimeDispatcher dispatcher = TimeDispatcher.getDefault();
+      dispatcher.addTask(clock, WAKEUP, this, this);
+      // The clock has moved
+      dispatcher.wakeUp();
+      while (!isAwake && !disconnected) {
+	wakeLock.wait(100);
+      }
+    }
+  }
+
+  public void performWork(long time, Object key, Object value) {
+    if (key == WAKEUP && value == this) {
+      synchronized (wakeLock) {
+	isAwake = true;
+	wakeLock.notify();
+      }
+    }
+  }
+
+  private void report() {
+    int score = market.getScore(0);
+    int others = 0;
+    for (int agent = 1, n = market.getAgentCount(); agent < n; agent++) {
+      others += market.getScore(agent);
+    }
+    gamesPlayed++;
+    totalScore += score;
+    log.info("Game " + market.getGameID() + " finished: score " + score
+	     + " (utility " + market.getUtility(0) + ", cost "
+	     + market.getCost(0) + "), opponent average "
+	     + (market.getAgentCount() > 1
+		? others / (market.getAgentCount() - 1) : 0)
+	     + ", average over " + gamesPlayed + " games "
+	     + (totalScore / gamesPlayed));
+  }
+
+
+  // -------------------------------------------------------------------
+  // Message handling
+  // -------------------------------------------------------------------
+
+  private String handleMessage(TACMessage msg) {
+    String type = msg.getType();
+    if ("getQuote".equals(type)) {
+      return getQuote(msg);
+    } else if ("submitBid".equals(type) || "replaceBid".equals(type)) {
+      return submitBid(msg, type);
+    } else if ("bidInfo".equals(type)) {
+      return getBidInfo(msg);
+    } else if ("transIDs".equals(type)) {
+      return getTransIDs(msg);
+    } else if ("transInfo".equals(type)) {
+      return getTransInfo(msg);
+    } else if ("serverTime".equals(type)) {
+      return getServerTime();
+    } else if ("auth".equals(type)) {
+      return "<auth><userID>" + USER_ID + "</userID></auth>";
+    } else if ("nextGame".equals(type)) {
+      int gameID = market.nextGame(clock + GAME_DELAY);
+      return "<nextGame><gameID>" + gameID + "</gameID><startTime>"
+	+ (market.getStartTime() / 1000) + "</startTime></nextGame>";
+    } else if ("getGameAuctionIDs".equals(type)) {
+      return getAuctionIDs();
+    } else if ("getGameConsts".equals(type)) {
+      return "<getGameConsts><gameLength>" + (TACMarket.GAME_LENGTH / 1000)
+	+ "</gameLength><gameType>tacClassic</gameType></getGameConsts>";
+    } else if ("getGameParams".equals(type)) {
+      return getGameParams();
+    } else if ("recoverBidIDs".equals(type)) {
+      return "<recoverBidIDs></recoverBidIDs>";
+    } else if ("quit".equals(type)) {
+      return "<quit><commandStatus>" + TACAgent.NO_ERROR
+	+ "</commandStatus></quit>";
+    }
+    return "<tacerror><commandStatus>" + TACAgent.NOT_SUPPORTED
+      + "</commandStatus></tacerror>";
+  }
+
+  private String getServerTime() {
+    return "<serverTime><time>" + (clock / 1000) + "</time></serverTime>";
+  }
+
+  private String getAuctionIDs() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("<getGameAuctionIDs><auctionIDs>");
+    for (int a = 0; a < TACMarket.NO_AUCTIONS; a++) {
+      sb.append("<TACAuctionTuple><ID>").append(market.getAuctionID(a))
+	.append("</ID><category>")
+	.append(TACAgent.auctionCategoryToString
+		(TACAgent.getAuctionCategory(a)))
+	.append("</category><type>").append(TACAgent.getAuctionType(a))
+	.append("</type><day>").append(TACAgent.getAuctionDay(a))
+	.append("</day></TACAuctionTuple>");
+    }
+    return sb.append("</auctionIDs></getGameAuctionIDs>").toString();
+  }
+
+  private String getGameParams() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("<getGameParams><clientPreferences>");
+    for (int c = 0; c < TACMarket.NO_CLIENTS; c++) {
+      sb.append("<clientPrefTuple><client>").append(c + 1)
+	.append("</client><arrival>")
+	.append(market.getPreference(0, c, TACAgent.ARRIVAL))
+	.append("</arrival><departure>")
+	.append(market.getPreference(0, c, TACAgent.DEPARTURE))
+	.append("</departure><hotel>")
+	.append(market.getPreference(0, c, TACAgent.HOTEL_VALUE))
+	.append("</hotel><ticketPreferences>");
+      for (int type = TACAgent.TYPE_ALLIGATOR_WRESTLING;
+	   type <= TACAgent.TYPE_MUSEUM; type++) {
+	sb.append("<typePriceTuple><type>").append(type)
+	  .append("</type><price>")
+	  .append(market.getPreference(0, c, TACAgent.E1 + type - 1))
+	  .append("</price></typePriceTuple>");
+      }
+      sb.append("</ticketPreferences></clientPrefTuple>");
+    }
+    sb.append("</clientPreferences><ticketEndowments>");
+    for (int a = TACAgent.MIN_ENTERTAINMENT; a < TACMarket.NO_AUCTIONS; a++) {
+      int n = market.getEndowment(0, a);
+      if (n > 0) {
+	sb.append("<ticketEndowmentTuple><type>")
+	  .append(TACAgent.getAuctionType(a)).append("</type><day>")
+	  .append(TACAgent.getAuctionDay(a)).append("</day><quantity>")
+	  .append(n).append("</quantity></ticketEndowmentTuple>");
+      }
+    }
+    return sb.append("</ticketEndowments></getGameParams>").toString();
+  }
+
+  private String getQuote(TACMessage msg) {
+    int auction = market.getAuction(getInt(msg, "auctionID"));
+    StringBuffer sb = new StringBuffer();
+    sb.append("<getQuote>");
+    if (auction < 0) {
+      sb.append("<auctionStatus>").append(TACMarket.STATUS_CLOSED)
+	.append("</auctionStatus>");
+    } else {
+      boolean isHotel =
+	TACAgent.getAuctionCategory(auction) == TACAgent.CAT_HOTEL;
+      sb.append("<lastAskPrice>").append(market.getAskPrice(auction))
+	.append("</lastAskPrice><lastBidPrice>")
+	.append(market.getBidPrice(auction)).append("</lastBidPrice>");
+      if (isHotel && msg.getParameter("bidID") != null) {
+	TACMarket.Order order = market.getBid(getInt(msg, "bidID"));
+	sb.append("<hypotheticalQuantityWon>")
+	  .append(order != null ? order.hqw : 0)
+	  .append("</hypotheticalQuantityWon>");
+      }
+      boolean closed = market.isClosed(auction);
+      sb.append("<auctionStatus>")
+	.append(closed ? TACMarket.STATUS_CLOSED : TACMarket.STATUS_OPEN)
+	.append("</auctionStatus>");
+      long nextQuote = market.getNextQuoteTime();
+      if (isHotel && !closed && nextQuote > 0) {
+	sb.append("<nextQuoteTime>").append(nextQuote / 1000)
+	  .append("</nextQuoteTime>");
+      }
+    }
+    return sb.append("</getQuote>").toString();
+  }
+
+  private String submitBid(TACMessage msg, String type) {
+    int auction = market.getAuction(getInt(msg, "auctionID"));
+    int len = parseBidString(msg.getParameter("bidString"));
+    TACMarket.Order order = auction < 0 ? null
+      : market.submit(0, auction, quantity, price, len, clock);
+    if (order == null) {
+      // Reported as closed so that the agent reverts the bid
+      return "<" + type + "><commandStatus>" + TACAgent.AUCTION_CLOSED
+	+ "</commandStatus></" + type + '>';
+    }
+    // The hash of the bid as submitted so that the agent sees any
+    // transactions the bid has already taken part in
+    return "<" + type + "><bidID>" + order.id + "</bidID><bidHash>"
+      + order.id + ".0</bidHash><rejectReason>" + order.rejectReason
+      + "</rejectReason><commandStatus>" + TACAgent.NO_ERROR
+      + "</commandStatus></" + type + '>';
+  }
+
+  private int parseBidString(String bidString) {
+    int len = 0;
+    if (bidString != null) {
+      StringTokenizer tok = new StringTokenizer(bidString, "() \t\r\n");
+      while (tok.hasMoreTokens()) {
+	if (len == quantity.length) {
+	  int[] q = new int[len * 2];
+	  float[] p = new float[len * 2];
+	  System.arraycopy(quantity, 0, q, 0, len);
+	  System.arraycopy(price, 0, p, 0, len);
+	  quantity = q;
+	  price = p;
+	}
+	quantity[len] = (int) Float.parseFloat(tok.nextToken());
+	price[len++] = Float.parseFloat(tok.nextToken());
+      }
+    }
+    return len;
+  }
+
+  private String getBidInfo(TACMessage msg) {
+    TACMarket.Order order = market.getBid(getInt(msg, "bidID"));
+    if (order == null) {
+      return "<bidInfo><commandStatus>" + TACAgent.BID_NOT_FOUND
+	+ "</commandStatus></bidInfo>";
+    }
+    return "<bidInfo><bidString>" + order.getBidString()
+      + "</bidString><bidHash>" + order.getBidHash()
+      + "</bidHash><rejectReason>" + order.rejectReason
+      + "</rejectReason><processingState>" + order.state
+      + "</processingState><timeClosed>" + (order.timeClosed / 1000)
+      + "</timeClosed><timeProcessed>" + (order.timeProcessed / 1000)
+      + "</timeProcessed><commandStatus>" + TACAgent.NO_ERROR
+      + "</commandStatus></bidInfo>";
+  }
+
+  private String getTransIDs(TACMessage msg) {
+    int earliest = getInt(msg, "earliestTransID");
+    StringBuffer sb = new StringBuffer();
+    sb.append("<transIDs>");
+    for (int i = 0, n = market.getTradeCount(); i < n; i++) {
+      TACMarket.Trade trade = market.getTrade(i);
+      if (trade.id > earliest) {
+	sb.append("<transID>").append(trade.id).append("</transID>");
+      }
+    }
+    return sb.append("</transIDs>").toString();
+  }
+
+  private String getTransInfo(TACMessage msg) {
+    int transID = getInt(msg, "transID");
+    for (int i = 0, n = market.getTradeCount(); i < n; i++) {
+      TACMarket.Trade trade = market.getTrade(i);
+      if (trade.id == transID) {
+	return "<transInfo><auctionID>" + market.getAuctionID(trade.auction)
+	  + "</auctionID><quantity>" + trade.quantity
+	  + "</quantity><price>" + trade.price + "</price><commandStatus>"
+	  + TACAgent.NO_ERROR + "</commandStatus></transInfo>";
+      }
+    }
+    return "<transInfo><commandStatus>" + TACAgent.TRANS_NOT_FOUND
+      + "</commandStatus></transInfo>";
+  }
+
+  private static int getInt(TACMessage msg, String name) {
+    String value = msg.getParameter(name);
+    try {
+      return value != null ? Integer.parseInt(value) : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+} // MarketSimulator
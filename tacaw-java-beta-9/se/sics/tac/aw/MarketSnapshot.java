@@ -0,0 +1,101 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * MarketSnapshot is an immutable copy of the quotes and owned goods of
+ * all auctions, kept as one array per field. The Quote objects of
+ * TACAgent are updated field by field by the thread that receives the
+ * replies, so strategy code that reads them from another thread may see
+ * a half updated quote; a snapshot is taken on the receiving thread
+ * after each update (see MarketState) and can be read from any thread
+ * without locks.
+ *
+ * Snapshots are numbered: a later snapshot has a higher version.
+ */
+
+package se.sics.tac.aw;
+
+public final class MarketSnapshot {
+
+  private final long version;
+  private final long time;
+  private final float[] askPrice;
+  private final float[] bidPrice;
+  private final int[] hqw;
+  private final int[] status;
+  private final int[] own;
+
+  private MarketSnapshot(long version, long time, int auctions) {
+    this.version = version;
+    this.time = time;
+    this.askPrice = new float[auctions];
+    this.bidPrice = new float[auctions];
+    this.hqw = new int[auctions];
+    this.status = new int[auctions];
+    this.own = new int[auctions];
+  }
+
+  /**
+   * Copies the current quotes and owned goods of the agent. Should be
+   * called on the thread that updates them.
+   */
+  static MarketSnapshot capture(TACAgent agent, long version) {
+    int auctions = TACAgent.getAuctionNo();
+    MarketSnapshot snapshot =
+      new MarketSnapshot(version, agent.getServerTime(), auctions);
+    for (int i = 0; i < auctions; i++) {
+      Quote quote = agent.getQuote(i);
+      snapshot.askPrice[i] = quote.getAskPrice();
+      snapshot.bidPrice[i] = quote.getBidPrice();
+      snapshot.hqw[i] = quote.getHQW();
+      snapshot.status[i] = quote.getAuctionStatus();
+      snapshot.own[i] = agent.getOwn(i);
+    }
+    return snapshot;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /** Returns the server time when the snapshot was taken */
+  public long getTime() {
+    return time;
+  }
+
+  public int getAuctionNo() {
+    return own.length;
+  }
+
+  public float getAskPrice(int auction) {
+    return askPrice[auction];
+  }
+
+  public float getBidPrice(int auction) {
+    return bidPrice[auction];
+  }
+
+  public int getHQW(int auction) {
+    return hqw[auction];
+  }
+
+  public int getAuctionStatus(int auction) {
+    return status[auction];
+  }
+
+  public boolean isAuctionClosed(int auction) {
+    return status[auction] == Quote.AUCTION_CLOSED;
+  }
+
+  public int getOwn(int auction) {
+    return own[auction];
+  }
+
+  public String toString() {
+    return "MarketSnapshot[" + version + ',' + time + ']';
+  }
+
+} // MarketSnapshot
@@ -0,0 +1,61 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * MarketState holds the latest MarketSnapshot of an agent. The agent
+ * implementation that TACAgent calls publishes a new snapshot from its
+ * callbacks, which run right after TACAgent has updated its quotes and
+ * owned goods, and strategy code reads the latest one with get(): a
+ * single volatile read, so a strategy thread never waits for the
+ * network thread and sees all auctions as of the same update.
+ *
+ * There is one MarketState per TACAgent, shared by the EventLoopAgent
+ * and the strategy it runs.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+public class MarketState {
+
+  private static final Map<TACAgent,MarketState> states =
+    new WeakHashMap<TACAgent,MarketState>();
+
+  private final TACAgent agent;
+  private volatile MarketSnapshot snapshot;
+  private long version;
+
+  private MarketState(TACAgent agent) {
+    this.agent = agent;
+  }
+
+  public static MarketState getMarketState(TACAgent agent) {
+    synchronized (states) {
+      MarketState state = states.get(agent);
+      if (state == null) {
+	state = new MarketState(agent);
+	states.put(agent, state);
+      }
+      return state;
+    }
+  }
+
+  /** Returns the latest snapshot, taking one if none has been published */
+  public MarketSnapshot get() {
+    MarketSnapshot current = snapshot;
+    return current == null ? publish() : current;
+  }
+
+  /** Takes and publishes a new snapshot of the agent's market */
+  public synchronized MarketSnapshot publish() {
+    MarketSnapshot current = MarketSnapshot.capture(agent, ++version);
+    snapshot = current;
+    return current;
+  }
+
+} // MarketState
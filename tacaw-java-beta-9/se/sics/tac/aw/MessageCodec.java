@@ -0,0 +1,778 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * MessageCodec reads and writes TAC protocol messages in reusable byte
+ * buffers instead of Strings. Replies are read from a stream into one
+ * buffer and walked in place: tags are matched against preencoded tag
+ * names and values are parsed straight into primitives, so walking a
+ * reply creates no objects. Quote and bid info replies are decoded
+ * into preallocated QuoteReply and BidInfoReply structures that can be
+ * applied to the Quote and Bid of the agent.
+ *
+ * Requests are written into a second buffer with begin(), the add
+ * methods and end(), giving the same message as
+ * TACMessage.getMessageString() including the terminating zero byte.
+ *
+ * A codec is not thread safe; a connection should have one codec per
+ * reading thread and one per writing thread (or lock around it).
+ *
+ * NioConnection reads its replies this way: a receiver that implements
+ * MessageCodec.Receiver gets the reply in the codec of the connection
+ * instead of as a String in the TACMessage.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+public class MessageCodec {
+
+  private static final int DEFAULT_SIZE = 4096;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final byte[] TAC_ERROR = bytes("tacerror");
+  private static final byte[] GET_QUOTE = bytes("getQuote");
+  private static final byte[] BID_INFO = bytes("bidInfo");
+  private static final byte[] COMMAND_STATUS = bytes("commandStatus");
+  private static final byte[] AUCTION_ID = bytes("auctionID");
+  private static final byte[] AUCTION_STATUS = bytes("auctionStatus");
+  private static final byte[] LAST_ASK_PRICE = bytes("lastAskPrice");
+  private static final byte[] LAST_BID_PRICE = bytes("lastBidPrice");
+  private static final byte[] HQW = bytes("hypotheticalQuantityWon");
+  private static final byte[] LAST_QUOTE_TIME = bytes("lastQuoteTime");
+  private static final byte[] NEXT_QUOTE_TIME = bytes("nextQuoteTime");
+  private static final byte[] BID_ID = bytes("bidID");
+  private static final byte[] BID_STRING = bytes("bidString");
+  private static final byte[] BID_HASH = bytes("bidHash");
+  private static final byte[] REJECT_REASON = bytes("rejectReason");
+  private static final byte[] PROCESSING_STATE = bytes("processingState");
+  private static final byte[] TIME_CLOSED = bytes("timeClosed");
+  private static final byte[] TIME_PROCESSED = bytes("timeProcessed");
+
+  private static final float[] POWERS_OF_TEN = {
+    1f, 10f, 100f, 1000f, 10000f, 100000f, 1000000f
+  };
+
+  // Read buffer: input[inputStart..inputEnd) has been read but not
+  // yet returned as a reply
+  private byte[] input;
+  private int inputStart;
+  private int inputEnd;
+
+  // Current reply: data[replyStart..replyEnd), either in the read
+  // buffer or in an array given to setReply()
+  private byte[] data;
+  private int replyStart;
+  private int replyEnd;
+  private int pos;
+
+  // Request buffer
+  private byte[] out;
+  private int outLength;
+  private final byte[][] types = new byte[4][];
+  private int typeCount;
+
+  public MessageCodec() {
+    this(DEFAULT_SIZE);
+  }
+
+  public MessageCodec(int size) {
+    input = new byte[size];
+    out = new byte[size];
+    data = input;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Reading replies
+  // -------------------------------------------------------------------
+
+  /**
+   * Reads the next zero terminated reply from the stream into the
+   * reply buffer. Returns false at the end of the stream.
+   */
+  public boolean readReply(InputStream in) throws IOException {
+    int scan = inputStart;
+    while (true) {
+      for (; scan < inputEnd; scan++) {
+	if (input[scan] == 0) {
+	  data = input;
+	  setBounds(inputStart, scan);
+	  inputStart = scan + 1;
+	  return true;
+	}
+      }
+      if (inputStart > 0) {
+	// Move the partial reply to the front of the buffer
+	System.arraycopy(input, inputStart, input, 0, inputEnd - inputStart);
+	scan -= inputStart;
+	inputEnd -= inputStart;
+	inputStart = 0;
+      }
+      if (inputEnd == input.length) {
+	byte[] tmp = new byte[input.length * 2];
+	System.arraycopy(input, 0, tmp, 0, inputEnd);
+	input = tmp;
+      }
+      int n = in.read(input, inputEnd, input.length - inputEnd);
+      if (n < 0) {
+	return false;
+      }
+      inputEnd += n;
+    }
+  }
+
+  /**
+   * Uses the specified bytes as the current reply without copying.
+   * The array must not be changed while the reply is used.
+   */
+  public void setReply(byte[] reply, int offset, int length) {
+    data = reply;
+    if (length > 0 && reply[offset + length - 1] == 0) {
+      length--;
+    }
+    setBounds(offset, offset + length);
+  }
+
+  private void setBounds(int start, int end) {
+    replyStart = start;
+    replyEnd = end;
+    pos = start;
+  }
+
+  /** Returns the current reply as a String, for logging */
+  public String getReply() {
+    return decode(data, replyStart, replyEnd - replyStart);
+  }
+
+  /** Moves back to the start of the current reply */
+  public void rewind() {
+    pos = replyStart;
+  }
+
+  /**
+   * Moves to the next tag (opening or closing). Returns false if there
+   * are no more tags in the current reply.
+   */
+  public boolean nextTag() {
+    for (int i = pos; i < replyEnd; i++) {
+      if (data[i] == '<') {
+	pos = i + 1;
+	return true;
+      }
+    }
+    pos = replyEnd;
+    return false;
+  }
+
+  public boolean isTag(byte[] name) {
+    int n = name.length;
+    if (pos + n >= replyEnd || data[pos + n] != '>') {
+      return false;
+    }
+    for (int i = 0; i < n; i++) {
+      if (data[pos + i] != name[i]) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean isTag(String name) {
+    int n = name.length();
+    if (pos + n >= replyEnd || data[pos + n] != '>') {
+      return false;
+    }
+    for (int i = 0; i < n; i++) {
+      if (data[pos + i] != name.charAt(i)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean isDeclaration() {
+    return pos < replyEnd && data[pos] == '?';
+  }
+
+  // Returns the start of the value of the current tag or -1
+  private int valueStart() {
+    for (int i = pos; i < replyEnd; i++) {
+      if (data[i] == '>') {
+	return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  private int valueEnd(int start) {
+    for (int i = start; i < replyEnd; i++) {
+      if (data[i] == '<') {
+	return i;
+      }
+    }
+    return replyEnd;
+  }
+
+  public String getValue() {
+    int start = valueStart();
+    if (start < 0) {
+      return null;
+    }
+    return decode(data, start, valueEnd(start) - start);
+  }
+
+  /**
+   * Copies the value of the current tag into the specified array and
+   * returns its length, or returns -1 if the array is too small.
+   */
+  public int getValue(byte[] dest) {
+    int start = valueStart();
+    if (start < 0) {
+      return 0;
+    }
+    int length = valueEnd(start) - start;
+    if (length > dest.length) {
+      return -1;
+    }
+    System.arraycopy(data, start, dest, 0, length);
+    return length;
+  }
+
+  public int getValueAsInt(int defaultValue) {
+    long value = getValueAsLong(Long.MIN_VALUE);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      return defaultValue;
+    }
+    return (int) value;
+  }
+
+  public long getValueAsLong(long defaultValue) {
+    int start = valueStart();
+    if (start < 0) {
+      return defaultValue;
+    }
+    int end = valueEnd(start);
+    int i = start;
+    boolean negative = i < end && data[i] == '-';
+    if (negative) {
+      i++;
+    }
+    if (i == end || end - i > 18) {
+      return defaultValue;
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = data[i] - '0';
+      if (digit < 0 || digit > 9) {
+	return defaultValue;
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  public float getValueAsFloat(float defaultValue) {
+    int start = valueStart();
+    if (start < 0) {
+      return defaultValue;
+    }
+    int end = valueEnd(start);
+    int i = start;
+    boolean negative = i < end && data[i] == '-';
+    if (negative) {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int decimals = -1;
+    for (; i < end; i++) {
+      byte c = data[i];
+      if (c >= '0' && c <= '9') {
+	mantissa = mantissa * 10 + (c - '0');
+	digits++;
+	if (decimals >= 0) {
+	  decimals++;
+	}
+      } else if (c == '.' && decimals < 0) {
+	decimals = 0;
+      } else {
+	break;
+      }
+    }
+    if (i < end || digits == 0 || digits > 15
+	|| decimals >= POWERS_OF_TEN.length) {
+      // Exponents and long values are rare enough to take the slow path
+      try {
+	return Float.parseFloat(decode(data, start, end - start));
+      } catch (NumberFormatException e) {
+	return defaultValue;
+      }
+    }
+    float value = decimals > 0
+      ? (float) (mantissa / (double) POWERS_OF_TEN[decimals])
+      : (float) mantissa;
+    return negative ? -value : value;
+  }
+
+  // Checks the reply type the way TACMessage does. Returns false if
+  // the reply is an error.
+  private boolean checkType(byte[] type) {
+    rewind();
+    if (!nextTag() || (isDeclaration() && !nextTag())) {
+      throw new IllegalArgumentException("Malformed message: " + getReply());
+    }
+    if (isTag(type)) {
+      return true;
+    }
+    if (isTag(TAC_ERROR)) {
+      return false;
+    }
+    throw new IllegalStateException("Message not expected: "
+				    + decode(type, 0, type.length)
+				    + " -> " + getReply());
+  }
+
+  /**
+   * Decodes the current reply as a quote reply. Returns false if the
+   * reply is an error (the command status is then set).
+   */
+  public boolean decodeQuote(QuoteReply quote) {
+    quote.clear();
+    boolean ok = checkType(GET_QUOTE);
+    while (nextTag()) {
+      if (isTag(LAST_ASK_PRICE)) {
+	quote.askPrice = getValueAsFloat(0f);
+      } else if (isTag(LAST_BID_PRICE)) {
+	quote.bidPrice = getValueAsFloat(0f);
+      } else if (isTag(HQW)) {
+	quote.hqw = getValueAsInt(-1);
+      } else if (isTag(AUCTION_STATUS)) {
+	quote.auctionStatus = getValueAsInt(0);
+      } else if (isTag(NEXT_QUOTE_TIME)) {
+	quote.nextQuoteTime = 1000L * getValueAsLong(0L);
+      } else if (isTag(LAST_QUOTE_TIME)) {
+	quote.lastQuoteTime = 1000L * getValueAsLong(0L);
+      } else if (isTag(AUCTION_ID)) {
+	quote.auctionID = getValueAsInt(-1);
+      } else if (isTag(COMMAND_STATUS)) {
+	quote.commandStatus = getValueAsInt(0);
+      }
+    }
+    quote.isError = !ok;
+    return ok;
+  }
+
+  /**
+   * Decodes the current reply as a bid info reply. Returns false if the
+   * reply is an error (the command status is then set).
+   */
+  public boolean decodeBidInfo(BidInfoReply info) {
+    info.clear();
+    boolean ok = checkType(BID_INFO);
+    while (nextTag()) {
+      if (isTag(BID_STRING)) {
+	info.bidStringLength = copyValue(info, true);
+      } else if (isTag(BID_HASH)) {
+	info.bidHashLength = copyValue(info, false);
+      } else if (isTag(REJECT_REASON)) {
+	info.rejectReason = getValueAsInt(0);
+      } else if (isTag(PROCESSING_STATE)) {
+	info.processingState = getValueAsInt(0);
+      } else if (isTag(TIME_CLOSED)) {
+	info.timeClosed = getValueAsLong(0L);
+      } else if (isTag(TIME_PROCESSED)) {
+	info.timeProcessed = getValueAsLong(0L);
+      } else if (isTag(BID_ID)) {
+	info.bidID = getValueAsInt(-1);
+      } else if (isTag(AUCTION_ID)) {
+	info.auctionID = getValueAsInt(-1);
+      } else if (isTag(COMMAND_STATUS)) {
+	info.commandStatus = getValueAsInt(0);
+      }
+    }
+    info.isError = !ok;
+    return ok;
+  }
+
+  // Copies a value into the bid info, growing its buffer if needed
+  private int copyValue(BidInfoReply info, boolean isBidString) {
+    byte[] dest = isBidString ? info.bidString : info.bidHash;
+    int length = getValue(dest);
+    if (length < 0) {
+      int start = valueStart();
+      dest = new byte[(valueEnd(start) - start) * 2];
+      if (isBidString) {
+	info.bidString = dest;
+      } else {
+	info.bidHash = dest;
+      }
+      length = getValue(dest);
+    }
+    return length;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Writing requests
+  // -------------------------------------------------------------------
+
+  /** Starts a new request of the specified type */
+  public MessageCodec begin(byte[] type) {
+    outLength = 0;
+    typeCount = 0;
+    return open(type);
+  }
+
+  public MessageCodec begin(String type) {
+    return begin(bytes(type));
+  }
+
+  /** Starts a nested element, closed by the next call to close() */
+  public MessageCodec open(byte[] name) {
+    if (typeCount == types.length) {
+      throw new IllegalStateException("too deeply nested: " + typeCount);
+    }
+    types[typeCount++] = name;
+    writeTag(name, false);
+    return this;
+  }
+
+  public MessageCodec close() {
+    writeTag(types[--typeCount], true);
+    return this;
+  }
+
+  public MessageCodec add(byte[] name, int value) {
+    return add(name, (long) value);
+  }
+
+  public MessageCodec add(byte[] name, long value) {
+    writeTag(name, false);
+    writeLong(value);
+    writeTag(name, true);
+    return this;
+  }
+
+  public MessageCodec add(byte[] name, float value) {
+    writeTag(name, false);
+    writeFloat(value);
+    writeTag(name, true);
+    return this;
+  }
+
+  public MessageCodec add(byte[] name, CharSequence value) {
+    writeTag(name, false);
+    for (int i = 0, n = value.length(); i < n; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+	write((byte) c);
+      } else {
+	// Rare in the protocol: fall back to the encoder
+	byte[] encoded = String.valueOf(c).getBytes(UTF8);
+	for (int j = 0; j < encoded.length; j++) {
+	  write(encoded[j]);
+	}
+      }
+    }
+    writeTag(name, true);
+    return this;
+  }
+
+  /**
+   * Adds the bid points as a bid string, "((quantity price)...)" as
+   * written by Bid.getBidString()
+   */
+  public MessageCodec add(byte[] name, BidBuilder bid) {
+    writeTag(name, false);
+    write((byte) '(');
+    for (int i = 0, n = bid.getNoBidPoints(); i < n; i++) {
+      write((byte) '(');
+      writeLong(bid.getQuantity(i));
+      write((byte) ' ');
+      writeFloat(bid.getPrice(i));
+      write((byte) ')');
+    }
+    write((byte) ')');
+    writeTag(name, true);
+    return this;
+  }
+
+  /**
+   * Closes all open elements and terminates the request. Returns the
+   * length of the request in getRequestBuffer().
+   */
+  public int end() {
+    while (typeCount > 0) {
+      close();
+    }
+    write((byte) 0);
+    return outLength;
+  }
+
+  public byte[] getRequestBuffer() {
+    return out;
+  }
+
+  public int getRequestLength() {
+    return outLength;
+  }
+
+  public void writeRequest(OutputStream stream) throws IOException {
+    stream.write(out, 0, outLength);
+  }
+
+  private void writeTag(byte[] name, boolean isEnd) {
+    ensure(name.length + 3);
+    out[outLength++] = '<';
+    if (isEnd) {
+      out[outLength++] = '/';
+    }
+    System.arraycopy(name, 0, out, outLength, name.length);
+    outLength += name.length;
+    out[outLength++] = '>';
+  }
+
+  private void write(byte b) {
+    ensure(1);
+    out[outLength++] = b;
+  }
+
+  private void writeLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      writeAscii(Long.toString(value));
+      return;
+    }
+    ensure(20);
+    if (value < 0) {
+      out[outLength++] = '-';
+      value = -value;
+    }
+    int start = outLength;
+    do {
+      out[outLength++] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value > 0);
+    // Digits were written backwards
+    for (int i = start, j = outLength - 1; i < j; i++, j--) {
+      byte tmp = out[i];
+      out[i] = out[j];
+      out[j] = tmp;
+    }
+  }
+
+  // Prices are written with at most two decimals, which is the
+  // precision of the TAC servers
+  private void writeFloat(float value) {
+    if (Float.isNaN(value) || Float.isInfinite(value)
+	|| Math.abs(value) >= 1e15f) {
+      writeAscii(Float.toString(value));
+      return;
+    }
+    long cents = Math.round(value * 100.0);
+    if (cents < 0) {
+      write((byte) '-');
+      cents = -cents;
+    }
+    writeLong(cents / 100);
+    write((byte) '.');
+    int fraction = (int) (cents % 100);
+    write((byte) ('0' + fraction / 10));
+    if (fraction % 10 != 0) {
+      write((byte) ('0' + fraction % 10));
+    }
+  }
+
+  private void writeAscii(String text) {
+    ensure(text.length());
+    for (int i = 0, n = text.length(); i < n; i++) {
+      out[outLength++] = (byte) text.charAt(i);
+    }
+  }
+
+  private void ensure(int length) {
+    if (outLength + length > out.length) {
+      byte[] tmp = new byte[Math.max(out.length * 2, outLength + length)];
+      System.arraycopy(out, 0, tmp, 0, outLength);
+      out = tmp;
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Utilities
+  // -------------------------------------------------------------------
+
+  /** Encodes a tag name for use with isTag() and the add methods */
+  public static byte[] bytes(String text) {
+    return text.getBytes(UTF8);
+  }
+
+  private static String decode(byte[] data, int offset, int length) {
+    return new String(data, offset, length, UTF8);
+  }
+
+  private static boolean matches(byte[] data, int length, String text) {
+    if (text == null || text.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (data[i] != text.charAt(i)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Decoded replies
+  // -------------------------------------------------------------------
+
+  /**
+   * A message receiver that can take its replies from a codec. A
+   * connection that reads into a codec calls replyReceived() instead of
+   * messageReceived(), and then the reply is never set in the message.
+   * The codec is only valid until the method returns.
+   */
+  public interface Receiver extends TACMessageReceiver {
+    void replyReceived(TACMessage msg, MessageCodec codec);
+  }
+
+  /** A decoded quote reply, reused between replies */
+  public static class QuoteReply {
+
+    public int auctionID;
+    /** The auction status, or -1 if not in the reply */
+    public int auctionStatus;
+    /** Prices, or NaN if not in the reply */
+    public float askPrice;
+    public float bidPrice;
+    /** The HQW, or -1 if not in the reply */
+    public int hqw;
+    /** Times in milliseconds, or 0 if not in the reply */
+    public long lastQuoteTime;
+    public long nextQuoteTime;
+    public int commandStatus;
+    public boolean isError;
+
+    void clear() {
+      auctionID = -1;
+      auctionStatus = -1;
+      askPrice = Float.NaN;
+      bidPrice = Float.NaN;
+      hqw = -1;
+      lastQuoteTime = 0L;
+      nextQuoteTime = 0L;
+      commandStatus = 0;
+      isError = false;
+    }
+
+    /**
+     * Updates a quote of the agent the way TACAgent does: only the
+     * values in the reply are set.
+     */
+    public void applyTo(Quote quote) {
+      if (!Float.isNaN(askPrice)) {
+	quote.setAskPrice(askPrice);
+      }
+      if (!Float.isNaN(bidPrice)) {
+	quote.setBidPrice(bidPrice);
+      }
+      if (hqw >= 0) {
+	quote.setHQW(hqw);
+      }
+      if (auctionStatus >= 0) {
+	quote.setAuctionStatus(auctionStatus);
+      }
+      if (nextQuoteTime > 0) {
+	quote.setNextQuoteTime(nextQuoteTime);
+      }
+      if (lastQuoteTime > 0) {
+	quote.setLastQuoteTime(lastQuoteTime);
+      }
+    }
+
+    public String toString() {
+      return "QuoteReply[" + auctionID + ',' + auctionStatus + ','
+	+ askPrice + ',' + bidPrice + ',' + hqw + ']';
+    }
+  }
+
+  /** A decoded bid info reply, reused between replies */
+  public static class BidInfoReply {
+
+    public int bidID;
+    public int auctionID;
+    /** Server values, see Bid.mapProcessingState and mapRejectReason */
+    public int processingState;
+    public int rejectReason;
+    /** Times in seconds as sent by the server, or 0 */
+    public long timeProcessed;
+    public long timeClosed;
+    public int commandStatus;
+    public boolean isError;
+
+    byte[] bidString = new byte[256];
+    int bidStringLength;
+    byte[] bidHash = new byte[32];
+    int bidHashLength;
+
+    void clear() {
+      bidID = -1;
+      auctionID = -1;
+      processingState = 0;
+      rejectReason = 0;
+      timeProcessed = 0L;
+      timeClosed = 0L;
+      commandStatus = 0;
+      isError = false;
+      bidStringLength = 0;
+      bidHashLength = 0;
+    }
+
+    public int getProcessingState() {
+      return Bid.mapProcessingState(processingState);
+    }
+
+    public int getRejectReason() {
+      return Bid.mapRejectReason(rejectReason);
+    }
+
+    public boolean hasBidHash() {
+      return bidHashLength > 0;
+    }
+
+    /** Compares the bid hash with a bid without creating a String */
+    public boolean isSameHash(Bid bid) {
+      return matches(bidHash, bidHashLength, bid.getBidHash());
+    }
+
+    public boolean isSameBidString(Bid bid) {
+      return matches(bidString, bidStringLength, bid.getBidString());
+    }
+
+    public String getBidHash() {
+      return bidHashLength > 0 ? decode(bidHash, 0, bidHashLength) : null;
+    }
+
+    public String getBidString() {
+      return bidStringLength > 0
+	? decode(bidString, 0, bidStringLength) : null;
+    }
+
+    public String toString() {
+      return "BidInfoReply[" + bidID + ',' + auctionID + ','
+	+ processingState + ',' + getBidHash() + ']';
+    }
+  }
+
+} // MessageCodec
@@ -0,0 +1,94 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * MetricsConnection wraps another TACConnection and records the time
+ * from sending each message to receiving its reply, by message type,
+ * and the number of messages in flight in the AgentMetrics of the
+ * agent.
+ *
+ * Select it with "connection=se.sics.tac.aw.MetricsConnection" in the
+ * agent configuration. It is configured with the system property
+ *
+ *  tac.metrics.connection	the connection to wrap
+ *				(default se.sics.tac.aw.TACReader)
+ *
+ * Messages the wrapped connection sends by itself (the login) are not
+ * recorded.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class MetricsConnection extends TACConnection {
+
+  private static final Logger log =
+    Logger.getLogger(MetricsConnection.class.getName());
+
+  private TACConnection connection;
+  private AgentMetrics metrics;
+
+  protected void init() {
+    String className = System.getProperty("tac.metrics.connection",
+					   "se.sics.tac.aw.TACReader");
+    metrics = AgentMetrics.getMetrics(agent);
+    try {
+      connection = (TACConnection) Class.forName(className)
+	.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      log.log(Level.SEVERE, "could not create TACConnection object of class "
+	      + className, e);
+      return;
+    }
+    connection.init(agent);
+  }
+
+  public boolean isConnected() {
+    return connection != null && connection.isConnected();
+  }
+
+  public void disconnect() {
+    if (connection != null) {
+      connection.disconnect();
+    }
+  }
+
+  public void sendMessage(TACMessage msg) throws IOException {
+    if (connection == null) {
+      throw new IOException("Disconnected from server");
+    }
+    TACMessageReceiver receiver = RecordingConnection.getReceiver(msg);
+    msg.setMessageReceiver(new Timer(receiver));
+    metrics.messageSent();
+    try {
+      connection.sendMessage(msg);
+    } catch (IOException e) {
+      metrics.messageFailed();
+      throw e;
+    }
+  }
+
+  private class Timer implements TACMessageReceiver {
+
+    private final TACMessageReceiver receiver;
+    private final long sent = System.nanoTime();
+
+    Timer(TACMessageReceiver receiver) {
+      this.receiver = receiver;
+    }
+
+    public void messageReceived(TACMessage msg) {
+      metrics.messageReceived(msg.getType(), System.nanoTime() - sent);
+      if (receiver != null) {
+	receiver.messageReceived(msg);
+      }
+    }
+  }
+
+} // MetricsConnection
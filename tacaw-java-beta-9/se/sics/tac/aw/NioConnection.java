@@ -0,0 +1,345 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * NioConnection is a non-blocking alternative to TACReader. One
+ * selector thread reads replies and writes requests on a SocketChannel
+ * through direct buffers. Requests are written as soon as they are
+ * sent, back-to-back, without waiting for earlier replies; the server
+ * answers in request order so the messages in flight are kept in a
+ * correlation table (a ring indexed by sequence number) and each reply
+ * is matched with the oldest unanswered request.
+ *
+ * A request is first written directly from the sending thread if the
+ * socket accepts it; whatever does not fit is left in the output buffer
+ * for the selector thread. Replies are delivered on the selector
+ * thread, as TACReader delivers them on its reader thread.
+ *
+ * Replies are framed in place in the read buffer. A reply to a message
+ * whose receiver is a MessageCodec.Receiver (such as QuoteRefresher) is
+ * handed to it in a MessageCodec set to the frame, without creating a
+ * String; other replies are delivered through the TACMessage as usual.
+ * TACMessage does not publish its receiver, so it is read from its
+ * receiver field (without it all replies take the usual way).
+ *
+ * Select it with "connection=se.sics.tac.aw.NioConnection" in the
+ * agent configuration.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class NioConnection extends TACConnection implements Runnable {
+
+  private static final Logger log =
+    Logger.getLogger(NioConnection.class.getName());
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int BUFFER_SIZE = 65536;
+
+  private static final Field messageReceiver = getReceiverField();
+
+  private SocketChannel channel;
+  private Selector selector;
+  private SelectionKey key;
+  private volatile boolean disconnected = true;
+
+  // Guards the output and the correlation table, which must be updated
+  // together so that requests are in the table in the order written
+  private final Object lock = new Object();
+  private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final ArrayDeque<byte[]> overflow = new ArrayDeque<byte[]>();
+  private boolean isWritePending;
+
+  // Correlation table: inFlight[sequence % length] for the sequence
+  // numbers from received up to (not including) sent
+  private TACMessage[] inFlight = new TACMessage[64];
+  private long sent;
+  private long received;
+  private int maxInFlight;
+
+  // Input, only used by the selector thread
+  private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private byte[] frame = new byte[BUFFER_SIZE];
+  private int frameLength;
+  private final MessageCodec codec = new MessageCodec();
+
+  protected void init() {
+    try {
+      String host = agent.getHost();
+      int port = agent.getPort();
+      log.fine("Connecting to server " + host + ':' + port);
+      channel = SocketChannel.open(new InetSocketAddress(host, port));
+      // Requests are already batched by the output buffer
+      channel.socket().setTcpNoDelay(true);
+      channel.configureBlocking(false);
+      selector = Selector.open();
+      key = channel.register(selector, SelectionKey.OP_READ);
+      disconnected = false;
+      AgentThreads.start(this, "tac-nio", false);
+
+      TACMessage msg = new TACMessage("auth");
+      msg.setParameter("userName", agent.getUser());
+      msg.setParameter("userPW", agent.getPassword());
+      msg.setMessageReceiver(agent);
+      sendMessage(msg);
+    } catch (Exception e) {
+      disconnected = true;
+      log.log(Level.SEVERE, "connection to server failed:", e);
+      close();
+    }
+  }
+
+  public boolean isConnected() {
+    return !disconnected;
+  }
+
+  public void disconnect() {
+    disconnected = true;
+    close();
+  }
+
+  private void close() {
+    try {
+      if (channel != null) {
+	channel.close();
+      }
+      if (selector != null) {
+	selector.close();
+      }
+    } catch (Exception e) {
+      log.log(Level.SEVERE, "could not close connection:", e);
+    }
+  }
+
+  public void sendMessage(TACMessage msg) throws IOException {
+    if (disconnected) {
+      throw new IOException("Disconnected from server");
+    }
+    byte[] data = msg.getMessageString().getBytes(UTF8);
+    synchronized (lock) {
+      addInFlight(msg);
+      if (overflow.isEmpty() && output.remaining() >= data.length) {
+	output.put(data);
+      } else {
+	// Queued in pieces that each fit in the output buffer
+	for (int i = 0; i < data.length; i += BUFFER_SIZE) {
+	  int length = Math.min(BUFFER_SIZE, data.length - i);
+	  byte[] piece = new byte[length];
+	  System.arraycopy(data, i, piece, 0, length);
+	  overflow.add(piece);
+	}
+      }
+      flush();
+      if (hasOutput() && !isWritePending) {
+	// Let the selector thread write the rest when the socket is ready
+	isWritePending = true;
+	selector.wakeup();
+      }
+    }
+  }
+
+  // Writes as much of the output as the socket accepts without
+  // blocking. Must be called with the lock held.
+  private void flush() throws IOException {
+    while (true) {
+      output.flip();
+      if (output.hasRemaining()) {
+	channel.write(output);
+      }
+      boolean isBlocked = output.hasRemaining();
+      output.compact();
+      if (isBlocked) {
+	return;
+      }
+      // Move as much of the overflow as fits into the output
+      byte[] data;
+      boolean moved = false;
+      while ((data = overflow.peek()) != null
+	     && data.length <= output.remaining()) {
+	output.put(overflow.poll());
+	moved = true;
+      }
+      if (!moved) {
+	return;
+      }
+    }
+  }
+
+  private boolean hasOutput() {
+    return output.position() > 0 || !overflow.isEmpty();
+  }
+
+
+  // -------------------------------------------------------------------
+  // Correlation table
+  // -------------------------------------------------------------------
+
+  // Must be called with the lock held
+  private void addInFlight(TACMessage msg) {
+    int count = (int) (sent - received);
+    if (count == inFlight.length) {
+      TACMessage[] table = new TACMessage[inFlight.length * 2];
+      for (long seq = received; seq < sent; seq++) {
+	table[(int) (seq % table.length)] =
+	  inFlight[(int) (seq % inFlight.length)];
+      }
+      inFlight = table;
+    }
+    inFlight[(int) (sent % inFlight.length)] = msg;
+    sent++;
+    if (count + 1 > maxInFlight) {
+      maxInFlight = count + 1;
+    }
+  }
+
+  private TACMessage removeInFlight() {
+    synchronized (lock) {
+      if (received == sent) {
+	return null;
+      }
+      int index = (int) (received % inFlight.length);
+      TACMessage msg = inFlight[index];
+      inFlight[index] = null;
+      received++;
+      return msg;
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Selector thread
+  // -------------------------------------------------------------------
+
+  public void run() {
+    try {
+      while (!disconnected) {
+	synchronized (lock) {
+	  key.interestOps(hasOutput()
+			  ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+			  : SelectionKey.OP_READ);
+	  isWritePending = false;
+	}
+	selector.select();
+	if (disconnected) {
+	  break;
+	}
+	// Ready operations are only valid if the key was selected (and not
+	// just woken up by a sender)
+	if (selector.selectedKeys().remove(key)) {
+	  if (key.isWritable()) {
+	    synchronized (lock) {
+	      flush();
+	    }
+	  }
+	  if (key.isReadable()) {
+	    read();
+	  }
+	}
+      }
+    } catch (Throwable e) {
+      if (!disconnected) {
+	log.log(Level.SEVERE, "could not read:", e);
+      }
+    } finally {
+      log.fine("Connection closed after " + received + " of " + sent
+	       + " replies, at most " + maxInFlight + " requests in flight");
+      agent.reset(0L, this);
+    }
+  }
+
+  private void read() throws IOException {
+    int n = channel.read(input);
+    if (n < 0) {
+      throw new EOFException("connection closed by server");
+    }
+    input.flip();
+    int length = input.remaining();
+    if (frameLength + length > frame.length) {
+      byte[] tmp = new byte[Math.max(frame.length * 2, frameLength + length)];
+      System.arraycopy(frame, 0, tmp, 0, frameLength);
+      frame = tmp;
+    }
+    input.get(frame, frameLength, length);
+    input.clear();
+
+    int start = 0;
+    int end = frameLength + length;
+    for (int i = frameLength; i < end; i++) {
+      if (frame[i] == 0) {
+	handleMessage(start, i - start);
+	start = i + 1;
+      }
+    }
+    if (start > 0) {
+      System.arraycopy(frame, start, frame, 0, end - start);
+    }
+    frameLength = end - start;
+  }
+
+  // Delivers the reply in frame[start..start+length), which must not be
+  // moved until the receiver has returned
+  private void handleMessage(int start, int length) {
+    TACMessage msg = removeInFlight();
+    if (msg == null) {
+      throw new IllegalStateException("received unexpected message: "
+				      + new String(frame, start, length,
+						   UTF8));
+    }
+    if (disconnected) {
+      return;
+    }
+    TACMessageReceiver receiver = getReceiver(msg);
+    if (receiver instanceof MessageCodec.Receiver) {
+      codec.setReply(frame, start, length);
+      try {
+	((MessageCodec.Receiver) receiver).replyReceived(msg, codec);
+      } catch (Exception e) {
+	log.log(Level.SEVERE, "receiver could not handle message: "
+		+ codec.getReply(), e);
+      }
+    } else {
+      msg.setReceivedMessage(new String(frame, start, length, UTF8));
+      msg.deliverMessage();
+    }
+  }
+
+  private static TACMessageReceiver getReceiver(TACMessage msg) {
+    if (messageReceiver == null) {
+      return null;
+    }
+    try {
+      return (TACMessageReceiver) messageReceiver.get(msg);
+    } catch (IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  private static Field getReceiverField() {
+    try {
+      Field field = TACMessage.class.getDeclaredField("receiver");
+      field.setAccessible(true);
+      return field.getType() == TACMessageReceiver.class ? field : null;
+    } catch (Exception e) {
+      log.log(Level.WARNING, "can not see the receivers of messages", e);
+      return null;
+    }
+  }
+
+} // NioConnection
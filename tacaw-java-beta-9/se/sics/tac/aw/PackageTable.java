@@ -0,0 +1,223 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * PackageTable holds the cost and utility of every travel package
+ * (arrival day, departure day, hotel type) for the current game.
+ *
+ * Client base utilities (1000 - travel penalty + hotel bonus) are set
+ * once when the game starts. The cost of buying one more unit in each
+ * flight and hotel auction is kept in a unit cost table that is
+ * updated one auction at a time as quotes arrive; only the packages
+ * that touch a changed auction are marked for rescoring, and
+ * refresh() recomputes those before an allocation is calculated.
+ *
+ * Package costs are sums of unit costs rounded to whole units, as the
+ * allocation solver counts them, so that getUtility() gives the same
+ * values as the solver's own pricing of a package.
+ */
+
+package se.sics.tac.aw;
+
+class PackageTable {
+
+  /** Number of (in, out, hotel type) packages */
+  public static final int NO_PACKAGES = 20;
+
+  /** Number of clients */
+  public static final int NO_CLIENTS = 8;
+
+  /** Number of flight and hotel auctions (auctions 0 - 15) */
+  public static final int NO_TRAVEL_AUCTIONS = 16;
+
+  private static final int[] packageIn = new int[NO_PACKAGES];
+  private static final int[] packageOut = new int[NO_PACKAGES];
+  private static final int[] packageType = new int[NO_PACKAGES];
+  private static final int[][] packageAuctions = new int[NO_PACKAGES][];
+  private static final int[][] auctionPackages =
+    new int[NO_TRAVEL_AUCTIONS][];
+  private static final int[][][] packageIndex = new int[6][6][2];
+
+  static {
+    int[] noPackages = new int[NO_TRAVEL_AUCTIONS];
+    int p = 0;
+    for (int in = 1; in <= 4; in++) {
+      for (int out = in + 1; out <= 5; out++) {
+	for (int type = TACAgent.TYPE_CHEAP_HOTEL;
+	     type <= TACAgent.TYPE_GOOD_HOTEL; type++) {
+	  int[] auctions = new int[2 + out - in];
+	  auctions[0] = TACAgent.getAuctionFor(TACAgent.CAT_FLIGHT,
+					       TACAgent.TYPE_INFLIGHT, in);
+	  auctions[1] = TACAgent.getAuctionFor(TACAgent.CAT_FLIGHT,
+					       TACAgent.TYPE_OUTFLIGHT, out);
+	  for (int day = in; day < out; day++) {
+	    auctions[2 + day - in] =
+	      TACAgent.getAuctionFor(TACAgent.CAT_HOTEL, type, day);
+	  }
+	  for (int i = 0; i < auctions.length; i++) {
+	    noPackages[auctions[i]]++;
+	  }
+	  packageIn[p] = in;
+	  packageOut[p] = out;
+	  packageType[p] = type;
+	  packageAuctions[p] = auctions;
+	  packageIndex[in][out][type] = p;
+	  p++;
+	}
+      }
+    }
+    for (int a = 0; a < NO_TRAVEL_AUCTIONS; a++) {
+      auctionPackages[a] = new int[noPackages[a]];
+      noPackages[a] = 0;
+    }
+    for (p = 0; p < NO_PACKAGES; p++) {
+      int[] auctions = packageAuctions[p];
+      for (int i = 0; i < auctions.length; i++) {
+	int a = auctions[i];
+	auctionPackages[a][noPackages[a]++] = p;
+      }
+    }
+  }
+
+  private final int[][] baseUtility = new int[NO_CLIENTS][NO_PACKAGES];
+  private final float[] unitCost = new float[NO_TRAVEL_AUCTIONS];
+  private final int[] packageCost = new int[NO_PACKAGES];
+  private final boolean[] dirty = new boolean[NO_PACKAGES];
+  private int noDirty;
+
+  public static int getPackage(int dayIn, int dayOut, int hotelType) {
+    return packageIndex[dayIn][dayOut][hotelType];
+  }
+
+  public static int getIn(int pkg) {
+    return packageIn[pkg];
+  }
+
+  public static int getOut(int pkg) {
+    return packageOut[pkg];
+  }
+
+  public static int getHotelType(int pkg) {
+    return packageType[pkg];
+  }
+
+  /**
+   * Returns the flight and hotel auctions used by the package. The
+   * returned array must not be modified.
+   */
+  public static int[] getAuctions(int pkg) {
+    return packageAuctions[pkg];
+  }
+
+  /**
+   * Sets up the client base utilities for a new game. All unit costs
+   * are cleared and every package is marked for rescoring.
+   */
+  public void gameStarted(TACAgent agent) {
+    for (int client = 0; client < NO_CLIENTS; client++) {
+      int inPref = agent.getClientPreference(client, TACAgent.ARRIVAL);
+      int outPref = agent.getClientPreference(client, TACAgent.DEPARTURE);
+      int hotelValue = agent.getClientPreference(client, TACAgent.HOTEL_VALUE);
+      for (int p = 0; p < NO_PACKAGES; p++) {
+	int utility = 1000
+	  - (Math.abs(packageIn[p] - inPref)
+	     + Math.abs(packageOut[p] - outPref)) * 100;
+	if (packageType[p] == TACAgent.TYPE_GOOD_HOTEL) {
+	  utility += hotelValue;
+	}
+	baseUtility[client][p] = utility;
+      }
+    }
+    for (int a = 0; a < NO_TRAVEL_AUCTIONS; a++) {
+      unitCost[a] = 0f;
+    }
+    for (int p = 0; p < NO_PACKAGES; p++) {
+      dirty[p] = true;
+    }
+    noDirty = NO_PACKAGES;
+  }
+
+  /**
+   * Sets the cost of buying one more unit in the specified flight or
+   * hotel auction. Packages using the auction are marked for
+   * rescoring if the cost has changed.
+   */
+  public void setUnitCost(int auction, float cost) {
+    if (unitCost[auction] != cost) {
+      unitCost[auction] = cost;
+      int[] packages = auctionPackages[auction];
+      for (int i = 0, n = packages.length; i < n; i++) {
+	int p = packages[i];
+	if (!dirty[p]) {
+	  dirty[p] = true;
+	  noDirty++;
+	}
+      }
+    }
+  }
+
+  public float getUnitCost(int auction) {
+    return unitCost[auction];
+  }
+
+  public int getBaseUtility(int client, int pkg) {
+    return baseUtility[client][pkg];
+  }
+
+  /**
+   * Recomputes the cost of all packages touching an auction whose
+   * unit cost has changed since the last refresh.
+   *
+   * @return the number of packages that were rescored
+   */
+  public int refresh() {
+    int rescored = noDirty;
+    if (rescored > 0) {
+      for (int p = 0; p < NO_PACKAGES; p++) {
+	if (dirty[p]) {
+	  int[] auctions = packageAuctions[p];
+	  int cost = 0;
+	  for (int i = 0, n = auctions.length; i < n; i++) {
+	    cost += Math.round(unitCost[auctions[i]]);
+	  }
+	  packageCost[p] = cost;
+	  dirty[p] = false;
+	}
+      }
+      noDirty = 0;
+    }
+    return rescored;
+  }
+
+  /**
+   * Returns the cost of the package if every unit in it has to be
+   * bought. Only valid after refresh().
+   */
+  public int getPackageCost(int pkg) {
+    return packageCost[pkg];
+  }
+
+  /**
+   * Returns the predicted utility of the package for the client
+   * where units in auctions with available[auction] > 0 are already
+   * owned and cost nothing.
+   */
+  public int getUtility(int client, int pkg, int[] available) {
+    if (dirty[pkg]) {
+      refresh();
+    }
+    int cost = packageCost[pkg];
+    int[] auctions = packageAuctions[pkg];
+    for (int i = 0, n = auctions.length; i < n; i++) {
+      int a = auctions[i];
+      if (available[a] > 0) {
+	cost -= Math.round(unitCost[a]);
+      }
+    }
+    return baseUtility[client][pkg] - cost;
+  }
+
+} // PackageTable
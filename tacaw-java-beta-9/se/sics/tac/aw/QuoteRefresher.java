@@ -0,0 +1,415 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * QuoteRefresher requests fresh quotes for a set of auctions at once,
+ * for example all open hotels or a whole category, and tells the agent
+ * when the whole batch has arrived:
+ *
+ *  - each quote is updated and passed to quoteUpdated(Quote) as its
+ *    reply arrives, as TACAgent does for its own quote requests
+ *  - when the last reply of the batch has arrived, quoteUpdated(int)
+ *    is called once for each auction category in the batch
+ *
+ * A batch never sends a second request for an auction that already has
+ * one in flight, from an earlier batch or from TACAgent's own quote
+ * polling; it waits for the same reply. TACAgent does not publish its
+ * requests in flight, so they are read from its pendingQuotes field
+ * (without it only the refresher's own requests are shared). The agent
+ * must pass its quote updates to quoteUpdated(Quote) for the replies to
+ * TACAgent's requests to be counted. Requests that have not been
+ * answered within QUOTE_TIMEOUT are sent again. Closed auctions are
+ * skipped.
+ *
+ * A batch that is not complete BATCH_TIMEOUT after it was requested
+ * (a reply was lost) is completed anyway, so that the agent never
+ * waits for it for longer than that. Its late replies still update the
+ * quotes.
+ *
+ * TACAgent requests the transactions of an auction when its own quote
+ * requests show that it has closed, so a reply here that shows a newly
+ * closed auction updates the prices but leaves the auction status for
+ * the agent to discover.
+ *
+ * The refresher is a MessageCodec.Receiver, so with NioConnection its
+ * replies are decoded from the read buffer of the connection into a
+ * reused QuoteReply instead of being parsed from a String.
+ */
+
+package se.sics.tac.aw;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class QuoteRefresher implements MessageCodec.Receiver, Task {
+
+  private static final Logger log =
+    Logger.getLogger(QuoteRefresher.class.getName());
+
+  /** Same as the quote timeout of TACAgent */
+  public static final long QUOTE_TIMEOUT = 120000;
+
+  /** Longest time to wait for the replies of a batch */
+  public static final long BATCH_TIMEOUT = 3000;
+
+  // TACAgent's time of sending its quote request per auction, 0 if none
+  private static final Field agentPendingQuotes = getPendingQuotesField();
+
+  private final TACAgent agent;
+  private final AgentImpl agentImpl;
+
+  // In flight requests per auction, guarded by this object
+  private final long[] pendingSince = new long[TACAgent.getAuctionNo()];
+  private final TACMessage[] pending = new TACMessage[TACAgent.getAuctionNo()];
+  // Auctions waiting for a reply to TACAgent's request
+  private final boolean[] agentPending = new boolean[TACAgent.getAuctionNo()];
+  private final ArrayList<ArrayList<Batch>> waiting =
+    new ArrayList<ArrayList<Batch>>();
+
+  // Only used by the reading thread of the connection
+  private final MessageCodec.QuoteReply reply =
+    new MessageCodec.QuoteReply();
+
+  /**
+   * Creates a refresher that calls the agent implementation TACAgent
+   * calls, which may be an EventLoopAgent running the strategy that
+   * creates the refresher.
+   */
+  public QuoteRefresher(TACAgent agent) {
+    this(agent, EventLoopAgent.getAgentImpl(agent));
+  }
+
+  public QuoteRefresher(TACAgent agent, AgentImpl agentImpl) {
+    this.agent = agent;
+    this.agentImpl = agentImpl;
+    for (int i = 0, n = TACAgent.getAuctionNo(); i < n; i++) {
+      waiting.add(new ArrayList<Batch>());
+    }
+  }
+
+  /**
+   * Requests quotes for all open auctions of a category. Returns the
+   * number of auctions in the batch.
+   */
+  public int refreshCategory(int category) {
+    int[] auctions = new int[8];
+    int count = 0;
+    for (int i = 0, n = TACAgent.getAuctionNo(); i < n; i++) {
+      if (TACAgent.getAuctionCategory(i) == category) {
+	if (count == auctions.length) {
+	  int[] tmp = new int[count * 2];
+	  System.arraycopy(auctions, 0, tmp, 0, count);
+	  auctions = tmp;
+	}
+	auctions[count++] = i;
+      }
+    }
+    return refresh(auctions, count);
+  }
+
+  public int refresh(int[] auctions) {
+    return refresh(auctions, auctions.length);
+  }
+
+  /**
+   * Requests quotes for the first count auctions in the array. Returns
+   * the number of auctions in the batch, which is 0 (and no callback is
+   * made) if all of them are closed.
+   */
+  public int refresh(int[] auctions, int count) {
+    Batch batch = new Batch();
+    ArrayList<TACMessage> messages = new ArrayList<TACMessage>();
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      for (int i = 0; i < count; i++) {
+	int auction = auctions[i];
+	Quote quote = agent.getQuote(auction);
+	if (quote.isAuctionClosed() || agent.getServerAuctionID(auction) <= 0
+	    || batch.contains(auction)) {
+	  continue;
+	}
+	batch.add(auction);
+	waiting.get(auction).add(batch);
+	if (pending[auction] != null
+	    && pendingSince[auction] + QUOTE_TIMEOUT > now) {
+	  // Our own request is in flight
+	} else if (isAgentRequestPending(auction, now)) {
+	  agentPending[auction] = true;
+	} else {
+	  TACMessage msg = createRequest(quote);
+	  pending[auction] = msg;
+	  pendingSince[auction] = now;
+	  messages.add(msg);
+	}
+      }
+    }
+    log.finest("refreshing " + batch.size + " quotes with "
+	       + messages.size() + " requests");
+    if (batch.size > 0) {
+      TimeDispatcher dispatcher = TimeDispatcher.getDefault();
+      dispatcher.addTask(dispatcher.getTime() + BATCH_TIMEOUT, batch, null,
+			 this);
+    }
+    for (int i = 0, n = messages.size(); i < n; i++) {
+      agent.sendMessage(messages.get(i), this);
+    }
+    return batch.size;
+  }
+
+  private static Field getPendingQuotesField() {
+    try {
+      Field field = TACAgent.class.getDeclaredField("pendingQuotes");
+      field.setAccessible(true);
+      return field.getType() == long[].class ? field : null;
+    } catch (Exception e) {
+      log.log(Level.WARNING, "can not see the quote requests of TACAgent", e);
+      return null;
+    }
+  }
+
+  // Same test as TACAgent makes before it sends a quote request
+  private boolean isAgentRequestPending(int auction, long now) {
+    if (agentPendingQuotes == null) {
+      return false;
+    }
+    try {
+      long since = ((long[]) agentPendingQuotes.get(agent))[auction];
+      return since > 0L && since + QUOTE_TIMEOUT > now;
+    } catch (IllegalAccessException e) {
+      return false;
+    }
+  }
+
+  // Same request as TACAgent: with the active bid so that the reply has
+  // the hypothetical quantity won for it
+  private TACMessage createRequest(Quote quote) {
+    int auction = quote.getAuction();
+    TACMessage msg = new TACMessage("getQuote");
+    msg.setParameter("auctionID", agent.getServerAuctionID(auction));
+    msg.setUserData(quote);
+    Bid bid = agent.getBid(auction);
+    if (bid != null) {
+      if (bid.getID() == Bid.NO_ID) {
+	bid = bid.getReplacing();
+      }
+      if (bid != null && bid.getID() != Bid.NO_ID) {
+	msg.setParameter("bidID", bid.getID());
+	msg.setUserData(bid);
+      }
+    }
+    return msg;
+  }
+
+  public void messageReceived(TACMessage msg) {
+    Quote quote = getQuote(msg);
+    boolean ok = !msg.isTACError();
+    if (ok) {
+      update(quote, msg);
+    }
+    received(msg, quote, ok);
+  }
+
+  public void replyReceived(TACMessage msg, MessageCodec codec) {
+    Quote quote = getQuote(msg);
+    boolean ok = codec.decodeQuote(reply);
+    if (ok) {
+      update(quote, reply);
+    }
+    received(msg, quote, ok);
+  }
+
+  private Quote getQuote(TACMessage msg) {
+    Object userData = msg.getUserData();
+    if (userData instanceof Bid) {
+      Bid bid = (Bid) userData;
+      Quote quote = agent.getQuote(bid.getAuction());
+      quote.setHQW(-1);
+      quote.setBid(bid);
+      return quote;
+    }
+    return (Quote) userData;
+  }
+
+  private void received(TACMessage msg, Quote quote, boolean ok) {
+    int auction = quote.getAuction();
+    if (ok) {
+      try {
+	agentImpl.quoteUpdated(quote);
+      } catch (Exception e) {
+	log.log(Level.SEVERE, "agent could not handle quoteUpdated for "
+		+ quote, e);
+      }
+    } else {
+      log.warning("could not get quote for auction " + auction);
+    }
+
+    synchronized (this) {
+      if (pending[auction] == msg) {
+	pending[auction] = null;
+	pendingSince[auction] = 0L;
+      }
+    }
+    arrived(auction);
+  }
+
+  /**
+   * Tells the refresher that a quote has been updated, which completes
+   * the batches waiting for a reply to TACAgent's request for it.
+   */
+  public void quoteUpdated(Quote quote) {
+    int auction = quote.getAuction();
+    synchronized (this) {
+      if (!agentPending[auction]) {
+	return;
+      }
+      agentPending[auction] = false;
+    }
+    arrived(auction);
+  }
+
+  private void arrived(int auction) {
+    ArrayList<Batch> completed = null;
+    synchronized (this) {
+      agentPending[auction] = false;
+      ArrayList<Batch> batches = waiting.get(auction);
+      for (int i = batches.size() - 1; i >= 0; i--) {
+	Batch batch = batches.get(i);
+	if (batch.arrived(auction)) {
+	  if (completed == null) {
+	    completed = new ArrayList<Batch>();
+	  }
+	  completed.add(batch);
+	}
+      }
+      batches.clear();
+    }
+    if (completed != null) {
+      for (int i = completed.size() - 1; i >= 0; i--) {
+	complete(completed.get(i));
+      }
+    }
+  }
+
+  // Called by the dispatcher when a batch has timed out
+  public void performWork(long time, Object key, Object value) {
+    Batch batch = (Batch) key;
+    synchronized (this) {
+      if (batch.remaining == 0) {
+	return;
+      }
+      log.warning("completing quote batch without " + batch.remaining
+		  + " of " + batch.size + " replies");
+      batch.remaining = 0;
+      for (int i = 0; i < batch.auctions.length; i++) {
+	if (batch.auctions[i]) {
+	  waiting.get(i).remove(batch);
+	}
+      }
+    }
+    batch.complete();
+  }
+
+  private void complete(Batch batch) {
+    TimeDispatcher.getDefault().cancelTask(batch, this);
+    batch.complete();
+  }
+
+  private void update(Quote quote, TACMessage msg) {
+    int status = quote.getAuctionStatus();
+    while (msg.nextTag()) {
+      if (msg.isTag("lastAskPrice")) {
+	quote.setAskPrice(msg.getValueAsFloat(0f));
+      } else if (msg.isTag("lastBidPrice")) {
+	quote.setBidPrice(msg.getValueAsFloat(0f));
+      } else if (msg.isTag("hypotheticalQuantityWon")) {
+	quote.setHQW(msg.getValueAsInt(-1));
+      } else if (msg.isTag("auctionStatus")) {
+	status = msg.getValueAsInt(status);
+      } else if (msg.isTag("nextQuoteTime")) {
+	quote.setNextQuoteTime(1000L * msg.getValueAsLong(0L));
+      } else if (msg.isTag("lastQuoteTime")) {
+	quote.setLastQuoteTime(1000L * msg.getValueAsLong(0L));
+      }
+    }
+    if (status != Quote.AUCTION_CLOSED) {
+      quote.setAuctionStatus(status);
+    }
+  }
+
+  // Same as above for a decoded reply, in which missing prices are NaN,
+  // a missing status and hypotheticalQuantityWon are -1 and missing
+  // times are 0
+  private void update(Quote quote, MessageCodec.QuoteReply reply) {
+    if (!Float.isNaN(reply.askPrice)) {
+      quote.setAskPrice(reply.askPrice);
+    }
+    if (!Float.isNaN(reply.bidPrice)) {
+      quote.setBidPrice(reply.bidPrice);
+    }
+    if (reply.hqw >= 0) {
+      quote.setHQW(reply.hqw);
+    }
+    if (reply.nextQuoteTime > 0L) {
+      quote.setNextQuoteTime(reply.nextQuoteTime);
+    }
+    if (reply.lastQuoteTime > 0L) {
+      quote.setLastQuoteTime(reply.lastQuoteTime);
+    }
+    if (reply.auctionStatus >= 0
+	&& reply.auctionStatus != Quote.AUCTION_CLOSED) {
+      quote.setAuctionStatus(reply.auctionStatus);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Batches
+  // -------------------------------------------------------------------
+
+  private class Batch {
+
+    private final boolean[] auctions = new boolean[TACAgent.getAuctionNo()];
+    private int size;
+    private int remaining;
+
+    boolean contains(int auction) {
+      return auctions[auction];
+    }
+
+    void add(int auction) {
+      auctions[auction] = true;
+      size++;
+      remaining++;
+    }
+
+    // Returns true when the last auction has arrived
+    boolean arrived(int auction) {
+      return auctions[auction] && --remaining == 0;
+    }
+
+    void complete() {
+      boolean[] categories = new boolean[3];
+      for (int i = 0; i < auctions.length; i++) {
+	if (auctions[i]) {
+	  categories[TACAgent.getAuctionCategory(i)] = true;
+	}
+      }
+      for (int category = 0; category < categories.length; category++) {
+	if (categories[category]) {
+	  try {
+	    agentImpl.quoteUpdated(category);
+	  } catch (Exception e) {
+	    log.log(Level.SEVERE, "agent could not handle quoteUpdated for "
+		    + TACAgent.auctionCategoryToString(category), e);
+	  }
+	}
+      }
+    }
+  }
+
+} // QuoteRefresher
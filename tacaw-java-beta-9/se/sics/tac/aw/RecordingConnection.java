@@ -0,0 +1,205 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * RecordingConnection wraps another TACConnection and appends every
+ * message sent to and received from the server to a recording file
+ * that can later be played back with ReplayConnection.
+ *
+ * Select it with "connection=se.sics.tac.aw.RecordingConnection" in
+ * the agent configuration. The connection is created by class name so
+ * it is configured with system properties:
+ *
+ *  tac.record.connection	the connection to wrap
+ *				(default se.sics.tac.aw.TACReader)
+ *  tac.record.file		the file to append to
+ *				(default aw_messages.rec)
+ *
+ * File format: the magic number followed by records of
+ *
+ *   byte kind (SENT or RECEIVED), int message number,
+ *   long server time in milliseconds, int length, UTF-8 message
+ *
+ * where a RECEIVED record has the number of the SENT record it
+ * answers. Records are written through a buffer that is flushed
+ * between games and when the connection is closed. Messages the
+ * wrapped connection sends by itself (the login) are not recorded.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class RecordingConnection extends TACConnection {
+
+  private static final Logger log =
+    Logger.getLogger(RecordingConnection.class.getName());
+
+  static final int MAGIC = 0x54414352; // "TACR"
+  static final byte SENT = 'S';
+  static final byte RECEIVED = 'R';
+
+  private static final String UTF8 = "UTF-8";
+
+  private static Field receiverField;
+  private static Field receivedField;
+
+  private TACConnection connection;
+  private DataOutputStream out;
+  private int messageNumber = 0;
+
+  protected void init() {
+    String className = System.getProperty("tac.record.connection",
+					   "se.sics.tac.aw.TACReader");
+    String fileName = System.getProperty("tac.record.file",
+					  "aw_messages.rec");
+    try {
+      File file = new File(fileName);
+      boolean isNew = !file.exists() || file.length() == 0;
+      out = new DataOutputStream(new BufferedOutputStream
+				 (new FileOutputStream(file, true), 65536));
+      if (isNew) {
+	out.writeInt(MAGIC);
+      }
+      log.fine("Recording messages to " + fileName);
+    } catch (IOException e) {
+      log.log(Level.SEVERE, "could not open recording " + fileName, e);
+      out = null;
+    }
+
+    try {
+      connection = (TACConnection) Class.forName(className)
+	.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      log.log(Level.SEVERE, "could not create TACConnection object of class "
+	      + className, e);
+      return;
+    }
+    connection.init(agent);
+  }
+
+  public boolean isConnected() {
+    return connection != null && connection.isConnected();
+  }
+
+  public void disconnect() {
+    if (connection != null) {
+      connection.disconnect();
+    }
+    synchronized (this) {
+      if (out != null) {
+	try {
+	  out.close();
+	} catch (IOException e) {
+	  log.log(Level.WARNING, "could not close recording", e);
+	}
+	out = null;
+      }
+    }
+  }
+
+  public void sendMessage(TACMessage msg) throws IOException {
+    if (connection == null) {
+      throw new IOException("Disconnected from server");
+    }
+    TACMessageReceiver receiver = getReceiver(msg);
+    String message = msg.getMessageString();
+    int number;
+    synchronized (this) {
+      number = messageNumber++;
+      write(SENT, number, message);
+    }
+    msg.setMessageReceiver(new Recorder(number, receiver));
+    connection.sendMessage(msg);
+  }
+
+  private synchronized void write(byte kind, int number, String message) {
+    if (out != null) {
+      try {
+	int len = message.length();
+	if (len > 0 && message.charAt(len - 1) == '\0') {
+	  message = message.substring(0, len - 1);
+	}
+	byte[] data = message.getBytes(UTF8);
+	out.writeByte(kind);
+	out.writeInt(number);
+	out.writeLong(agent.getServerTime());
+	out.writeInt(data.length);
+	out.write(data);
+	if (kind == SENT && (message.startsWith("<nextGame")
+			     || message.startsWith("<quit"))) {
+	  // Game boundary
+	  out.flush();
+	}
+      } catch (IOException e) {
+	log.log(Level.SEVERE, "could not write recording", e);
+	out = null;
+      }
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Access to TACMessage internals
+  // -------------------------------------------------------------------
+
+  static TACMessageReceiver getReceiver(TACMessage msg) {
+    try {
+      if (receiverField == null) {
+	Field field = TACMessage.class.getDeclaredField("receiver");
+	field.setAccessible(true);
+	receiverField = field;
+      }
+      return (TACMessageReceiver) receiverField.get(msg);
+    } catch (Exception e) {
+      throw new IllegalStateException("could not access message receiver: "
+				      + e);
+    }
+  }
+
+  static String getReceivedMessage(TACMessage msg) {
+    try {
+      if (receivedField == null) {
+	Field field = TACMessage.class.getDeclaredField("receivedMessage");
+	field.setAccessible(true);
+	receivedField = field;
+      }
+      return (String) receivedField.get(msg);
+    } catch (Exception e) {
+      throw new IllegalStateException("could not access received message: "
+				      + e);
+    }
+  }
+
+  private class Recorder implements TACMessageReceiver {
+
+    private final int number;
+    private final TACMessageReceiver receiver;
+
+    Recorder(int number, TACMessageReceiver receiver) {
+      this.number = number;
+      this.receiver = receiver;
+    }
+
+    public void messageReceived(TACMessage msg) {
+      String message = getReceivedMessage(msg);
+      if (message != null) {
+	write(RECEIVED, number, message);
+      }
+      if (receiver != null) {
+	receiver.messageReceived(msg);
+      }
+    }
+  }
+
+} // RecordingConnection
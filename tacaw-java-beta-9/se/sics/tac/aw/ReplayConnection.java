@@ -0,0 +1,344 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * ReplayConnection plays back a game recorded by RecordingConnection
+ * without a TAC server. Each message the agent sends is answered with
+ * the recorded reply to the same kind of request (same message type
+ * and first parameter, such as the auction of a quote request), or
+ * else with the next recorded reply of the same type.
+ *
+ * Select it with "connection=se.sics.tac.aw.ReplayConnection" and
+ * configure it with system properties:
+ *
+ *  tac.replay.file	the recording to play (default aw_messages.rec)
+ *  tac.replay.speed	the replay speed relative to the recorded game
+ *			(default 1) or 0 to replay as fast as possible
+ *
+ * Replies are delivered at their recorded server time scaled by the
+ * speed. When replaying as fast as possible, replies are delivered at
+ * once and the clock jumps to the next recorded request whenever the
+ * agent is idle. The agent clock is kept in step with the replay clock
+ * by answering serverTime requests with the replay time and injecting
+ * new serverTime requests when the two drift apart.
+ *
+ * A request without a recorded reply is answered with a TAC error
+ * (INTERNAL_ERROR) so that the agent handles it as a failed request
+ * instead of waiting for a reply forever.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ReplayConnection extends TACConnection implements Runnable {
+
+  private static final Logger log =
+    Logger.getLogger(ReplayConnection.class.getName());
+
+  /** Maximal wait for a message before the replay clock moves on */
+  private static final long IDLE_WAIT = 100;
+
+  /** Server time resolution in the TAC protocol */
+  private static final long MAX_DRIFT = 1000;
+
+  private final HashMap<String,ArrayDeque<Exchange>> byKey =
+    new HashMap<String,ArrayDeque<Exchange>>();
+  private final HashMap<String,ArrayDeque<Exchange>> byType =
+    new HashMap<String,ArrayDeque<Exchange>>();
+  private Exchange[] requests;
+  private int nextRequest;
+
+  private final LinkedList<TACMessage> queue = new LinkedList<TACMessage>();
+  private boolean disconnected = true;
+
+  private float speed;
+  private long recordStart;
+  private long wallStart;
+  private long clock;
+  private long syncedTime;
+  private long syncedWall;
+
+  protected void init() {
+    String fileName = System.getProperty("tac.replay.file",
+					  "aw_messages.rec");
+    try {
+      speed = Float.parseFloat(System.getProperty("tac.replay.speed", "1"));
+      load(fileName);
+    } catch (Exception e) {
+      log.log(Level.SEVERE, "could not read recording " + fileName, e);
+      return;
+    }
+    log.fine("Replaying " + requests.length + " messages from " + fileName
+	     + (speed > 0 ? " at speed " + speed : " as fast as possible"));
+    wallStart = System.currentTimeMillis();
+    clock = recordStart;
+    syncedTime = recordStart;
+    syncedWall = wallStart;
+    disconnected = false;
+    AgentThreads.start(this, "replay", false);
+
+    TACMessage msg = new TACMessage("auth");
+    msg.setParameter("userName", agent.getUser());
+    msg.setParameter("userPW", agent.getPassword());
+    msg.setMessageReceiver(agent);
+    addMessage(msg, false);
+  }
+
+  public boolean isConnected() {
+    return !disconnected;
+  }
+
+  public synchronized void disconnect() {
+    disconnected = true;
+    notify();
+  }
+
+  public void sendMessage(TACMessage msg) throws IOException {
+    if (disconnected) {
+      throw new IOException("Replay finished");
+    }
+    addMessage(msg, false);
+  }
+
+  private synchronized void addMessage(TACMessage msg, boolean first) {
+    if (first) {
+      queue.addFirst(msg);
+    } else {
+      queue.add(msg);
+    }
+    notify();
+  }
+
+  private synchronized TACMessage getMessage(long timeout) {
+    if (queue.isEmpty() && !disconnected) {
+      try {
+	wait(timeout);
+      } catch (InterruptedException e) {
+	// Checked by the caller
+      }
+    }
+    return queue.isEmpty() ? null : queue.removeFirst();
+  }
+
+  public void run() {
+    try {
+      while (!disconnected) {
+	TACMessage msg = getMessage(IDLE_WAIT);
+	if (msg != null) {
+	  deliver(msg);
+	} else if (speed <= 0 && !advance()) {
+	  log.info("Replay complete");
+	  break;
+	}
+	checkDrift();
+      }
+    } catch (Throwable e) {
+      log.log(Level.SEVERE, "replay failed:", e);
+    } finally {
+      disconnected = true;
+    }
+  }
+
+  private long getReplayTime() {
+    if (speed > 0) {
+      return recordStart
+	+ (long) ((System.currentTimeMillis() - wallStart) * speed);
+    }
+    return clock;
+  }
+
+  private void deliver(TACMessage msg) throws InterruptedException {
+    String type = msg.getType();
+    String reply = null;
+    String sent = msg.getMessageString();
+    if ("serverTime".equals(type)) {
+      long time = getReplayTime();
+      reply = "<serverTime><time>" + (time / 1000) + "</time></serverTime>";
+      syncedTime = time;
+      syncedWall = System.currentTimeMillis();
+    } else {
+      Exchange exchange = nextExchange(getKey(sent), type);
+      if (exchange != null) {
+	waitFor(exchange.replyTime);
+	reply = exchange.reply;
+      } else if ("auth".equals(type)) {
+	reply = "<auth><userID>1</userID></auth>";
+      } else if ("quit".equals(type)) {
+	reply = "<quit><commandStatus>0</commandStatus></quit>";
+      } else {
+	log.severe("no recorded reply for " + sent);
+	reply = "<tacerror><commandStatus>" + TACAgent.INTERNAL_ERROR
+	  + "</commandStatus></tacerror>";
+      }
+    }
+    msg.setReceivedMessage(reply);
+    msg.deliverMessage();
+  }
+
+  // Waits until the replay clock reaches the specified recorded time
+  private void waitFor(long time) throws InterruptedException {
+    if (speed > 0) {
+      long wall = wallStart + (long) ((time - recordStart) / speed);
+      long delay = wall - System.currentTimeMillis();
+      if (delay > 0) {
+	Thread.sleep(delay);
+      }
+    } else if (time > clock) {
+      clock = time;
+    }
+  }
+
+  // Moves the clock to the next recorded request when the agent is idle
+  private boolean advance() {
+    while (nextRequest < requests.length
+	   && requests[nextRequest].sentTime <= clock) {
+      nextRequest++;
+    }
+    if (nextRequest < requests.length) {
+      clock = requests[nextRequest].sentTime;
+      return true;
+    }
+    return false;
+  }
+
+  // Lets the agent ask for the server time again if its clock has
+  // drifted away from the replay clock
+  private void checkDrift() {
+    long agentTime = syncedTime + System.currentTimeMillis() - syncedWall;
+    long drift = getReplayTime() - agentTime;
+    if (drift >= MAX_DRIFT || drift <= -MAX_DRIFT) {
+      // Avoid asking again until the answer has arrived
+      syncedTime += drift;
+      TACMessage msg = new TACMessage("serverTime");
+      msg.setMessageReceiver(agent);
+      addMessage(msg, true);
+    }
+  }
+
+  private Exchange nextExchange(String key, String type) {
+    Exchange exchange = poll(byKey.get(key));
+    return exchange != null ? exchange : poll(byType.get(type));
+  }
+
+  private Exchange poll(ArrayDeque<Exchange> exchanges) {
+    if (exchanges != null) {
+      Exchange exchange;
+      while ((exchange = exchanges.poll()) != null) {
+	if (!exchange.isUsed) {
+	  exchange.isUsed = true;
+	  return exchange;
+	}
+      }
+    }
+    return null;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Recording file
+  // -------------------------------------------------------------------
+
+  private void load(String fileName) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream
+					     (new FileInputStream(fileName)));
+    try {
+      if (in.readInt() != RecordingConnection.MAGIC) {
+	throw new IOException("not a message recording: " + fileName);
+      }
+      HashMap<Integer,Exchange> sent = new HashMap<Integer,Exchange>();
+      ArrayList<Exchange> list = new ArrayList<Exchange>();
+      recordStart = -1;
+      while (true) {
+	byte kind;
+	try {
+	  kind = in.readByte();
+	} catch (EOFException e) {
+	  break;
+	}
+	Integer number = Integer.valueOf(in.readInt());
+	long time = in.readLong();
+	byte[] data = new byte[in.readInt()];
+	in.readFully(data);
+	String message = new String(data, "UTF-8");
+	if (recordStart < 0) {
+	  recordStart = time;
+	}
+	if (kind == RecordingConnection.SENT) {
+	  Exchange exchange = new Exchange(message, time);
+	  sent.put(number, exchange);
+	  list.add(exchange);
+	} else {
+	  Exchange exchange = sent.remove(number);
+	  if (exchange != null) {
+	    exchange.reply = message;
+	    exchange.replyTime = time;
+	    add(byKey, exchange.key, exchange);
+	    add(byType, exchange.type, exchange);
+	  }
+	}
+      }
+      requests = list.toArray(new Exchange[list.size()]);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void add(HashMap<String,ArrayDeque<Exchange>> map,
+			  String key, Exchange exchange) {
+    ArrayDeque<Exchange> exchanges = map.get(key);
+    if (exchanges == null) {
+      exchanges = new ArrayDeque<Exchange>();
+      map.put(key, exchanges);
+    }
+    exchanges.add(exchange);
+  }
+
+  private static String getType(String message) {
+    int end = message.indexOf('>');
+    return end > 1 ? message.substring(1, end) : message;
+  }
+
+  // Message type and first parameter, e.g. "getQuote:auctionID=12"
+  static String getKey(String message) {
+    int start = message.indexOf('>') + 1;
+    int nameEnd = message.indexOf('>', start);
+    int valueEnd = message.indexOf('<', nameEnd);
+    if (start <= 0 || nameEnd < 0 || valueEnd < 0
+	|| message.charAt(start) != '<' || message.charAt(start + 1) == '/') {
+      return getType(message);
+    }
+    return getType(message) + ':' + message.substring(start + 1, nameEnd)
+      + '=' + message.substring(nameEnd + 1, valueEnd);
+  }
+
+  private static class Exchange {
+
+    final String type;
+    final String key;
+    final long sentTime;
+    String reply;
+    long replyTime;
+    boolean isUsed;
+
+    Exchange(String message, long sentTime) {
+      this.type = getType(message);
+      this.key = getKey(message);
+      this.sentTime = sentTime;
+    }
+  }
+
+} // ReplayConnection
@@ -0,0 +1,995 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * TACMarket is the game model behind MarketSimulator: the 28 auctions
+ * of a TAC Classic game, the clients and holdings of every agent and a
+ * simple strategy for the opponents. Agent 0 is the agent connected
+ * through MarketSimulator, agents 1 and up are the opponents.
+ *
+ * The auctions follow the TAC Classic rules:
+ *
+ *  - flights have unlimited supply and a price that follows a random
+ *    walk with a hidden trend, updated every 10 seconds. Bid points
+ *    at or above the price are filled at once at the price.
+ *  - hotels are ascending auctions for 16 rooms. Every minute the ask
+ *    price (the 16th highest unit price) and the hypothetical quantity
+ *    won of every bid are updated and one random hotel closes, selling
+ *    a room to each of the 16 highest units at the ask price. A new
+ *    bid must keep at least its HQW above the ask price.
+ *  - entertainment tickets are traded in continuous double auctions.
+ *    Incoming bids trade with the best standing offers of the other
+ *    agents at the standing price.
+ *
+ * The opponents plan the package their clients prefer, buy the
+ * flights early, raise their hotel bids just before every close up to
+ * a price limit and trade the entertainment tickets they do not need.
+ * When the game ends every agent is scored like the server does: the
+ * travel packages are chosen to maximise the utility of the goods
+ * owned and entertainment tickets are handed out greedily.
+ *
+ * All methods are called from the simulator thread only.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+class TACMarket {
+
+  public static final int NO_AUCTIONS = 28;
+  public static final int NO_CLIENTS = 8;
+  public static final int GAME_LENGTH = 540000;
+
+  private static final int NO_FLIGHTS = 8;
+  private static final int NO_HOTELS = 8;
+  private static final int HOTEL_ROOMS = 16;
+  private static final long FLIGHT_PERIOD = 10000;
+  private static final long CLOSE_PERIOD = 60000;
+  private static final long OPPONENT_PERIOD = 5000;
+
+  /** Quote status of open and closed auctions */
+  public static final int STATUS_OPEN = Quote.AUCTION_INTERMEDIATE_CLEAR;
+  public static final int STATUS_CLOSED = Quote.AUCTION_CLOSED;
+
+  private final Random random;
+  private final int noAgents;
+  private final float maxHotelPrice;
+  private final long flightDelay;
+  private final int goodHotelPremium;
+
+  private int gameID = 0;
+  private long startTime = -1;
+  private long endTime;
+  private boolean isRunning = false;
+  private boolean isFinished = false;
+
+  // preferences[agent][client][ARRIVAL .. E3]
+  private final int[][][] preferences;
+  private final int[][] endowment;
+  private final int[][] own;
+  private final float[][] cost;
+  private final int[] score;
+  private final int[] utility;
+
+  // Opponent plans: package per client and when to buy flights
+  private final int[][] plan;
+  private final long[] flightTime;
+  private final boolean[] hasFlights;
+
+  private final float[] flightPrice = new float[NO_FLIGHTS];
+  private final float[] flightTrend = new float[NO_FLIGHTS];
+  private final float[] hotelPrice = new float[NO_AUCTIONS];
+  private final boolean[] isClosed = new boolean[NO_AUCTIONS];
+  private final int[] closeOrder = new int[NO_HOTELS];
+  private int noClosed;
+
+  private long nextFlightTime;
+  private long nextCloseTime;
+  private long nextOpponentTime;
+
+  // orders[agent][auction] is the active bid of the agent
+  private final Order[][] orders;
+  private final HashMap<Integer,Order> bids = new HashMap<Integer,Order>();
+  private final ArrayList<Trade> trades = new ArrayList<Trade>();
+  private int nextBidID = 1;
+  private int nextTransID = 1;
+
+  // Hotel clearing buffers
+  private final int[] won;
+  private float[] unitPrice = new float[64];
+  private int[] unitAgent = new int[64];
+  private long[] unitTime = new long[64];
+
+  // Scoring memo, memo[client] maps the goods used to the best utility
+  private final LongIntMemo[] memo = new LongIntMemo[NO_CLIENTS];
+
+  public TACMarket(Random random, int noOpponents, float maxHotelPrice,
+		   long flightDelay, int goodHotelPremium) {
+    this.random = random;
+    this.noAgents = noOpponents + 1;
+    this.maxHotelPrice = maxHotelPrice;
+    this.flightDelay = flightDelay;
+    this.goodHotelPremium = goodHotelPremium;
+    preferences = new int[noAgents][NO_CLIENTS][6];
+    endowment = new int[noAgents][NO_AUCTIONS];
+    own = new int[noAgents][NO_AUCTIONS];
+    cost = new float[noAgents][NO_AUCTIONS];
+    score = new int[noAgents];
+    utility = new int[noAgents];
+    plan = new int[noAgents][NO_CLIENTS];
+    flightTime = new long[noAgents];
+    hasFlights = new boolean[noAgents];
+    orders = new Order[noAgents][NO_AUCTIONS];
+    won = new int[noAgents];
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      memo[c] = new LongIntMemo(1 << 13);
+    }
+  }
+
+  public int getAgentCount() {
+    return noAgents;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Game information
+  // -------------------------------------------------------------------
+
+  public int getGameID() {
+    return gameID;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public boolean isRunning() {
+    return isRunning;
+  }
+
+  public boolean isFinished() {
+    return isFinished;
+  }
+
+  public int getAuctionID(int auction) {
+    return gameID * NO_AUCTIONS + auction + 1;
+  }
+
+  /**
+   * Returns the auction (0 - 27) with the specified server ID or -1 if
+   * the ID does not belong to the current game.
+   */
+  public int getAuction(int auctionID) {
+    int auction = auctionID - gameID * NO_AUCTIONS - 1;
+    return auction >= 0 && auction < NO_AUCTIONS ? auction : -1;
+  }
+
+  public int getPreference(int agent, int client, int type) {
+    return preferences[agent][client][type];
+  }
+
+  public int getEndowment(int agent, int auction) {
+    return endowment[agent][auction];
+  }
+
+  public int getOwn(int agent, int auction) {
+    return own[agent][auction];
+  }
+
+  public int getScore(int agent) {
+    return score[agent];
+  }
+
+  public int getUtility(int agent) {
+    return utility[agent];
+  }
+
+  public float getCost(int agent) {
+    float sum = 0f;
+    for (int a = 0; a < NO_AUCTIONS; a++) {
+      sum += cost[agent][a];
+    }
+    return sum;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Quotes
+  // -------------------------------------------------------------------
+
+  public boolean isClosed(int auction) {
+    return isFinished || isClosed[auction];
+  }
+
+  public float getAskPrice(int auction) {
+    switch (TACAgent.getAuctionCategory(auction)) {
+    case TACAgent.CAT_FLIGHT:
+      return flightPrice[auction];
+    case TACAgent.CAT_HOTEL:
+      return hotelPrice[auction];
+    default:
+      float best = 0f;
+      for (int agent = 0; agent < noAgents; agent++) {
+	Order order = orders[agent][auction];
+	if (order != null) {
+	  for (int i = 0; i < order.len; i++) {
+	    if (order.quantity[i] < 0 && (best == 0f || order.price[i] < best)) {
+	      best = order.price[i];
+	    }
+	  }
+	}
+      }
+      return best;
+    }
+  }
+
+  public float getBidPrice(int auction) {
+    if (TACAgent.getAuctionCategory(auction) != TACAgent.CAT_ENTERTAINMENT) {
+      return 0f;
+    }
+    float best = 0f;
+    for (int agent = 0; agent < noAgents; agent++) {
+      Order order = orders[agent][auction];
+      if (order != null) {
+	for (int i = 0; i < order.len; i++) {
+	  if (order.quantity[i] > 0 && order.price[i] > best) {
+	    best = order.price[i];
+	  }
+	}
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns the time of the next hotel quote update or -1 when no
+   * more updates will come.
+   */
+  public long getNextQuoteTime() {
+    return isRunning && noClosed < NO_HOTELS ? nextCloseTime : -1L;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Game flow
+  // -------------------------------------------------------------------
+
+  /**
+   * Sets up a new game starting at the specified time unless a game
+   * is already waiting or running.
+   *
+   * @return the ID of the next or current game
+   */
+  public int nextGame(long time) {
+    if (startTime >= 0 && !isFinished) {
+      return gameID;
+    }
+    gameID++;
+    startTime = time;
+    endTime = time + GAME_LENGTH;
+    isRunning = false;
+    isFinished = false;
+    bids.clear();
+    trades.clear();
+    for (int agent = 0; agent < noAgents; agent++) {
+      setupAgent(agent);
+    }
+    for (int f = 0; f < NO_FLIGHTS; f++) {
+      flightPrice[f] = 250f + random.nextInt(151);
+      flightTrend[f] = -10f + 40f * random.nextFloat();
+    }
+    for (int a = 0; a < NO_AUCTIONS; a++) {
+      hotelPrice[a] = 0f;
+      isClosed[a] = false;
+    }
+    for (int h = 0; h < NO_HOTELS; h++) {
+      int j = random.nextInt(h + 1);
+      closeOrder[h] = closeOrder[j];
+      closeOrder[j] = TACAgent.MIN_HOTEL + h;
+    }
+    noClosed = 0;
+    nextFlightTime = time + FLIGHT_PERIOD;
+    nextCloseTime = time + CLOSE_PERIOD;
+    nextOpponentTime = time + OPPONENT_PERIOD;
+    return gameID;
+  }
+
+  private void setupAgent(int agent) {
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      int[] prefs = preferences[agent][c];
+      prefs[TACAgent.ARRIVAL] = 1 + random.nextInt(4);
+      prefs[TACAgent.DEPARTURE] =
+	prefs[TACAgent.ARRIVAL] + 1 + random.nextInt(5 - prefs[TACAgent.ARRIVAL]);
+      prefs[TACAgent.HOTEL_VALUE] = 50 + random.nextInt(101);
+      prefs[TACAgent.E1] = random.nextInt(201);
+      prefs[TACAgent.E2] = random.nextInt(201);
+      prefs[TACAgent.E3] = random.nextInt(201);
+      plan[agent][c] =
+	PackageTable.getPackage(prefs[TACAgent.ARRIVAL],
+				prefs[TACAgent.DEPARTURE],
+				prefs[TACAgent.HOTEL_VALUE] >= goodHotelPremium
+				? TACAgent.TYPE_GOOD_HOTEL
+				: TACAgent.TYPE_CHEAP_HOTEL);
+    }
+    for (int a = 0; a < NO_AUCTIONS; a++) {
+      endowment[agent][a] = 0;
+      orders[agent][a] = null;
+    }
+    // 12 tickets: one of each type on days 2 and 3 and two of each
+    // type on either day 1 or day 4
+    for (int type = TACAgent.TYPE_ALLIGATOR_WRESTLING;
+	 type <= TACAgent.TYPE_MUSEUM; type++) {
+      endowment[agent][getTicketAuction(type, 2)] = 1;
+      endowment[agent][getTicketAuction(type, 3)] = 1;
+      endowment[agent][getTicketAuction(type, random.nextBoolean() ? 1 : 4)]
+	= 2;
+    }
+    for (int a = 0; a < NO_AUCTIONS; a++) {
+      own[agent][a] = endowment[agent][a];
+      cost[agent][a] = 0f;
+    }
+    score[agent] = 0;
+    utility[agent] = 0;
+    flightTime[agent] = startTime
+      + (flightDelay > 0 ? (long) (random.nextDouble() * flightDelay) : 0L);
+    hasFlights[agent] = false;
+  }
+
+  private static int getTicketAuction(int type, int day) {
+    return TACAgent.getAuctionFor(TACAgent.CAT_ENTERTAINMENT, type, day);
+  }
+
+  /**
+   * Returns the time of the next market event or Long.MAX_VALUE if no
+   * game is waiting or running.
+   */
+  public long getNextEventTime() {
+    if (startTime < 0 || isFinished) {
+      return Long.MAX_VALUE;
+    }
+    if (!isRunning) {
+      return startTime;
+    }
+    long next = endTime;
+    if (noClosed < NO_HOTELS && nextCloseTime < next) {
+      next = nextCloseTime;
+    }
+    if (nextFlightTime < next) {
+      next = nextFlightTime;
+    }
+    if (nextOpponentTime < next) {
+      next = nextOpponentTime;
+    }
+    return next;
+  }
+
+  /**
+   * Runs all market events up to and including the specified time.
+   */
+  public void advanceTo(long time) {
+    long next;
+    while ((next = getNextEventTime()) <= time) {
+      if (!isRunning) {
+	isRunning = true;
+      } else if (noClosed < NO_HOTELS && next == nextCloseTime) {
+	closeHotel(next);
+	nextCloseTime += CLOSE_PERIOD;
+      } else if (next == nextFlightTime) {
+	updateFlights(next);
+	nextFlightTime += FLIGHT_PERIOD;
+      } else if (next == nextOpponentTime) {
+	runOpponents(next);
+	nextOpponentTime += OPPONENT_PERIOD;
+      } else {
+	endGame(next);
+      }
+    }
+  }
+
+  private void updateFlights(long time) {
+    float t = (float) (time - startTime) / GAME_LENGTH;
+    for (int f = 0; f < NO_FLIGHTS; f++) {
+      float trend = 10f + t * (flightTrend[f] - 10f);
+      float delta;
+      if (trend > 0f) {
+	delta = -10f + (trend + 10f) * random.nextFloat();
+      } else if (trend < 0f) {
+	delta = trend + (10f - trend) * random.nextFloat();
+      } else {
+	delta = -10f + 20f * random.nextFloat();
+      }
+      float price = Math.round(flightPrice[f] + delta);
+      flightPrice[f] = price < 150f ? 150f : (price > 800f ? 800f : price);
+      for (int agent = 0; agent < noAgents; agent++) {
+	Order order = orders[agent][f];
+	if (order != null) {
+	  fillFlight(order, time);
+	}
+      }
+    }
+  }
+
+  private void closeHotel(long time) {
+    // Quote update of every open hotel
+    for (int h = 0; h < NO_HOTELS; h++) {
+      int a = TACAgent.MIN_HOTEL + h;
+      if (!isClosed[a]) {
+	hotelPrice[a] = clearHotel(a);
+	for (int agent = 0; agent < noAgents; agent++) {
+	  if (orders[agent][a] != null) {
+	    orders[agent][a].hqw = won[agent];
+	  }
+	}
+      }
+    }
+    int auction = closeOrder[noClosed++];
+    float price = hotelPrice[auction];
+    clearHotel(auction);
+    isClosed[auction] = true;
+    for (int agent = 0; agent < noAgents; agent++) {
+      if (won[agent] > 0) {
+	trade(agent, auction, won[agent], price, time);
+      }
+      Order order = orders[agent][auction];
+      if (order != null) {
+	order.close(won[agent] > 0 ? Bid.TRANSACTED : Bid.EXPIRED, time);
+      }
+    }
+  }
+
+  // Fills won[agent] with the rooms each agent would win if the hotel
+  // auction closed now and returns the price: the 16th highest unit
+  // price or 0 if fewer than 16 units are bid
+  private float clearHotel(int auction) {
+    int n = 0;
+    for (int agent = 0; agent < noAgents; agent++) {
+      won[agent] = 0;
+      Order order = orders[agent][auction];
+      if (order != null) {
+	for (int i = 0; i < order.len; i++) {
+	  for (int q = 0; q < order.quantity[i]; q++) {
+	    if (n == unitPrice.length) {
+	      growUnits();
+	    }
+	    unitPrice[n] = order.price[i];
+	    unitAgent[n] = agent;
+	    unitTime[n] = order.time;
+	    n++;
+	  }
+	}
+      }
+    }
+    float price = 0f;
+    int noWon = 0;
+    for (; noWon < HOTEL_ROOMS; noWon++) {
+      // Highest remaining unit, earliest bid first on ties
+      int best = -1;
+      for (int i = 0; i < n; i++) {
+	if (unitPrice[i] > 0f
+	    && (best < 0 || unitPrice[i] > unitPrice[best]
+		|| (unitPrice[i] == unitPrice[best]
+		    && unitTime[i] < unitTime[best]))) {
+	  best = i;
+	}
+      }
+      if (best < 0) {
+	break;
+      }
+      won[unitAgent[best]]++;
+      price = unitPrice[best];
+      unitPrice[best] = 0f;
+    }
+    return noWon < HOTEL_ROOMS ? 0f : price;
+  }
+
+  private void growUnits() {
+    int size = unitPrice.length * 2;
+    float[] p = new float[size];
+    int[] a = new int[size];
+    long[] t = new long[size];
+    System.arraycopy(unitPrice, 0, p, 0, unitPrice.length);
+    System.arraycopy(unitAgent, 0, a, 0, unitAgent.length);
+    System.arraycopy(unitTime, 0, t, 0, unitTime.length);
+    unitPrice = p;
+    unitAgent = a;
+    unitTime = t;
+  }
+
+  private void endGame(long time) {
+    for (int agent = 0; agent < noAgents; agent++) {
+      for (int a = 0; a < NO_AUCTIONS; a++) {
+	Order order = orders[agent][a];
+	if (order != null && !isClosed[a]) {
+	  order.close(Bid.EXPIRED, time);
+	}
+      }
+    }
+    for (int a = 0; a < NO_AUCTIONS; a++) {
+      isClosed[a] = true;
+    }
+    for (int agent = 0; agent < noAgents; agent++) {
+      utility[agent] = getFinalUtility(agent);
+      score[agent] = Math.round(utility[agent] - getCost(agent));
+    }
+    isRunning = false;
+    isFinished = true;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Bids and transactions
+  // -------------------------------------------------------------------
+
+  /**
+   * Submits a bid that replaces the active bid of the agent in the
+   * auction. Returns the new bid or null if the auction is closed.
+   * A rejected bid is returned with its reject reason set and leaves
+   * the active bid in place.
+   */
+  public Order submit(int agent, int auction, int[] quantity, float[] price,
+		      int len, long time) {
+    if (!isRunning || time < startTime || isClosed[auction]) {
+      return null;
+    }
+    Order order = new Order(nextBidID++, agent, auction, len, time);
+    int units = 0;
+    for (int i = 0; i < len; i++) {
+      order.quantity[i] = quantity[i];
+      order.price[i] = price[i];
+      if (quantity[i] < 0 && auction < TACAgent.MIN_ENTERTAINMENT) {
+	order.reject(Bid.SELL_NOT_ALLOWED, time);
+      } else if (price[i] > hotelPrice[auction]) {
+	units += quantity[i];
+      }
+    }
+    Order active = orders[agent][auction];
+    if (TACAgent.getAuctionCategory(auction) == TACAgent.CAT_HOTEL
+	&& active != null && units < active.hqw) {
+      // A new hotel bid may not withdraw the rooms it is winning
+      order.reject(Bid.PRICE_NOT_BEAT, time);
+    }
+    if (agent == 0) {
+      bids.put(Integer.valueOf(order.id), order);
+    }
+    if (order.rejectReason != Bid.NOT_REJECTED) {
+      return order;
+    }
+    if (active != null) {
+      active.close(Bid.REPLACED, time);
+    }
+    orders[agent][auction] = order;
+    order.state = Bid.VALID;
+    order.timeProcessed = time;
+    if (auction < TACAgent.MIN_HOTEL) {
+      fillFlight(order, time);
+    } else if (auction >= TACAgent.MIN_ENTERTAINMENT) {
+      matchTickets(order, time);
+    }
+    return order;
+  }
+
+  /**
+   * Returns the bid of agent 0 with the specified ID or null if no
+   * such bid exists in the current game.
+   */
+  public Order getBid(int bidID) {
+    return bids.get(Integer.valueOf(bidID));
+  }
+
+  private void fillFlight(Order order, long time) {
+    float ask = flightPrice[order.auction];
+    for (int i = 0; i < order.len; i++) {
+      if (order.quantity[i] > 0 && order.price[i] >= ask) {
+	trade(order.agent, order.auction, order.quantity[i], ask, time);
+	order.quantity[i] = 0;
+	order.changed();
+      }
+    }
+    order.compact();
+  }
+
+  private void matchTickets(Order order, long time) {
+    int auction = order.auction;
+    int agent = order.agent;
+    for (int i = 0; i < order.len; i++) {
+      boolean isBuy = order.quantity[i] > 0;
+      while (order.quantity[i] != 0) {
+	// Best standing offer on the other side from another agent
+	Order best = null;
+	int bestPoint = -1;
+	for (int other = 0; other < noAgents; other++) {
+	  Order o = orders[other][auction];
+	  if (other == agent || o == null) {
+	    continue;
+	  }
+	  for (int j = 0; j < o.len; j++) {
+	    if (isBuy ? (o.quantity[j] < 0 && o.price[j] <= order.price[i]
+			 && own[other][auction] > 0)
+		: (o.quantity[j] > 0 && o.price[j] >= order.price[i])) {
+	      if (best == null
+		  || (isBuy ? o.price[j] < best.price[bestPoint]
+		      : o.price[j] > best.price[bestPoint])
+		  || (o.price[j] == best.price[bestPoint]
+		      && o.time < best.time)) {
+		best = o;
+		bestPoint = j;
+	      }
+	    }
+	  }
+	}
+	if (best == null || (!isBuy && own[agent][auction] <= 0)) {
+	  break;
+	}
+	int seller = isBuy ? best.agent : agent;
+	int n = Math.min(Math.abs(order.quantity[i]),
+			 Math.abs(best.quantity[bestPoint]));
+	if (n > own[seller][auction]) {
+	  n = own[seller][auction];
+	}
+	float p = best.price[bestPoint];
+	int q = isBuy ? n : -n;
+	trade(agent, auction, q, p, time);
+	trade(best.agent, auction, -q, p, time);
+	order.quantity[i] -= q;
+	best.quantity[bestPoint] += q;
+	order.changed();
+	best.changed();
+	best.compact();
+      }
+    }
+    order.compact();
+  }
+
+  private void trade(int agent, int auction, int quantity, float price,
+		     long time) {
+    own[agent][auction] += quantity;
+    cost[agent][auction] += quantity * price;
+    if (agent == 0) {
+      trades.add(new Trade(nextTransID++, auction, quantity, price));
+    }
+  }
+
+  /**
+   * Returns the transactions of agent 0 in the current game.
+   */
+  public int getTradeCount() {
+    return trades.size();
+  }
+
+  public Trade getTrade(int index) {
+    return trades.get(index);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Opponents
+  // -------------------------------------------------------------------
+
+  private void runOpponents(long time) {
+    long t = time - startTime;
+    boolean hotelRound = t % CLOSE_PERIOD == CLOSE_PERIOD - OPPONENT_PERIOD
+      || t == OPPONENT_PERIOD;
+    boolean ticketRound = t % 30000 == OPPONENT_PERIOD;
+    for (int agent = 1; agent < noAgents; agent++) {
+      if (!hasFlights[agent] && time >= flightTime[agent]) {
+	hasFlights[agent] = true;
+	buyFlights(agent, time);
+      }
+      if (hotelRound) {
+	bidHotels(agent, time);
+      }
+      if (ticketRound) {
+	tradeTickets(agent, time, (float) t / GAME_LENGTH);
+      }
+    }
+  }
+
+  private int getNeeded(int agent, int auction) {
+    int needed = 0;
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      int[] auctions = PackageTable.getAuctions(plan[agent][c]);
+      for (int i = 0; i < auctions.length; i++) {
+	if (auctions[i] == auction) {
+	  needed++;
+	}
+      }
+    }
+    return needed;
+  }
+
+  private void buyFlights(int agent, long time) {
+    for (int f = 0; f < NO_FLIGHTS; f++) {
+      int needed = getNeeded(agent, f) - own[agent][f];
+      if (needed > 0) {
+	submit(agent, f, new int[] { needed }, new float[] { 1000f }, 1, time);
+      }
+    }
+  }
+
+  private void bidHotels(int agent, long time) {
+    for (int a = TACAgent.MIN_HOTEL; a < TACAgent.MIN_ENTERTAINMENT; a++) {
+      int needed = getNeeded(agent, a);
+      if (needed > 0 && !isClosed[a]) {
+	float limit = maxHotelPrice;
+	if (TACAgent.getAuctionType(a) == TACAgent.TYPE_GOOD_HOTEL) {
+	  limit += goodHotelPremium;
+	}
+	float price = hotelPrice[a] + 10 + random.nextInt(41);
+	submit(agent, a, new int[] { needed },
+	       new float[] { price < limit ? price : limit }, 1, time);
+      }
+    }
+  }
+
+  private void tradeTickets(int agent, long time, float progress) {
+    for (int a = TACAgent.MIN_ENTERTAINMENT; a < NO_AUCTIONS; a++) {
+      int type = TACAgent.getAuctionType(a);
+      int day = TACAgent.getAuctionDay(a);
+      int wanted = 0;
+      for (int c = 0; c < NO_CLIENTS; c++) {
+	int pkg = plan[agent][c];
+	if (PackageTable.getIn(pkg) <= day && PackageTable.getOut(pkg) > day
+	    && preferences[agent][c][TACAgent.E1 + type - 1] >= 100) {
+	  wanted++;
+	}
+      }
+      int surplus = own[agent][a] - wanted;
+      if (surplus > 0) {
+	submit(agent, a, new int[] { -surplus },
+	       new float[] { 60 + random.nextInt(61) - 40 * progress }, 1,
+	       time);
+      } else if (surplus < 0) {
+	submit(agent, a, new int[] { -surplus },
+	       new float[] { 20 + random.nextInt(51) + 40 * progress }, 1,
+	       time);
+      }
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Scoring
+  // -------------------------------------------------------------------
+
+  // Utility of the best use of the goods the agent owns
+  private int getFinalUtility(int agent) {
+    int[] available = new int[PackageTable.NO_TRAVEL_AUCTIONS];
+    for (int a = 0; a < available.length; a++) {
+      int n = own[agent][a];
+      available[a] = n < 0 ? 0 : (n > NO_CLIENTS ? NO_CLIENTS : n);
+    }
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      memo[c].clear();
+    }
+    int total = 0;
+    int[] packages = new int[NO_CLIENTS];
+    long used = 0L;
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      int best = bestTravel(agent, c, used, available);
+      packages[c] = -1;
+      if (best != bestTravel(agent, c + 1, used, available)) {
+	for (int p = 0; p < PackageTable.NO_PACKAGES; p++) {
+	  if (isFeasible(p, used, available)
+	      && best == getTravelUtility(agent, c, p)
+	      + bestTravel(agent, c + 1, addPackage(p, used), available)) {
+	    packages[c] = p;
+	    used = addPackage(p, used);
+	    total += getTravelUtility(agent, c, p);
+	    break;
+	  }
+	}
+      }
+    }
+    return total + getFunBonus(agent, packages);
+  }
+
+  private int bestTravel(int agent, int client, long used,
+			 int[] available) {
+    if (client == NO_CLIENTS) {
+      return 0;
+    }
+    int value = memo[client].get(used);
+    if (value != LongIntMemo.MISSING) {
+      return value;
+    }
+    int best = bestTravel(agent, client + 1, used, available);
+    for (int p = 0; p < PackageTable.NO_PACKAGES; p++) {
+      if (isFeasible(p, used, available)) {
+	int v = getTravelUtility(agent, client, p)
+	  + bestTravel(agent, client + 1, addPackage(p, used), available);
+	if (v > best) {
+	  best = v;
+	}
+      }
+    }
+    memo[client].put(used, best);
+    return best;
+  }
+
+  private int getTravelUtility(int agent, int client, int pkg) {
+    int[] prefs = preferences[agent][client];
+    int utility = 1000
+      - 100 * (Math.abs(PackageTable.getIn(pkg) - prefs[TACAgent.ARRIVAL])
+	       + Math.abs(PackageTable.getOut(pkg)
+			  - prefs[TACAgent.DEPARTURE]));
+    if (PackageTable.getHotelType(pkg) == TACAgent.TYPE_GOOD_HOTEL) {
+      utility += prefs[TACAgent.HOTEL_VALUE];
+    }
+    return utility;
+  }
+
+  private static boolean isFeasible(int pkg, long used, int[] available) {
+    int[] auctions = PackageTable.getAuctions(pkg);
+    for (int i = 0; i < auctions.length; i++) {
+      int a = auctions[i];
+      if (((int) (used >>> (a << 2)) & 0xf) >= available[a]) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  private static long addPackage(int pkg, long used) {
+    int[] auctions = PackageTable.getAuctions(pkg);
+    for (int i = 0; i < auctions.length; i++) {
+      used += 1L << (auctions[i] << 2);
+    }
+    return used;
+  }
+
+  // Hands out the tickets greedily by value: at most one event per
+  // client and day and one ticket of each type per client
+  private int getFunBonus(int agent, int[] packages) {
+    int[] tickets = new int[NO_AUCTIONS];
+    for (int a = TACAgent.MIN_ENTERTAINMENT; a < NO_AUCTIONS; a++) {
+      tickets[a] = own[agent][a];
+    }
+    boolean[][] hasType = new boolean[NO_CLIENTS][4];
+    boolean[][] hasDay = new boolean[NO_CLIENTS][6];
+    int bonus = 0;
+    while (true) {
+      int bestValue = 0;
+      int bestClient = -1;
+      int bestAuction = -1;
+      for (int c = 0; c < NO_CLIENTS; c++) {
+	int pkg = packages[c];
+	if (pkg < 0) {
+	  continue;
+	}
+	for (int day = PackageTable.getIn(pkg); day < PackageTable.getOut(pkg);
+	     day++) {
+	  if (hasDay[c][day]) {
+	    continue;
+	  }
+	  for (int type = TACAgent.TYPE_ALLIGATOR_WRESTLING;
+	       type <= TACAgent.TYPE_MUSEUM; type++) {
+	    int a = getTicketAuction(type, day);
+	    int value = preferences[agent][c][TACAgent.E1 + type - 1];
+	    if (!hasType[c][type] && tickets[a] > 0 && value > bestValue) {
+	      bestValue = value;
+	      bestClient = c;
+	      bestAuction = a;
+	    }
+	  }
+	}
+      }
+      if (bestClient < 0) {
+	return bonus;
+      }
+      tickets[bestAuction]--;
+      hasType[bestClient][TACAgent.getAuctionType(bestAuction)] = true;
+      hasDay[bestClient][TACAgent.getAuctionDay(bestAuction)] = true;
+      bonus += bestValue;
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Bid and transaction records
+  // -------------------------------------------------------------------
+
+  static class Order {
+
+    final int id;
+    final int agent;
+    final int auction;
+    final long time;
+    final int[] quantity;
+    final float[] price;
+    int len;
+    int version = 0;
+    int hqw = 0;
+    int state = Bid.UNPROCESSED;
+    int rejectReason = Bid.NOT_REJECTED;
+    long timeProcessed;
+    long timeClosed;
+
+    Order(int id, int agent, int auction, int len, long time) {
+      this.id = id;
+      this.agent = agent;
+      this.auction = auction;
+      this.time = time;
+      this.quantity = new int[len];
+      this.price = new float[len];
+      this.len = len;
+    }
+
+    void reject(int reason, long time) {
+      rejectReason = reason;
+      state = Bid.REJECTED;
+      timeProcessed = time;
+    }
+
+    void changed() {
+      version++;
+      if (state == Bid.VALID && getQuantity() == 0) {
+	state = Bid.TRANSACTED;
+      }
+    }
+
+    void close(int state, long time) {
+      if (len > 0) {
+	len = 0;
+	version++;
+      }
+      this.state = state;
+      timeClosed = time;
+    }
+
+    // Removes bid points that have been completely filled
+    void compact() {
+      int n = 0;
+      for (int i = 0; i < len; i++) {
+	if (quantity[i] != 0) {
+	  quantity[n] = quantity[i];
+	  price[n++] = price[i];
+	}
+      }
+      len = n;
+    }
+
+    int getQuantity() {
+      int sum = 0;
+      for (int i = 0; i < len; i++) {
+	sum += quantity[i] < 0 ? -quantity[i] : quantity[i];
+      }
+      return sum;
+    }
+
+    String getBidString() {
+      StringBuffer sb = new StringBuffer();
+      sb.append('(');
+      for (int i = 0; i < len; i++) {
+	sb.append('(').append(quantity[i]).append(' ').append(price[i])
+	  .append(')');
+      }
+      return sb.append(')').toString();
+    }
+
+    String getBidHash() {
+      return id + "." + version;
+    }
+  }
+
+  static class Trade {
+
+    final int id;
+    final int auction;
+    final int quantity;
+    final float price;
+
+    Trade(int id, int auction, int quantity, float price) {
+      this.id = id;
+      this.auction = auction;
+      this.quantity = quantity;
+      this.price = price;
+    }
+  }
+
+} // TACMarket
@@ -0,0 +1,314 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * TimeDispatcher runs tasks at given (server) times on its own thread.
+ * This replaces the dispatcher in tacagent.jar with the same interface:
+ * tasks are kept in a binary heap ordered by time, so adding a task and
+ * finding the next one is O(log n), and an index from key and task to
+ * the scheduled tasks makes cancelTask O(log n) per cancelled task
+ * instead of a scan of every timer of every agent.
+ *
+ * Tasks that are due at the same time run in the order they were
+ * added. The dispatcher waits on its monitor until shortly before the
+ * next task is due and then parks for the last SPIN_MILLIS so that
+ * tasks run well within a millisecond of their time.
+ *
+ * The time is taken from a Clock, by default the system clock, minus
+ * the time difference to the server. A simulated clock can be set with
+ * setClock(); it must call wakeUp() whenever it moves so that tasks
+ * that have become due are run.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class TimeDispatcher extends Thread {
+
+  private static final Logger log =
+    Logger.getLogger(TimeDispatcher.class.getName());
+
+  /** Time before a task is due when the dispatcher stops waiting */
+  private static final long SPIN_MILLIS = 2;
+  private static final long PARK_NANOS = 100000;
+
+  /** Longest wait, so that a changed system clock is noticed */
+  private static final long MAX_WAIT = 1000;
+
+  public interface Clock {
+    long currentTimeMillis();
+  }
+
+  public static final Clock SYSTEM_CLOCK = new Clock() {
+      public long currentTimeMillis() {
+	return System.currentTimeMillis();
+      }
+    };
+
+  private static volatile TimeDispatcher dispatcher;
+
+  // Heap of scheduled tasks and the index for cancellation, guarded
+  // by this object
+  private TaskHolder[] heap = new TaskHolder[64];
+  private int size;
+  private long sequence;
+  private final HashMap<TaskKey,ArrayList<TaskHolder>> index =
+    new HashMap<TaskKey,ArrayList<TaskHolder>>();
+
+  private volatile Clock clock;
+  private volatile long timeDiff;
+
+  public static TimeDispatcher getDefault() {
+    TimeDispatcher d = dispatcher;
+    if (d == null) {
+      synchronized (TimeDispatcher.class) {
+	d = dispatcher;
+	if (d == null) {
+	  dispatcher = d = new TimeDispatcher("timer", SYSTEM_CLOCK, false);
+	}
+      }
+    }
+    return d;
+  }
+
+  /**
+   * Creates and starts a dispatcher of its own, for example on a
+   * simulated clock. The default dispatcher is used by TACAgent.
+   */
+  public TimeDispatcher(String name, Clock clock) {
+    this(name, clock, true);
+  }
+
+  private TimeDispatcher(String name, Clock clock, boolean isDaemon) {
+    super(name);
+    this.clock = clock;
+    setDaemon(isDaemon);
+    start();
+  }
+
+  public void setTimeDiff(long timeDiff) {
+    this.timeDiff = timeDiff;
+    wakeUp();
+  }
+
+  /** Returns the time difference to the server set by TACAgent */
+  public long getTimeDiff() {
+    return timeDiff;
+  }
+
+  public void setClock(Clock clock) {
+    this.clock = clock == null ? SYSTEM_CLOCK : clock;
+    wakeUp();
+  }
+
+  public Clock getClock() {
+    return clock;
+  }
+
+  /** Returns the current time of the dispatcher */
+  public long getTime() {
+    return clock.currentTimeMillis() - timeDiff;
+  }
+
+  /** Makes the dispatcher check for tasks that have become due */
+  public synchronized void wakeUp() {
+    notify();
+  }
+
+  public synchronized void addTask(long time, Object key, Object value,
+				   Task task) {
+    TaskHolder holder = new TaskHolder(time, key, value, task, sequence++);
+    TaskKey taskKey = new TaskKey(key, task);
+    ArrayList<TaskHolder> list = index.get(taskKey);
+    if (list == null) {
+      list = new ArrayList<TaskHolder>(2);
+      index.put(taskKey, list);
+    }
+    list.add(holder);
+    holder.taskKey = taskKey;
+
+    if (size == heap.length) {
+      TaskHolder[] tmp = new TaskHolder[size * 2];
+      System.arraycopy(heap, 0, tmp, 0, size);
+      heap = tmp;
+    }
+    holder.index = size++;
+    heap[holder.index] = holder;
+    siftUp(holder.index);
+    if (heap[0] == holder) {
+      // New first task
+      notify();
+    }
+  }
+
+  public synchronized void cancelTask(Object key, Task task) {
+    ArrayList<TaskHolder> list = index.remove(new TaskKey(key, task));
+    if (list != null) {
+      for (int i = 0, n = list.size(); i < n; i++) {
+	removeAt(list.get(i).index);
+      }
+    }
+  }
+
+  /** Returns the number of scheduled tasks */
+  public synchronized int getTaskCount() {
+    return size;
+  }
+
+  private TaskHolder nextTask() {
+    while (true) {
+      synchronized (this) {
+	long now = getTime();
+	long delay = size > 0 ? heap[0].time - now : MAX_WAIT;
+	if (size > 0 && delay <= 0) {
+	  TaskHolder holder = heap[0];
+	  removeAt(0);
+	  ArrayList<TaskHolder> list = index.get(holder.taskKey);
+	  if (list != null) {
+	    list.remove(holder);
+	    if (list.isEmpty()) {
+	      index.remove(holder.taskKey);
+	    }
+	  }
+	  return holder;
+	}
+	if (delay > SPIN_MILLIS || clock != SYSTEM_CLOCK) {
+	  try {
+	    wait(Math.max(1, Math.min(delay - SPIN_MILLIS, MAX_WAIT)));
+	  } catch (InterruptedException e) {
+	    log.log(Level.WARNING, "dispatcher interrupted", e);
+	  }
+	  continue;
+	}
+      }
+      // Close to the next task: park briefly instead of waiting, which
+      // may oversleep by a millisecond or more
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+  }
+
+  public void run() {
+    while (true) {
+      TaskHolder holder = nextTask();
+      try {
+	holder.task.performWork(holder.time, holder.key, holder.value);
+      } catch (Exception e) {
+	log.log(Level.SEVERE, "task " + holder.key + " failed", e);
+      }
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Heap
+  // -------------------------------------------------------------------
+
+  private void removeAt(int i) {
+    TaskHolder removed = heap[i];
+    TaskHolder last = heap[--size];
+    heap[size] = null;
+    removed.index = -1;
+    if (i < size) {
+      heap[i] = last;
+      last.index = i;
+      siftDown(i);
+      if (heap[i] == last) {
+	siftUp(i);
+      }
+    }
+  }
+
+  private void siftUp(int i) {
+    TaskHolder holder = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!holder.isBefore(heap[parent])) {
+	break;
+      }
+      heap[i] = heap[parent];
+      heap[i].index = i;
+      i = parent;
+    }
+    heap[i] = holder;
+    holder.index = i;
+  }
+
+  private void siftDown(int i) {
+    TaskHolder holder = heap[i];
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      int right = child + 1;
+      if (right < size && heap[right].isBefore(heap[child])) {
+	child = right;
+      }
+      if (!heap[child].isBefore(holder)) {
+	break;
+      }
+      heap[i] = heap[child];
+      heap[i].index = i;
+      i = child;
+    }
+    heap[i] = holder;
+    holder.index = i;
+  }
+
+  private static class TaskHolder {
+
+    final long time;
+    final Object key;
+    final Object value;
+    final Task task;
+    final long sequence;
+    TaskKey taskKey;
+    int index;
+
+    TaskHolder(long time, Object key, Object value, Task task,
+	       long sequence) {
+      this.time = time;
+      this.key = key;
+      this.value = value;
+      this.task = task;
+      this.sequence = sequence;
+    }
+
+    boolean isBefore(TaskHolder other) {
+      return time < other.time
+	|| (time == other.time && sequence < other.sequence);
+    }
+  }
+
+  // Tasks are cancelled by identity of key and task, as before
+  private static class TaskKey {
+
+    private final Object key;
+    private final Task task;
+
+    TaskKey(Object key, Task task) {
+      this.key = key;
+      this.task = task;
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(key) * 31
+	+ System.identityHashCode(task);
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof TaskKey)) {
+	return false;
+      }
+      TaskKey other = (TaskKey) obj;
+      return key == other.key && task == other.task;
+    }
+  }
+
+} // TimeDispatcher
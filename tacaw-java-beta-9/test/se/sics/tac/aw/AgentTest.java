@@ -0,0 +1,109 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AgentTest is the base of the self-checking tests run by AgentTests.
+ * A test makes its checks in run(); a failed check is reported and
+ * counted but does not stop the test, and an exception from run()
+ * counts as one more failure.
+ *
+ * There is no test framework on the class path of the agent, so the
+ * tests only use what the JDK and tacagent.jar offer. createAgent()
+ * gives a TACAgent without connection or agent implementation whose
+ * fields can be set with get() and set(), as BenchState does for the
+ * benchmarks.
+ */
+
+package se.sics.tac.aw;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+abstract class AgentTest {
+
+  private int checks;
+  private int failures;
+
+  /** Makes the checks of the test */
+  protected abstract void run() throws Exception;
+
+  public String getName() {
+    return getClass().getSimpleName();
+  }
+
+  int getChecks() {
+    return checks;
+  }
+
+  int getFailures() {
+    return failures;
+  }
+
+  /** Runs the test and returns the number of failed checks */
+  int runTest() {
+    checks = 0;
+    failures = 0;
+    try {
+      run();
+    } catch (Throwable e) {
+      failures++;
+      System.out.println(getName() + ": FAILED with " + e);
+      e.printStackTrace(System.out);
+    }
+    return failures;
+  }
+
+  protected void check(boolean condition, String what) {
+    checks++;
+    if (!condition) {
+      failures++;
+      System.out.println(getName() + ": FAILED " + what);
+    }
+  }
+
+  protected void checkEquals(long expected, long actual, String what) {
+    check(expected == actual,
+	  what + ": expected " + expected + " but was " + actual);
+  }
+
+  protected void checkEquals(float expected, float actual, String what) {
+    check(Float.compare(expected, actual) == 0,
+	  what + ": expected " + expected + " but was " + actual);
+  }
+
+  protected void checkEquals(Object expected, Object actual, String what) {
+    check(expected == null ? actual == null : expected.equals(actual),
+	  what + ": expected " + expected + " but was " + actual);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Agent state
+  // -------------------------------------------------------------------
+
+  /** Returns a TACAgent without connection or agent implementation */
+  protected static TACAgent createAgent() throws Exception {
+    Constructor<TACAgent> constructor =
+      TACAgent.class.getDeclaredConstructor(AgentImpl.class);
+    constructor.setAccessible(true);
+    return constructor.newInstance((AgentImpl) null);
+  }
+
+  protected static Object get(TACAgent agent, String name) throws Exception {
+    Field field = TACAgent.class.getDeclaredField(name);
+    field.setAccessible(true);
+    return field.get(agent);
+  }
+
+  protected static void set(TACAgent agent, String name, Object value)
+    throws Exception
+  {
+    Field field = TACAgent.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(agent, value);
+  }
+
+} // AgentTest
@@ -0,0 +1,76 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AgentTests runs the self-checking tests of the agent components
+ * (see AgentTest) and exits with status 1 if any check failed, so that
+ * a build script can run it after compiling.
+ *
+ * The package se.sics.tac.aw is sealed in tacagent.jar so the tests
+ * must be compiled together with the agent sources and added to a copy
+ * of the jar:
+ *
+ *  javac -cp tacagent.jar -d classes `find se test -name '*.java'`
+ *  cp tacagent.jar test.jar; jar uf test.jar -C classes .
+ *  java -cp test.jar se.sics.tac.aw.AgentTests
+ */
+
+package se.sics.tac.aw;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import se.sics.tac.util.ArgEnumerator;
+
+public class AgentTests {
+
+  private static final String USAGE =
+    "Usage: AgentTests [-options]\n"
+    + "where options include:\n"
+    + "    -filter <prefix>      only run tests starting with prefix\n"
+    + "    -h                    show this help message";
+
+  private static AgentTest[] createTests() {
+    return new AgentTest[] {
+      new PackageTableTest(),
+      new AllocationSolverTest(),
+      new HotelPriceSimulatorTest(),
+      new MessageCodecTest(),
+      new TimeDispatcherTest(),
+      new BidFilterTest(),
+      new InventoryLedgerTest(),
+      new EventLoopAgentTest(),
+      new GameJournalTest(),
+      new NioConnectionTest(),
+      new KeepAliveHttpConnectionTest()
+    };
+  }
+
+  public static void main(String[] args) throws Exception {
+    ArgEnumerator a = new ArgEnumerator(args, USAGE, true);
+    String prefix = a.getArgument("-filter");
+    a.checkArguments();
+
+    Logger.getLogger("se").setLevel(Level.SEVERE);
+    int tests = 0;
+    int failed = 0;
+    for (AgentTest test : createTests()) {
+      if (prefix == null || test.getName().startsWith(prefix)) {
+	int failures = test.runTest();
+	System.out.println(test.getName() + ": " + test.getChecks()
+			   + " checks, " + failures + " failed");
+	tests++;
+	if (failures > 0) {
+	  failed++;
+	}
+      }
+    }
+    System.out.println(tests + " tests, " + failed + " failed");
+    // Threads started by the components may not be daemons
+    System.exit(failed > 0 ? 1 : 0);
+  }
+
+} // AgentTests
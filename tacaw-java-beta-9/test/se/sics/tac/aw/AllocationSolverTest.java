@@ -0,0 +1,159 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * AllocationSolverTest compares the allocations of AllocationSolver on
+ * random games with an exhaustive search that tries every package for
+ * every client, memoised on the units used but without the bounds and
+ * ordering of the solver. The allocation returned must have the best
+ * value, and the value reported must be the value of the allocation.
+ * The same solver is used for all games so that its memos are reused.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+public class AllocationSolverTest extends AgentTest {
+
+  private static final int NO_CLIENTS = PackageTable.NO_CLIENTS;
+  private static final int NO_PACKAGES = PackageTable.NO_PACKAGES;
+  private static final int NO_AUCTIONS = PackageTable.NO_TRAVEL_AUCTIONS;
+
+  private static final int GAMES = 12;
+
+  private final int[] owned = new int[NO_AUCTIONS];
+  private final int[] hqw = new int[NO_AUCTIONS];
+  private final float[] abandonPrice = new float[NO_AUCTIONS];
+  private PackageTable packages;
+
+  protected void run() throws Exception {
+    Random random = new Random(4711);
+    TACAgent agent = createAgent();
+    int[][] prefs = (int[][]) get(agent, "clientPrefs");
+    packages = new PackageTable();
+    AllocationSolver solver = new AllocationSolver(packages);
+
+    for (int game = 0; game < GAMES; game++) {
+      for (int c = 0; c < NO_CLIENTS; c++) {
+	int in = 1 + random.nextInt(4);
+	prefs[c][TACAgent.ARRIVAL] = in;
+	prefs[c][TACAgent.DEPARTURE] = in + 1 + random.nextInt(5 - in);
+	prefs[c][TACAgent.HOTEL_VALUE] = 50 + random.nextInt(101);
+      }
+      packages.gameStarted(agent);
+      for (int a = 0; a < NO_AUCTIONS; a++) {
+	boolean isHotel = a >= TACAgent.MIN_HOTEL;
+	owned[a] = random.nextInt(4);
+	hqw[a] = isHotel ? random.nextInt(4) : 0;
+	abandonPrice[a] = isHotel ? random.nextInt(200) : 0;
+	// Some games with free units so that many allocations tie
+	packages.setUnitCost(a, game % 4 == 0 ? 0 : random.nextInt(400));
+      }
+
+      ArrayList<HashMap<Long,Integer>> memo =
+	new ArrayList<HashMap<Long,Integer>>();
+      for (int c = 0; c < NO_CLIENTS; c++) {
+	memo.add(new HashMap<Long,Integer>());
+      }
+      int best = exhaustive(0, 0L, memo);
+      int[][] allocation = solver.solve(owned, hqw, abandonPrice);
+      String name = "game " + game;
+      check(solver.isOptimal(), name + " optimal");
+      checkEquals(best, evaluate(allocation), name + " allocation value");
+      checkEquals(best, solver.getValue(), name + " reported value");
+
+      // Past the deadline the greedy allocation is returned
+      allocation = solver.solve(owned, hqw, abandonPrice,
+				System.nanoTime() - 1);
+      check(!solver.isOptimal(), name + " greedy not optimal");
+      checkEquals(evaluate(allocation), solver.getValue(),
+		  name + " greedy value");
+      check(solver.getValue() <= best, name + " greedy at most best");
+    }
+  }
+
+  // Best value of the clients from client on, memoised per client on
+  // the units used (4 bits per auction)
+  private int exhaustive(int client, long used,
+			 ArrayList<HashMap<Long,Integer>> memo) {
+    if (client == NO_CLIENTS) {
+      return waste(used);
+    }
+    Long key = Long.valueOf(used);
+    Integer known = memo.get(client).get(key);
+    if (known != null) {
+      return known.intValue();
+    }
+    int best = Integer.MIN_VALUE;
+    for (int p = 0; p < NO_PACKAGES; p++) {
+      int v = packages.getBaseUtility(client, p) + cost(p, used)
+	+ exhaustive(client + 1, add(p, used), memo);
+      if (v > best) {
+	best = v;
+      }
+    }
+    memo.get(client).put(key, Integer.valueOf(best));
+    return best;
+  }
+
+  // The value of an allocation straight from its definition
+  private int evaluate(int[][] allocation) {
+    int value = 0;
+    long used = 0L;
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      int p = PackageTable.getPackage(allocation[c][0], allocation[c][1],
+				      allocation[c][2]);
+      value += packages.getBaseUtility(c, p) + cost(p, used);
+      used = add(p, used);
+    }
+    return value + waste(used);
+  }
+
+  // Minus the unit cost of the units of the package beyond those owned
+  private int cost(int p, long used) {
+    int cost = 0;
+    int[] auctions = PackageTable.getAuctions(p);
+    for (int i = 0; i < auctions.length; i++) {
+      int a = auctions[i];
+      if (count(used, a) >= owned[a]) {
+	cost -= Math.round(packages.getUnitCost(a));
+      }
+    }
+    return cost;
+  }
+
+  // Minus the abandon cost of the HQW rooms no client uses
+  private int waste(long used) {
+    int waste = 0;
+    for (int a = 0; a < NO_AUCTIONS; a++) {
+      int unused = hqw[a] - count(used, a);
+      if (unused > 0) {
+	waste -= unused * Math.round(abandonPrice[a]);
+      }
+    }
+    return waste;
+  }
+
+  private static int count(long used, int auction) {
+    return (int) (used >>> (auction << 2)) & 0xf;
+  }
+
+  private static long add(int p, long used) {
+    int[] auctions = PackageTable.getAuctions(p);
+    for (int i = 0; i < auctions.length; i++) {
+      used += 1L << (auctions[i] << 2);
+    }
+    return used;
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "AllocationSolverTest" });
+  }
+
+} // AllocationSolverTest
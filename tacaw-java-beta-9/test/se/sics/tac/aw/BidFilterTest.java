@@ -0,0 +1,126 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * BidFilterTest checks when BidFilter skips a bid: an empty bid with no
+ * active bid to withdraw, or the same bid points (in any order) as a
+ * bid that is waiting to be processed or valid. Bids in any other state
+ * must never be taken as active, and bid points that differ only in
+ * how often a point is repeated must not be taken as the same.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.Random;
+
+public class BidFilterTest extends AgentTest {
+
+  private static final int AUCTION = TACAgent.MIN_ENTERTAINMENT;
+
+  private static final int[] ACTIVE = { Bid.UNPROCESSED, Bid.VALID };
+  private static final int[] INACTIVE = {
+    Bid.REJECTED, Bid.WITHDRAWN, Bid.TRANSACTED, Bid.REPLACED, Bid.EXPIRED
+  };
+
+  protected void run() throws Exception {
+    BidBuilder empty = new BidBuilder().begin(AUCTION);
+    BidBuilder points = new BidBuilder().begin(AUCTION)
+      .addBidPoint(1, 80f).addBidPoint(-2, 120.5f).addBidPoint(1, 90f);
+
+    // No last bid
+    check(BidFilter.isUnchanged(null, empty), "empty bid without bid");
+    check(!BidFilter.isUnchanged(null, points), "bid without bid");
+
+    // Active bids: skipped only with the same points
+    for (int state : ACTIVE) {
+      String name = "state " + state;
+      check(BidFilter.isUnchanged(bid(state, points), points),
+	    name + " same points");
+      BidBuilder shuffled = new BidBuilder().begin(AUCTION)
+	.addBidPoint(1, 90f).addBidPoint(1, 80f).addBidPoint(-2, 120.5f);
+      check(BidFilter.isUnchanged(bid(state, points), shuffled),
+	    name + " same points in other order");
+      BidBuilder price = new BidBuilder().begin(AUCTION)
+	.addBidPoint(1, 80f).addBidPoint(-2, 120.75f).addBidPoint(1, 90f);
+      check(!BidFilter.isUnchanged(bid(state, points), price),
+	    name + " other price");
+      BidBuilder quantity = new BidBuilder().begin(AUCTION)
+	.addBidPoint(1, 80f).addBidPoint(2, 120.5f).addBidPoint(1, 90f);
+      check(!BidFilter.isUnchanged(bid(state, points), quantity),
+	    name + " other quantity");
+      BidBuilder fewer = new BidBuilder().begin(AUCTION)
+	.addBidPoint(1, 80f).addBidPoint(-2, 120.5f);
+      check(!BidFilter.isUnchanged(bid(state, points), fewer),
+	    name + " fewer points");
+      check(!BidFilter.isUnchanged(bid(state, points), empty),
+	    name + " withdrawn by empty bid");
+      check(BidFilter.isUnchanged(bid(state, empty), empty),
+	    name + " empty bid after empty bid");
+
+      // The same number of points, but a point repeated
+      BidBuilder twice = new BidBuilder().begin(AUCTION)
+	.addBidPoint(1, 80f).addBidPoint(1, 80f).addBidPoint(-2, 120.5f);
+      BidBuilder thrice = new BidBuilder().begin(AUCTION)
+	.addBidPoint(1, 80f).addBidPoint(-2, 120.5f).addBidPoint(-2, 120.5f);
+      check(!BidFilter.isUnchanged(bid(state, twice), thrice),
+	    name + " repeated points");
+      check(BidFilter.isUnchanged(bid(state, twice), twice),
+	    name + " same repeated points");
+    }
+
+    // Bids that are not active are as no bid
+    for (int state : INACTIVE) {
+      String name = "state " + state;
+      check(!BidFilter.isUnchanged(bid(state, points), points),
+	    name + " same points submitted");
+      check(BidFilter.isUnchanged(bid(state, points), empty),
+	    name + " empty bid skipped");
+    }
+
+    // Random permutations of random bids
+    Random random = new Random(5);
+    for (int i = 0; i < 500; i++) {
+      int n = 1 + random.nextInt(12);
+      int[] quantity = new int[n];
+      float[] price = new float[n];
+      BidBuilder a = new BidBuilder().begin(AUCTION);
+      for (int p = 0; p < n; p++) {
+	quantity[p] = random.nextInt(3) - 1;
+	price[p] = random.nextInt(4) * 10f;
+	a.addBidPoint(quantity[p], price[p]);
+      }
+      int[] order = new int[n];
+      for (int p = 0; p < n; p++) {
+	int r = random.nextInt(p + 1);
+	order[p] = order[r];
+	order[r] = p;
+      }
+      BidBuilder b = new BidBuilder().begin(AUCTION);
+      for (int p = 0; p < n; p++) {
+	b.addBidPoint(quantity[order[p]], price[order[p]]);
+      }
+      check(BidFilter.samePoints(a.toBid(), b), "permutation " + i);
+      int changed = random.nextInt(n);
+      BidBuilder c = new BidBuilder().begin(AUCTION);
+      for (int p = 0; p < n; p++) {
+	c.addBidPoint(quantity[order[p]], price[order[p]]
+		      + (order[p] == changed ? 5f : 0f));
+      }
+      check(!BidFilter.samePoints(a.toBid(), c), "changed point " + i);
+    }
+  }
+
+  private static Bid bid(int state, BidBuilder points) {
+    Bid bid = points.toBid();
+    bid.setProcessingState(state);
+    return bid;
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "BidFilterTest" });
+  }
+
+} // BidFilterTest
@@ -0,0 +1,231 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * EventLoopAgentTest runs an EventLoopAgent with a recording strategy
+ * that holds the strategy thread in gameStarted() while the test queues
+ * events, so the queue is known when the strategy goes on. Repeated
+ * quote updates for an auction or a category must reach the strategy
+ * once, with the latest quote; bid and transaction events must all
+ * arrive in the order they were queued; and quote updates and closed
+ * auctions still queued when the game ends must be dropped.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import se.sics.tac.util.ArgEnumerator;
+
+public class EventLoopAgentTest extends AgentTest {
+
+  /** Longest time to wait for the strategy thread */
+  private static final long TIMEOUT = 5000;
+
+  protected void run() throws Exception {
+    TACAgent agent = createAgent();
+    Quote[] quotes = (Quote[]) get(agent, "quotes");
+    EventLoopAgent loop = new EventLoopAgent();
+    loop.init(agent, new ArgEnumerator(new String[] {
+      "-strategy", Recorder.class.getName(), "-eventQueue", "16"
+    }, ""));
+    Recorder recorder = (Recorder) loop.getStrategy();
+
+    // Coalescing and order within a game
+    recorder.hold();
+    loop.gameStarted();
+    check(recorder.awaitHeld(), "strategy held in gameStarted");
+    quotes[3].setAskPrice(100f);
+    loop.quoteUpdated(quotes[3]);
+    loop.bidUpdated(new Bid(3));
+    quotes[3].setAskPrice(110f);
+    loop.quoteUpdated(quotes[3]);
+    loop.quoteUpdated(TACAgent.CAT_HOTEL);
+    loop.quoteUpdated(quotes[5]);
+    loop.transaction(new Transaction(3, 1, 110f));
+    loop.quoteUpdated(TACAgent.CAT_HOTEL);
+    loop.bidRejected(new Bid(5));
+    quotes[3].setAskPrice(120f);
+    loop.quoteUpdated(quotes[3]);
+    loop.bidError(new Bid(7), 5);
+    loop.transaction(new Transaction(5, 2, 80f));
+    loop.auctionClosed(9);
+    // More events than the queue first held
+    for (int i = 0; i < 16; i++) {
+      loop.bidUpdated(new Bid(i));
+    }
+    checkEquals(3, loop.getCoalescedCount(), "quote updates coalesced");
+    checkEquals(25, loop.getQueueDepth(), "events queued");
+    recorder.release();
+    loop.awaitIdle();
+
+    List<String> expected = new ArrayList<String>();
+    expected.add("gameStarted");
+    expected.add("quote 3 at 120.0");
+    expected.add("bid 3");
+    expected.add("category " + TACAgent.CAT_HOTEL);
+    expected.add("quote 5 at 0.0");
+    expected.add("transaction 3 1 110.0");
+    expected.add("rejected 5");
+    expected.add("error 7 5");
+    expected.add("transaction 5 2 80.0");
+    expected.add("closed 9");
+    for (int i = 0; i < 16; i++) {
+      expected.add("bid " + i);
+    }
+    checkEvents(expected, recorder.take(), "game");
+
+    // A handled update lets the next one be queued again
+    quotes[3].setAskPrice(130f);
+    loop.quoteUpdated(quotes[3]);
+    loop.quoteUpdated(TACAgent.CAT_HOTEL);
+    loop.awaitIdle();
+    expected.clear();
+    expected.add("quote 3 at 130.0");
+    expected.add("category " + TACAgent.CAT_HOTEL);
+    checkEvents(expected, recorder.take(), "after handled");
+
+    // Game end drops the quote updates and closes not yet seen
+    recorder.hold();
+    loop.gameStarted();
+    check(recorder.awaitHeld(), "strategy held in second gameStarted");
+    loop.quoteUpdated(quotes[3]);
+    loop.bidUpdated(new Bid(4));
+    loop.quoteUpdated(TACAgent.CAT_FLIGHT);
+    loop.auctionClosed(10);
+    loop.transaction(new Transaction(4, 1, 300f));
+    loop.gameStopped();
+    checkEquals(3, loop.getDroppedCount(), "events dropped at game end");
+    recorder.release();
+    loop.awaitIdle();
+    expected.clear();
+    expected.add("gameStarted");
+    expected.add("bid 4");
+    expected.add("transaction 4 1 300.0");
+    expected.add("gameStopped");
+    checkEvents(expected, recorder.take(), "game end");
+
+    // Dropped updates do not keep the next ones from being queued
+    loop.quoteUpdated(quotes[3]);
+    loop.quoteUpdated(TACAgent.CAT_FLIGHT);
+    loop.awaitIdle();
+    expected.clear();
+    expected.add("quote 3 at 130.0");
+    expected.add("category " + TACAgent.CAT_FLIGHT);
+    checkEvents(expected, recorder.take(), "after game end");
+  }
+
+  private void checkEvents(List<String> expected, List<String> actual,
+			   String name) {
+    checkEquals(expected.size(), actual.size(), name + " events");
+    for (int i = 0, n = Math.min(expected.size(), actual.size()); i < n;
+	 i++) {
+      checkEquals(expected.get(i), actual.get(i), name + " event " + i);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Strategy recording the events it is given
+  // -------------------------------------------------------------------
+
+  static class Recorder extends AgentImpl {
+
+    private final List<String> events = new ArrayList<String>();
+    private boolean isHolding;
+    private boolean isHeld;
+
+    protected void init(ArgEnumerator args) {
+    }
+
+    /** Makes the next gameStarted() wait until release() */
+    synchronized void hold() {
+      isHolding = true;
+      isHeld = false;
+    }
+
+    /** Waits until the strategy thread is held */
+    synchronized boolean awaitHeld() throws InterruptedException {
+      long end = System.currentTimeMillis() + TIMEOUT;
+      long left;
+      while (!isHeld && (left = end - System.currentTimeMillis()) > 0) {
+	wait(left);
+      }
+      return isHeld;
+    }
+
+    synchronized void release() {
+      isHolding = false;
+      notifyAll();
+    }
+
+    synchronized List<String> take() {
+      List<String> taken = new ArrayList<String>(events);
+      events.clear();
+      return taken;
+    }
+
+    private synchronized void add(String event) {
+      events.add(event);
+    }
+
+    public void quoteUpdated(Quote quote) {
+      add("quote " + quote.getAuction() + " at " + quote.getAskPrice());
+    }
+
+    public void quoteUpdated(int category) {
+      add("category " + category);
+    }
+
+    public void bidUpdated(Bid bid) {
+      add("bid " + bid.getAuction());
+    }
+
+    public void bidRejected(Bid bid) {
+      add("rejected " + bid.getAuction());
+    }
+
+    public void bidError(Bid bid, int status) {
+      add("error " + bid.getAuction() + " " + status);
+    }
+
+    public void gameStarted() {
+      add("gameStarted");
+      synchronized (this) {
+	if (isHolding) {
+	  isHeld = true;
+	  notifyAll();
+	  while (isHolding) {
+	    try {
+	      wait();
+	    } catch (InterruptedException e) {
+	      return;
+	    }
+	  }
+	}
+      }
+    }
+
+    public void gameStopped() {
+      add("gameStopped");
+    }
+
+    public void auctionClosed(int auction) {
+      add("closed " + auction);
+    }
+
+    public void transaction(Transaction transaction) {
+      add("transaction " + transaction.getAuction() + " "
+	  + transaction.getQuantity() + " " + transaction.getPrice());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "EventLoopAgentTest" });
+  }
+
+} // EventLoopAgentTest
@@ -0,0 +1,211 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * GameJournalTest writes two games to a journal in a temporary file,
+ * the second after the journal has been opened again, and reads them
+ * back with GameJournalReader: the games must be found through the
+ * index and, without it, by scanning the journal, and every field of
+ * every event type must read back as written. A journal cut off in the
+ * middle of an event must end before that event.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class GameJournalTest extends AgentTest {
+
+  private static final int[] GAMES = { 4711, 815 };
+  private static final long START_TIME = 1000000000000L;
+
+  protected void run() throws Exception {
+    File file = File.createTempFile("game", ".journal");
+    File index = new File(file.getPath() + ".idx");
+    try {
+      // A new journal is empty
+      file.delete();
+      TACAgent agent = createAgent();
+      for (int g = 0; g < GAMES.length; g++) {
+	GameJournal journal = new GameJournal(agent, file.getPath());
+	writeGame(agent, journal, g);
+      }
+
+      GameJournalReader reader = new GameJournalReader(file.getPath());
+      checkGameIDs(reader, "indexed");
+      checkEquals(false, reader.seekGame(1), "seek game not played");
+      // Read the second game first
+      for (int g = GAMES.length - 1; g >= 0; g--) {
+	check(reader.seekGame(GAMES[g]), "seek game " + GAMES[g]);
+	checkGame(reader, g, "indexed game " + GAMES[g]);
+      }
+      reader.rewind();
+      for (int g = 0; g < GAMES.length; g++) {
+	checkGame(reader, g, "game " + GAMES[g] + " from start");
+      }
+      checkEquals(false, reader.next(), "end of journal");
+
+      index.delete();
+      reader = new GameJournalReader(file.getPath());
+      checkGameIDs(reader, "scanned");
+      check(reader.seekGame(GAMES[1]), "seek scanned game");
+      checkGame(reader, 1, "scanned game " + GAMES[1]);
+
+      // Cut off in the UTILITY event of the last game
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+	raf.setLength(raf.length() - 5 - 4);
+      } finally {
+	raf.close();
+      }
+      reader = new GameJournalReader(file.getPath());
+      check(reader.seekGame(GAMES[1]), "seek cut off game");
+      int events = 0;
+      while (reader.next()) {
+	events++;
+      }
+      checkEquals(6, events, "events before the cut");
+      checkEquals(false, reader.next(), "cut off event read again");
+    } finally {
+      file.delete();
+      index.delete();
+    }
+  }
+
+  private void writeGame(TACAgent agent, GameJournal journal, int g)
+    throws Exception
+  {
+    long timeDiff = (Long) get(agent, "timeDiff");
+    set(agent, "playingGame", GAMES[g]);
+    set(agent, "startTime", START_TIME + g);
+    set(agent, "gameLength", 540000 + g);
+    // Game time just over 10 s
+    set(agent, "timeDiff",
+	System.currentTimeMillis() - START_TIME - g - 10000);
+    journal.gameStarted();
+
+    Quote quote = ((Quote[]) get(agent, "quotes"))[10 + g];
+    quote.setAuctionStatus(Quote.AUCTION_INTERMEDIATE_CLEAR);
+    quote.setAskPrice(123.25f + g);
+    quote.setBidPrice(98.5f + g);
+    quote.setHQW(3 + g);
+    journal.quoteUpdated(quote);
+
+    Bid bid = new Bid(20 + g);
+    bid.addBidPoint(2, 55.5f);
+    bid.addBidPoint(-1, 140.75f + g);
+    bid.setID(90000 + g);
+    bid.setProcessingState(Bid.REJECTED);
+    bid.setRejectReason(7 + g);
+    journal.bidUpdated(bid);
+
+    journal.transaction(new Transaction(16 + g, -2 - g, 77.5f + g));
+    journal.auctionClosed(8 + g);
+    journal.allocation(allocation(g));
+    journal.utility(5000 + g, -100 - g);
+    journal.gameStopped();
+    set(agent, "timeDiff", timeDiff);
+  }
+
+  private void checkGameIDs(GameJournalReader reader, String name) {
+    int[] ids = reader.getGameIDs();
+    checkEquals(GAMES.length, ids.length, name + " games");
+    for (int i = 0; i < ids.length && i < GAMES.length; i++) {
+      checkEquals(GAMES[i], ids[i], name + " game " + i);
+    }
+  }
+
+  private void checkGame(GameJournalReader reader, int g, String name) {
+    check(reader.next(), name + " started");
+    checkEquals(GameJournal.GAME_STARTED, reader.getType(),
+		name + " first event");
+    checkEquals(GAMES[g], reader.getGameID(), name + " ID");
+    // The start time is taken from two clock readings
+    check(Math.abs(reader.getStartTime() - START_TIME - g) <= 1,
+	  name + " start time " + reader.getStartTime());
+    checkEquals(540000 + g, reader.getGameLength(), name + " length");
+    checkTime(reader, name + " start");
+
+    check(reader.next(), name + " quote");
+    checkEquals(GameJournal.QUOTE, reader.getType(), name + " quote type");
+    checkTime(reader, name + " quote");
+    checkEquals(10 + g, reader.getAuction(), name + " quote auction");
+    checkEquals(Quote.AUCTION_INTERMEDIATE_CLEAR, reader.getState(),
+		name + " quote status");
+    checkEquals(123.25f + g, reader.getPrice(), name + " ask price");
+    checkEquals(98.5f + g, reader.getBidPrice(), name + " bid price");
+    checkEquals(3 + g, reader.getHQW(), name + " HQW");
+
+    check(reader.next(), name + " bid");
+    checkEquals(GameJournal.BID, reader.getType(), name + " bid type");
+    checkTime(reader, name + " bid");
+    checkEquals(90000 + g, reader.getID(), name + " bid ID");
+    checkEquals(20 + g, reader.getAuction(), name + " bid auction");
+    checkEquals(Bid.REJECTED, reader.getState(), name + " bid state");
+    checkEquals(7 + g, reader.getRejectReason(), name + " reject reason");
+    checkEquals(2, reader.getNoBidPoints(), name + " bid points");
+    checkEquals(2, reader.getQuantity(0), name + " quantity 0");
+    checkEquals(55.5f, reader.getPrice(0), name + " price 0");
+    checkEquals(-1, reader.getQuantity(1), name + " quantity 1");
+    checkEquals(140.75f + g, reader.getPrice(1), name + " price 1");
+
+    check(reader.next(), name + " transaction");
+    checkEquals(GameJournal.TRANSACTION, reader.getType(),
+		name + " transaction type");
+    checkTime(reader, name + " transaction");
+    checkEquals(16 + g, reader.getAuction(), name + " transaction auction");
+    checkEquals(-2 - g, reader.getQuantity(), name + " quantity sold");
+    checkEquals(77.5f + g, reader.getPrice(), name + " transaction price");
+
+    check(reader.next(), name + " closed");
+    checkEquals(GameJournal.AUCTION_CLOSED, reader.getType(),
+		name + " closed type");
+    checkEquals(8 + g, reader.getAuction(), name + " closed auction");
+
+    check(reader.next(), name + " allocation");
+    checkEquals(GameJournal.ALLOCATION, reader.getType(),
+		name + " allocation type");
+    int[][] allocation = allocation(g);
+    for (int c = 0; c < GameJournal.NO_CLIENTS; c++) {
+      for (int f = 0; f < 3; f++) {
+	checkEquals(allocation[c][f], reader.getAllocation(c, f),
+		    name + " allocation of client " + c + " field " + f);
+      }
+    }
+
+    check(reader.next(), name + " utility");
+    checkEquals(GameJournal.UTILITY, reader.getType(),
+		name + " utility type");
+    checkEquals(5000 + g, reader.getUtility(), name + " utility");
+    checkEquals(-100 - g, reader.getNewUtility(), name + " new utility");
+
+    check(reader.next(), name + " stopped");
+    checkEquals(GameJournal.GAME_STOPPED, reader.getType(),
+		name + " last event");
+    checkEquals(GAMES[g], reader.getGameID(), name + " ID at end");
+  }
+
+  // The game time was set just over 10 s when the game was written
+  private void checkTime(GameJournalReader reader, String name) {
+    int time = reader.getTime();
+    check(time >= 10000 && time < 20000, name + " time " + time);
+  }
+
+  private static int[][] allocation(int g) {
+    int[][] allocation = new int[GameJournal.NO_CLIENTS][];
+    for (int c = 0; c < allocation.length; c++) {
+      int in = 1 + (c + g) % 4;
+      allocation[c] = new int[] { in, in + 1, (c + g) % 2 };
+    }
+    return allocation;
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "GameJournalTest" });
+  }
+
+} // GameJournalTest
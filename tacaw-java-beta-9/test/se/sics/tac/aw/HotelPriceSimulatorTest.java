@@ -0,0 +1,181 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * HotelPriceSimulatorTest samples random hotel markets with two
+ * simulators given the same seed. They must draw the same scenarios,
+ * and so give the same expected prices and expected utilities, sample
+ * after sample. A closed hotel must make every client that still needs
+ * a room in it worthless, and the number of scenarios must stay within
+ * MIN_SCENARIOS and MAX_SCENARIOS whatever the time left or the count
+ * asked for.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.Random;
+
+public class HotelPriceSimulatorTest extends AgentTest {
+
+  private static final int NO_CLIENTS = PackageTable.NO_CLIENTS;
+  private static final int NO_AUCTIONS = PackageTable.NO_TRAVEL_AUCTIONS;
+  private static final int MIN_HOTEL = TACAgent.MIN_HOTEL;
+
+  protected void run() throws Exception {
+    Random random = new Random(8);
+    TACAgent agent = createAgent();
+    int[][] prefs = (int[][]) get(agent, "clientPrefs");
+    Quote[] quotes = (Quote[]) get(agent, "quotes");
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      prefs[c][TACAgent.ARRIVAL] = 1 + c % 4;
+      prefs[c][TACAgent.DEPARTURE] = 2 + c % 4;
+      prefs[c][TACAgent.HOTEL_VALUE] = 50 + 10 * c;
+    }
+    PackageTable packages = new PackageTable();
+    packages.gameStarted(agent);
+
+    HotelPriceSimulator a = new HotelPriceSimulator(60, 1.2f, 1.4f, 4711);
+    HotelPriceSimulator b = new HotelPriceSimulator(60, 1.2f, 1.4f, 4711);
+    HotelPriceSimulator other =
+      new HotelPriceSimulator(60, 1.2f, 1.4f, 4712);
+    int[][] allocation = new int[NO_CLIENTS][3];
+    int[] owned = new int[NO_AUCTIONS];
+    int[] hqw = new int[NO_AUCTIONS];
+    float[] abandonPrice = new float[NO_AUCTIONS];
+    int differentPrices = 0;
+
+    for (int round = 0; round < 30; round++) {
+      int closedCount = 0;
+      for (int h = MIN_HOTEL; h < MIN_HOTEL + 8; h++) {
+	quotes[h].setAskPrice(random.nextInt(30000) / 100f);
+	boolean isClosed = random.nextInt(4) == 0;
+	quotes[h].setAuctionStatus(isClosed ? Quote.AUCTION_CLOSED
+				   : Quote.AUCTION_INTERMEDIATE_CLEAR);
+	if (isClosed) {
+	  closedCount++;
+	}
+      }
+      MarketSnapshot snapshot = MarketSnapshot.capture(agent, round);
+      int scenarios = HotelPriceSimulator.getScenarioCount
+	(random.nextInt(540000));
+      a.sample(snapshot, closedCount, scenarios);
+      b.sample(snapshot, closedCount, scenarios);
+      other.sample(snapshot, closedCount, scenarios);
+      String name = "round " + round;
+      checkEquals(scenarios, a.getScenarioCount(), name + " scenarios");
+
+      for (int h = MIN_HOTEL; h < MIN_HOTEL + 8; h++) {
+	checkEquals(a.getExpectedPrice(h), b.getExpectedPrice(h),
+		    name + " same expected price of " + h);
+	if (a.getExpectedPrice(h) != other.getExpectedPrice(h)) {
+	  differentPrices++;
+	}
+	if (snapshot.isAuctionClosed(h)) {
+	  check(a.getExpectedPrice(h) >= 99999f,
+		name + " closed hotel " + h + " unaffordable");
+	} else {
+	  check(a.getExpectedPrice(h) > snapshot.getAskPrice(h),
+		name + " open hotel " + h + " above its ask price");
+	}
+      }
+
+      for (int c = 0; c < NO_CLIENTS; c++) {
+	int in = 1 + random.nextInt(4);
+	allocation[c][0] = in;
+	allocation[c][1] = in + 1 + random.nextInt(5 - in);
+	allocation[c][2] = random.nextInt(2);
+      }
+      for (int i = 0; i < NO_AUCTIONS; i++) {
+	owned[i] = random.nextInt(3);
+	hqw[i] = i >= MIN_HOTEL ? random.nextInt(2) : 0;
+	abandonPrice[i] = random.nextInt(100);
+      }
+      checkEquals(a.getExpectedUtility(packages, allocation, owned, hqw,
+				       abandonPrice),
+		  b.getExpectedUtility(packages, allocation, owned, hqw,
+				       abandonPrice),
+		  name + " same expected utility");
+    }
+    check(differentPrices > 0, "other seed draws other scenarios");
+
+    checkClosedHotel(packages);
+    checkScenarioCounts(agent);
+  }
+
+  // All clients in cheap hotel day 1 (auction 8), which has closed
+  private void checkClosedHotel(PackageTable packages) throws Exception {
+    TACAgent agent = createAgent();
+    Quote[] quotes = (Quote[]) get(agent, "quotes");
+    quotes[MIN_HOTEL].setAskPrice(50f);
+    quotes[MIN_HOTEL].setAuctionStatus(Quote.AUCTION_CLOSED);
+    HotelPriceSimulator simulator =
+      new HotelPriceSimulator(60, 1.2f, 1.4f, 1);
+    simulator.sample(MarketSnapshot.capture(agent, 0), 1,
+		     HotelPriceSimulator.MIN_SCENARIOS);
+
+    int[][] allocation = new int[NO_CLIENTS][];
+    int base = 0;
+    int firstHalf = 0;
+    for (int c = 0; c < NO_CLIENTS; c++) {
+      allocation[c] = new int[] { 1, 2, TACAgent.TYPE_CHEAP_HOTEL };
+      base += packages.getBaseUtility
+	(c, PackageTable.getPackage(1, 2, TACAgent.TYPE_CHEAP_HOTEL));
+      if (c == NO_CLIENTS / 2 - 1) {
+	firstHalf = base;
+      }
+    }
+    int[] owned = new int[NO_AUCTIONS];
+    int[] hqw = new int[NO_AUCTIONS];
+    float[] abandonPrice = new float[NO_AUCTIONS];
+    // Flights cost nothing: only the hotel decides
+    for (int i = 0; i < MIN_HOTEL; i++) {
+      packages.setUnitCost(i, 0f);
+    }
+    checkEquals(0.0, simulator.getExpectedUtility(packages, allocation,
+						  owned, hqw, abandonPrice),
+		"clients needing a closed hotel abandoned");
+    owned[MIN_HOTEL] = NO_CLIENTS;
+    checkEquals((double) base,
+		simulator.getExpectedUtility(packages, allocation, owned,
+					     hqw, abandonPrice),
+		"clients owning the closed hotel kept");
+    // Owned units go to the clients in order
+    owned[MIN_HOTEL] = NO_CLIENTS / 2;
+    checkEquals((double) firstHalf,
+		simulator.getExpectedUtility(packages, allocation, owned,
+					     hqw, abandonPrice),
+		"only clients owning the closed hotel kept");
+  }
+
+  private void checkScenarioCounts(TACAgent agent) {
+    int min = HotelPriceSimulator.MIN_SCENARIOS;
+    int max = HotelPriceSimulator.MAX_SCENARIOS;
+    checkEquals(512, min, "least scenarios");
+    checkEquals(8192, max, "most scenarios");
+    for (long left = 0; left <= 540000; left += 250) {
+      int n = HotelPriceSimulator.getScenarioCount(left);
+      check(n >= min && n <= max, "scenarios " + n + " with " + left
+	    + " ms left");
+    }
+    checkEquals(min, HotelPriceSimulator.getScenarioCount(1000),
+		"scenarios just before a close");
+    checkEquals(max, HotelPriceSimulator.getScenarioCount(59000),
+		"scenarios just after a close");
+
+    HotelPriceSimulator simulator =
+      new HotelPriceSimulator(60, 1.2f, 1.4f, 2);
+    MarketSnapshot snapshot = MarketSnapshot.capture(agent, 0);
+    simulator.sample(snapshot, 0, 1);
+    checkEquals(min, simulator.getScenarioCount(), "too few scenarios");
+    simulator.sample(snapshot, 0, 100000);
+    checkEquals(max, simulator.getScenarioCount(), "too many scenarios");
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "HotelPriceSimulatorTest" });
+  }
+
+} // HotelPriceSimulatorTest
@@ -0,0 +1,105 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * InventoryLedgerTest loads a ledger from a snapshot of random goods and
+ * takes random units under nested checkpoints. Taking a unit must never
+ * make a count negative (taking from an empty auction does nothing), and
+ * a rollback must give back exactly the units taken since its checkpoint,
+ * also when it skips over later checkpoints.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class InventoryLedgerTest extends AgentTest {
+
+  private static final int NO_AUCTIONS = TACAgent.getAuctionNo();
+
+  protected void run() throws Exception {
+    Random random = new Random(23);
+    TACAgent agent = createAgent();
+    int[] owns = (int[]) get(agent, "owns");
+    Quote[] quotes = (Quote[]) get(agent, "quotes");
+    InventoryLedger ledger = new InventoryLedger(NO_AUCTIONS);
+
+    for (int round = 0; round < 50; round++) {
+      for (int a = 0; a < NO_AUCTIONS; a++) {
+	owns[a] = random.nextInt(4);
+	// Only hotels have HQW, whatever the quotes say
+	quotes[a].setHQW(random.nextInt(4));
+      }
+      ledger.load(MarketSnapshot.capture(agent, round));
+      String name = "round " + round;
+      for (int a = 0; a < NO_AUCTIONS; a++) {
+	boolean isHotel = a >= TACAgent.MIN_HOTEL
+	  && a < TACAgent.MIN_ENTERTAINMENT;
+	checkEquals(owns[a], ledger.getOwned()[a], name + " owned " + a);
+	checkEquals(isHotel ? quotes[a].getHQW() : 0, ledger.getHQW()[a],
+		    name + " HQW " + a);
+      }
+      int[] loadedOwned = ledger.getOwned().clone();
+      int[] loadedHQW = ledger.getHQW().clone();
+
+      // Nested checkpoints with the ledger as it was at each
+      ArrayList<Integer> marks = new ArrayList<Integer>();
+      ArrayList<int[]> owned = new ArrayList<int[]>();
+      ArrayList<int[]> hqw = new ArrayList<int[]>();
+      for (int step = 0; step < 400; step++) {
+	int op = random.nextInt(10);
+	if (op < 2) {
+	  marks.add(Integer.valueOf(ledger.checkpoint()));
+	  owned.add(ledger.getOwned().clone());
+	  hqw.add(ledger.getHQW().clone());
+	} else if (op < 3 && !marks.isEmpty()) {
+	  int i = random.nextInt(marks.size());
+	  ledger.rollback(marks.get(i).intValue());
+	  check(Arrays.equals(owned.get(i), ledger.getOwned()),
+		name + " owned after rollback " + step);
+	  check(Arrays.equals(hqw.get(i), ledger.getHQW()),
+		name + " HQW after rollback " + step);
+	  // Later checkpoints are gone with the rollback
+	  for (int j = marks.size() - 1; j > i; j--) {
+	    marks.remove(j);
+	    owned.remove(j);
+	    hqw.remove(j);
+	  }
+	} else {
+	  int a = random.nextInt(NO_AUCTIONS);
+	  int[] counts = op < 7 ? ledger.getOwned() : ledger.getHQW();
+	  int before = counts[a];
+	  if (op < 7) {
+	    ledger.takeOwned(a);
+	  } else {
+	    ledger.takeHQW(a);
+	  }
+	  checkEquals(Math.max(0, before - 1), counts[a],
+		      name + " take " + a + " at " + step);
+	}
+      }
+      ledger.rollback(0);
+      check(Arrays.equals(loadedOwned, ledger.getOwned()),
+	    name + " owned after full rollback");
+      check(Arrays.equals(loadedHQW, ledger.getHQW()),
+	    name + " HQW after full rollback");
+    }
+
+    ledger.clear();
+    ledger.rollback(0);
+    check(Arrays.equals(new int[NO_AUCTIONS], ledger.getOwned()),
+	  "owned after clear");
+    check(Arrays.equals(new int[NO_AUCTIONS], ledger.getHQW()),
+	  "HQW after clear");
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "InventoryLedgerTest" });
+  }
+
+} // InventoryLedgerTest
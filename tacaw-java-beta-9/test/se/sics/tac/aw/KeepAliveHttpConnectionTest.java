@@ -0,0 +1,401 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * KeepAliveHttpConnectionTest runs a KeepAliveHttpConnection with one
+ * pooled connection against a loopback HTTP server that numbers its
+ * replies. While a bid is held by the server, identical read-only
+ * requests queued behind it must be coalesced into one exchange, and
+ * the bid after them must wait for their replies. A read-only request
+ * whose connection is dropped must be sent again, but a dropped bid
+ * must come back as an INTERNAL_ERROR tacerror without being sent
+ * twice. A connection closed by the server while idle for longer than
+ * IDLE_CHECK must be replaced before a bid is written on it.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class KeepAliveHttpConnectionTest extends AgentTest {
+
+  private static final long TIMEOUT = 10000;
+  private static final long IDLE_CHECK = 1000;
+
+  // Makes each bid message different
+  private static int bids;
+
+  // Replies seen by the receiver, guarded by this object
+  private final List<TACMessage> replied = new ArrayList<TACMessage>();
+  private final List<String> replies = new ArrayList<String>();
+
+  private final TACMessageReceiver receiver = new TACMessageReceiver() {
+      public void messageReceived(TACMessage msg) {
+	String reply = msg.isTACError() ? "error" : "?";
+	while (msg.nextTag()) {
+	  if (msg.isTag("n")) {
+	    reply = msg.getValue();
+	  } else if (msg.isTag("commandStatus")) {
+	    reply = "error " + msg.getValue();
+	  }
+	}
+	synchronized (KeepAliveHttpConnectionTest.this) {
+	  replied.add(msg);
+	  replies.add(reply);
+	  KeepAliveHttpConnectionTest.this.notifyAll();
+	}
+      }
+    };
+
+  protected void run() throws Exception {
+    ServerSocket socket =
+      new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+    Server server = new Server(socket);
+    AgentThreads.start(server, "test-server", true);
+
+    TACAgent agent = createAgent();
+    set(agent, "host", socket.getInetAddress().getHostAddress());
+    set(agent, "port", socket.getLocalPort());
+    set(agent, "userName", "test");
+    set(agent, "password", "test");
+    String size = System.getProperty("tac.http.connections");
+    System.setProperty("tac.http.connections", "1");
+    Connection connection = new Connection();
+    try {
+      connection.init(agent);
+      connection.isLoggedIn = true;
+      checkCoalescing(connection, server);
+      checkRetries(connection, server);
+      checkIdleClose(connection, server);
+    } finally {
+      if (size == null) {
+	System.clearProperty("tac.http.connections");
+      } else {
+	System.setProperty("tac.http.connections", size);
+      }
+      connection.disconnect();
+      socket.close();
+    }
+  }
+
+  private void checkCoalescing(Connection connection, Server server)
+    throws Exception
+  {
+    TACMessage held = bid("hold");
+    connection.sendMessage(held, receiver);
+    check(server.awaitRequests(1), "held bid read");
+    // Queued while the bid is held: A A B A X A A
+    TACMessage[] queued = {
+      quote(1, null), quote(1, null), quote(2, null), quote(1, null),
+      bid(null), quote(1, null), quote(1, null)
+    };
+    for (TACMessage msg : queued) {
+      connection.sendMessage(msg, receiver);
+    }
+    Thread.sleep(200);
+    checkEquals(1, server.getRequests().size(), "requests behind the bid");
+    server.release();
+    check(awaitReplies(1 + queued.length), "replies after the bid");
+
+    List<String> requests = server.getRequests();
+    checkEquals(5, requests.size(), "exchanges");
+    String[] expected = {
+      held.getMessageString(), queued[0].getMessageString(),
+      queued[2].getMessageString(), queued[4].getMessageString(),
+      queued[5].getMessageString()
+    };
+    for (int i = 0; i < expected.length && i < requests.size(); i++) {
+      checkEquals(expected[i], requests.get(i), "request " + i);
+    }
+    String[] reply = { "0", "1", "1", "2", "1", "3", "4", "4" };
+    checkEquals(reply[0], getReply(held), "reply to held bid");
+    for (int i = 0; i < queued.length; i++) {
+      checkEquals(reply[i + 1], getReply(queued[i]), "reply to message " + i);
+    }
+    Field coalesced =
+      KeepAliveHttpConnection.class.getDeclaredField("coalescedCount");
+    coalesced.setAccessible(true);
+    checkEquals(3L, ((Long) coalesced.get(connection)).longValue(),
+		"messages coalesced");
+  }
+
+  private void checkRetries(Connection connection, Server server)
+    throws Exception
+  {
+    int before = server.getRequests().size();
+    TACMessage quote = quote(3, "drop");
+    int count = getReplyCount();
+    connection.sendMessage(quote, receiver);
+    check(awaitReplies(count + 1), "reply to dropped quote");
+    check(!quote.isTACError(), "dropped quote answered");
+    checkEquals(2, server.count(quote.getMessageString()),
+		"dropped quote sent again");
+
+    // The failed bid is logged as severe
+    Logger log = Logger.getLogger(KeepAliveHttpConnection.class.getName());
+    Level level = log.getLevel();
+    log.setLevel(Level.OFF);
+    TACMessage bid = bid("drop");
+    try {
+      count = getReplyCount();
+      connection.sendMessage(bid, receiver);
+      check(awaitReplies(count + 1), "reply to dropped bid");
+    } finally {
+      log.setLevel(level);
+    }
+    check(bid.isTACError(), "dropped bid answered with tacerror");
+    checkEquals("error " + TACAgent.INTERNAL_ERROR, getReply(bid),
+		"dropped bid status");
+    checkEquals(1, server.count(bid.getMessageString()),
+		"dropped bid sent once");
+    checkEquals(before + 3, server.getRequests().size(), "retry requests");
+  }
+
+  private void checkIdleClose(Connection connection, Server server)
+    throws Exception
+  {
+    TACMessage quote = quote(4, "close");
+    int count = getReplyCount();
+    connection.sendMessage(quote, receiver);
+    check(awaitReplies(count + 1), "reply before close");
+    check(!quote.isTACError(), "quote answered before close");
+    Thread.sleep(IDLE_CHECK + 200);
+
+    TACMessage bid = bid("after close");
+    count = getReplyCount();
+    connection.sendMessage(bid, receiver);
+    check(awaitReplies(count + 1), "reply to bid after close");
+    check(!bid.isTACError(), "bid after idle close answered");
+    checkEquals(1, server.count(bid.getMessageString()),
+		"bid after idle close sent once");
+  }
+
+  private static TACMessage quote(int auction, String mode) {
+    TACMessage msg = new TACMessage("getQuote");
+    msg.setParameter("auctionID", auction);
+    if (mode != null) {
+      msg.setParameter("mode", mode);
+    }
+    return msg;
+  }
+
+  private static TACMessage bid(String mode) {
+    TACMessage msg = new TACMessage("submitBid");
+    msg.setParameter("bidString", "((1 1 " + (++bids) + "))");
+    if (mode != null) {
+      msg.setParameter("mode", mode);
+    }
+    return msg;
+  }
+
+  private synchronized int getReplyCount() {
+    return replies.size();
+  }
+
+  private synchronized String getReply(TACMessage msg) {
+    int index = replied.indexOf(msg);
+    return index < 0 ? null : replies.get(index);
+  }
+
+  private synchronized boolean awaitReplies(int count)
+    throws InterruptedException
+  {
+    long end = System.currentTimeMillis() + TIMEOUT;
+    long left;
+    while (replies.size() < count
+	   && (left = end - System.currentTimeMillis()) > 0) {
+      wait(left);
+    }
+    return replies.size() >= count;
+  }
+
+  // The loopback server does not need the login sent by init()
+  private static class Connection extends KeepAliveHttpConnection {
+
+    volatile boolean isLoggedIn;
+
+    public void sendMessage(TACMessage msg) throws IOException {
+      if (isLoggedIn) {
+	super.sendMessage(msg);
+      }
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Loopback HTTP server
+  // -------------------------------------------------------------------
+
+  // Answers each request with its number. A request with the mode
+  // "hold" is answered after release(), "drop" closes the connection
+  // without an answer the first time the request is seen, and "close"
+  // closes the connection after the answer.
+  private static class Server implements Runnable {
+
+    private final ServerSocket server;
+    private final List<String> requests = new ArrayList<String>();
+    private final HashSet<String> dropped = new HashSet<String>();
+    private boolean isReleased;
+
+    Server(ServerSocket server) {
+      this.server = server;
+    }
+
+    synchronized List<String> getRequests() {
+      return new ArrayList<String>(requests);
+    }
+
+    synchronized int count(String request) {
+      int n = 0;
+      for (String r : requests) {
+	if (r.equals(request)) {
+	  n++;
+	}
+      }
+      return n;
+    }
+
+    synchronized boolean awaitRequests(int count)
+      throws InterruptedException
+    {
+      long end = System.currentTimeMillis() + TIMEOUT;
+      long left;
+      while (requests.size() < count
+	     && (left = end - System.currentTimeMillis()) > 0) {
+	wait(left);
+      }
+      return requests.size() >= count;
+    }
+
+    synchronized void release() {
+      isReleased = true;
+      notifyAll();
+    }
+
+    private synchronized boolean awaitRelease() throws InterruptedException {
+      long end = System.currentTimeMillis() + TIMEOUT;
+      long left;
+      while (!isReleased && (left = end - System.currentTimeMillis()) > 0) {
+	wait(left);
+      }
+      return isReleased;
+    }
+
+    public void run() {
+      try {
+	while (true) {
+	  final Socket socket = server.accept();
+	  AgentThreads.start(new Runnable() {
+	      public void run() {
+		serve(socket);
+	      }
+	    }, "test-server-connection", true);
+	}
+      } catch (IOException e) {
+	// Closed by the test
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+	InputStream in = new BufferedInputStream(socket.getInputStream());
+	OutputStream out = socket.getOutputStream();
+	String request;
+	while ((request = readRequest(in)) != null) {
+	  int number;
+	  boolean isDropped;
+	  synchronized (this) {
+	    number = requests.size();
+	    requests.add(request);
+	    isDropped = request.contains("<mode>drop</mode>")
+	      && dropped.add(request);
+	    notifyAll();
+	  }
+	  if (isDropped) {
+	    break;
+	  }
+	  if (request.contains("<mode>hold</mode>") && !awaitRelease()) {
+	    break;
+	  }
+	  String type = request.substring(1, request.indexOf('>'));
+	  byte[] body = ("<" + type + "><n>" + number + "</n></" + type + ">")
+	    .getBytes("UTF-8");
+	  out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length
+		     + "\r\n\r\n").getBytes("US-ASCII"));
+	  out.write(body);
+	  out.flush();
+	  if (request.contains("<mode>close</mode>")) {
+	    break;
+	  }
+	}
+      } catch (Exception e) {
+	// Closed by the client
+      } finally {
+	try {
+	  socket.close();
+	} catch (IOException e) {
+	  // Already closed
+	}
+      }
+    }
+
+    // Returns the body of the next request, or null at the end of stream
+    private static String readRequest(InputStream in) throws IOException {
+      int length = -1;
+      String line;
+      do {
+	line = readLine(in);
+	if (line == null) {
+	  return null;
+	}
+	if (line.toLowerCase().startsWith("content-length:")) {
+	  length = Integer.parseInt(line.substring(15).trim());
+	}
+      } while (line.length() > 0);
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      for (int i = 0; i < length; i++) {
+	int c = in.read();
+	if (c < 0) {
+	  return null;
+	}
+	body.write(c);
+      }
+      return body.toString("UTF-8");
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = in.read()) != '\n') {
+	if (c < 0) {
+	  return null;
+	}
+	if (c != '\r') {
+	  line.append((char) c);
+	}
+      }
+      return line.toString();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "KeepAliveHttpConnectionTest" });
+  }
+
+} // KeepAliveHttpConnectionTest
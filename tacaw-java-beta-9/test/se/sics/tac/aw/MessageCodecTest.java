@@ -0,0 +1,306 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * MessageCodecTest round-trips messages through MessageCodec: requests
+ * must be byte for byte what TACMessage would send, replies written by
+ * the codec must decode to the values written (the same values that
+ * TACMessage parses from them), and replies read from a stream in small
+ * pieces must be framed as they were written. A quote reply with only
+ * some of its values must update a quote the same way whether it is
+ * read through TACMessage or through the codec.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MessageCodecTest extends AgentTest {
+
+  private static final byte[] AUCTION_ID = MessageCodec.bytes("auctionID");
+  private static final byte[] BID_ID = MessageCodec.bytes("bidID");
+  private static final byte[] BID_STRING = MessageCodec.bytes("bidString");
+  private static final byte[] BID_HASH = MessageCodec.bytes("bidHash");
+
+  private final Random random = new Random(17);
+
+  protected void run() throws Exception {
+    for (int i = 0; i < 200; i++) {
+      checkRequest(i);
+      checkQuote(i);
+      checkBidInfo(i);
+    }
+    checkPartialQuotes();
+    checkError();
+    checkValues();
+    checkStream();
+  }
+
+  // A request must be what TACMessage.getMessageString() gives
+  private void checkRequest(int i) throws Exception {
+    int auction = random.nextInt(1000);
+    int bidID = random.nextInt(100000) - 1;
+    BidBuilder builder = randomBid(random.nextInt(28));
+    Bid bid = builder.toBid();
+
+    TACMessage msg = new TACMessage("replaceBid");
+    msg.setParameter("auctionID", auction);
+    msg.setParameter("bidID", bidID);
+    msg.setParameter("bidString", bid.getBidString());
+    msg.setParameter("bidHash", "17.3");
+
+    MessageCodec codec = new MessageCodec(16);
+    codec.begin("replaceBid").add(AUCTION_ID, auction).add(BID_ID, bidID)
+      .add(BID_STRING, builder).add(BID_HASH, "17.3");
+    int length = codec.end();
+    byte[] expected = msg.getMessageString().getBytes("UTF-8");
+    check(Arrays.equals(expected,
+			Arrays.copyOf(codec.getRequestBuffer(), length)),
+	  "request " + i + ": " + msg.getMessageString());
+    checkEquals(builder.toString(), bid.getBidString(), "bid string " + i);
+  }
+
+  // A quote reply written by the codec must decode to what was written
+  private void checkQuote(int i) throws Exception {
+    int auction = random.nextInt(1000);
+    int status = random.nextInt(4);
+    float ask = randomPrice();
+    float bid = randomPrice();
+    int hqw = random.nextInt(9);
+    long lastQuote = 1000000000L + random.nextInt(1000000);
+    MessageCodec codec = new MessageCodec(16);
+    codec.begin("getQuote").add(AUCTION_ID, auction)
+      .add(MessageCodec.bytes("auctionStatus"), status)
+      .add(MessageCodec.bytes("lastAskPrice"), ask)
+      .add(MessageCodec.bytes("lastBidPrice"), bid)
+      .add(MessageCodec.bytes("hypotheticalQuantityWon"), hqw)
+      .add(MessageCodec.bytes("lastQuoteTime"), lastQuote)
+      .add(MessageCodec.bytes("nextQuoteTime"), lastQuote + 60);
+    int length = codec.end();
+    byte[] reply = Arrays.copyOf(codec.getRequestBuffer(), length);
+
+    MessageCodec reader = new MessageCodec();
+    reader.setReply(reply, 0, length);
+    MessageCodec.QuoteReply quote = new MessageCodec.QuoteReply();
+    String name = "quote " + i;
+    check(reader.decodeQuote(quote), name + " decoded");
+    checkEquals(auction, quote.auctionID, name + " auction");
+    checkEquals(status, quote.auctionStatus, name + " status");
+    checkEquals(ask, quote.askPrice, name + " ask price");
+    checkEquals(bid, quote.bidPrice, name + " bid price");
+    checkEquals(hqw, quote.hqw, name + " HQW");
+    checkEquals(1000L * lastQuote, quote.lastQuoteTime, name + " last time");
+    checkEquals(1000L * (lastQuote + 60), quote.nextQuoteTime,
+		name + " next time");
+
+    // TACMessage must read the same values from the same reply
+    TACMessage msg = new TACMessage("getQuote");
+    msg.setReceivedMessage(reader.getReply());
+    while (msg.nextTag()) {
+      if (msg.isTag("lastAskPrice")) {
+	checkEquals(msg.getValueAsFloat(-1f), quote.askPrice,
+		    name + " TACMessage ask price");
+      } else if (msg.isTag("lastBidPrice")) {
+	checkEquals(msg.getValueAsFloat(-1f), quote.bidPrice,
+		    name + " TACMessage bid price");
+      } else if (msg.isTag("hypotheticalQuantityWon")) {
+	checkEquals(msg.getValueAsInt(-2), quote.hqw,
+		    name + " TACMessage HQW");
+      }
+    }
+  }
+
+  private void checkBidInfo(int i) throws Exception {
+    BidBuilder builder = randomBid(8 + random.nextInt(8));
+    Bid bid = builder.toBid();
+    bid.setBidHash(i + ".3");
+    int bidID = random.nextInt(100000);
+    MessageCodec codec = new MessageCodec(16);
+    codec.begin("bidInfo").add(BID_ID, bidID)
+      .add(AUCTION_ID, 100 + builder.getAuction())
+      .add(BID_STRING, builder).add(BID_HASH, i + ".3")
+      // The server sends 7 for transacted bids
+      .add(MessageCodec.bytes("processingState"),
+	   i % 2 == 0 ? Bid.VALID : 7)
+      .add(MessageCodec.bytes("rejectReason"), 0)
+      .add(MessageCodec.bytes("timeProcessed"), 1000000000L + i);
+    int length = codec.end();
+
+    MessageCodec reader = new MessageCodec();
+    reader.setReply(codec.getRequestBuffer(), 0, length);
+    MessageCodec.BidInfoReply info = new MessageCodec.BidInfoReply();
+    String name = "bid info " + i;
+    check(reader.decodeBidInfo(info), name + " decoded");
+    checkEquals(bidID, info.bidID, name + " bid ID");
+    checkEquals(100 + builder.getAuction(), info.auctionID,
+		name + " auction");
+    check(info.isSameBidString(bid), name + " same bid string");
+    check(info.isSameHash(bid), name + " same hash");
+    checkEquals(bid.getBidString(), info.getBidString(), name + " string");
+    checkEquals(i % 2 == 0 ? Bid.VALID : Bid.TRANSACTED,
+		info.getProcessingState(), name + " state");
+    checkEquals(1000000000L + i, info.timeProcessed, name + " time");
+  }
+
+  // Every subset of the values of a quote reply, applied to a quote
+  // through both update methods of QuoteRefresher and through applyTo
+  private void checkPartialQuotes() throws Exception {
+    String[] tags = {
+      "lastAskPrice", "lastBidPrice", "hypotheticalQuantityWon",
+      "auctionStatus", "lastQuoteTime", "nextQuoteTime"
+    };
+    QuoteRefresher refresher = new QuoteRefresher(createAgent(), null);
+    Method updateMessage = QuoteRefresher.class.getDeclaredMethod
+      ("update", Quote.class, TACMessage.class);
+    Method updateReply = QuoteRefresher.class.getDeclaredMethod
+      ("update", Quote.class, MessageCodec.QuoteReply.class);
+    updateMessage.setAccessible(true);
+    updateReply.setAccessible(true);
+    for (int set = 0; set < 1 << tags.length; set++) {
+      MessageCodec codec = new MessageCodec(16);
+      codec.begin("getQuote").add(AUCTION_ID, 12);
+      for (int t = 0; t < tags.length; t++) {
+	if ((set & (1 << t)) != 0) {
+	  byte[] tag = MessageCodec.bytes(tags[t]);
+	  if (t < 2) {
+	    codec.add(tag, randomPrice());
+	  } else if (t < 4) {
+	    codec.add(tag, random.nextInt(3));
+	  } else {
+	    codec.add(tag, 1000000000L + random.nextInt(1000));
+	  }
+	}
+      }
+      int length = codec.end();
+      MessageCodec reader = new MessageCodec();
+      reader.setReply(codec.getRequestBuffer(), 0, length);
+      MessageCodec.QuoteReply reply = new MessageCodec.QuoteReply();
+      reader.decodeQuote(reply);
+      TACMessage msg = new TACMessage("getQuote");
+      msg.setReceivedMessage(reader.getReply());
+
+      Quote byMessage = createQuote();
+      Quote byReply = createQuote();
+      Quote applied = createQuote();
+      updateMessage.invoke(refresher, byMessage, msg);
+      updateReply.invoke(refresher, byReply, reply);
+      reply.applyTo(applied);
+      String name = "partial quote " + set;
+      checkQuote(byMessage, byReply, name);
+      checkQuote(byMessage, applied, name + " applied");
+    }
+  }
+
+  // A quote with values that no reply above has
+  private static Quote createQuote() {
+    Quote quote = new Quote(12);
+    quote.setAskPrice(1234.5f);
+    quote.setBidPrice(1000.25f);
+    quote.setHQW(5);
+    quote.setAuctionStatus(Quote.AUCTION_INTERMEDIATE_CLEAR);
+    quote.setLastQuoteTime(17000L);
+    quote.setNextQuoteTime(77000L);
+    return quote;
+  }
+
+  private void checkQuote(Quote expected, Quote actual, String name) {
+    checkEquals(expected.getAskPrice(), actual.getAskPrice(),
+		name + " ask price");
+    checkEquals(expected.getBidPrice(), actual.getBidPrice(),
+		name + " bid price");
+    checkEquals(expected.getHQW(), actual.getHQW(), name + " HQW");
+    checkEquals(expected.getAuctionStatus(), actual.getAuctionStatus(),
+		name + " status");
+    checkEquals(expected.getLastQuoteTime(), actual.getLastQuoteTime(),
+		name + " last time");
+    checkEquals(expected.getNextQuoteTime(), actual.getNextQuoteTime(),
+		name + " next time");
+  }
+
+  private void checkError() {
+    MessageCodec codec = new MessageCodec();
+    byte[] reply = MessageCodec.bytes("<tacerror><commandStatus>4"
+				      + "</commandStatus></tacerror>");
+    codec.setReply(reply, 0, reply.length);
+    MessageCodec.QuoteReply quote = new MessageCodec.QuoteReply();
+    check(!codec.decodeQuote(quote), "error not decoded as quote");
+    check(quote.isError, "error reply");
+    checkEquals(4, quote.commandStatus, "error status");
+  }
+
+  private void checkValues() {
+    checkEquals(-42L, value("-42").getValueAsLong(0L), "negative long");
+    checkEquals(7, value("x7").getValueAsInt(7), "bad int default");
+    checkEquals(7, value("99999999999").getValueAsInt(7), "int overflow");
+    checkEquals(1500f, value("1.5e3").getValueAsFloat(0f), "exponent");
+    checkEquals(-0.25f, value("-0.25").getValueAsFloat(0f), "fraction");
+    checkEquals(3f, value("").getValueAsFloat(3f), "empty default");
+    checkEquals("a b", value("a b").getValue(), "string value");
+  }
+
+  // A reply with a single <v> element holding the value
+  private MessageCodec value(String value) {
+    MessageCodec codec = new MessageCodec();
+    byte[] reply = MessageCodec.bytes("<v>" + value + "</v>");
+    codec.setReply(reply, 0, reply.length);
+    codec.nextTag();
+    return codec;
+  }
+
+  // Replies written back to back must be read one by one, whatever
+  // pieces the stream returns them in
+  private void checkStream() throws Exception {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    MessageCodec writer = new MessageCodec(16);
+    String[] replies = new String[50];
+    for (int i = 0; i < replies.length; i++) {
+      writer.begin("bidInfo").add(BID_ID, i)
+	.add(BID_STRING, randomBid(8 + random.nextInt(8)));
+      writer.end();
+      writer.writeRequest(stream);
+      replies[i] = new String(writer.getRequestBuffer(), 0,
+			      writer.getRequestLength() - 1, "UTF-8");
+    }
+    final byte[] data = stream.toByteArray();
+    InputStream in = new ByteArrayInputStream(data) {
+	public int read(byte[] b, int off, int len) {
+	  return super.read(b, off, Math.min(len, 1 + random.nextInt(7)));
+	}
+      };
+    MessageCodec reader = new MessageCodec(16);
+    for (int i = 0; i < replies.length; i++) {
+      check(reader.readReply(in), "stream reply " + i + " read");
+      checkEquals(replies[i], reader.getReply(), "stream reply " + i);
+    }
+    check(!reader.readReply(in), "end of stream");
+  }
+
+  private BidBuilder randomBid(int auction) {
+    BidBuilder builder = new BidBuilder(2).begin(auction);
+    for (int i = 0, n = 1 + random.nextInt(6); i < n; i++) {
+      int quantity = 1 + random.nextInt(8);
+      builder.addBidPoint(auction >= TACAgent.MIN_ENTERTAINMENT
+			  && random.nextBoolean() ? -quantity : quantity,
+			  randomPrice());
+    }
+    return builder;
+  }
+
+  // Prices in whole cents, as the server sends them
+  private float randomPrice() {
+    return random.nextInt(100000) / 100f;
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "MessageCodecTest" });
+  }
+
+} // MessageCodecTest
@@ -0,0 +1,251 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * NioConnectionTest connects a NioConnection to a loopback server that
+ * only answers once it has read every request, so the requests must be
+ * pipelined. Each reply carries the sequence number of its request and
+ * must reach the receiver of that request: through MessageCodec for a
+ * MessageCodec.Receiver and as a parsed TACMessage otherwise. One
+ * request and one reply are larger than the connection buffers.
+ */
+
+package se.sics.tac.aw;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NioConnectionTest extends AgentTest {
+
+  private static final int NO_REQUESTS = 40;
+  private static final int LARGE = 20;
+  private static final int LARGE_SIZE = 150000;
+  private static final long TIMEOUT = 10000;
+
+  // Replies seen by the receivers, guarded by this object
+  private final int[] hqw = new int[NO_REQUESTS];
+  private final int[] auction = new int[NO_REQUESTS];
+  private final boolean[] isCodec = new boolean[NO_REQUESTS];
+  private int noReplies;
+
+  protected void run() throws Exception {
+    ServerSocket server =
+      new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    Server requests = new Server(server);
+    Thread serverThread = AgentThreads.start(requests, "test-server", true);
+
+    NioConnection connection = new NioConnection();
+    SocketChannel channel = SocketChannel.open
+      (new InetSocketAddress(server.getInetAddress(), server.getLocalPort()));
+    channel.configureBlocking(false);
+    Selector selector = Selector.open();
+    set(connection, TACConnection.class, "agent", createAgent());
+    set(connection, NioConnection.class, "channel", channel);
+    set(connection, NioConnection.class, "selector", selector);
+    set(connection, NioConnection.class, "key",
+	channel.register(selector, SelectionKey.OP_READ));
+    set(connection, NioConnection.class, "disconnected", Boolean.FALSE);
+    AgentThreads.start(connection, "tac-nio", true);
+
+    List<String> sent = new ArrayList<String>();
+    try {
+      for (int i = 0; i < NO_REQUESTS; i++) {
+	TACMessage msg = new TACMessage("getQuote");
+	msg.setParameter("auctionID", i % 28);
+	if (i == LARGE) {
+	  msg.setParameter("padding", repeat('p', LARGE_SIZE));
+	}
+	sent.add(msg.getMessageString());
+	connection.sendMessage(msg, i % 2 == 0 ? new CodecReceiver(i)
+			       : new PlainReceiver(i));
+      }
+      check(awaitReplies(), "all replies received");
+    } finally {
+      connection.disconnect();
+      server.close();
+    }
+    serverThread.join(TIMEOUT);
+
+    List<String> received = requests.getRequests();
+    checkEquals(NO_REQUESTS, received.size(), "requests read by server");
+    for (int i = 0; i < NO_REQUESTS && i < received.size(); i++) {
+      checkEquals(sent.get(i), received.get(i), "request " + i);
+    }
+    synchronized (this) {
+      checkEquals(NO_REQUESTS, noReplies, "replies");
+      for (int i = 0; i < NO_REQUESTS; i++) {
+	checkEquals(i, hqw[i], "reply to request " + i);
+	checkEquals(i % 28, auction[i], "auction of reply " + i);
+	checkEquals(i % 2 == 0, isCodec[i], "codec used for reply " + i);
+      }
+    }
+  }
+
+  private synchronized boolean awaitReplies() throws InterruptedException {
+    long end = System.currentTimeMillis() + TIMEOUT;
+    long left;
+    while (noReplies < NO_REQUESTS
+	   && (left = end - System.currentTimeMillis()) > 0) {
+      wait(left);
+    }
+    return noReplies == NO_REQUESTS;
+  }
+
+  private synchronized void replied(int request, int auctionID, int quantity,
+				    boolean isCodecReply) {
+    auction[request] = auctionID;
+    hqw[request] = quantity;
+    isCodec[request] = isCodecReply;
+    noReplies++;
+    notifyAll();
+  }
+
+  private static String repeat(char c, int n) {
+    StringBuilder sb = new StringBuilder(n);
+    for (int i = 0; i < n; i++) {
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  private static void set(Object target, Class<?> type, String name,
+			  Object value) throws Exception {
+    Field field = type.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Receivers
+  // -------------------------------------------------------------------
+
+  private class CodecReceiver implements MessageCodec.Receiver {
+
+    private final int request;
+    private final MessageCodec.QuoteReply reply =
+      new MessageCodec.QuoteReply();
+
+    CodecReceiver(int request) {
+      this.request = request;
+    }
+
+    public void replyReceived(TACMessage msg, MessageCodec codec) {
+      codec.decodeQuote(reply);
+      replied(request, reply.auctionID, reply.hqw, true);
+    }
+
+    public void messageReceived(TACMessage msg) {
+      new PlainReceiver(request).messageReceived(msg);
+    }
+  }
+
+  private class PlainReceiver implements TACMessageReceiver {
+
+    private final int request;
+
+    PlainReceiver(int request) {
+      this.request = request;
+    }
+
+    public void messageReceived(TACMessage msg) {
+      int auctionID = -1;
+      int quantity = -1;
+      while (msg.nextTag()) {
+	if (msg.isTag("auctionID")) {
+	  auctionID = msg.getValueAsInt(-1);
+	} else if (msg.isTag("hypotheticalQuantityWon")) {
+	  quantity = msg.getValueAsInt(-1);
+	}
+      }
+      replied(request, auctionID, quantity, false);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Loopback server
+  // -------------------------------------------------------------------
+
+  // Reads all requests before it answers any of them
+  private static class Server implements Runnable {
+
+    private final ServerSocket server;
+    private final List<String> requests = new ArrayList<String>();
+
+    Server(ServerSocket server) {
+      this.server = server;
+    }
+
+    synchronized List<String> getRequests() {
+      return new ArrayList<String>(requests);
+    }
+
+    public void run() {
+      try {
+	Socket socket = server.accept();
+	try {
+	  InputStream in = socket.getInputStream();
+	  ByteArrayOutputStream request = new ByteArrayOutputStream();
+	  List<String> read = new ArrayList<String>();
+	  int c;
+	  while (read.size() < NO_REQUESTS && (c = in.read()) >= 0) {
+	    request.write(c);
+	    if (c == 0) {
+	      read.add(request.toString("UTF-8"));
+	      request.reset();
+	    }
+	  }
+	  synchronized (this) {
+	    requests.addAll(read);
+	  }
+
+	  // All replies at once, so they arrive in few reads
+	  ByteArrayOutputStream replies = new ByteArrayOutputStream();
+	  for (int i = 0; i < read.size(); i++) {
+	    String r = read.get(i);
+	    String auction = r.substring(r.indexOf("<auctionID>") + 11,
+					 r.indexOf("</auctionID>"));
+	    String reply = "<getQuote><auctionID>" + auction
+	      + "</auctionID><auctionStatus>1</auctionStatus>"
+	      + "<lastAskPrice>12.5</lastAskPrice>"
+	      + (i == LARGE ? "<padding>" + repeat('q', LARGE_SIZE)
+		 + "</padding>" : "")
+	      + "<hypotheticalQuantityWon>" + i
+	      + "</hypotheticalQuantityWon></getQuote>\0";
+	    replies.write(reply.getBytes("UTF-8"));
+	  }
+	  OutputStream out = socket.getOutputStream();
+	  replies.writeTo(out);
+	  out.flush();
+	  // Wait for the client to close
+	  while (in.read() >= 0) {
+	  }
+	} finally {
+	  socket.close();
+	}
+      } catch (Exception e) {
+	// The test fails on the missing requests or replies
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "NioConnectionTest" });
+  }
+
+} // NioConnectionTest
@@ -0,0 +1,94 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * PackageTableTest changes random unit costs and checks that refresh()
+ * rescores exactly the packages that use a changed auction, and that
+ * the package costs and utilities are then those computed from the
+ * unit costs directly.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.Random;
+
+public class PackageTableTest extends AgentTest {
+
+  private static final int NO_PACKAGES = PackageTable.NO_PACKAGES;
+  private static final int NO_AUCTIONS = PackageTable.NO_TRAVEL_AUCTIONS;
+
+  protected void run() throws Exception {
+    Random random = new Random(31);
+    TACAgent agent = createAgent();
+    int[][] prefs = (int[][]) get(agent, "clientPrefs");
+    for (int c = 0; c < PackageTable.NO_CLIENTS; c++) {
+      prefs[c][TACAgent.ARRIVAL] = 1 + c % 4;
+      prefs[c][TACAgent.DEPARTURE] = 2 + c % 4;
+      prefs[c][TACAgent.HOTEL_VALUE] = 50 + 10 * c;
+    }
+    PackageTable packages = new PackageTable();
+    packages.gameStarted(agent);
+    checkEquals(NO_PACKAGES, packages.refresh(), "all rescored at start");
+    checkEquals(0, packages.refresh(), "none rescored twice");
+
+    float[] cost = new float[NO_AUCTIONS];
+    int[] available = new int[NO_AUCTIONS];
+    for (int round = 0; round < 200; round++) {
+      boolean[] changed = new boolean[NO_AUCTIONS];
+      for (int i = 0, n = random.nextInt(4); i < n; i++) {
+	int a = random.nextInt(NO_AUCTIONS);
+	// Half of the changes set the cost the auction already has
+	float c = random.nextBoolean() ? cost[a]
+	  : random.nextInt(80000) / 100f;
+	if (c != cost[a]) {
+	  changed[a] = true;
+	  cost[a] = c;
+	}
+	packages.setUnitCost(a, c);
+      }
+      int expected = 0;
+      for (int p = 0; p < NO_PACKAGES; p++) {
+	int[] auctions = PackageTable.getAuctions(p);
+	for (int i = 0; i < auctions.length; i++) {
+	  if (changed[auctions[i]]) {
+	    expected++;
+	    break;
+	  }
+	}
+      }
+      String name = "round " + round;
+      checkEquals(expected, packages.refresh(), name + " rescored");
+
+      for (int a = 0; a < NO_AUCTIONS; a++) {
+	available[a] = random.nextInt(2);
+      }
+      for (int p = 0; p < NO_PACKAGES; p++) {
+	int[] auctions = PackageTable.getAuctions(p);
+	int full = 0;
+	int needed = 0;
+	for (int i = 0; i < auctions.length; i++) {
+	  int unit = Math.round(cost[auctions[i]]);
+	  full += unit;
+	  if (available[auctions[i]] == 0) {
+	    needed += unit;
+	  }
+	}
+	checkEquals(full, packages.getPackageCost(p),
+		    name + " cost of package " + p);
+	for (int c = 0; c < PackageTable.NO_CLIENTS; c++) {
+	  checkEquals(packages.getBaseUtility(c, p) - needed,
+		      packages.getUtility(c, p, available),
+		      name + " utility of package " + p + " for " + c);
+	}
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "PackageTableTest" });
+  }
+
+} // PackageTableTest
@@ -0,0 +1,135 @@
+// TAC Agent Weir by Christopher Taylor
+//		 ct345
+//	   University of Bath
+//	Computer Science Department
+//	Agents Coursework 1, 2014-15
+
+/**
+ * TimeDispatcherTest schedules random tasks on a dispatcher with a
+ * manual clock, cancels some of them and then moves the clock forward
+ * in steps. Each step must run exactly the tasks that have become due,
+ * in order of time and, for the same time, in the order they were
+ * added, and no cancelled task may run. The heap is checked through
+ * getTaskCount() after every round of adding and cancelling.
+ */
+
+package se.sics.tac.aw;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class TimeDispatcherTest extends AgentTest implements Task {
+
+  private static final int TASKS = 5000;
+  private static final int KEYS = 300;
+  private static final long END_TIME = 1000;
+  private static final long STEP = 50;
+
+  /** Longest time to wait for the dispatcher to run the due tasks */
+  private static final long TIMEOUT = 10000;
+
+  private volatile long now;
+  private final ArrayList<Integer> done = new ArrayList<Integer>();
+
+  protected void run() throws Exception {
+    Random random = new Random(99);
+    TimeDispatcher dispatcher =
+      new TimeDispatcher("test timer", new TimeDispatcher.Clock() {
+	  public long currentTimeMillis() {
+	    return now;
+	  }
+	});
+    Object[] keys = new Object[KEYS];
+    for (int k = 0; k < KEYS; k++) {
+      keys[k] = "key" + k;
+    }
+    // A second task to cancel by, so that key and task are both used
+    Task other = new Task() {
+	public void performWork(long time, Object key, Object value) {
+	  TimeDispatcherTest.this.performWork(time, key, value);
+	}
+      };
+
+    long[] times = new long[TASKS];
+    int[] keyOf = new int[TASKS];
+    boolean[] isOther = new boolean[TASKS];
+    boolean[] cancelled = new boolean[TASKS];
+    int scheduled = 0;
+    for (int round = 0, added = 0; added < TASKS; round++) {
+      for (int i = 0; i < 100 && added < TASKS; i++, added++) {
+	// Few distinct times so that many tasks share a time
+	times[added] = 1 + random.nextInt((int) (END_TIME / 10)) * 10;
+	keyOf[added] = random.nextInt(KEYS);
+	isOther[added] = random.nextInt(4) == 0;
+	dispatcher.addTask(times[added], keys[keyOf[added]],
+			   Integer.valueOf(added),
+			   isOther[added] ? other : this);
+	scheduled++;
+      }
+      // Cancel all tasks of a key and one of the tasks
+      int k = random.nextInt(KEYS);
+      boolean cancelOther = random.nextBoolean();
+      dispatcher.cancelTask(keys[k], cancelOther ? other : this);
+      for (int i = 0; i < added; i++) {
+	if (!cancelled[i] && keyOf[i] == k && isOther[i] == cancelOther) {
+	  cancelled[i] = true;
+	  scheduled--;
+	}
+      }
+      checkEquals(scheduled, dispatcher.getTaskCount(),
+		  "tasks after round " + round);
+    }
+
+    int ran = 0;
+    for (long time = 0; time <= END_TIME + STEP; time += STEP) {
+      int expected = 0;
+      for (int i = 0; i < TASKS; i++) {
+	if (!cancelled[i] && times[i] <= time) {
+	  expected++;
+	}
+      }
+      now = time;
+      dispatcher.wakeUp();
+      awaitDone(expected);
+      // Give tasks that should not run yet a chance to run anyway
+      Thread.sleep(5);
+      synchronized (done) {
+	checkEquals(expected, done.size(), "tasks run at " + time);
+	for (int n = done.size(); ran < n; ran++) {
+	  int task = done.get(ran).intValue();
+	  check(!cancelled[task], "cancelled task " + task + " not run");
+	  check(times[task] <= time, "task " + task + " not run early");
+	  if (ran > 0) {
+	    int last = done.get(ran - 1).intValue();
+	    check(times[last] < times[task]
+		  || (times[last] == times[task] && last < task),
+		  "task " + task + " run after task " + last);
+	  }
+	}
+      }
+    }
+    checkEquals(0, dispatcher.getTaskCount(), "tasks left");
+  }
+
+  private void awaitDone(int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    synchronized (done) {
+      while (done.size() < expected
+	     && System.currentTimeMillis() < deadline) {
+	done.wait(10);
+      }
+    }
+  }
+
+  public void performWork(long time, Object key, Object value) {
+    synchronized (done) {
+      done.add((Integer) value);
+      done.notifyAll();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentTests.main(new String[] { "-filter", "TimeDispatcherTest" });
+  }
+
+} // TimeDispatcherTest